@@ -0,0 +1,102 @@
+package edu.escuelaing.arep;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how many connections per second the server takes on for each number of
+ * {@code --acceptors}: every operation opens a connection, sends one small request
+ * that asks the server to close it and reads the response. The scaling only shows on a
+ * machine with more cores than acceptors, the clients included.
+ *
+ * <p>Every combination runs in its own fork, so the static state of SimpleWebServer is
+ * never shared between servers.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Threads(16)
+@Fork(1)
+public class AcceptBenchmark {
+    private static final byte[] REQUEST = "GET /app/hello?name=bench HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"blocking", "nio"})
+    private String mode;
+
+    @Param({"1", "2", "4"})
+    private int acceptors;
+
+    private int port;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        String[] args = {"--port=" + port, "--mode=" + mode, "--acceptors=" + acceptors, "--threads=8",
+                "--access-log=off", "--backlog=1024"};
+        Thread server = new Thread(() -> {
+            try {
+                SimpleWebServer.main(args);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "server");
+        server.setDaemon(true);
+        server.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            try (Socket socket = new Socket("localhost", port)) {
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("The server did not start on port " + port);
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        SimpleWebServer.stop();
+    }
+
+    @Benchmark
+    public int connection() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            // Reset instead of lingering in TIME_WAIT, so the run does not run out of ports.
+            socket.setSoLinger(true, 0);
+            socket.getOutputStream().write(REQUEST);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String status = HttpLines.readLine(in);
+            if (status == null || !status.startsWith("HTTP/1.1 200")) {
+                throw new IOException("Unexpected response: " + status);
+            }
+            return HttpLines.readHeaders(in).size();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package edu.escuelaing.arep;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ClientHandler#getContentType} over a mix of file names, so the
+ * extension checks are not all answered by the first branch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentTypeBenchmark {
+
+    private static final String[] FILES = {
+        "/index.html", "/style.css", "/js/app.js", "/spiderman.jpg", "/img/logo.png", "/robots.txt", "/docs/guide.html", "/favicon.ico"
+    };
+
+    private int next;
+
+    @Benchmark
+    public String getContentType() {
+        String file = FILES[next++ & (FILES.length - 1)];
+        return ClientHandler.getContentType(file);
+    }
+}
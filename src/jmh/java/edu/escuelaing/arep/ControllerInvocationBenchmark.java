@@ -0,0 +1,78 @@
+package edu.escuelaing.arep;
+
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.escuelaing.arep.annotations.RequestParam;
+
+/**
+ * Compares the precompiled {@link ControllerInvoker} with the reflective dispatch it
+ * replaced: a controller lookup by class name, {@code getParameters()} and
+ * {@code getAnnotation(RequestParam.class)} per parameter, and {@code Method.invoke}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControllerInvocationBenchmark {
+
+    private final Map<String, String> queryParams = new HashMap<>();
+    private final Map<String, Object> controllers = new HashMap<>();
+    private final InputStream noBody = InputStream.nullInputStream();
+    private Method method;
+    private ControllerInvoker invoker;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        HelloService controller = new HelloService();
+        controllers.put(HelloService.class.getName(), controller);
+        method = HelloService.class.getMethod("hello", String.class);
+        invoker = ControllerInvoker.create(controller, method, new Metrics().route("GET", "/app/hello"));
+        queryParams.put("name", "bench");
+    }
+
+    @Benchmark
+    public Object precompiled() throws Exception {
+        return invoker.invoke(queryParams, Collections.emptyMap(), noBody);
+    }
+
+    @Benchmark
+    public Object reflective() throws ReflectiveOperationException {
+        Object controller = controllers.get(method.getDeclaringClass().getName());
+        Parameter[] parameters = method.getParameters();
+        Object[] args = new Object[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            RequestParam requestParam = parameters[i].getAnnotation(RequestParam.class);
+            if (requestParam != null) {
+                String paramValue = queryParams.get(requestParam.value());
+                if (paramValue == null || paramValue.isEmpty()) {
+                    paramValue = requestParam.defaultValue();
+                }
+                if (parameters[i].getType() == int.class) {
+                    args[i] = Integer.parseInt(paramValue);
+                } else {
+                    args[i] = paramValue;
+                }
+            }
+        }
+        return method.invoke(controller, args);
+    }
+}
@@ -0,0 +1,161 @@
+package edu.escuelaing.arep;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Starts the server in the benchmark JVM and sends real requests to it over loopback
+ * from several client threads. {@code keepAlive} reuses one connection per thread;
+ * {@code newConnection} opens a connection per request and asks the server to close
+ * it. Each benchmark reports throughput and, in sample mode, the latency
+ * percentiles (see the {@code p0.99} line).
+ *
+ * <p>Every combination of {@code mode} and {@code target} runs in its own fork, so the
+ * static state of SimpleWebServer is never shared between servers.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Threads(8)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @Param({"blocking", "nio"})
+    private String mode;
+
+    @Param({"/index.html", "/app/hello?name=bench"})
+    private String target;
+
+    private int port;
+    private byte[] keepAliveRequest;
+    private byte[] closeRequest;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        String[] args = {"--port=" + port, "--mode=" + mode, "--threads=16", "--access-log=off"};
+        Thread server = new Thread(() -> {
+            try {
+                SimpleWebServer.main(args);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "server");
+        server.setDaemon(true);
+        server.start();
+        waitUntilListening();
+
+        keepAliveRequest = ("GET " + target + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        closeRequest = ("GET " + target + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        SimpleWebServer.stop();
+    }
+
+    /**
+     * The connection of one client thread.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        private Socket socket;
+        private OutputStream out;
+        private InputStream in;
+
+        void connect(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            out = socket.getOutputStream();
+            in = new BufferedInputStream(socket.getInputStream());
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            if (socket != null) {
+                socket.close();
+            }
+        }
+    }
+
+    @Benchmark
+    public int keepAlive(Client client) throws IOException {
+        if (client.socket == null) {
+            client.connect(port);
+        }
+        client.out.write(keepAliveRequest);
+        client.out.flush();
+        Map<String, String> headers = readResponse(client.in);
+        if ("close".equals(headers.get("connection"))) {
+            // The server closes a connection after MAX_KEEP_ALIVE_REQUESTS requests.
+            client.close();
+            client.socket = null;
+        }
+        return headers.size();
+    }
+
+    @Benchmark
+    public int newConnection() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            // Reset instead of lingering in TIME_WAIT, so the run does not run out of ports.
+            socket.setSoLinger(true, 0);
+            socket.getOutputStream().write(closeRequest);
+            return readResponse(new BufferedInputStream(socket.getInputStream())).size();
+        }
+    }
+
+    /**
+     * Reads one response, skipping its body.
+     *
+     * @return the response headers.
+     */
+    private static Map<String, String> readResponse(InputStream in) throws IOException {
+        String status = HttpLines.readLine(in);
+        if (status == null || !status.startsWith("HTTP/1.1 200")) {
+            throw new IOException("Unexpected response: " + status);
+        }
+        Map<String, String> headers = HttpLines.readHeaders(in);
+        int length = Integer.parseInt(headers.get("content-length"));
+        in.skipNBytes(length);
+        return headers;
+    }
+
+    private void waitUntilListening() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            try (Socket socket = new Socket("localhost", port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("The server did not start on port " + port);
+    }
+}
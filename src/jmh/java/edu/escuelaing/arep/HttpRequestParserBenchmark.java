@@ -0,0 +1,81 @@
+package edu.escuelaing.arep;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link HttpRequestParser} with the line-based parsing it replaced: a
+ * {@code BufferedInputStream} read byte by byte into {@code readLine}, a
+ * {@code split(" ")} of the request line and {@code split("&")}/{@code split("=")} of
+ * the query. Run with {@code -Djmh.include="HttpRequestParserBenchmark -prof gc"} to
+ * see the bytes allocated per request ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpRequestParserBenchmark {
+
+    private static final String REQUEST = "GET /app/hello?name=sebas&lang=es HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+            + "Accept-Language: es-CO,es;q=0.8,en-US;q=0.5,en;q=0.3\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Connection: keep-alive\r\n"
+            + "\r\n";
+
+    private final HttpRequestParser parser = new HttpRequestParser();
+    private byte[] bytes;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        bytes = REQUEST.getBytes(StandardCharsets.US_ASCII);
+        buffer = ByteBuffer.wrap(bytes);
+    }
+
+    @Benchmark
+    public Map<String, String> parser() throws IOException {
+        buffer.clear();
+        HttpRequest request = parser.parse(buffer);
+        return request.queryParams();
+    }
+
+    @Benchmark
+    public Map<String, String> legacy() throws IOException {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(bytes));
+        String requestLine = HttpLines.readLine(in);
+        String[] tokens = requestLine.split(" ");
+        Map<String, String> headers = HttpLines.readHeaders(in);
+        Map<String, String> queryParams = new HashMap<>();
+        String[] pathParts = tokens[1].split("\\?");
+        if (pathParts.length > 1) {
+            for (String pair : pathParts[1].split("&")) {
+                String[] keyValue = pair.split("=");
+                queryParams.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "");
+            }
+        }
+        return headers.isEmpty() ? null : queryParams;
+    }
+}
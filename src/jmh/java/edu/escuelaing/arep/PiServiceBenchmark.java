@@ -0,0 +1,44 @@
+package edu.escuelaing.arep;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link PiService#pi} for a range of {@code decimals}, calling the controller
+ * directly so the cost of the computation is not hidden by request handling.
+ * {@code cached} is the steady state, served from the digits the engine keeps;
+ * {@code compute} runs the Chudnovsky computation from scratch each time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PiServiceBenchmark {
+
+    @Param({"2", "15", "100", "1000", "10000"})
+    private int decimals;
+
+    private final PiService service = new PiService();
+
+    @Benchmark
+    public String cached() {
+        return service.pi(decimals);
+    }
+
+    @Benchmark
+    public String compute() {
+        return PiEngine.compute(decimals + 1);
+    }
+}
@@ -0,0 +1,111 @@
+package edu.escuelaing.arep;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures writing a complete response with {@link ClientHandler#sendResponse}: a small
+ * controller answer and a large one, into the {@link ResponseOutput.Blocking} output of
+ * the thread-per-connection mode (discarding the bytes) and into the
+ * {@link ResponseOutput.Queued} output of the NIO mode, drained the way its event loop
+ * drains it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseWriterBenchmark {
+
+    @Param({"16", "32768"})
+    private int bodySize;
+
+    private final ClientHandler handler = new ClientHandler(null);
+    private final ResponseOutput blocking = new ResponseOutput.Blocking(Channels.newChannel(OutputStream.nullOutputStream()));
+    private final NullChannel channel = new NullChannel();
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'x');
+    }
+
+    @Benchmark
+    public long blocking() throws IOException {
+        handler.sendResponse(blocking, "200 OK", "text/plain", body, true);
+        blocking.flush();
+        return blocking.bytesWritten();
+    }
+
+    @Benchmark
+    public long queued() throws IOException {
+        ResponseOutput.Queued out = new ResponseOutput.Queued();
+        handler.sendResponse(out, "200 OK", "text/plain", body, true);
+        out.writeTo(channel);
+        return channel.written;
+    }
+
+    @Benchmark
+    public long notFound() throws IOException {
+        handler.sendResponse(blocking, "404 Not Found", "text/plain", new byte[0], true);
+        blocking.flush();
+        return blocking.bytesWritten();
+    }
+
+    /**
+     * A socket-like channel that accepts everything, with gathering writes.
+     */
+    private static final class NullChannel implements GatheringByteChannel {
+        long written;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            written += n;
+            return n;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long n = 0;
+            for (int i = offset; i < offset + length; i++) {
+                n += write(srcs[i]);
+            }
+            return n;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package edu.escuelaing.arep;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures serving a static file: {@code served} runs the whole GET path of
+ * {@link ClientHandler#processRequest} (cache lookup, headers and body) into an output
+ * that discards the bytes, and {@code readFileData} reads the file into a byte array
+ * with {@code Files.readAllBytes}, the way every request did before the
+ * {@link StaticResourceCache}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StaticResourceBenchmark {
+
+    @Param({"/index.html", "/spiderman.jpg"})
+    private String file;
+
+    private final ClientHandler handler = new ClientHandler(null);
+    private final ResponseOutput out = new ResponseOutput.Blocking(Channels.newChannel(OutputStream.nullOutputStream()));
+    private byte[] request;
+
+    @Setup
+    public void setUp() {
+        SimpleWebServer.accessLog = new AccessLog(AccessLog.Level.OFF, 1, 2, AccessLog.standardOutput());
+        SimpleWebServer.staticResources = new StaticResourceCache(Paths.get(SimpleWebServer.WEB_ROOT),
+                StaticResourceCache.DEFAULT_MAX_BYTES);
+        request = ("GET " + file + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public long served() throws IOException {
+        HttpRequest parsed = new HttpRequestParser().parse(ByteBuffer.wrap(request));
+        handler.processRequest(parsed, InputStream.nullInputStream(), out, true);
+        out.flush();
+        return out.bytesWritten();
+    }
+
+    @Benchmark
+    public byte[] readFileData() throws IOException {
+        return Files.readAllBytes(Paths.get(SimpleWebServer.WEB_ROOT, file));
+    }
+}
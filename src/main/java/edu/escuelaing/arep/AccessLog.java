@@ -0,0 +1,352 @@
+package edu.escuelaing.arep;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The AccessLog class records one structured line per request without making the
+ * request wait for the console. Request threads only claim a slot in a preallocated
+ * ring buffer with a compare-and-set and fill it in; a single background thread
+ * formats the entries and writes them to a {@link Sink}. When the ring is full the
+ * entry is dropped and counted instead of blocking the request.
+ *
+ * <p>Lines are written as space-separated {@code key=value} pairs, for example:</p>
+ * <pre>
+ * ts=2024-08-17T10:15:30.123Z method=GET path=/app/hello status=200 bytes=10 latency_us=84
+ * </pre>
+ *
+ * <p>The {@link Level} decides what is recorded: {@code ERROR} only keeps responses with
+ * a 5xx status, {@code INFO} keeps every request and {@code DEBUG} adds free-form
+ * messages such as the request headers and controller results. At {@code INFO} and
+ * {@code DEBUG} a sample rate of N keeps about one request in N; 5xx responses are
+ * always kept.</p>
+ */
+final class AccessLog {
+    static final int DEFAULT_CAPACITY = 8192;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * What the access log records.
+     */
+    enum Level {
+        OFF, ERROR, INFO, DEBUG
+    }
+
+    /**
+     * The destination of the formatted lines. It is only called from the log's
+     * background thread.
+     */
+    interface Sink {
+        /**
+         * Writes one line, without its terminator.
+         *
+         * @param line the formatted entry.
+         * @throws IOException if the line cannot be written.
+         */
+        void write(String line) throws IOException;
+
+        /**
+         * Flushes the lines written so far. Called whenever the ring has been drained.
+         *
+         * @throws IOException if the lines cannot be flushed.
+         */
+        void flush() throws IOException;
+    }
+
+    private final Level level;
+    private final int sampleRate;
+    private final Sink sink;
+    private final Entry[] entries;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private long head;
+    private volatile boolean running;
+
+    /**
+     * Constructs a new AccessLog. Entries are only written once {@link #start()} has
+     * been called.
+     *
+     * @param level what to record.
+     * @param sampleRate keep about one request in this many; 1 keeps them all.
+     * @param capacity the number of entries the ring can hold, rounded up to a power of two.
+     * @param sink where the formatted lines go.
+     */
+    AccessLog(Level level, int sampleRate, int capacity, Sink sink) {
+        this.level = level;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.sink = sink;
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.entries = new Entry[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry();
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Creates the access log described by the command-line arguments
+     * {@code --access-log=off|error|info|debug} (default info) and
+     * {@code --access-log-sample=N} (default 1), writing to standard output.
+     *
+     * @param args the command-line arguments.
+     * @return the access log, already started.
+     */
+    static AccessLog create(String[] args) {
+        Level level = Level.valueOf(SimpleWebServer.option(args, "access-log", "info").toUpperCase(Locale.ROOT));
+        int sampleRate = Integer.parseInt(SimpleWebServer.option(args, "access-log-sample", "1"));
+        AccessLog log = new AccessLog(level, sampleRate, DEFAULT_CAPACITY, standardOutput());
+        log.start();
+        return log;
+    }
+
+    /**
+     * Returns a sink that writes to {@code System.out} through its own buffer, so the
+     * stream's lock is only taken once per drained batch, by the background thread.
+     *
+     * @return the standard output sink.
+     */
+    static Sink standardOutput() {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 16 * 1024);
+        return new Sink() {
+            @Override
+            public void write(String line) throws IOException {
+                out.write(line);
+                out.write('\n');
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+        };
+    }
+
+    /**
+     * Starts the background thread that writes the entries.
+     */
+    void start() {
+        if (running || level == Level.OFF) {
+            return;
+        }
+        running = true;
+        Thread writer = new Thread(() -> {
+            while (running) {
+                if (drain() == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+            drain();
+        }, "access-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops the background thread after it has written what is already in the ring.
+     */
+    void stop() {
+        running = false;
+    }
+
+    /**
+     * Records a finished request, subject to the level and the sample rate.
+     *
+     * @param method the request method, or "-" if the request could not be parsed.
+     * @param path the request path, or "-" if the request could not be parsed.
+     * @param status the response status code.
+     * @param bytes the number of response bytes, headers included.
+     * @param latencyNanos the time spent handling the request, in nanoseconds.
+     */
+    void log(String method, String path, int status, long bytes, long latencyNanos) {
+        if (!isLogged(status)) {
+            return;
+        }
+        long position = claim();
+        if (position < 0) {
+            return;
+        }
+        Entry entry = entries[(int) position & mask];
+        entry.timestamp = System.currentTimeMillis();
+        entry.method = method;
+        entry.path = path;
+        entry.status = status;
+        entry.bytes = bytes;
+        entry.latencyMicros = latencyNanos / 1000;
+        entry.message = null;
+        sequences.lazySet((int) position & mask, position + 1);
+    }
+
+    /**
+     * Records a free-form message when the level is {@code DEBUG}. Callers building an
+     * expensive message should check {@link #isDebugEnabled()} first.
+     *
+     * @param message the message.
+     */
+    void debug(String message) {
+        if (!isDebugEnabled()) {
+            return;
+        }
+        long position = claim();
+        if (position < 0) {
+            return;
+        }
+        Entry entry = entries[(int) position & mask];
+        entry.timestamp = System.currentTimeMillis();
+        entry.message = message;
+        sequences.lazySet((int) position & mask, position + 1);
+    }
+
+    /**
+     * Tells whether debug messages are recorded.
+     *
+     * @return true if the level is {@code DEBUG}.
+     */
+    boolean isDebugEnabled() {
+        return level == Level.DEBUG;
+    }
+
+    /**
+     * Returns the number of entries dropped because the ring was full.
+     *
+     * @return the number of dropped entries.
+     */
+    long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes every published entry to the sink. Only the background thread, or a
+     * test that has not started it, may call this.
+     *
+     * @return the number of entries written.
+     */
+    int drain() {
+        int count = 0;
+        while (true) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            String line = entries[index].format();
+            sequences.lazySet(index, head + entries.length);
+            head++;
+            count++;
+            try {
+                sink.write(line);
+            } catch (IOException e) {
+                // There is nowhere left to report a failing log sink.
+            }
+        }
+        if (count > 0) {
+            try {
+                sink.flush();
+            } catch (IOException e) {
+                // Same as above.
+            }
+        }
+        return count;
+    }
+
+    private boolean isLogged(int status) {
+        switch (level) {
+            case OFF:
+                return false;
+            case ERROR:
+                return status >= 500;
+            default:
+                return status >= 500 || sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+        }
+    }
+
+    /**
+     * Claims the next free slot of the ring.
+     *
+     * @return the position of the slot, or -1 if the ring is full.
+     */
+    private long claim() {
+        long position = tail.get();
+        while (true) {
+            long available = sequences.get((int) position & mask) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = tail.get();
+            } else if (available < 0) {
+                dropped.increment();
+                return -1;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * A preallocated slot of the ring.
+     */
+    private static final class Entry {
+        private long timestamp;
+        private String method;
+        private String path;
+        private int status;
+        private long bytes;
+        private long latencyMicros;
+        private String message;
+
+        String format() {
+            StringBuilder line = new StringBuilder(128).append("ts=").append(Instant.ofEpochMilli(timestamp));
+            if (message != null) {
+                return line.append(' ').append(message).toString();
+            }
+            line.append(" method=").append(method).append(" path=");
+            appendValue(line, path);
+            return line.append(" status=").append(status)
+                    .append(" bytes=").append(bytes)
+                    .append(" latency_us=").append(latencyMicros)
+                    .toString();
+        }
+
+        /**
+         * Appends a value, quoting it when it contains characters that would break the
+         * key=value format, as a decoded path can.
+         */
+        private static void appendValue(StringBuilder line, String value) {
+            boolean plain = !value.isEmpty();
+            for (int i = 0; i < value.length() && plain; i++) {
+                char c = value.charAt(i);
+                plain = c > ' ' && c != '"' && c != '\\' && c != 0x7f;
+            }
+            if (plain) {
+                line.append(value);
+                return;
+            }
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    line.append('\\').append(c);
+                } else if (c < ' ' || c == 0x7f) {
+                    line.append(String.format("\\u%04x", (int) c));
+                } else {
+                    line.append(c);
+                }
+            }
+            line.append('"');
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package edu.escuelaing.arep;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The AdmissionControl class decides which connections and requests the server takes
+ * on, so that an overloaded server answers quickly with a 503 instead of making every
+ * client wait. It is configured from the command line of SimpleWebServer:
+ *
+ * <ul>
+ *   <li><strong>--backlog=N:</strong> the length of the listening socket's accept queue (default 50).</li>
+ *   <li><strong>--max-connections=N:</strong> connections beyond this many are answered with a 503
+ *   and closed as soon as they are accepted (default 10000).</li>
+ *   <li><strong>--idle-timeout-ms=N:</strong> how long a connection may wait for its next request
+ *   (default {@link SimpleWebServer#KEEP_ALIVE_TIMEOUT}); it is advertised in the {@code Keep-Alive} header.</li>
+ *   <li><strong>--read-timeout-ms=N:</strong> how long a client may take to send a request once it
+ *   has started it (default 10 seconds).</li>
+ *   <li><strong>--write-timeout-ms=N:</strong> how long a client may go without reading any of its
+ *   response (default 10 seconds).</li>
+ *   <li><strong>--shed-target-ms=N</strong> and <strong>--shed-interval-ms=N:</strong> the queueing
+ *   delay targets of the load shedding described below (default 20 and 200); a target of 0 turns
+ *   shedding off.</li>
+ * </ul>
+ *
+ * <p>Load shedding follows the controlled delay (CoDel) approach: every request or new
+ * connection records when it was handed to the worker pool, and {@link #admit} compares
+ * how long it waited with the targets. While the pool keeps up, some task starts within
+ * the target delay at least once per interval, and only a task that waited longer than
+ * the whole interval is shed, so short bursts are absorbed. Once no task has started
+ * within the target for a whole interval, the queue is standing rather than bursting,
+ * and every task that waited longer than the target is shed. Shed tasks only write a
+ * preencoded 503 with {@code Retry-After}, so the queue drains fast and the requests
+ * that are admitted wait at most about the target.</p>
+ */
+final class AdmissionControl {
+    static final int DEFAULT_BACKLOG = 50;
+    static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+    static final int DEFAULT_READ_TIMEOUT = 10_000;
+    static final int DEFAULT_WRITE_TIMEOUT = 10_000;
+
+    final int backlog;
+    final int maxConnections;
+    final int idleTimeoutMillis;
+    final int readTimeoutMillis;
+    final int writeTimeoutMillis;
+    private final long targetNanos;
+    private final long intervalNanos;
+    private final byte[] keepAliveHeaders;
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger waitingConnections = new AtomicInteger();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder shedTasks = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    /** The last time a task started within the target delay, from {@link System#nanoTime}. */
+    private volatile long lastOnTime = System.nanoTime();
+
+    private final Set<ResponseOutput.Blocking> writers = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService watchdog;
+
+    /**
+     * Constructs a new AdmissionControl.
+     *
+     * @param backlog the accept queue length of the listening socket.
+     * @param maxConnections the most connections open at the same time.
+     * @param idleTimeoutMillis how long a connection may wait for its next request.
+     * @param readTimeoutMillis how long a client may take to send a started request.
+     * @param writeTimeoutMillis how long a client may go without reading its response.
+     * @param targetMillis the acceptable queueing delay, or 0 to never shed.
+     * @param intervalMillis how long the delay may stay above the target before it counts as overload.
+     */
+    AdmissionControl(int backlog, int maxConnections, int idleTimeoutMillis, int readTimeoutMillis,
+                     int writeTimeoutMillis, long targetMillis, long intervalMillis) {
+        this.backlog = backlog;
+        this.maxConnections = maxConnections;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(targetMillis, intervalMillis));
+        this.keepAliveHeaders = ("Connection: keep-alive\r\nKeep-Alive: timeout=" + idleTimeoutMillis / 1000
+                + ", max=" + SimpleWebServer.MAX_KEEP_ALIVE_REQUESTS + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Creates the admission control described by the command-line arguments.
+     *
+     * @param args the command-line arguments.
+     * @return the admission control, with its write watchdog started.
+     */
+    static AdmissionControl create(String[] args) {
+        AdmissionControl admission = new AdmissionControl(
+                Integer.parseInt(SimpleWebServer.option(args, "backlog", String.valueOf(DEFAULT_BACKLOG))),
+                Integer.parseInt(SimpleWebServer.option(args, "max-connections", String.valueOf(DEFAULT_MAX_CONNECTIONS))),
+                Integer.parseInt(SimpleWebServer.option(args, "idle-timeout-ms", String.valueOf(SimpleWebServer.KEEP_ALIVE_TIMEOUT))),
+                Integer.parseInt(SimpleWebServer.option(args, "read-timeout-ms", String.valueOf(DEFAULT_READ_TIMEOUT))),
+                Integer.parseInt(SimpleWebServer.option(args, "write-timeout-ms", String.valueOf(DEFAULT_WRITE_TIMEOUT))),
+                Long.parseLong(SimpleWebServer.option(args, "shed-target-ms", "20")),
+                Long.parseLong(SimpleWebServer.option(args, "shed-interval-ms", "200")));
+        admission.start();
+        return admission;
+    }
+
+    /**
+     * Returns the defaults, as used before the server starts and by tests.
+     *
+     * @return an admission control with the default settings and no watchdog.
+     */
+    static AdmissionControl defaults() {
+        return new AdmissionControl(DEFAULT_BACKLOG, DEFAULT_MAX_CONNECTIONS, SimpleWebServer.KEEP_ALIVE_TIMEOUT,
+                DEFAULT_READ_TIMEOUT, DEFAULT_WRITE_TIMEOUT, 20, 200);
+    }
+
+    /**
+     * Starts the thread that closes blocking connections whose client has stopped
+     * reading for longer than the write timeout.
+     */
+    synchronized void start() {
+        if (watchdog != null) {
+            return;
+        }
+        watchdog = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "write-timeout-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(100, writeTimeoutMillis / 4);
+        watchdog.scheduleWithFixedDelay(this::closeStalledWriters, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the watchdog thread.
+     */
+    synchronized void stop() {
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+            watchdog = null;
+        }
+    }
+
+    /**
+     * Counts a newly accepted connection, unless the limit has been reached.
+     *
+     * @return true if the connection may be served; it must then be released with
+     *         {@link #connectionClosed}. False if it has to be turned away.
+     */
+    boolean tryOpenConnection() {
+        while (true) {
+            int open = openConnections.get();
+            if (open >= maxConnections) {
+                rejectedConnections.increment();
+                return false;
+            }
+            if (openConnections.compareAndSet(open, open + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases a connection counted by {@link #tryOpenConnection}.
+     */
+    void connectionClosed() {
+        openConnections.decrementAndGet();
+    }
+
+    /**
+     * Counts a blocking connection handed to the executor, until {@link #connectionStarted}.
+     */
+    void connectionQueued() {
+        waitingConnections.incrementAndGet();
+    }
+
+    /**
+     * Counts a connection passed to {@link #connectionQueued} as no longer waiting for a thread.
+     */
+    void connectionStarted() {
+        waitingConnections.decrementAndGet();
+    }
+
+    /**
+     * Tells whether blocking connections are waiting for a thread, in which case a
+     * connection that is only waiting for its next request should give its thread up.
+     *
+     * @return true if a connection is queued.
+     */
+    boolean hasWaitingConnections() {
+        return waitingConnections.get() > 0;
+    }
+
+    /**
+     * Decides whether a task that has just been taken from the worker queue should run
+     * or be answered with a 503, see the class description.
+     *
+     * @param enqueuedAt when the task was handed to the pool, from {@link System#nanoTime}.
+     * @return true if the task should run.
+     */
+    boolean admit(long enqueuedAt) {
+        return admit(enqueuedAt, System.nanoTime());
+    }
+
+    /**
+     * Decides whether a task should run, as {@link #admit(long)} does, at a given time.
+     *
+     * @param enqueuedAt when the task was handed to the pool.
+     * @param now the current time, from the same clock.
+     * @return true if the task should run.
+     */
+    boolean admit(long enqueuedAt, long now) {
+        if (targetNanos == 0) {
+            return true;
+        }
+        long delay = now - enqueuedAt;
+        if (delay <= targetNanos) {
+            lastOnTime = now;
+            return true;
+        }
+        long limit = now - lastOnTime > intervalNanos ? targetNanos : intervalNanos;
+        if (delay > limit) {
+            shedTasks.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts a connection closed because its client was too slow.
+     */
+    void timedOut() {
+        timeouts.increment();
+    }
+
+    /**
+     * Returns the {@code Connection} and {@code Keep-Alive} header lines of a persistent
+     * response, advertising the idle timeout, followed by the end of the headers.
+     *
+     * @return the encoded lines; must not be modified.
+     */
+    byte[] keepAliveHeaders() {
+        return keepAliveHeaders;
+    }
+
+    /**
+     * Starts watching the writes of a blocking connection for the write timeout.
+     *
+     * @param out the connection's output.
+     */
+    void watch(ResponseOutput.Blocking out) {
+        writers.add(out);
+    }
+
+    /**
+     * Stops watching a connection passed to {@link #watch}.
+     *
+     * @param out the connection's output.
+     */
+    void unwatch(ResponseOutput.Blocking out) {
+        writers.remove(out);
+    }
+
+    private void closeStalledWriters() {
+        long now = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        for (ResponseOutput.Blocking out : writers) {
+            if (out.isWriteStalled(now, timeoutNanos)) {
+                writers.remove(out);
+                timedOut();
+                out.abort();
+            }
+        }
+    }
+
+    /**
+     * Registers the admission counters served on {@link Metrics#PATH}.
+     *
+     * @param metrics where to register them.
+     */
+    void registerMetrics(Metrics metrics) {
+        metrics.gauge("arep_max_connections", "Connections accepted before new ones are turned away.", () -> maxConnections);
+        metrics.counter("arep_rejected_connections_total", "Connections turned away because of the connection limit.",
+                rejectedConnections::sum);
+        metrics.counter("arep_shed_total", "Requests or connections answered with a 503 because they waited too long.",
+                shedTasks::sum);
+        metrics.counter("arep_timed_out_connections_total", "Connections closed because of a read or write timeout.",
+                timeouts::sum);
+    }
+}
@@ -0,0 +1,283 @@
+package edu.escuelaing.arep;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The BufferPool class lends out the buffers that connections read requests into and
+ * write responses from, so serving a request does not allocate them again and again.
+ * Buffers come in power-of-two size classes from {@link #MIN_SIZE} to {@link #MAX_SIZE};
+ * a request for another size is served by a plain allocation that is not kept when it
+ * is released.
+ *
+ * <p>Each thread keeps a few released buffers of every class for itself, so a worker
+ * or event loop that borrows and returns buffers as it serves requests does so without
+ * touching shared state. Beyond that, buffers go back to a lock-free queue per class
+ * that all threads share, up to {@link #MAX_BYTES_PER_CLASS}; the rest are left to the
+ * garbage collector.</p>
+ *
+ * <p>{@link #DIRECT} holds direct buffers, which a channel reads into and writes from
+ * without an intermediate copy. {@link #HEAP} holds heap buffers for input read
+ * through an {@link java.io.InputStream}, which needs an array.</p>
+ *
+ * <p>When the {@code arep.buffers.trackLeaks} system property is true, as it is under
+ * the tests, the pool remembers where every buffer still lent out was acquired, see
+ * {@link #leaks()}, and rejects a buffer released twice.</p>
+ */
+final class BufferPool {
+    static final int MIN_SIZE = 4 * 1024;
+    static final int MAX_SIZE = 64 * 1024;
+    /** The buffers of each class a thread keeps for itself. */
+    static final int THREAD_CACHE_SIZE = 4;
+    /** The bytes of each class kept in the shared queue. */
+    static final int MAX_BYTES_PER_CLASS = 4 * 1024 * 1024;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+    private static final boolean TRACK_LEAKS = Boolean.getBoolean("arep.buffers.trackLeaks");
+
+    static final BufferPool DIRECT = new BufferPool(true, TRACK_LEAKS);
+    static final BufferPool HEAP = new BufferPool(false, TRACK_LEAKS);
+
+    private final boolean direct;
+    private final ThreadLocal<ThreadCache> threadCaches = ThreadLocal.withInitial(ThreadCache::new);
+    private final SizeClass[] classes = new SizeClass[CLASSES];
+    /** Where each buffer still lent out was acquired, or null when leaks are not tracked. Guarded by itself. */
+    private final Map<ByteBuffer, Throwable> outstanding;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    /**
+     * Constructs a new BufferPool.
+     *
+     * @param direct true to lend out direct buffers, false for heap buffers.
+     * @param trackLeaks true to record where every buffer lent out was acquired.
+     */
+    BufferPool(boolean direct, boolean trackLeaks) {
+        this.direct = direct;
+        for (int i = 0; i < CLASSES; i++) {
+            classes[i] = new SizeClass(MIN_SIZE << i);
+        }
+        this.outstanding = trackLeaks ? new IdentityHashMap<>() : null;
+    }
+
+    /**
+     * Borrows a cleared buffer. It should be given back with {@link #release} once it
+     * is no longer used, and not used after that.
+     *
+     * @param capacity the least capacity needed.
+     * @return a buffer of at least that capacity, rounded up to its size class.
+     */
+    ByteBuffer acquire(int capacity) {
+        acquired.increment();
+        int index = classIndex(capacity);
+        ByteBuffer buffer = null;
+        if (index >= 0) {
+            buffer = threadCaches.get().poll(index);
+            if (buffer == null) {
+                buffer = classes[index].poll();
+            }
+            if (buffer == null) {
+                buffer = allocate(classes[index].size);
+            }
+        } else {
+            buffer = allocate(capacity);
+        }
+        if (outstanding != null) {
+            synchronized (outstanding) {
+                outstanding.put(buffer, new Throwable("Buffer of " + buffer.capacity() + " bytes acquired here"));
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Gives back a buffer obtained from {@link #acquire}.
+     *
+     * @param buffer the buffer; it must not be used afterwards.
+     * @throws IllegalStateException if leaks are tracked and the buffer is not lent out.
+     */
+    void release(ByteBuffer buffer) {
+        if (outstanding != null) {
+            synchronized (outstanding) {
+                if (outstanding.remove(buffer) == null) {
+                    throw new IllegalStateException("Buffer released twice or not acquired from this pool");
+                }
+            }
+        }
+        released.increment();
+        int index = buffer.isDirect() == direct ? classIndex(buffer.capacity()) : -1;
+        if (index < 0 || classes[index].size != buffer.capacity()) {
+            discarded.increment();
+            return;
+        }
+        buffer.clear();
+        if (!threadCaches.get().offer(index, buffer) && !classes[index].offer(buffer)) {
+            discarded.increment();
+        }
+    }
+
+    /**
+     * Returns where the buffers still lent out were acquired.
+     *
+     * @return one stack trace per buffer; empty when leaks are not tracked.
+     */
+    List<Throwable> leaks() {
+        if (outstanding == null) {
+            return Collections.emptyList();
+        }
+        synchronized (outstanding) {
+            return new ArrayList<>(outstanding.values());
+        }
+    }
+
+    /**
+     * Returns the number of buffers lent out and not yet released.
+     *
+     * @return the buffers in use.
+     */
+    long inUse() {
+        return acquired.sum() - released.sum();
+    }
+
+    /**
+     * Returns the number of buffers waiting in the shared queues.
+     *
+     * @return the idle buffers, not counting those kept by each thread.
+     */
+    long idleBuffers() {
+        long count = 0;
+        for (SizeClass sizeClass : classes) {
+            count += sizeClass.count.get();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of bytes waiting in the shared queues.
+     *
+     * @return the idle bytes, not counting those kept by each thread.
+     */
+    long idleBytes() {
+        long bytes = 0;
+        for (SizeClass sizeClass : classes) {
+            bytes += (long) sizeClass.count.get() * sizeClass.size;
+        }
+        return bytes;
+    }
+
+    long acquired() {
+        return acquired.sum();
+    }
+
+    long allocated() {
+        return allocated.sum();
+    }
+
+    long discarded() {
+        return discarded.sum();
+    }
+
+    /**
+     * Registers the pool's counters served on {@link Metrics#PATH}. The share of
+     * acquisitions that needed an allocation tells how well the pool works.
+     *
+     * @param metrics where to register them.
+     * @param name the pool's name in the metric names, e.g. {@code direct}.
+     */
+    void registerMetrics(Metrics metrics, String name) {
+        String prefix = "arep_buffer_pool_" + name;
+        metrics.counter(prefix + "_acquired_total", "Buffers borrowed from the " + name + " pool.", this::acquired);
+        metrics.counter(prefix + "_allocated_total", "Buffers the " + name + " pool had to allocate.", this::allocated);
+        metrics.counter(prefix + "_discarded_total", "Buffers released to the " + name + " pool but not kept.",
+                this::discarded);
+        metrics.gauge(prefix + "_in_use_buffers", "Buffers of the " + name + " pool currently lent out.", this::inUse);
+        metrics.gauge(prefix + "_idle_bytes", "Bytes waiting in the shared queues of the " + name + " pool.",
+                this::idleBytes);
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        allocated.increment();
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Returns the index of the smallest class that holds a capacity, or -1 if the
+     * capacity is outside the pooled range.
+     */
+    private static int classIndex(int capacity) {
+        if (capacity < MIN_SIZE || capacity > MAX_SIZE) {
+            return -1;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * The shared queue of the idle buffers of one size.
+     */
+    private static final class SizeClass {
+        final int size;
+        final int maxCount;
+        final ConcurrentLinkedQueue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+        /** The buffers in {@link #idle}, kept apart because its size() walks the queue. */
+        final AtomicInteger count = new AtomicInteger();
+
+        SizeClass(int size) {
+            this.size = size;
+            this.maxCount = MAX_BYTES_PER_CLASS / size;
+        }
+
+        ByteBuffer poll() {
+            ByteBuffer buffer = idle.poll();
+            if (buffer != null) {
+                count.decrementAndGet();
+            }
+            return buffer;
+        }
+
+        boolean offer(ByteBuffer buffer) {
+            if (count.incrementAndGet() > maxCount) {
+                count.decrementAndGet();
+                return false;
+            }
+            idle.offer(buffer);
+            return true;
+        }
+    }
+
+    /**
+     * The buffers a thread keeps for itself, a small stack per class.
+     */
+    private static final class ThreadCache {
+        final ByteBuffer[][] buffers = new ByteBuffer[CLASSES][THREAD_CACHE_SIZE];
+        final int[] counts = new int[CLASSES];
+
+        ByteBuffer poll(int index) {
+            if (counts[index] == 0) {
+                return null;
+            }
+            int top = --counts[index];
+            ByteBuffer buffer = buffers[index][top];
+            buffers[index][top] = null;
+            return buffer;
+        }
+
+        boolean offer(int index, ByteBuffer buffer) {
+            if (counts[index] == THREAD_CACHE_SIZE) {
+                return false;
+            }
+            buffers[index][counts[index]++] = buffer;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package edu.escuelaing.arep;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ByteRanges class interprets the {@code Range} and {@code If-Range} request
+ * headers (RFC 9110, section 14) for a representation of known length, so a client can
+ * resume a download or seek in a media file without transferring it all again.
+ *
+ * <p>Ranges are resolved against the length, sorted and merged where they overlap or
+ * touch, which keeps a request for many small adjacent ranges from multiplying the
+ * response. A header that is malformed, names another unit or asks for more than
+ * {@link #MAX_RANGES} separate ranges is ignored, and the whole representation is sent
+ * as if there were none.</p>
+ */
+final class ByteRanges {
+    /** The most separate ranges, after merging, sent as {@code multipart/byteranges}. */
+    static final int MAX_RANGES = 16;
+    /** The most range specifiers read from a header before it is ignored. */
+    static final int MAX_SPECIFIERS = 128;
+    /** What {@link #parse} returns when none of the ranges overlaps the representation. */
+    static final List<Range> UNSATISFIABLE = Collections.emptyList();
+    static final String ACCEPT_RANGES = "Accept-Ranges: bytes\r\n";
+
+    private ByteRanges() {
+    }
+
+    /**
+     * An inclusive range of byte positions within a representation.
+     */
+    static final class Range {
+        final long first;
+        final long last;
+
+        Range(long first, long last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        long length() {
+            return last - first + 1;
+        }
+
+        /**
+         * Returns the value of the Content-Range header for this range.
+         *
+         * @param completeLength the length of the whole representation.
+         * @return the header value, e.g. {@code bytes 0-499/1234}.
+         */
+        String contentRange(long completeLength) {
+            return "bytes " + first + "-" + last + "/" + completeLength;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Range && ((Range) other).first == first && ((Range) other).last == last;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(first) * 31 + Long.hashCode(last);
+        }
+
+        @Override
+        public String toString() {
+            return first + "-" + last;
+        }
+    }
+
+    /**
+     * Returns the ranges a request asks for, honouring its If-Range header.
+     *
+     * @param headers the request headers.
+     * @param etag the current entity tag of the representation, including its quotes.
+     * @param lastModified the modification time of the resource in milliseconds.
+     * @param length the length of the representation in bytes.
+     * @return the ranges to send, {@link #UNSATISFIABLE}, or null if the whole
+     *         representation should be sent, see {@link #parse}.
+     */
+    static List<Range> requested(Map<String, String> headers, String etag, long lastModified, long length) {
+        String range = headers.get("range");
+        if (range == null || !ifRangeMatches(headers.get("if-range"), etag, lastModified)) {
+            return null;
+        }
+        return parse(range, length);
+    }
+
+    /**
+     * Resolves the value of a Range header against the length of a representation.
+     *
+     * @param value the header value, or null.
+     * @param length the length of the representation in bytes.
+     * @return the ranges to send, in ascending order and without overlaps;
+     *         {@link #UNSATISFIABLE} if none of them overlaps the representation; or
+     *         null if the header is absent or must be ignored.
+     */
+    static List<Range> parse(String value, long length) {
+        if (value == null || !value.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        String[] specifiers = value.substring(6).split(",", MAX_SPECIFIERS + 1);
+        if (specifiers.length > MAX_SPECIFIERS) {
+            return null;
+        }
+        List<Range> ranges = new ArrayList<>();
+        boolean any = false;
+        for (String specifier : specifiers) {
+            specifier = specifier.trim();
+            if (specifier.isEmpty()) {
+                continue;
+            }
+            any = true;
+            int dash = specifier.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            long first;
+            long last;
+            if (dash == 0) {
+                long suffix = parseNumber(specifier, 1, specifier.length());
+                if (suffix < 0) {
+                    return null;
+                }
+                if (suffix == 0 || length == 0) {
+                    continue;
+                }
+                first = Math.max(0, length - suffix);
+                last = length - 1;
+            } else {
+                first = parseNumber(specifier, 0, dash);
+                last = dash == specifier.length() - 1 ? Long.MAX_VALUE
+                        : parseNumber(specifier, dash + 1, specifier.length());
+                if (first < 0 || last < 0 || last < first) {
+                    return null;
+                }
+                if (first >= length) {
+                    continue;
+                }
+                last = Math.min(last, length - 1);
+            }
+            ranges.add(new Range(first, last));
+        }
+        if (!any) {
+            return null;
+        }
+        if (ranges.isEmpty()) {
+            return UNSATISFIABLE;
+        }
+        List<Range> merged = merge(ranges);
+        return merged.size() > MAX_RANGES ? null : merged;
+    }
+
+    /**
+     * Sorts ranges by their first byte and merges those that overlap or are adjacent.
+     */
+    private static List<Range> merge(List<Range> ranges) {
+        ranges.sort((a, b) -> Long.compare(a.first, b.first));
+        List<Range> merged = new ArrayList<>(ranges.size());
+        Range current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            Range next = ranges.get(i);
+            if (next.first <= current.last + 1) {
+                current = new Range(current.first, Math.max(current.last, next.last));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    /**
+     * Parses a run of decimal digits.
+     *
+     * @return the number, {@link Long#MAX_VALUE} if it does not fit in a long, or -1 if
+     *         the run is empty or contains anything but digits.
+     */
+    private static long parseNumber(String text, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            if (value > (Long.MAX_VALUE - (c - '0')) / 10) {
+                value = Long.MAX_VALUE;
+            } else if (value != Long.MAX_VALUE) {
+                value = value * 10 + (c - '0');
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Evaluates an If-Range header: the ranges are only sent if the client's copy is
+     * still the current representation, otherwise the whole of it is. An entity tag
+     * must match strongly, and a date must equal the last modification time.
+     *
+     * @param ifRange the header value, or null.
+     * @param etag the current entity tag of the representation, including its quotes.
+     * @param lastModified the modification time of the resource in milliseconds.
+     * @return true if the Range header should be honoured.
+     */
+    static boolean ifRangeMatches(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+        try {
+            long date = ZonedDateTime.parse(ifRange, StaticResourceCache.HTTP_DATE_PARSER).toInstant().toEpochMilli();
+            return date / 1000 == lastModified / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
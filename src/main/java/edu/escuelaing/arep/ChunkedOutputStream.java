@@ -0,0 +1,112 @@
+package edu.escuelaing.arep;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * The ChunkedOutputStream class frames a response body of unknown length with the
+ * chunked transfer coding. Bytes are collected in a fixed buffer of
+ * {@link #CHUNK_SIZE} bytes and sent as one chunk each time it fills or the stream is
+ * flushed, and every chunk is {@link ResponseOutput#flush flushed} to the connection,
+ * which is where a slow client holds the writer back. Closing the stream sends the
+ * last chunk but leaves the connection open for the next request.
+ *
+ * <p>HTTP/1.0 clients do not understand chunks, so for them the stream can be created
+ * unframed: the bytes are sent as they are and the body ends when the connection
+ * closes.</p>
+ */
+final class ChunkedOutputStream extends OutputStream {
+    static final int CHUNK_SIZE = 8192;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final ResponseOutput out;
+    private final boolean chunked;
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+    private int count;
+    private boolean closed;
+
+    /**
+     * Constructs a new ChunkedOutputStream.
+     *
+     * @param out the response the body is written to, after its headers.
+     * @param chunked true to frame the body in chunks, false to send it as it is.
+     */
+    ChunkedOutputStream(ResponseOutput out, boolean chunked) {
+        this.out = out;
+        this.chunked = chunked;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length) {
+            writeChunk();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ensureOpen();
+        while (len > 0) {
+            if (count == buffer.length) {
+                writeChunk();
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Sends what has been written so far as a chunk, without waiting for the buffer to fill.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        writeChunk();
+    }
+
+    /**
+     * Sends the remaining bytes and, when chunked, the last chunk that ends the body.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        writeChunk();
+        closed = true;
+        if (chunked) {
+            out.write(LAST_CHUNK);
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        if (chunked) {
+            out.write(Integer.toHexString(count).getBytes(StandardCharsets.US_ASCII));
+            out.write(CRLF);
+        }
+        out.write(buffer, 0, count);
+        if (chunked) {
+            out.write(CRLF);
+        }
+        count = 0;
+        out.flush();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
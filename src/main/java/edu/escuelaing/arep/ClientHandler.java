@@ -0,0 +1,887 @@
+package edu.escuelaing.arep;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import edu.escuelaing.arep.annotations.Cacheable;
+
+/**
+ * The ClientHandler class implements Runnable and is responsible for
+ * handling individual client connections to the SimpleWebServer. It
+ * processes HTTP requests, serves static files, and delegates requests
+ * to registered RESTful services.
+ *
+ * <p>Connections are persistent: HTTP/1.1 requests keep the socket open unless
+ * the client sends {@code Connection: close}, and HTTP/1.0 requests keep it open
+ * only when the client asks for {@code Connection: keep-alive}. Pipelined requests
+ * are answered in order and their responses are flushed together once no more
+ * input is waiting. A connection is closed after it has been idle for the
+ * {@link AdmissionControl} idle timeout or after serving
+ * {@link SimpleWebServer#MAX_KEEP_ALIVE_REQUESTS} requests, and dropped when the client
+ * takes longer than the read timeout to send a request body or the write timeout to
+ * read a response.</p>
+ *
+ * <p>A connection that waited in the executor's queue for too long is answered with a
+ * 503 instead of being served, see {@link AdmissionControl#admit}.</p>
+ *
+ * <p>A client that opens with the HTTP/2 connection preface, or asks to upgrade to
+ * h2c, is handed to an {@link Http2Connection}, which reads its frames on a thread of
+ * its own while its streams are answered on the worker group.</p>
+ */
+class ClientHandler implements Runnable {
+    private static final byte[] NOT_FOUND_BODY =
+            "<html><body><h1>File Not Found</h1></body></html>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] STATUS_OK = "HTTP/1.1 200 OK\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STATUS_NOT_MODIFIED = "HTTP/1.1 304 Not Modified\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STATUS_PARTIAL_CONTENT = "HTTP/1.1 206 Partial Content\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STATUS_RANGE_NOT_SATISFIABLE = "HTTP/1.1 416 Range Not Satisfiable\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STATUS_TOO_MANY_REQUESTS = "HTTP/1.1 429 Too Many Requests\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONNECTION_CLOSE = "Connection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CHUNKED_TEXT_HEADERS = "Content-Type: text/plain; charset=UTF-8\r\nTransfer-Encoding: chunked\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STREAMED_TEXT_HEADERS = "Content-Type: text/plain; charset=UTF-8\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_LENGTH = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CRLF = {'\r', '\n'};
+    /** Encoded status lines and Content-Type headers; both come from small fixed sets. */
+    private static final Map<String, byte[]> STATUS_LINES = new ConcurrentHashMap<>();
+    private static final Map<String, byte[]> CONTENT_TYPE_LINES = new ConcurrentHashMap<>();
+    /** How often a connection waiting for its next request checks whether it should give its thread up. */
+    private static final int IDLE_POLL_MILLIS = 50;
+    static final byte[] SERVICE_UNAVAILABLE_RESPONSE = ("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Retry-After: 1\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private Socket clientSocket;
+    private final AdmissionControl admission;
+    private final byte[] connectionKeepAlive;
+    /** When the connection was handed to the executor, from {@link System#nanoTime}. */
+    private final long acceptedAt;
+    private final Executor workers;
+
+    /**
+     * Constructs a new ClientHandler for the given client socket, under the server's
+     * current {@link AdmissionControl}. It serves HTTP/1.x only.
+     *
+     * @param socket the client socket to handle.
+     */
+    public ClientHandler(Socket socket) {
+        this(socket, null);
+    }
+
+    /**
+     * Constructs a new ClientHandler for the given client socket that can switch the
+     * connection to HTTP/2.
+     *
+     * @param socket the client socket to handle.
+     * @param workers the worker group that runs the requests of HTTP/2 streams, or null
+     *                to serve HTTP/1.x only.
+     */
+    ClientHandler(Socket socket, Executor workers) {
+        this.clientSocket = socket;
+        this.workers = workers;
+        this.admission = SimpleWebServer.admission;
+        this.connectionKeepAlive = admission.keepAliveHeaders();
+        this.acceptedAt = System.nanoTime();
+    }
+
+    /**
+     * Answers a connection that the server has no room for with a 503 and closes it.
+     * This runs on the accepting thread, so it only writes a constant response.
+     *
+     * @param socket the connection to turn away.
+     */
+    static void rejectConnection(Socket socket) {
+        SimpleWebServer.accessLog.log("-", "-", 503, SERVICE_UNAVAILABLE_RESPONSE.length, 0);
+        SimpleWebServer.metrics.unrouted().record(503, 0);
+        try (Socket rejected = socket) {
+            rejected.getOutputStream().write(SERVICE_UNAVAILABLE_RESPONSE);
+        } catch (IOException e) {
+            // The client is being turned away anyway.
+        }
+    }
+
+    /**
+     * The run method is invoked when the ClientHandler is executed by a thread.
+     * It reads requests from the connection until the client closes it, the idle
+     * timeout expires or the per-connection request limit is reached, and calls
+     * the appropriate method to handle each one. A connection that waited too long
+     * for a thread is turned away with a 503 instead.
+     */
+    @Override
+    public void run() {
+        admission.connectionStarted();
+        if (!admission.admit(acceptedAt)) {
+            admission.connectionClosed();
+            rejectConnection(clientSocket);
+            return;
+        }
+        Metrics metrics = SimpleWebServer.metrics;
+        metrics.connectionOpened();
+        RequestInput in = null;
+        ResponseOutput.Blocking out = null;
+        boolean switched = false;
+        try {
+            in = new RequestInput(clientSocket.getInputStream());
+            out = ResponseOutput.forSocket(clientSocket);
+            admission.watch(out);
+            // A file body is sent separately from its headers; without this, Nagle's algorithm
+            // holds it back until the client's delayed ACK of the headers (about 40 ms).
+            clientSocket.setTcpNoDelay(true);
+            HttpRequestParser parser = new HttpRequestParser();
+            int requestsServed = 0;
+            boolean keepAlive = true;
+            while (keepAlive) {
+                HttpRequest request;
+                long bytesBefore = out.bytesWritten();
+                try {
+                    request = awaitRequest(in, parser);
+                } catch (HttpRequestParser.ParseException e) {
+                    sendResponse(out, e.status(), "text/plain", new byte[0], false);
+                    SimpleWebServer.accessLog.log("-", "-", out.status(), out.bytesWritten() - bytesBefore, 0);
+                    metrics.unrouted().record(out.status(), 0);
+                    break;
+                }
+                if (request == null)
+                    break;
+                request.client(clientSocket.getInetAddress());
+                if (workers != null && (Http2Connection.isPreface(request) || Http2Connection.isUpgrade(request))) {
+                    out.flush();
+                    // The connection now belongs to its frame reader, which releases it when done.
+                    Http2Connection.start(clientSocket, in, out, this, workers, request);
+                    switched = true;
+                    return;
+                }
+                long start = System.nanoTime();
+                logRequestHead(request);
+                clientSocket.setSoTimeout(admission.readTimeoutMillis);
+
+                requestsServed++;
+                keepAlive = isKeepAlive(request.version(), request.headers())
+                        && requestsServed < SimpleWebServer.MAX_KEEP_ALIVE_REQUESTS;
+                try {
+                    keepAlive = processRequest(request, in, out, keepAlive);
+                } catch (RuntimeException e) {
+                    // Dropping the connection silently would leave the client nothing to tell this from a network error.
+                    e.printStackTrace();
+                    keepAlive = false;
+                    if (out.bytesWritten() == bytesBefore) {
+                        sendResponse(out, "500 Internal Server Error", "text/plain", new byte[0], false);
+                    }
+                }
+                long latency = System.nanoTime() - start;
+                SimpleWebServer.accessLog.log(request.method(), request.path(), out.status(),
+                        out.bytesWritten() - bytesBefore, latency);
+                out.route().record(out.status(), latency);
+
+                if (!keepAlive || in.available() == 0) {
+                    out.flush();
+                }
+            }
+            out.flush();
+
+        } catch (SocketTimeoutException e) {
+            // The client stopped sending in the middle of a request; just drop the connection.
+            admission.timedOut();
+        } catch (ClosedChannelException e) {
+            // The write timeout expired and the watchdog closed the connection.
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (!switched) {
+                closeStreams(in, out);
+                if (out != null) {
+                    admission.unwatch(out);
+                }
+                admission.connectionClosed();
+                metrics.connectionClosed();
+                try {
+                    clientSocket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the input and output of a connection that is being dropped, which gives
+     * their buffers back to the pool, ignoring any error. The output is still watched
+     * while it sends what it has buffered.
+     *
+     * @param in the connection's input, or null.
+     * @param out the connection's output, or null.
+     */
+    static void closeStreams(RequestInput in, ResponseOutput.Blocking out) {
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            // The client is gone; what was left unsent is dropped.
+        }
+        try {
+            if (in != null) {
+                in.close();
+            }
+        } catch (IOException e) {
+            // The socket is closed next anyway.
+        }
+    }
+
+    /**
+     * Waits for the next request on a persistent connection. While no byte of it has
+     * arrived the connection is only holding its thread, so it gives up as soon as other
+     * connections are waiting for one, as well as when the idle timeout expires. Once
+     * the request has started, the rest of its head must arrive within the read timeout.
+     *
+     * @param in the connection's input.
+     * @param parser the connection's parser.
+     * @return the request, or null if the connection should be closed.
+     * @throws SocketTimeoutException if the client stopped sending in the middle of the head.
+     * @throws IOException if an I/O error occurs or the request is malformed.
+     */
+    private HttpRequest awaitRequest(RequestInput in, HttpRequestParser parser) throws IOException {
+        long idleDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(admission.idleTimeoutMillis);
+        clientSocket.setSoTimeout(Math.min(IDLE_POLL_MILLIS, admission.idleTimeoutMillis));
+        while (true) {
+            try {
+                return in.readRequest(parser);
+            } catch (SocketTimeoutException e) {
+                if (parser.inProgress()) {
+                    clientSocket.setSoTimeout(admission.readTimeoutMillis);
+                    return in.readRequest(parser);
+                }
+                if (admission.hasWaitingConnections() || System.nanoTime() - idleDeadline > 0) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Dispatches a parsed request to the static file, POST or application handler
+     * and writes the response. This is shared by the blocking connection loop and
+     * the NIO engine, which passes the already buffered body as the input stream.
+     *
+     * @param request the head of the request.
+     * @param in the stream positioned at the start of the request body.
+     * @param out the stream to write the response to.
+     * @param keepAlive whether the connection may stay open after this response.
+     * @return true if the connection can be reused for another request.
+     * @throws IOException if an I/O error occurs while reading the body or writing the response.
+     */
+    boolean processRequest(HttpRequest request, InputStream in, ResponseOutput out, boolean keepAlive) throws IOException {
+        String method = request.method();
+        InputStream body = HttpBody.open(request, in);
+        out.route(SimpleWebServer.metrics.unrouted());
+        if (request.path().startsWith("/app")) {
+            keepAlive = handleAppRequest(request, body, out, keepAlive);
+        } else if (method.equals("GET")) {
+            out.route(SimpleWebServer.metrics.staticFiles());
+            keepAlive &= HttpBody.drain(body);
+            handleGetRequest(request.path(), request.headers(), out, keepAlive);
+        } else if (method.equals("POST")) {
+            keepAlive = handlePostRequest(body, out, keepAlive);
+        } else {
+            keepAlive &= HttpBody.drain(body);
+            sendResponse(out, "405 Method Not Allowed", "text/plain", new byte[0], keepAlive);
+        }
+        return keepAlive;
+    }
+
+    /**
+     * Decides whether the connection should stay open after the current request,
+     * following the HTTP/1.1 persistent connection rules.
+     *
+     * @param version the protocol version from the request line (e.g., "HTTP/1.1").
+     * @param headers the request headers.
+     * @return true if the client expects the connection to be reused.
+     */
+    static boolean isKeepAlive(String version, Map<String, String> headers) {
+        String connection = headers.getOrDefault("connection", "").toLowerCase();
+        if ("HTTP/1.1".equals(version)) {
+            return !connection.contains("close");
+        }
+        return connection.contains("keep-alive");
+    }
+
+    /**
+     * Writes a complete response with a Content-Length header and the connection
+     * management headers matching the keep-alive decision. The body is passed on
+     * without being copied, so the output can send it in the same write as the headers.
+     *
+     * @param out the stream to write the response to.
+     * @param status the status code and reason phrase (e.g., "200 OK").
+     * @param contentType the MIME type of the body.
+     * @param body the response body.
+     * @param keepAlive whether the connection stays open after this response.
+     * @throws IOException if an I/O error occurs while writing.
+     */
+    void sendResponse(ResponseOutput out, String status, String contentType, byte[] body, boolean keepAlive) throws IOException {
+        writeHeaders(out, status, contentType, body.length, keepAlive);
+        out.write(ByteBuffer.wrap(body));
+    }
+
+    /**
+     * Writes the status line and headers of a response, including Content-Length
+     * and Connection.
+     *
+     * @param out the stream to write the headers to.
+     * @param status the status code and reason phrase (e.g., "200 OK").
+     * @param contentType the MIME type of the body.
+     * @param contentLength the length of the body in bytes.
+     * @param keepAlive whether the connection stays open after this response.
+     * @throws IOException if an I/O error occurs while writing.
+     */
+    private void writeHeaders(ResponseOutput out, String status, String contentType, long contentLength, boolean keepAlive) throws IOException {
+        out.status(statusCode(status.charAt(0), status.charAt(1), status.charAt(2)));
+        out.write(STATUS_LINES.computeIfAbsent(status, key -> encodeLine("HTTP/1.1 " + key)));
+        out.write(CONTENT_TYPE_LINES.computeIfAbsent(contentType, key -> encodeLine("Content-Type: " + key)));
+        out.write(CONTENT_LENGTH);
+        writeDecimal(out, contentLength);
+        out.write(CRLF);
+        out.write(keepAlive ? connectionKeepAlive : CONNECTION_CLOSE);
+    }
+
+    private static byte[] encodeLine(String line) {
+        return (line + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Writes a non-negative number as ASCII digits, without building a string.
+     */
+    private static void writeDecimal(ResponseOutput out, long value) throws IOException {
+        if (value >= 10) {
+            writeDecimal(out, value / 10);
+        }
+        out.write('0' + (int) (value % 10));
+    }
+
+    /**
+     * Writes the headers of a response whose status line and entity headers have
+     * already been encoded, as they are for cached static resources.
+     *
+     * @param out the stream to write the headers to.
+     * @param statusLine the encoded status line.
+     * @param entityHeaders the encoded Content-Type, Content-Length and related header lines.
+     * @param keepAlive whether the connection stays open after this response.
+     * @throws IOException if an I/O error occurs while writing.
+     */
+    private void writeHeaders(ResponseOutput out, byte[] statusLine, byte[] entityHeaders, boolean keepAlive) throws IOException {
+        out.status(statusCode((char) statusLine[9], (char) statusLine[10], (char) statusLine[11]));
+        out.write(statusLine);
+        out.write(entityHeaders);
+        out.write(keepAlive ? connectionKeepAlive : CONNECTION_CLOSE);
+    }
+
+    /**
+     * Returns the numeric status code from the three digits of a status line.
+     */
+    private static int statusCode(char hundreds, char tens, char units) {
+        return (hundreds - '0') * 100 + (tens - '0') * 10 + (units - '0');
+    }
+
+    /**
+     * Records the request line and headers of the client's HTTP request in the access
+     * log when it is at debug level. Nothing is formatted otherwise.
+     *
+     * @param request the request whose line and headers are recorded.
+     */    
+    void logRequestHead(HttpRequest request) {
+        AccessLog accessLog = SimpleWebServer.accessLog;
+        if (accessLog.isDebugEnabled()) {
+            accessLog.debug("request=\"" + request.requestLine() + "\" headers=" + request.headers());
+        }
+    }
+
+    /**
+     * Handles a GET request by serving a static file from the server's root directory.
+     * If the file is found, it is sent to the client along with appropriate HTTP headers.
+     * If the file is not found, a 404 error message is returned.
+     *
+     * <p>Files held by {@link SimpleWebServer#staticResources} are sent from their cached
+     * memory mapping with pre-encoded headers, choosing a gzip or brotli variant when the
+     * client's Accept-Encoding allows it. Files too large for the cache are streamed
+     * with {@link FileChannel#transferTo}, so neither is copied into a new heap array.
+     * Every response carries an ETag and Last-Modified, and a request whose
+     * If-None-Match or If-Modified-Since still matches gets a 304 without a body.
+     * Otherwise a Range header is honoured, see {@link #sendRanges}.</p>
+     *
+     * @param fileRequested the file requested by the client.
+     * @param headers the request headers.
+     * @param out the output to send the response to.
+     * @param keepAlive whether the connection stays open after this response.
+     * @throws IOException if an I/O error occurs while reading the file or sending the response.
+     */    
+    private void handleGetRequest(String fileRequested, Map<String, String> headers, ResponseOutput out, boolean keepAlive) throws IOException {
+        StaticResourceCache.Resource resource = SimpleWebServer.staticResources.get(fileRequested);
+        if (resource != null) {
+            StaticResourceCache.Variant variant = resource.select(headers.get("accept-encoding"));
+            if (isNotModified(headers, variant.etag, resource.lastModified)) {
+                writeHeaders(out, STATUS_NOT_MODIFIED, variant.notModifiedHeaders, keepAlive);
+                return;
+            }
+            List<ByteRanges.Range> ranges = ByteRanges.requested(headers, variant.etag, resource.lastModified, variant.length);
+            if (ranges != null) {
+                ByteBuffer data = variant.data();
+                sendRanges(out, ranges, variant.length, variant.contentType, variant.rangeHeaders,
+                        range -> out.write(data.duplicate().limit((int) range.last + 1).position((int) range.first)),
+                        keepAlive);
+                return;
+            }
+            writeHeaders(out, STATUS_OK, variant.headers, keepAlive);
+            out.write(variant.data());
+            return;
+        }
+
+        Path file = SimpleWebServer.staticResources.resolve(fileRequested);
+        if (file == null || !Files.isRegularFile(file)) {
+            sendResponse(out, "404 Not Found", "text/html", NOT_FOUND_BODY, keepAlive);
+            return;
+        }
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        long fileLength = Files.size(file);
+        String etag = "\"" + Long.toHexString(fileLength) + "-" + Long.toHexString(lastModified) + "\"";
+        String validators = "ETag: " + etag + "\r\n"
+                + "Last-Modified: " + StaticResourceCache.HTTP_DATE.format(Instant.ofEpochMilli(lastModified)) + "\r\n";
+        if (isNotModified(headers, etag, lastModified)) {
+            writeHeaders(out, STATUS_NOT_MODIFIED, validators.getBytes(StandardCharsets.US_ASCII), keepAlive);
+            return;
+        }
+        List<ByteRanges.Range> ranges = ByteRanges.requested(headers, etag, lastModified, fileLength);
+        if (ranges != null) {
+            sendRanges(out, ranges, fileLength, getContentType(fileRequested), validators + ByteRanges.ACCEPT_RANGES,
+                    range -> out.transferFrom(FileChannel.open(file, StandardOpenOption.READ), range.first, range.length()),
+                    keepAlive);
+            return;
+        }
+        String entityHeaders = "Content-Type: " + getContentType(fileRequested) + "\r\n"
+                + "Content-Length: " + fileLength + "\r\n" + validators + ByteRanges.ACCEPT_RANGES;
+        FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            writeHeaders(out, STATUS_OK, entityHeaders.getBytes(StandardCharsets.US_ASCII), keepAlive);
+        } catch (IOException e) {
+            fileChannel.close();
+            throw e;
+        }
+        out.transferFrom(fileChannel, 0, fileLength);
+    }
+
+    /**
+     * Sends the requested ranges of a static representation. A single range is answered
+     * with 206 and its Content-Range; several are sent as parts of a
+     * {@code multipart/byteranges} body, each with its own Content-Type and
+     * Content-Range; and when none of them overlaps the representation the answer is a
+     * 416 with its complete length. The parts are taken from the representation one at
+     * a time, so a large file is streamed from its channel rather than read into memory.
+     *
+     * @param out the output to send the response to.
+     * @param ranges the ranges returned by {@link ByteRanges#requested}.
+     * @param length the length of the whole representation.
+     * @param contentType the media type of the representation.
+     * @param entityHeaders its other entity header lines, such as its validators.
+     * @param body sends one range of the representation.
+     * @param keepAlive whether the connection stays open after this response.
+     * @throws IOException if an I/O error occurs while reading the file or sending the response.
+     */
+    private void sendRanges(ResponseOutput out, List<ByteRanges.Range> ranges, long length, String contentType,
+                            String entityHeaders, RangeBody body, boolean keepAlive) throws IOException {
+        if (ranges.isEmpty()) {
+            String headers = "Content-Range: bytes */" + length + "\r\nContent-Length: 0\r\n" + ByteRanges.ACCEPT_RANGES;
+            writeHeaders(out, STATUS_RANGE_NOT_SATISFIABLE, headers.getBytes(StandardCharsets.US_ASCII), keepAlive);
+            return;
+        }
+        if (ranges.size() == 1) {
+            ByteRanges.Range range = ranges.get(0);
+            String headers = "Content-Type: " + contentType + "\r\n"
+                    + "Content-Length: " + range.length() + "\r\n"
+                    + "Content-Range: " + range.contentRange(length) + "\r\n" + entityHeaders;
+            writeHeaders(out, STATUS_PARTIAL_CONTENT, headers.getBytes(StandardCharsets.US_ASCII), keepAlive);
+            body.send(range);
+            return;
+        }
+        String boundary = "byteranges-" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        byte[][] partHeads = new byte[ranges.size()][];
+        byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        long contentLength = end.length;
+        for (int i = 0; i < partHeads.length; i++) {
+            ByteRanges.Range range = ranges.get(i);
+            partHeads[i] = ("\r\n--" + boundary + "\r\nContent-Type: " + contentType + "\r\nContent-Range: "
+                    + range.contentRange(length) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            contentLength += partHeads[i].length + range.length();
+        }
+        String headers = "Content-Type: multipart/byteranges; boundary=" + boundary + "\r\n"
+                + "Content-Length: " + contentLength + "\r\n" + entityHeaders;
+        writeHeaders(out, STATUS_PARTIAL_CONTENT, headers.getBytes(StandardCharsets.US_ASCII), keepAlive);
+        for (int i = 0; i < partHeads.length; i++) {
+            out.write(partHeads[i]);
+            body.send(ranges.get(i));
+        }
+        out.write(end);
+    }
+
+    /**
+     * Sends one range of a static representation, see {@link #sendRanges}.
+     */
+    private interface RangeBody {
+        void send(ByteRanges.Range range) throws IOException;
+    }
+
+    /**
+     * Evaluates the conditional request headers against the current validators of a
+     * resource. If-None-Match takes precedence over If-Modified-Since, as required by
+     * RFC 9110.
+     *
+     * @param headers the request headers.
+     * @param etag the current entity tag of the representation, including its quotes.
+     * @param lastModified the modification time of the resource in milliseconds.
+     * @return true if the client's copy is still current and a 304 can be sent.
+     */
+    static boolean isNotModified(Map<String, String> headers, String etag, long lastModified) {
+        String ifNoneMatch = headers.get("if-none-match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = headers.get("if-modified-since");
+        if (ifModifiedSince != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, StaticResourceCache.HTTP_DATE_PARSER).toInstant().toEpochMilli();
+                return lastModified / 1000 <= since / 1000;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handles a POST request by reading the request payload and returning a simple HTML
+     * response that includes the received data.
+     *
+     * @param body the request body.
+     * @param out the stream to send the response to.
+     * @param keepAlive whether the connection stays open after this response.
+     * @return true if the whole body was read and the connection can be reused.
+     * @throws IOException if an I/O error occurs while reading the input or sending the response.
+     */
+    private boolean handlePostRequest(InputStream body, ResponseOutput out, boolean keepAlive) throws IOException {
+        byte[] payload;
+        try {
+            payload = HttpBody.readAll(body, NioServer.MAX_BODY_SIZE);
+        } catch (HttpRequestParser.ParseException e) {
+            sendResponse(out, e.status(), "text/plain", new byte[0], false);
+            return false;
+        }
+
+        String html = "<html><body><h1>POST data received:</h1>\n"
+                + "<p>" + new String(payload, StandardCharsets.UTF_8) + "</p>\n"
+                + "</body></html>";
+        sendResponse(out, "200 OK", "text/html", html.getBytes(StandardCharsets.UTF_8), keepAlive);
+        return keepAlive;
+    }
+
+    /**
+     * Handles an application-specific HTTP request by finding the controller method whose
+     * route matches the requested path for the request method (GET or POST) and invoking it
+     * with the decoded query parameters, the path variables of that route and the body.
+     * The response of a {@link Cacheable} method is taken from its {@link ResponseCache}
+     * when the same parameter values were answered recently. The response of an
+     * asynchronous method is written when its result completes, see {@link #completeAsync},
+     * and a streaming one is sent as it is produced, see {@link #sendStream}.
+     * Whatever the controller leaves unread of the body is skipped before answering.
+     * A client over its own or the route's {@link RateLimiter} gets a 429 with
+     * {@code Retry-After} before the controller is called.
+     * {@link Metrics#PATH} is reserved for the server's own metrics.
+     *
+     * @param request the request (e.g., GET /app/hello?name=John).
+     * @param body the request body.
+     * @param out the stream used to send the HTTP response back to the client.
+     * @param keepAlive whether the connection may stay open after this response.
+     * @return true if the connection can be reused for another request.
+     * @throws IOException if an I/O error occurs while sending the response.
+     */
+    private boolean handleAppRequest(HttpRequest request, InputStream body, ResponseOutput out, boolean keepAlive) throws IOException {
+        String method = request.method();
+        if (method.equals("GET") && request.path().equals(Metrics.PATH)) {
+            out.route(SimpleWebServer.metrics.scrapes());
+            keepAlive &= HttpBody.drain(body);
+            byte[] text = SimpleWebServer.metrics.render().getBytes(StandardCharsets.UTF_8);
+            sendResponse(out, "200 OK", Metrics.CONTENT_TYPE, text, keepAlive);
+            return keepAlive;
+        }
+        Router<ControllerInvoker> routes = method.equals("GET") ? SimpleWebServer.getMappings
+                : method.equals("POST") ? SimpleWebServer.postMappings : null;
+        ControllerInvoker invoker = routes == null ? null : routes.find(request.path(), null);
+        if (invoker == null) {
+            keepAlive &= HttpBody.drain(body);
+            boolean otherMethod = SimpleWebServer.getMappings.find(request.path(), null) != null
+                    || SimpleWebServer.postMappings.find(request.path(), null) != null;
+            sendResponse(out, otherMethod ? "405 Method Not Allowed" : "404 Not Found", "text/plain", new byte[0], keepAlive);
+            return keepAlive;
+        }
+        // Most routes bind no variables; only those that do pay for a map and a second lookup.
+        Map<String, String> pathVariables = invoker.usesPathVariables() ? new HashMap<>() : Collections.emptyMap();
+        if (invoker.usesPathVariables()) {
+            routes.find(request.path(), pathVariables);
+        }
+
+        out.route(invoker.metrics());
+        long wait = rateLimitWait(request, invoker);
+        if (wait > 0) {
+            keepAlive &= HttpBody.drain(body);
+            writeHeaders(out, STATUS_TOO_MANY_REQUESTS, ("Content-Type: text/plain\r\nContent-Length: 0\r\nRetry-After: "
+                    + RateLimiter.retryAfterSeconds(wait) + "\r\n").getBytes(StandardCharsets.US_ASCII), keepAlive);
+            return keepAlive;
+        }
+        Object result = null;
+        byte[] response = null;
+        try {
+            Map<String, String> queryParams = request.queryParams();
+            ResponseCache cache = invoker.cache();
+            if (cache == null) {
+                result = invoker.invoke(queryParams, pathVariables, body);
+                if (!invoker.isAsync() && !invoker.isStreaming()) {
+                    response = encode(invoker, result);
+                }
+            } else {
+                response = cache.get(invoker.cacheKey(queryParams, pathVariables),
+                        () -> encode(invoker, invoker.invoke(queryParams, pathVariables, body)));
+            }
+        } catch (HttpRequestParser.ParseException e) {
+            sendResponse(out, e.status(), "text/plain", new byte[0], false);
+            return false;
+        } catch (Exception e) {
+            e.printStackTrace();
+            keepAlive &= HttpBody.drain(body);
+            sendResponse(out, "500 Internal Server Error", "text/plain", new byte[0], keepAlive);
+            return keepAlive;
+        }
+        if (invoker.isAsync()) {
+            return completeAsync(invoker, result, body, out, keepAlive);
+        }
+        if (invoker.isStreaming()) {
+            return sendStream(request, result, body, out, keepAlive);
+        }
+        keepAlive &= HttpBody.drain(body);
+        sendResponse(out, "200 OK", "text/plain", response, keepAlive);
+        return keepAlive;
+    }
+
+    /**
+     * Takes a token for a controller request from the limit of its client and then from
+     * that of its route. A request refused by the client limit does not count against
+     * the route.
+     *
+     * @param request the request, which carries the client's address.
+     * @param invoker the controller method it is routed to.
+     * @return 0 if the request may proceed, otherwise how many nanoseconds the client should wait.
+     */
+    private static long rateLimitWait(HttpRequest request, ControllerInvoker invoker) {
+        InetAddress client = request.client();
+        RateLimiter clients = SimpleWebServer.clientRateLimit;
+        RateLimiter route = invoker.rateLimiter();
+        if (client == null || (clients == null && route == null)) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long wait = clients == null ? 0 : clients.acquire(client, now);
+        return wait > 0 || route == null ? wait : route.acquire(client, now);
+    }
+
+    /**
+     * Sends the body of a streaming controller method, a {@link StreamingBody} or an
+     * {@code Iterable} of text, while it is produced. HTTP/1.1 clients receive it with
+     * {@code Transfer-Encoding: chunked}; HTTP/1.0 clients receive it unframed and the
+     * connection is closed to end it. On an HTTP/2 stream the body goes out as it is and
+     * the stream ends it. Since the status has been sent before the body is
+     * produced, a controller that fails halfway leaves the body truncated: the connection
+     * is closed without the last chunk, so the client can tell it is incomplete.
+     *
+     * @param request the request, whose version decides the framing.
+     * @param result the streaming body the controller returned.
+     * @param body the request body, drained before the response starts.
+     * @param out the stream to send the response to.
+     * @param keepAlive whether the connection may stay open after this response.
+     * @return true if the connection can be reused for another request.
+     * @throws IOException if an I/O error occurs while sending the response.
+     */
+    private boolean sendStream(HttpRequest request, Object result, InputStream body, ResponseOutput out,
+                               boolean keepAlive) throws IOException {
+        if (result == null) {
+            keepAlive &= HttpBody.drain(body);
+            sendResponse(out, "500 Internal Server Error", "text/plain", new byte[0], keepAlive);
+            return keepAlive;
+        }
+        boolean chunked = "HTTP/1.1".equals(request.version());
+        boolean framed = chunked || Http2Connection.VERSION.equals(request.version());
+        keepAlive = HttpBody.drain(body) && keepAlive && framed;
+        out.status(200);
+        out.write(STATUS_OK);
+        out.write(chunked ? CHUNKED_TEXT_HEADERS : STREAMED_TEXT_HEADERS);
+        out.write(keepAlive ? connectionKeepAlive : CONNECTION_CLOSE);
+        out.startStreaming();
+        ChunkedOutputStream stream = new ChunkedOutputStream(out, chunked);
+        try {
+            if (result instanceof StreamingBody) {
+                ((StreamingBody) result).writeTo(stream);
+            } else {
+                Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+                for (Object element : (Iterable<?>) result) {
+                    writer.append(String.valueOf(element));
+                }
+                writer.flush();
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return false;
+        }
+        stream.close();
+        return keepAlive;
+    }
+
+    /**
+     * Answers with the result of an asynchronous controller method. When the output
+     * {@link ResponseOutput#supportsDeferral supports deferral}, as it does in the NIO
+     * engine, the response is written by whichever thread completes the result and this
+     * method returns at once, so the worker thread is free while the controller waits.
+     * Otherwise the calling thread waits for the result.
+     *
+     * @param invoker the asynchronous controller method.
+     * @param result the {@link CompletionStage} it returned.
+     * @param body the request body, drained once the result is available.
+     * @param out the stream to send the response to.
+     * @param keepAlive whether the connection may stay open after this response.
+     * @return true if the connection can be reused; meaningless when the response was deferred.
+     * @throws IOException if an I/O error occurs while reading the body or sending the response.
+     */
+    private boolean completeAsync(ControllerInvoker invoker, Object result, InputStream body, ResponseOutput out,
+                                  boolean keepAlive) throws IOException {
+        CompletableFuture<Object> completion = invoker.await(result);
+        if (out.supportsDeferral()) {
+            out.defer(completion.handle((value, error) -> {
+                try {
+                    return sendAsyncResponse(invoker, value, error, out, keepAlive);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+            return keepAlive;
+        }
+        Object value = null;
+        Throwable error = null;
+        try {
+            value = completion.join();
+        } catch (CompletionException | CancellationException e) {
+            error = e;
+        }
+        boolean reuse = HttpBody.drain(body) && keepAlive;
+        return sendAsyncResponse(invoker, value, error, out, reuse);
+    }
+
+    /**
+     * Writes the response for the outcome of an asynchronous controller method: 200 with
+     * its value, 504 if it timed out, 503 if it was cancelled or its work was rejected by
+     * an overloaded executor, and 500 for any other failure.
+     *
+     * @param invoker the asynchronous controller method.
+     * @param value the result, when it completed normally.
+     * @param error the failure, or null if it completed normally.
+     * @param out the stream to send the response to.
+     * @param keepAlive whether the connection may stay open after this response.
+     * @return true if the connection can be reused for another request.
+     * @throws IOException if an I/O error occurs while sending the response.
+     */
+    private boolean sendAsyncResponse(ControllerInvoker invoker, Object value, Throwable error, ResponseOutput out,
+                                      boolean keepAlive) throws IOException {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error == null) {
+            sendResponse(out, "200 OK", "text/plain", encode(invoker, value), keepAlive);
+        } else if (error instanceof TimeoutException) {
+            sendResponse(out, "504 Gateway Timeout", "text/plain", new byte[0], keepAlive);
+        } else if (error instanceof CancellationException || error instanceof RejectedExecutionException) {
+            out.status(503);
+            out.write(SERVICE_UNAVAILABLE_RESPONSE);
+            return false;
+        } else {
+            error.printStackTrace();
+            sendResponse(out, "500 Internal Server Error", "text/plain", new byte[0], keepAlive);
+        }
+        return keepAlive;
+    }
+
+    /**
+     * Encodes the value returned by a controller method as the body of its response.
+     *
+     * @param invoker the controller method that was called.
+     * @param response the value it returned.
+     * @return the UTF-8 bytes of the value's string form.
+     */
+    private static byte[] encode(ControllerInvoker invoker, Object response) {
+        if (SimpleWebServer.accessLog.isDebugEnabled()) {
+            SimpleWebServer.accessLog.debug("controller=" + invoker.controllerName() + " response=\"" + response + "\"");
+        }
+        return String.valueOf(response).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Determines the MIME type of the requested file based on its extension.
+     *
+     * @param fileRequested the file requested by the client.
+     * @return the MIME type of the file.
+     */
+    static String getContentType(String fileRequested) {
+        if (fileRequested.endsWith(".html"))
+            return "text/html";
+        else if (fileRequested.endsWith(".css"))
+            return "text/css";
+        else if (fileRequested.endsWith(".js"))
+            return "application/javascript";
+        else if (fileRequested.endsWith(".png"))
+            return "image/png";
+        else if (fileRequested.endsWith(".jpg"))
+            return "image/jpeg";
+        return "text/plain";
+    }
+}
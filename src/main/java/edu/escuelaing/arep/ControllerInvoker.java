@@ -0,0 +1,369 @@
+package edu.escuelaing.arep;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import edu.escuelaing.arep.annotations.Cacheable;
+import edu.escuelaing.arep.annotations.PathVariable;
+import edu.escuelaing.arep.annotations.RateLimit;
+import edu.escuelaing.arep.annotations.RequestBody;
+import edu.escuelaing.arep.annotations.RequestParam;
+import edu.escuelaing.arep.annotations.ResponseTimeout;
+
+/**
+ * The ControllerInvoker class is the precompiled form of a controller method. It is
+ * built once when the controller is registered: the {@link RequestParam},
+ * {@link PathVariable} and {@link RequestBody} annotations are resolved into parameter
+ * binders (source, name, default value and converter), and the
+ * method is turned into a {@link MethodHandle} bound to the controller instance.
+ * Handling a request then only looks up the query parameters, path variables and body and calls the handle,
+ * without reflection or annotation lookups. The invoker also carries the
+ * {@link Metrics.Route} its requests are recorded in, for a {@link Cacheable}
+ * method, the {@link ResponseCache} of its responses and, for a rate limited route, the
+ * {@link RateLimiter} of its clients.
+ *
+ * <p>A method that returns a {@link CompletionStage} is asynchronous: the server writes
+ * its response when the stage completes, or answers 504 once its {@link ResponseTimeout}
+ * (by default {@link #DEFAULT_TIMEOUT_MILLIS}) has expired. A method that returns a
+ * {@link StreamingBody} or an {@link Iterable} is streaming: its body is sent while it is
+ * produced instead of being encoded first.</p>
+ */
+final class ControllerInvoker {
+    static final long DEFAULT_TIMEOUT_MILLIS = 30_000;
+
+    private final String controllerName;
+    private final MethodHandle handle;
+    private final ParameterBinder[] binders;
+    private final Metrics.Route metrics;
+    private final ResponseCache cache;
+    private final RateLimiter rateLimiter;
+    /** How long to wait for an asynchronous result, or 0 if the method returns its result directly. */
+    private final long timeoutMillis;
+    private final boolean streaming;
+    /** Whether a parameter is bound to a path variable, so the route's variables must be extracted. */
+    private final boolean usesPathVariables;
+
+    private ControllerInvoker(String controllerName, MethodHandle handle, ParameterBinder[] binders,
+                              Metrics.Route metrics, ResponseCache cache, RateLimiter rateLimiter,
+                              long timeoutMillis, boolean streaming) {
+        this.controllerName = controllerName;
+        this.handle = handle;
+        this.binders = binders;
+        this.metrics = metrics;
+        this.cache = cache;
+        this.rateLimiter = rateLimiter;
+        this.timeoutMillis = timeoutMillis;
+        this.streaming = streaming;
+        boolean usesPathVariables = false;
+        for (ParameterBinder binder : binders) {
+            usesPathVariables |= binder.source == Source.PATH;
+        }
+        this.usesPathVariables = usesPathVariables;
+    }
+
+    /**
+     * Builds the invoker for a controller method.
+     *
+     * @param controller the controller instance the method is called on.
+     * @param method the handler method.
+     * @param metrics the statistics of the route the method is mapped to.
+     * @return the invoker.
+     * @throws IllegalAccessException if the method cannot be accessed.
+     * @throws IllegalArgumentException if a parameter cannot be bound, the method is
+     *                                  {@link Cacheable} and reads the request body or is asynchronous
+     *                                  or streaming, or it has a {@link ResponseTimeout} but is not asynchronous.
+     */
+    static ControllerInvoker create(Object controller, Method method, Metrics.Route metrics) throws IllegalAccessException {
+        return create(controller, method, metrics, null);
+    }
+
+    /**
+     * Builds the invoker for a controller method whose route may be rate limited.
+     *
+     * @param controller the controller instance the method is called on.
+     * @param method the handler method.
+     * @param metrics the statistics of the route the method is mapped to.
+     * @param routeRateLimit the limit of routes without a {@link RateLimit} annotation, or null for none.
+     * @return the invoker.
+     * @throws IllegalAccessException if the method cannot be accessed.
+     * @throws IllegalArgumentException as {@link #create(Object, Method, Metrics.Route)} does, or if
+     *                                  the method's {@link RateLimit} is not positive.
+     */
+    static ControllerInvoker create(Object controller, Method method, Metrics.Route metrics,
+                                    RateLimiter routeRateLimit) throws IllegalAccessException {
+        Parameter[] parameters = method.getParameters();
+        ParameterBinder[] binders = new ParameterBinder[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            binders[i] = ParameterBinder.of(method, parameters[i]);
+        }
+        boolean async = CompletionStage.class.isAssignableFrom(method.getReturnType());
+        ResponseTimeout responseTimeout = method.getAnnotation(ResponseTimeout.class);
+        if (responseTimeout != null && (!async || responseTimeout.value() <= 0)) {
+            throw new IllegalArgumentException("@ResponseTimeout must be positive and only applies to methods returning"
+                    + " a CompletionStage: " + method);
+        }
+        long timeoutMillis = !async ? 0 : responseTimeout != null ? responseTimeout.value() : DEFAULT_TIMEOUT_MILLIS;
+        boolean streaming = StreamingBody.class.isAssignableFrom(method.getReturnType()) || method.getReturnType() == Iterable.class;
+        ResponseCache cache = null;
+        Cacheable cacheable = method.getAnnotation(Cacheable.class);
+        if (cacheable != null) {
+            if (async) {
+                throw new IllegalArgumentException("@Cacheable method " + method + " cannot return a CompletionStage");
+            }
+            if (streaming) {
+                throw new IllegalArgumentException("@Cacheable method " + method + " cannot stream its response");
+            }
+            for (ParameterBinder binder : binders) {
+                if (binder.source == Source.BODY) {
+                    throw new IllegalArgumentException("@Cacheable method " + method + " cannot read the request body");
+                }
+            }
+            cache = new ResponseCache(cacheable.ttlSeconds(), cacheable.maxEntries());
+        }
+        if (!method.canAccess(controller)) {
+            method.setAccessible(true);
+        }
+        MethodHandle handle = MethodHandles.lookup().unreflect(method)
+                .bindTo(controller)
+                .asSpreader(Object[].class, parameters.length)
+                .asType(MethodType.methodType(Object.class, Object[].class));
+        return new ControllerInvoker(method.getDeclaringClass().getName(), handle, binders, metrics, cache,
+                RateLimiter.forRoute(method, routeRateLimit), timeoutMillis, streaming);
+    }
+
+    /**
+     * Binds the query parameters, path variables and body to the method's arguments and calls it.
+     *
+     * @param queryParams the query parameters of the request.
+     * @param pathVariables the path variables extracted by the router.
+     * @param body the request body, as opened by {@link HttpBody#open}.
+     * @return the value returned by the controller method.
+     * @throws HttpRequestParser.ParseException with 413 if the body is larger than its parameter allows.
+     * @throws Exception if a parameter cannot be converted or the controller method throws.
+     */
+    Object invoke(Map<String, String> queryParams, Map<String, String> pathVariables, InputStream body) throws Exception {
+        Object[] args = new Object[binders.length];
+        for (int i = 0; i < binders.length; i++) {
+            args[i] = binders[i].bind(queryParams, pathVariables, body);
+        }
+        try {
+            return (Object) handle.invokeExact(args);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    /**
+     * Tells whether any parameter of the method is a {@link PathVariable}.
+     *
+     * @return true if the path variables of the request must be extracted.
+     */
+    boolean usesPathVariables() {
+        return usesPathVariables;
+    }
+
+    /**
+     * Tells whether the method returns a {@link CompletionStage} rather than its result.
+     *
+     * @return true if the method is asynchronous.
+     */
+    boolean isAsync() {
+        return timeoutMillis > 0;
+    }
+
+    /**
+     * Tells whether the method returns a {@link StreamingBody} or an {@link Iterable}
+     * whose elements are sent as they are produced.
+     *
+     * @return true if the method's response is streamed.
+     */
+    boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Follows the stage returned by an asynchronous method, giving up after the method's
+     * timeout. The returned future is a separate one, so the timeout does not complete the
+     * controller's own stage, which may be shared with other callers.
+     *
+     * @param result the value returned by {@link #invoke}.
+     * @return a future completed with the stage's result, or exceptionally with the stage's
+     *         failure, or with a {@link java.util.concurrent.TimeoutException} when the
+     *         timeout expires first.
+     */
+    CompletableFuture<Object> await(Object result) {
+        CompletableFuture<Object> completion = new CompletableFuture<>();
+        if (result == null) {
+            completion.completeExceptionally(new NullPointerException(controllerName + " returned a null CompletionStage"));
+            return completion;
+        }
+        ((CompletionStage<?>) result).whenComplete((value, error) -> {
+            if (error == null) {
+                completion.complete(value);
+            } else {
+                completion.completeExceptionally(error);
+            }
+        });
+        return completion.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Builds the key of a request in the {@link ResponseCache}: the values of the
+     * parameters the method binds, after defaults are applied, so query parameters it
+     * does not read and their order do not matter.
+     *
+     * @param queryParams the query parameters of the request.
+     * @param pathVariables the path variables extracted by the router.
+     * @return the cache key.
+     */
+    String cacheKey(Map<String, String> queryParams, Map<String, String> pathVariables) {
+        StringBuilder key = new StringBuilder();
+        for (ParameterBinder binder : binders) {
+            if (binder.source == Source.QUERY || binder.source == Source.PATH) {
+                String value = binder.value(queryParams, pathVariables);
+                key.append(value.length()).append(':').append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the cache of this method's responses.
+     *
+     * @return the response cache, or null if the method is not {@link Cacheable}.
+     */
+    ResponseCache cache() {
+        return cache;
+    }
+
+    /**
+     * Returns the name of the controller class, for logging.
+     *
+     * @return the fully qualified controller class name.
+     */
+    String controllerName() {
+        return controllerName;
+    }
+
+    /**
+     * Returns the statistics of the route this method is mapped to.
+     *
+     * @return the route's metrics.
+     */
+    Metrics.Route metrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the limit on how often each client may call this method.
+     *
+     * @return the route's limiter, or null if the route is not limited.
+     */
+    RateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Where a method argument comes from.
+     */
+    private enum Source {
+        NONE, QUERY, PATH, BODY
+    }
+
+    /**
+     * Resolves one method argument from the query parameters, the path variables or the body.
+     */
+    private static final class ParameterBinder {
+        private final Source source;
+        private final String name;
+        private final String defaultValue;
+        private final Function<String, Object> converter;
+        private final Class<?> bodyType;
+        private final int maxBodySize;
+
+        private ParameterBinder(Source source, String name, String defaultValue, Function<String, Object> converter,
+                                Class<?> bodyType, int maxBodySize) {
+            this.source = source;
+            this.name = name;
+            this.defaultValue = defaultValue;
+            this.converter = converter;
+            this.bodyType = bodyType;
+            this.maxBodySize = maxBodySize;
+        }
+
+        static ParameterBinder of(Method method, Parameter parameter) {
+            Class<?> type = parameter.getType();
+            RequestBody requestBody = parameter.getAnnotation(RequestBody.class);
+            if (requestBody != null) {
+                if (type != InputStream.class && type != byte[].class && type != String.class) {
+                    throw new IllegalArgumentException("@RequestBody parameter " + parameter.getName() + " of " + method
+                            + " must be an InputStream, byte[] or String");
+                }
+                return new ParameterBinder(Source.BODY, null, null, null, type, requestBody.maxSize());
+            }
+            PathVariable pathVariable = parameter.getAnnotation(PathVariable.class);
+            if (pathVariable != null) {
+                return new ParameterBinder(Source.PATH, pathVariable.value(), "", converter(type), null, 0);
+            }
+            RequestParam requestParam = parameter.getAnnotation(RequestParam.class);
+            if (requestParam == null) {
+                if (type.isPrimitive()) {
+                    throw new IllegalArgumentException("Parameter " + parameter.getName() + " of " + method
+                            + " must be annotated with @RequestParam, @PathVariable or @RequestBody");
+                }
+                return new ParameterBinder(Source.NONE, null, null, null, null, 0);
+            }
+            return new ParameterBinder(Source.QUERY, requestParam.value(), requestParam.defaultValue(), converter(type), null, 0);
+        }
+
+        Object bind(Map<String, String> queryParams, Map<String, String> pathVariables, InputStream body) throws IOException {
+            if (source == Source.NONE) {
+                return null;
+            }
+            if (source == Source.BODY) {
+                if (bodyType == InputStream.class) {
+                    return body;
+                }
+                byte[] bytes = HttpBody.readAll(body, maxBodySize);
+                return bodyType == String.class ? new String(bytes, StandardCharsets.UTF_8) : bytes;
+            }
+            return converter.apply(value(queryParams, pathVariables));
+        }
+
+        String value(Map<String, String> queryParams, Map<String, String> pathVariables) {
+            String value = source == Source.PATH ? pathVariables.get(name) : queryParams.get(name);
+            // Si el parámetro no está en queryParams o está presente pero es vacío, usar el valor por defecto
+            if (value == null || value.isEmpty()) {
+                value = defaultValue;
+            }
+            return value;
+        }
+
+        private static Function<String, Object> converter(Class<?> type) {
+            if (type == int.class || type == Integer.class) {
+                return Integer::valueOf;
+            } else if (type == long.class || type == Long.class) {
+                return Long::valueOf;
+            } else if (type == double.class || type == Double.class) {
+                return Double::valueOf;
+            } else if (type == boolean.class || type == Boolean.class) {
+                return Boolean::valueOf;
+            }
+            return value -> value;
+        }
+    }
+}
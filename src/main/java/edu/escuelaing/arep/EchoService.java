@@ -0,0 +1,44 @@
+package edu.escuelaing.arep;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import edu.escuelaing.arep.annotations.PostMapping;
+import edu.escuelaing.arep.annotations.RequestBody;
+import edu.escuelaing.arep.annotations.RestController;
+
+/**
+ * The EchoService class provides a RESTful service that answers POST requests with
+ * information about the body it received. It is annotated with @RestController to
+ * indicate that it is a controller class that handles HTTP requests.
+ */
+@RestController
+public class EchoService {
+
+    /**
+     * Handles HTTP POST requests to the /app/echo endpoint. This method returns the
+     * request body unchanged.
+     *
+     * @param body the request body, decoded as UTF-8.
+     * @return the same body.
+     */
+    @PostMapping("/app/echo")
+    public String echo(@RequestBody String body) {
+        return body;
+    }
+
+    /**
+     * Handles HTTP POST requests to the /app/echo/length endpoint. This method reads the
+     * request body as a stream and returns how many bytes it had, so bodies of any size
+     * can be sent without being held in memory.
+     *
+     * @param body the request body.
+     * @return the number of bytes in the body.
+     * @throws IOException if the body cannot be read.
+     */
+    @PostMapping("/app/echo/length")
+    public long length(@RequestBody InputStream body) throws IOException {
+        return body.transferTo(OutputStream.nullOutputStream());
+    }
+}
@@ -2,9 +2,13 @@ package edu.escuelaing.arep;
 
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import edu.escuelaing.arep.annotations.GetMapping;
+import edu.escuelaing.arep.annotations.PathVariable;
 import edu.escuelaing.arep.annotations.RequestParam;
+import edu.escuelaing.arep.annotations.ResponseTimeout;
 import edu.escuelaing.arep.annotations.RestController;
 
 /**
@@ -14,6 +18,7 @@ import edu.escuelaing.arep.annotations.RestController;
  */
 @RestController
 public class HelloService {
+    static final long MAX_DELAY_MILLIS = 10_000;
 
     /**
      * Handles HTTP GET requests to the /app/hello endpoint. This method returns a greeting
@@ -27,4 +32,35 @@ public class HelloService {
     public String hello(@RequestParam(value = "name", defaultValue = "Mundo") String name) {
         return "Hola, " + name;
     }
+
+    /**
+     * Handles HTTP GET requests to the /app/hello/{name} endpoint. This method returns the
+     * same greeting as {@link #hello(String)}, taking the name from the request path.
+     *
+     * @param name the name to include in the greeting message, taken from the last path segment.
+     * @return a string that contains the greeting message, "Hola, " followed by the name.
+     */
+    @GetMapping("/app/hello/{name}")
+    public String helloPath(@PathVariable("name") String name) {
+        return "Hola, " + name;
+    }
+
+    /**
+     * Handles HTTP GET requests to the /app/hello-async endpoint. This method returns the
+     * same greeting as {@link #hello(String)} after a delay, without holding a thread
+     * while it waits, the way a controller waiting for another service would. If the
+     * greeting takes longer than one second the client receives a 504 Gateway Timeout.
+     *
+     * @param name the name to include in the greeting message. If not provided, "Mundo" is used as the default value.
+     * @param delay how long to wait before answering, in milliseconds, up to {@link #MAX_DELAY_MILLIS}.
+     * @return a future completed with the greeting once the delay has passed.
+     */
+    @ResponseTimeout(1000)
+    @GetMapping("/app/hello-async")
+    public CompletableFuture<String> helloAsync(@RequestParam(value = "name", defaultValue = "Mundo") String name,
+                                                @RequestParam(value = "delay", defaultValue = "100") long delay) {
+        long millis = Math.max(0, Math.min(delay, MAX_DELAY_MILLIS));
+        return CompletableFuture.supplyAsync(() -> "Hola, " + name,
+                CompletableFuture.delayedExecutor(millis, TimeUnit.MILLISECONDS));
+    }
 }
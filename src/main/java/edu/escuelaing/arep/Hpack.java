@@ -0,0 +1,501 @@
+package edu.escuelaing.arep;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * The Hpack class implements HPACK, the header compression of HTTP/2 (RFC 7541), for
+ * {@link Http2Connection}. Each direction of a connection has its own compression
+ * state: a {@link Decoder} for the request headers the client sends and an
+ * {@link Encoder} for the response headers the server sends.
+ *
+ * <p>Both share the static table of common header fields and keep a dynamic table of
+ * the fields seen recently on the connection, so a header repeated on every request,
+ * such as {@code user-agent}, costs a single byte after its first occurrence. String
+ * literals may be Huffman coded with the fixed code of the specification.</p>
+ */
+final class Hpack {
+    /** The default size of a dynamic table, and the largest this server uses in either direction. */
+    static final int DEFAULT_TABLE_SIZE = 4096;
+    /** The size a field takes in a dynamic table on top of its name and value. */
+    private static final int ENTRY_OVERHEAD = 32;
+
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+            {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+            {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+            {":status", "404"}, {":status", "500"}, {"accept-charset", ""}, {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+            {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+            {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+            {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+            {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""},
+            {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+            {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""},
+            {"link", ""}, {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+            {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+            {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+            {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+            {"www-authenticate", ""}
+    };
+    /** The static index of each name, and of each name and value joined by a NUL, for the encoder. */
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+
+    /** The Huffman code of each octet and of the end-of-string symbol (256), right-aligned. */
+    private static final int[] HUFFMAN_CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+            0x3fffffff
+    };
+    private static final byte[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+    private static final int EOS = 256;
+    /**
+     * The Huffman decoding tree. Node {@code n} has its children at {@code 2n} (bit 0)
+     * and {@code 2n + 1} (bit 1); a positive child is the index of the next node and a
+     * negative one the leaf of symbol {@code -child - 1}.
+     */
+    private static final int[] HUFFMAN_TREE = huffmanTree();
+
+    static {
+        for (int i = STATIC_TABLE.length; i > 0; i--) {
+            String[] field = STATIC_TABLE[i - 1];
+            STATIC_NAMES.put(field[0], i);
+            STATIC_FIELDS.put(field[0] + '\0' + field[1], i);
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * A header block that cannot be decoded. The compression state is lost with it, so
+     * it is a connection error of type COMPRESSION_ERROR.
+     */
+    static final class CompressionException extends IOException {
+        CompressionException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Decodes the header blocks of one direction of a connection, in the order they
+     * were sent.
+     */
+    static final class Decoder {
+        private final DynamicTable table;
+        private final int maxTableSize;
+
+        /**
+         * Constructs a new Decoder.
+         *
+         * @param maxTableSize the table size advertised to the peer with
+         *                     SETTINGS_HEADER_TABLE_SIZE; the encoder may not exceed it.
+         */
+        Decoder(int maxTableSize) {
+            this.maxTableSize = maxTableSize;
+            this.table = new DynamicTable(maxTableSize);
+        }
+
+        /**
+         * Decodes a complete header block, updating the dynamic table.
+         *
+         * @param block the header block, with the fragments of its CONTINUATION frames joined.
+         * @param header receives every field, name first, in the order of the block.
+         * @throws CompressionException if the block is malformed.
+         */
+        void decode(ByteBuffer block, BiConsumer<String, String> header) throws CompressionException {
+            boolean fieldSeen = false;
+            while (block.hasRemaining()) {
+                int b = block.get(block.position()) & 0xff;
+                if ((b & 0x80) != 0) {
+                    String[] field = field(readInteger(block, 7));
+                    header.accept(field[0], field[1]);
+                    fieldSeen = true;
+                } else if ((b & 0xe0) == 0x20) {
+                    if (fieldSeen) {
+                        throw new CompressionException("Table size update after a header field");
+                    }
+                    int size = readInteger(block, 5);
+                    if (size > maxTableSize) {
+                        throw new CompressionException("Table size " + size + " exceeds " + maxTableSize);
+                    }
+                    table.resize(size);
+                } else {
+                    boolean indexing = (b & 0xc0) == 0x40;
+                    int nameIndex = readInteger(block, indexing ? 6 : 4);
+                    String name = nameIndex == 0 ? readString(block) : field(nameIndex)[0];
+                    String value = readString(block);
+                    if (indexing) {
+                        table.add(name, value);
+                    }
+                    header.accept(name, value);
+                    fieldSeen = true;
+                }
+            }
+        }
+
+        private String[] field(int index) throws CompressionException {
+            if (index > 0 && index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1];
+            }
+            String[] field = index > 0 ? table.get(index - STATIC_TABLE.length) : null;
+            if (field == null) {
+                throw new CompressionException("Invalid table index " + index);
+            }
+            return field;
+        }
+    }
+
+    /**
+     * Encodes the header blocks of one direction of a connection. Blocks must be sent in
+     * the order they are encoded.
+     */
+    static final class Encoder {
+        /** Fields whose values rarely repeat, which would only push useful entries out of the table. */
+        private static final Set<String> NOT_INDEXED = Set.of("content-length", "etag", "last-modified", "date",
+                "content-range", "set-cookie", "authorization");
+        private final DynamicTable table = new DynamicTable(DEFAULT_TABLE_SIZE);
+        /** The smallest table size since the last block, to signal before the next one, or -1. */
+        private int smallestSize = -1;
+
+        /**
+         * Applies the peer's SETTINGS_HEADER_TABLE_SIZE. The encoder uses at most
+         * {@link #DEFAULT_TABLE_SIZE} even if the peer allows more.
+         *
+         * @param size the largest table the peer's decoder keeps.
+         */
+        void maxTableSize(int size) {
+            size = Math.min(size, DEFAULT_TABLE_SIZE);
+            if (size != table.maxSize || smallestSize >= 0) {
+                smallestSize = smallestSize < 0 ? size : Math.min(smallestSize, size);
+                table.resize(size);
+            }
+        }
+
+        /**
+         * Starts a header block, signalling any table size change first.
+         *
+         * @param out where the block is encoded.
+         */
+        void startBlock(ByteArrayOutputStream out) {
+            if (smallestSize >= 0) {
+                writeInteger(out, 0x20, 5, smallestSize);
+                if (smallestSize != table.maxSize) {
+                    writeInteger(out, 0x20, 5, table.maxSize);
+                }
+                smallestSize = -1;
+            }
+        }
+
+        /**
+         * Encodes one field of the current header block.
+         *
+         * @param out where the block is encoded.
+         * @param name the field name, in lower case.
+         * @param value the field value.
+         */
+        void encode(ByteArrayOutputStream out, String name, String value) {
+            Integer index = STATIC_FIELDS.get(name + '\0' + value);
+            if (index == null) {
+                int dynamic = table.indexOf(name, value);
+                index = dynamic > 0 ? dynamic + STATIC_TABLE.length : null;
+            }
+            if (index != null) {
+                writeInteger(out, 0x80, 7, index);
+                return;
+            }
+            Integer nameIndex = STATIC_NAMES.get(name);
+            if (nameIndex == null) {
+                int dynamic = table.indexOfName(name);
+                nameIndex = dynamic > 0 ? dynamic + STATIC_TABLE.length : 0;
+            }
+            boolean indexing = !NOT_INDEXED.contains(name) && table.maxSize > 0;
+            writeInteger(out, indexing ? 0x40 : 0x00, indexing ? 6 : 4, nameIndex);
+            if (nameIndex == 0) {
+                writeString(out, name);
+            }
+            writeString(out, value);
+            if (indexing) {
+                table.add(name, value);
+            }
+        }
+    }
+
+    /**
+     * A dynamic table: a ring of the most recently indexed fields, evicted oldest first
+     * to stay within its size. Index 1 is the newest entry.
+     */
+    private static final class DynamicTable {
+        private String[][] entries = new String[16][];
+        private int head;
+        private int count;
+        private int size;
+        private int maxSize;
+
+        DynamicTable(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        String[] get(int index) {
+            return index <= count ? entries[(head - index + 1 + entries.length) % entries.length] : null;
+        }
+
+        int indexOf(String name, String value) {
+            for (int i = 1; i <= count; i++) {
+                String[] entry = get(i);
+                if (entry[0].equals(name) && entry[1].equals(value)) {
+                    return i;
+                }
+            }
+            return 0;
+        }
+
+        int indexOfName(String name) {
+            for (int i = 1; i <= count; i++) {
+                if (get(i)[0].equals(name)) {
+                    return i;
+                }
+            }
+            return 0;
+        }
+
+        void add(String name, String value) {
+            int entrySize = ENTRY_OVERHEAD + name.length() + value.length();
+            if (entrySize > maxSize) {
+                // A field larger than the table empties it and is not stored.
+                count = 0;
+                size = 0;
+                return;
+            }
+            evict(maxSize - entrySize);
+            if (count == entries.length) {
+                String[][] larger = new String[entries.length * 2][];
+                for (int i = count; i > 0; i--) {
+                    larger[count - i] = get(i);
+                }
+                entries = larger;
+                head = count - 1;
+            }
+            head = (head + 1) % entries.length;
+            entries[head] = new String[] {name, value};
+            count++;
+            size += entrySize;
+        }
+
+        void resize(int newMaxSize) {
+            maxSize = newMaxSize;
+            evict(newMaxSize);
+        }
+
+        private void evict(int targetSize) {
+            while (size > targetSize) {
+                String[] oldest = get(count);
+                entries[(head - count + 1 + entries.length) % entries.length] = null;
+                count--;
+                size -= ENTRY_OVERHEAD + oldest[0].length() + oldest[1].length();
+            }
+        }
+    }
+
+    /**
+     * Reads an integer with an N-bit prefix (RFC 7541, section 5.1).
+     */
+    private static int readInteger(ByteBuffer in, int prefixBits) throws CompressionException {
+        int max = (1 << prefixBits) - 1;
+        int value = in.get() & max;
+        if (value < max) {
+            return value;
+        }
+        for (int shift = 0; shift <= 28; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new CompressionException("Truncated integer");
+            }
+            int b = in.get() & 0xff;
+            long total = value + ((long) (b & 0x7f) << shift);
+            if (total > Integer.MAX_VALUE) {
+                break;
+            }
+            value = (int) total;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new CompressionException("Integer overflow");
+    }
+
+    /**
+     * Writes an integer with an N-bit prefix, the other bits of the first byte set to {@code flags}.
+     */
+    static void writeInteger(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | max);
+        value -= max;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static String readString(ByteBuffer in) throws CompressionException {
+        if (!in.hasRemaining()) {
+            throw new CompressionException("Truncated string");
+        }
+        boolean huffman = (in.get(in.position()) & 0x80) != 0;
+        int length = readInteger(in, 7);
+        if (length > in.remaining()) {
+            throw new CompressionException("Truncated string");
+        }
+        if (huffman) {
+            return huffmanDecode(in, length);
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.ISO_8859_1);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    /**
+     * Writes a string literal, Huffman coded when that makes it shorter.
+     */
+    static void writeString(ByteArrayOutputStream out, String value) {
+        long bits = 0;
+        for (int i = 0; i < value.length(); i++) {
+            bits += HUFFMAN_LENGTHS[value.charAt(i) & 0xff];
+        }
+        int huffmanLength = (int) ((bits + 7) / 8);
+        if (huffmanLength >= value.length()) {
+            writeInteger(out, 0x00, 7, value.length());
+            for (int i = 0; i < value.length(); i++) {
+                out.write(value.charAt(i));
+            }
+            return;
+        }
+        writeInteger(out, 0x80, 7, huffmanLength);
+        long buffer = 0;
+        int pending = 0;
+        for (int i = 0; i < value.length(); i++) {
+            int symbol = value.charAt(i) & 0xff;
+            buffer = buffer << HUFFMAN_LENGTHS[symbol] | HUFFMAN_CODES[symbol];
+            pending += HUFFMAN_LENGTHS[symbol];
+            while (pending >= 8) {
+                pending -= 8;
+                out.write((int) (buffer >>> pending));
+            }
+        }
+        if (pending > 0) {
+            // Pad with the most significant bits of the end-of-string code, all ones.
+            out.write((int) (buffer << (8 - pending)) | (0xff >>> pending));
+        }
+    }
+
+    private static String huffmanDecode(ByteBuffer in, int length) throws CompressionException {
+        StringBuilder value = new StringBuilder(length * 8 / 5);
+        int node = 0;
+        int depth = 0;
+        boolean padding = true;
+        for (int i = 0; i < length; i++) {
+            int b = in.get() & 0xff;
+            for (int bit = 7; bit >= 0; bit--) {
+                int set = (b >>> bit) & 1;
+                int child = HUFFMAN_TREE[2 * node + set];
+                padding &= set == 1;
+                depth++;
+                if (child < 0) {
+                    int symbol = -child - 1;
+                    if (symbol == EOS) {
+                        throw new CompressionException("End-of-string symbol in a string literal");
+                    }
+                    value.append((char) symbol);
+                    node = 0;
+                    depth = 0;
+                    padding = true;
+                } else {
+                    node = child;
+                }
+            }
+        }
+        if (depth > 7 || !padding) {
+            throw new CompressionException("Invalid Huffman padding");
+        }
+        return value.toString();
+    }
+
+    private static int[] huffmanTree() {
+        int[] tree = new int[2 * 2 * (EOS + 1)];
+        int nodes = 1;
+        for (int symbol = 0; symbol <= EOS; symbol++) {
+            int node = 0;
+            for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit >= 0; bit--) {
+                int slot = 2 * node + ((HUFFMAN_CODES[symbol] >>> bit) & 1);
+                if (bit == 0) {
+                    tree[slot] = -symbol - 1;
+                } else {
+                    if (tree[slot] == 0) {
+                        tree[slot] = nodes++;
+                    }
+                    node = tree[slot];
+                }
+            }
+        }
+        return tree;
+    }
+}
@@ -0,0 +1,1392 @@
+package edu.escuelaing.arep;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * The Http2Connection class serves a connection that speaks HTTP/2 over cleartext TCP
+ * (h2c, RFC 9113). A client either starts with the connection preface, when it knows
+ * the server speaks HTTP/2 ("prior knowledge"), or sends an HTTP/1.1 request with
+ * {@code Upgrade: h2c}, which is answered with {@code 101 Switching Protocols} and then
+ * on stream 1. Either way a browser loads a page and all its resources over a single
+ * connection, with header fields compressed by {@link Hpack}.
+ *
+ * <p>The thread that serves the connection only reads frames, and is not one of the
+ * worker group's. Each request, once its
+ * headers and body have arrived, is handed to the worker group and handled by the same
+ * {@link ClientHandler#processRequest} as an HTTP/1.1 request, so static files and
+ * {@code @GetMapping} or {@code @PostMapping} controllers answer multiplexed streams
+ * concurrently. The response a handler writes in HTTP/1.1 form is translated by a
+ * {@link StreamOutput}: its head becomes a HEADERS frame, without the connection-specific
+ * fields, and its body DATA frames, interleaved with those of the other streams.</p>
+ *
+ * <p>DATA frames are flow controlled per stream and per connection: a handler waits
+ * until the client has opened both windows far enough, for at most the
+ * {@link AdmissionControl} write timeout, so a client that stops reading one stream
+ * does not hold the others back. Request bodies are collected in memory up to
+ * {@link NioServer#MAX_BODY_SIZE}, and the windows of the client are opened again as
+ * they arrive.</p>
+ *
+ * <p>A connection without open streams is closed with a GOAWAY once the idle timeout
+ * expires. Unlike a persistent HTTP/1.1 connection it is not closed early when other
+ * connections are waiting for a thread: its frames are read on a thread of its own,
+ * outside the worker group, so closing it would free no worker.</p>
+ */
+final class Http2Connection {
+    /** The protocol version given to the requests of HTTP/2 streams. */
+    static final String VERSION = "HTTP/2.0";
+    static final int MAX_CONCURRENT_STREAMS = 100;
+    static final int DEFAULT_WINDOW_SIZE = 65_535;
+    static final int DEFAULT_MAX_FRAME_SIZE = 16_384;
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+    private static final int MAX_HEADER_BLOCK_SIZE = 4 * HttpRequestParser.MAX_HEADER_SIZE;
+    private static final int FRAME_HEADER_SIZE = 9;
+    /** How often a waiting connection checks whether it still has open streams, which keep it from being idle. */
+    private static final int IDLE_POLL_MILLIS = 50;
+    /** What follows the {@code PRI * HTTP/2.0} request head in the connection preface. */
+    private static final byte[] PREFACE_END = "SM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 101 Switching Protocols\r\n"
+            + "Connection: Upgrade\r\nUpgrade: h2c\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    /** HTTP/1.1 header fields that describe the connection rather than the message. */
+    private static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive", "proxy-connection",
+            "transfer-encoding", "upgrade");
+
+    static final int DATA = 0x0;
+    static final int HEADERS = 0x1;
+    static final int PRIORITY = 0x2;
+    static final int RST_STREAM = 0x3;
+    static final int SETTINGS = 0x4;
+    static final int PUSH_PROMISE = 0x5;
+    static final int PING = 0x6;
+    static final int GOAWAY = 0x7;
+    static final int WINDOW_UPDATE = 0x8;
+    static final int CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+    static final int ENHANCE_YOUR_CALM = 0xb;
+
+    /**
+     * Runs the frame readers. They are kept apart from the worker group, which runs the
+     * streams' requests: a reader waiting on a worker its own streams are queued behind
+     * would never be answered.
+     */
+    private static final ExecutorService READERS = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "h2c-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Socket socket;
+    private final RequestInput in;
+    private final ResponseOutput.Blocking out;
+    private final ClientHandler handler;
+    private final Executor workers;
+    private final AdmissionControl admission = SimpleWebServer.admission;
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    /** Guarded by this, as is everything written to {@link #out}. */
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+    private final byte[] frameHeader = new byte[FRAME_HEADER_SIZE];
+
+    /** The open streams, from the first frame received until the response has been sent. Guarded by this. */
+    private final Map<Integer, Stream> streams = new HashMap<>();
+    private int connectionWindow = DEFAULT_WINDOW_SIZE;
+    private int initialWindow = DEFAULT_WINDOW_SIZE;
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private boolean closed;
+
+    /** The highest stream the client has opened; only the reading thread changes it. */
+    private int lastStreamId;
+    /** The header block being received in CONTINUATION frames, and the stream and flags of its HEADERS frame. */
+    private ByteArrayOutputStream headerBlock;
+    private int headerBlockStream;
+    private int headerBlockFlags;
+    private boolean clientGoingAway;
+
+    /**
+     * Constructs a new Http2Connection.
+     *
+     * @param socket the client socket.
+     * @param in the connection's input, positioned after the request that switched to HTTP/2.
+     * @param out the connection's output.
+     * @param handler the handler that answers the requests.
+     * @param workers the executor that runs the requests of the streams.
+     */
+    Http2Connection(Socket socket, RequestInput in, ResponseOutput.Blocking out, ClientHandler handler, Executor workers) {
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+        this.handler = handler;
+        this.workers = workers;
+    }
+
+    /**
+     * Takes a connection over and serves it on a reader thread of its own. Once served,
+     * the connection is closed and released from the watchdog, admission control and
+     * metrics, as the engine that accepted it would have done.
+     *
+     * @param socket the client socket.
+     * @param in the connection's input, positioned after the request that switched to HTTP/2.
+     * @param out the connection's output.
+     * @param handler the handler that answers the requests.
+     * @param workers the executor that runs the requests of the streams.
+     * @param request the preface head, or the request that asked for the upgrade.
+     */
+    static void start(Socket socket, RequestInput in, ResponseOutput.Blocking out, ClientHandler handler,
+            Executor workers, HttpRequest request) {
+        Http2Connection connection = new Http2Connection(socket, in, out, handler, workers);
+        connection.admission.watch(out);
+        READERS.execute(() -> {
+            try {
+                connection.serve(request);
+            } catch (IOException e) {
+                // The connection broke before its first frame.
+            } finally {
+                ClientHandler.closeStreams(in, out);
+                connection.admission.unwatch(out);
+                connection.admission.connectionClosed();
+                SimpleWebServer.metrics.connectionClosed();
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Tells whether a request head is the start of the HTTP/2 connection preface,
+     * {@code PRI * HTTP/2.0} followed by an empty line.
+     *
+     * @param request the request head.
+     * @return true if the client speaks HTTP/2 with prior knowledge.
+     */
+    static boolean isPreface(HttpRequest request) {
+        return VERSION.equals(request.version()) && "PRI".equals(request.method())
+                && "*".equals(request.target()) && request.headers().isEmpty();
+    }
+
+    /**
+     * Tells whether an HTTP/1.1 request asks to upgrade the connection to h2c, with
+     * valid {@code HTTP2-Settings}. Requests with a body are answered over HTTP/1.1,
+     * which the upgrade mechanism allows, rather than reading the body before switching.
+     *
+     * @param request the request head.
+     * @return true if the connection should switch to HTTP/2 for the response.
+     */
+    static boolean isUpgrade(HttpRequest request) {
+        Map<String, String> headers = request.headers();
+        String upgrade = headers.get("upgrade");
+        String settings = headers.get("http2-settings");
+        if (upgrade == null || settings == null || !"HTTP/1.1".equals(request.version())
+                || request.chunked() || request.contentLength() > 0
+                || !hasToken(upgrade, "h2c") || !hasToken(headers.getOrDefault("connection", ""), "upgrade")) {
+            return false;
+        }
+        return decodeSettings(settings) != null;
+    }
+
+    private static boolean hasToken(String list, String token) {
+        for (String element : list.split(",")) {
+            if (element.trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes the base64url {@code HTTP2-Settings} header of an upgrade request.
+     *
+     * @return the payload of a SETTINGS frame, or null if the value is invalid.
+     */
+    private static byte[] decodeSettings(String value) {
+        try {
+            byte[] payload = Base64.getUrlDecoder().decode(value.trim());
+            return payload.length % 6 == 0 ? payload : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Serves the connection until the client closes it or sends GOAWAY, a connection
+     * error occurs or the connection has been idle for too long. Streams still being
+     * answered when the client sends GOAWAY are completed first.
+     *
+     * @param request the preface head, or the request that asked for the upgrade, which
+     *                is answered on stream 1.
+     * @throws IOException if an I/O error occurs while writing.
+     */
+    void serve(HttpRequest request) throws IOException {
+        boolean upgrade = !isPreface(request);
+        synchronized (this) {
+            if (upgrade) {
+                out.write(SWITCHING_PROTOCOLS);
+            }
+            writeSettings();
+            out.flush();
+        }
+        int error = NO_ERROR;
+        try {
+            if (upgrade) {
+                synchronized (this) {
+                    applySettings(decodeSettings(request.headers().get("http2-settings")));
+                }
+                Stream stream = new Stream(1, initialWindow);
+                stream.remoteClosed = true;
+                lastStreamId = 1;
+                synchronized (this) {
+                    streams.put(1, stream);
+                }
+                Map<String, String> headers = new HashMap<>(request.headers());
+                headers.keySet().removeAll(CONNECTION_HEADERS);
+                headers.remove("http2-settings");
+                dispatch(stream, HttpRequestParser.request(request.method(), request.target(), VERSION, headers),
+                        new byte[0]);
+                readPreface(PREFACE);
+            } else {
+                readPreface(PREFACE_END);
+            }
+            error = readFrames();
+        } catch (ProtocolException e) {
+            error = e.errorCode;
+        } catch (Hpack.CompressionException e) {
+            error = COMPRESSION_ERROR;
+        } catch (SocketTimeoutException e) {
+            admission.timedOut();
+            error = -1;
+        } catch (IOException e) {
+            // The client closed the connection, or sent a frame it did not finish.
+            error = -1;
+        }
+        if (error >= 0) {
+            goAway(error);
+        }
+        close(error == NO_ERROR);
+    }
+
+    /**
+     * Reads the client's connection preface, or its remaining bytes, followed by the
+     * SETTINGS frame that must come first.
+     */
+    private void readPreface(byte[] expected) throws IOException {
+        socket.setSoTimeout(admission.readTimeoutMillis);
+        byte[] preface = in.readNBytes(expected.length);
+        if (preface.length < expected.length) {
+            throw new EOFException();
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (preface[i] != expected[i]) {
+                throw new ProtocolException(0, PROTOCOL_ERROR, "Invalid connection preface");
+            }
+        }
+        if (in.readNBytes(frameHeader, 0, FRAME_HEADER_SIZE) < FRAME_HEADER_SIZE) {
+            throw new EOFException();
+        }
+        if (frameHeader[3] != SETTINGS || (frameHeader[4] & FLAG_ACK) != 0) {
+            throw new ProtocolException(0, PROTOCOL_ERROR, "The preface must be followed by SETTINGS");
+        }
+        readFrame();
+    }
+
+    /**
+     * Reads frames until the connection should be closed.
+     *
+     * @return the error code of the GOAWAY to send, or -1 if the client has gone away.
+     */
+    private int readFrames() throws IOException {
+        while (true) {
+            int first = awaitFrame();
+            if (first == -2) {
+                return NO_ERROR;
+            }
+            if (first < 0) {
+                return -1;
+            }
+            frameHeader[0] = (byte) first;
+            if (in.readNBytes(frameHeader, 1, FRAME_HEADER_SIZE - 1) < FRAME_HEADER_SIZE - 1) {
+                return -1;
+            }
+            try {
+                if (!readFrame()) {
+                    return clientGoingAway ? NO_ERROR : -1;
+                }
+            } catch (ProtocolException e) {
+                if (e.streamId == 0) {
+                    throw e;
+                }
+                reset(e.streamId, e.errorCode);
+            }
+        }
+    }
+
+    /**
+     * Waits for the first byte of the next frame. The idle timeout only runs while no
+     * stream is open, since the client sends nothing while it waits for its responses.
+     *
+     * @return the byte, -1 if the connection ended or -2 if it should be closed.
+     */
+    private int awaitFrame() throws IOException {
+        socket.setSoTimeout(Math.min(IDLE_POLL_MILLIS, admission.idleTimeoutMillis));
+        long idleSince = System.nanoTime();
+        long idleTimeout = TimeUnit.MILLISECONDS.toNanos(admission.idleTimeoutMillis);
+        while (true) {
+            try {
+                int b = in.read();
+                socket.setSoTimeout(admission.readTimeoutMillis);
+                return b;
+            } catch (SocketTimeoutException e) {
+                long now = System.nanoTime();
+                synchronized (this) {
+                    if (!streams.isEmpty()) {
+                        idleSince = now;
+                        continue;
+                    }
+                }
+                if (now - idleSince > idleTimeout) {
+                    return -2;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the payload of the frame whose header is in {@link #frameHeader} and acts on it.
+     *
+     * @return false if the connection ended in the middle of the frame or the client sent GOAWAY.
+     */
+    private boolean readFrame() throws IOException {
+        int length = (frameHeader[0] & 0xff) << 16 | (frameHeader[1] & 0xff) << 8 | (frameHeader[2] & 0xff);
+        int type = frameHeader[3] & 0xff;
+        int flags = frameHeader[4] & 0xff;
+        int streamId = readInt(frameHeader, 5) & 0x7fffffff;
+        if (length > DEFAULT_MAX_FRAME_SIZE) {
+            throw new ProtocolException(0, FRAME_SIZE_ERROR, "Frame of " + length + " bytes");
+        }
+        byte[] payload = in.readNBytes(length);
+        if (payload.length < length) {
+            return false;
+        }
+        if (headerBlock != null && type != CONTINUATION) {
+            throw new ProtocolException(0, PROTOCOL_ERROR, "Expected CONTINUATION");
+        }
+        switch (type) {
+            case DATA:
+                onData(streamId, flags, payload);
+                break;
+            case HEADERS:
+                onHeaders(streamId, flags, payload);
+                break;
+            case PRIORITY:
+                // Streams are answered as soon as their requests are complete; priorities are advisory.
+                requireStream(streamId);
+                if (length != 5) {
+                    throw new ProtocolException(streamId, FRAME_SIZE_ERROR, "PRIORITY of " + length + " bytes");
+                }
+                break;
+            case RST_STREAM:
+                onReset(streamId, payload);
+                break;
+            case SETTINGS:
+                onSettings(streamId, flags, payload);
+                break;
+            case PING:
+                onPing(streamId, flags, payload);
+                break;
+            case GOAWAY:
+                if (streamId != 0) {
+                    throw new ProtocolException(0, PROTOCOL_ERROR, "GOAWAY on a stream");
+                }
+                clientGoingAway = true;
+                return false;
+            case WINDOW_UPDATE:
+                onWindowUpdate(streamId, payload);
+                break;
+            case CONTINUATION:
+                onContinuation(streamId, flags, payload);
+                break;
+            case PUSH_PROMISE:
+                throw new ProtocolException(0, PROTOCOL_ERROR, "Clients cannot push");
+            default:
+                // Unknown frame types are ignored.
+        }
+        return true;
+    }
+
+    private void onData(int streamId, int flags, byte[] payload) throws IOException {
+        requireStream(streamId);
+        int padding = padding(flags, payload, 0);
+        synchronized (this) {
+            // The bytes are accounted for as soon as they arrive, whatever becomes of the stream.
+            if (payload.length > 0) {
+                writeWindowUpdate(0, payload.length);
+                out.flush();
+            }
+        }
+        Stream stream = stream(streamId);
+        if (stream == null || stream.remoteClosed) {
+            if (streamId > lastStreamId) {
+                throw new ProtocolException(0, PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+            }
+            if (stream != null) {
+                throw new ProtocolException(streamId, STREAM_CLOSED, "DATA after END_STREAM");
+            }
+            // A stream that was reset may still receive what the client sent before it knew.
+            return;
+        }
+        int offset = (flags & FLAG_PADDED) != 0 ? 1 : 0;
+        int dataLength = payload.length - offset - padding;
+        if (stream.body.size() + dataLength > NioServer.MAX_BODY_SIZE) {
+            reject(stream, "413 Payload Too Large");
+            return;
+        }
+        stream.body.write(payload, offset, dataLength);
+        if ((flags & FLAG_END_STREAM) != 0) {
+            stream.remoteClosed = true;
+            dispatch(stream);
+        } else if (payload.length > 0) {
+            synchronized (this) {
+                writeWindowUpdate(streamId, payload.length);
+                out.flush();
+            }
+        }
+    }
+
+    private void onHeaders(int streamId, int flags, byte[] payload) throws IOException {
+        requireStream(streamId);
+        int padding = padding(flags, payload, (flags & FLAG_PRIORITY) != 0 ? 5 : 0);
+        int offset = ((flags & FLAG_PADDED) != 0 ? 1 : 0) + ((flags & FLAG_PRIORITY) != 0 ? 5 : 0);
+        headerBlock = new ByteArrayOutputStream();
+        headerBlock.write(payload, offset, payload.length - offset - padding);
+        headerBlockStream = streamId;
+        headerBlockFlags = flags;
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            endHeaderBlock();
+        }
+    }
+
+    private void onContinuation(int streamId, int flags, byte[] payload) throws IOException {
+        if (headerBlock == null || streamId != headerBlockStream) {
+            throw new ProtocolException(0, PROTOCOL_ERROR, "Unexpected CONTINUATION");
+        }
+        if (headerBlock.size() + payload.length > MAX_HEADER_BLOCK_SIZE) {
+            throw new ProtocolException(0, ENHANCE_YOUR_CALM, "Header block too large");
+        }
+        headerBlock.write(payload, 0, payload.length);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            endHeaderBlock();
+        }
+    }
+
+    /**
+     * Decodes a complete header block and opens the stream it starts, or takes it as the
+     * trailers of a request body. The block is always decoded, even for a stream that is
+     * refused, since it updates the compression state of the connection.
+     */
+    private void endHeaderBlock() throws IOException {
+        int streamId = headerBlockStream;
+        boolean endStream = (headerBlockFlags & FLAG_END_STREAM) != 0;
+        HeaderFields fields = new HeaderFields();
+        ByteBuffer block = ByteBuffer.wrap(headerBlock.toByteArray());
+        headerBlock = null;
+        decoder.decode(block, fields);
+
+        Stream stream = stream(streamId);
+        if (stream != null || streamId <= lastStreamId) {
+            if (stream == null) {
+                // The trailers of a stream that was already reset.
+                return;
+            }
+            if (stream.remoteClosed || !endStream) {
+                throw new ProtocolException(streamId, PROTOCOL_ERROR, "HEADERS on a stream with a request");
+            }
+            stream.remoteClosed = true;
+            dispatch(stream);
+            return;
+        }
+        if (streamId % 2 == 0) {
+            throw new ProtocolException(0, PROTOCOL_ERROR, "Even stream " + streamId);
+        }
+        lastStreamId = streamId;
+        stream = new Stream(streamId, 0);
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (streams.size() >= MAX_CONCURRENT_STREAMS) {
+                throw new ProtocolException(streamId, REFUSED_STREAM, "Too many streams");
+            }
+            stream.window = initialWindow;
+            streams.put(streamId, stream);
+        }
+        stream.remoteClosed = endStream;
+        if (!readRequestHeaders(stream, fields)) {
+            return;
+        }
+        if (endStream) {
+            dispatch(stream);
+        }
+    }
+
+    /**
+     * Checks the fields of a request and keeps them with the stream. Malformed requests
+     * reset the stream; requests the server does not accept are answered at once.
+     *
+     * @return true if the request was accepted.
+     */
+    private boolean readRequestHeaders(Stream stream, HeaderFields fields) throws IOException {
+        if (fields.tooLarge()) {
+            reject(stream, "431 Request Header Fields Too Large");
+            return false;
+        }
+        Map<String, StringBuilder> values = new HashMap<>();
+        String method = null;
+        String path = null;
+        String scheme = null;
+        String authority = null;
+        boolean regularSeen = false;
+        for (String[] field : fields.fields) {
+            String name = field[0];
+            String value = field[1];
+            if (name.startsWith(":")) {
+                if (regularSeen) {
+                    throw malformed(stream);
+                }
+                switch (name) {
+                    case ":method":
+                        if (method != null) {
+                            throw malformed(stream);
+                        }
+                        method = value;
+                        break;
+                    case ":path":
+                        if (path != null || value.isEmpty()) {
+                            throw malformed(stream);
+                        }
+                        path = value;
+                        break;
+                    case ":scheme":
+                        if (scheme != null) {
+                            throw malformed(stream);
+                        }
+                        scheme = value;
+                        break;
+                    case ":authority":
+                        if (authority != null) {
+                            throw malformed(stream);
+                        }
+                        authority = value;
+                        break;
+                    default:
+                        throw malformed(stream);
+                }
+                continue;
+            }
+            regularSeen = true;
+            if (!name.equals(name.toLowerCase()) || CONNECTION_HEADERS.contains(name)
+                    || (name.equals("te") && !value.equals("trailers"))) {
+                throw malformed(stream);
+            }
+            StringBuilder previous = values.get(name);
+            if (previous == null) {
+                values.put(name, new StringBuilder(value));
+            } else {
+                previous.append(name.equals("cookie") ? "; " : ", ").append(value);
+            }
+        }
+        if (method == null || path == null || scheme == null) {
+            throw malformed(stream);
+        }
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, StringBuilder> entry : values.entrySet()) {
+            headers.put(entry.getKey(), entry.getValue().toString());
+        }
+        if (authority != null) {
+            headers.putIfAbsent("host", authority);
+        }
+        stream.method = method;
+        stream.target = path;
+        stream.headers = headers;
+        return true;
+    }
+
+    /**
+     * Collects the fields of a header block while adding up their size as HPACK counts
+     * it. A few bytes of a block can reference a large table entry many times over, so
+     * once the fields exceed {@link HttpRequestParser#MAX_HEADER_SIZE} the rest of the
+     * block is only decoded to keep the table in step, and its fields are dropped.
+     */
+    private static final class HeaderFields implements BiConsumer<String, String> {
+        final List<String[]> fields = new ArrayList<>();
+        private int size;
+
+        @Override
+        public void accept(String name, String value) {
+            if (tooLarge()) {
+                return;
+            }
+            size += name.length() + value.length() + 32;
+            if (!tooLarge()) {
+                fields.add(new String[] {name, value});
+            }
+        }
+
+        boolean tooLarge() {
+            return size > HttpRequestParser.MAX_HEADER_SIZE;
+        }
+    }
+
+    private ProtocolException malformed(Stream stream) {
+        return new ProtocolException(stream.id, PROTOCOL_ERROR, "Malformed request");
+    }
+
+    private void onReset(int streamId, byte[] payload) throws ProtocolException {
+        if (payload.length != 4) {
+            throw new ProtocolException(0, FRAME_SIZE_ERROR, "RST_STREAM of " + payload.length + " bytes");
+        }
+        requireStream(streamId);
+        if (streamId > lastStreamId) {
+            throw new ProtocolException(0, PROTOCOL_ERROR, "RST_STREAM on idle stream " + streamId);
+        }
+        synchronized (this) {
+            Stream stream = streams.remove(streamId);
+            if (stream != null) {
+                stream.reset = true;
+                notifyAll();
+            }
+        }
+    }
+
+    private void onSettings(int streamId, int flags, byte[] payload) throws IOException {
+        if (streamId != 0) {
+            throw new ProtocolException(0, PROTOCOL_ERROR, "SETTINGS on a stream");
+        }
+        if ((flags & FLAG_ACK) != 0) {
+            if (payload.length != 0) {
+                throw new ProtocolException(0, FRAME_SIZE_ERROR, "SETTINGS acknowledgement with a payload");
+            }
+            return;
+        }
+        if (payload.length % 6 != 0) {
+            throw new ProtocolException(0, FRAME_SIZE_ERROR, "SETTINGS of " + payload.length + " bytes");
+        }
+        synchronized (this) {
+            applySettings(payload);
+            writeFrameHeader(0, SETTINGS, FLAG_ACK, 0);
+            out.flush();
+        }
+    }
+
+    /**
+     * Applies the client's settings. Called with the lock held, since the encoder and the
+     * windows of the streams may change.
+     */
+    private void applySettings(byte[] payload) throws ProtocolException {
+        for (int i = 0; i < payload.length; i += 6) {
+            int id = (payload[i] & 0xff) << 8 | (payload[i + 1] & 0xff);
+            int value = readInt(payload, i + 2);
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    encoder.maxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+                    break;
+                case SETTINGS_ENABLE_PUSH:
+                    if (value != 0 && value != 1) {
+                        throw new ProtocolException(0, PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH");
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value < 0) {
+                        throw new ProtocolException(0, FLOW_CONTROL_ERROR, "Invalid SETTINGS_INITIAL_WINDOW_SIZE");
+                    }
+                    int delta = value - initialWindow;
+                    for (Stream stream : streams.values()) {
+                        if (stream.window + (long) delta > MAX_WINDOW_SIZE) {
+                            throw new ProtocolException(0, FLOW_CONTROL_ERROR, "Window overflow");
+                        }
+                        stream.window += delta;
+                    }
+                    initialWindow = value;
+                    notifyAll();
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+                        throw new ProtocolException(0, PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE");
+                    }
+                    maxFrameSize = value;
+                    break;
+                default:
+                    // Unknown settings, and limits a server does not act on, are ignored.
+            }
+        }
+    }
+
+    private void onPing(int streamId, int flags, byte[] payload) throws IOException {
+        if (payload.length != 8) {
+            throw new ProtocolException(0, FRAME_SIZE_ERROR, "PING of " + payload.length + " bytes");
+        }
+        if (streamId != 0) {
+            throw new ProtocolException(0, PROTOCOL_ERROR, "PING on a stream");
+        }
+        if ((flags & FLAG_ACK) == 0) {
+            synchronized (this) {
+                writeFrameHeader(8, PING, FLAG_ACK, 0);
+                out.write(payload);
+                out.flush();
+            }
+        }
+    }
+
+    private void onWindowUpdate(int streamId, byte[] payload) throws ProtocolException {
+        if (payload.length != 4) {
+            throw new ProtocolException(0, FRAME_SIZE_ERROR, "WINDOW_UPDATE of " + payload.length + " bytes");
+        }
+        int increment = readInt(payload, 0) & 0x7fffffff;
+        if (increment == 0) {
+            throw new ProtocolException(streamId, PROTOCOL_ERROR, "Empty WINDOW_UPDATE");
+        }
+        if (streamId > lastStreamId) {
+            throw new ProtocolException(0, PROTOCOL_ERROR, "WINDOW_UPDATE on idle stream " + streamId);
+        }
+        synchronized (this) {
+            if (streamId == 0) {
+                if (connectionWindow + (long) increment > MAX_WINDOW_SIZE) {
+                    throw new ProtocolException(0, FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+                connectionWindow += increment;
+            } else {
+                Stream stream = streams.get(streamId);
+                if (stream == null) {
+                    return;
+                }
+                if (stream.window + (long) increment > MAX_WINDOW_SIZE) {
+                    throw new ProtocolException(streamId, FLOW_CONTROL_ERROR, "Stream window overflow");
+                }
+                stream.window += increment;
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns the length of the padding of a DATA or HEADERS frame, checking that it
+     * fits in the payload.
+     *
+     * @param fixed the bytes of the payload that follow the pad length and precede the data.
+     */
+    private static int padding(int flags, byte[] payload, int fixed) throws ProtocolException {
+        if ((flags & FLAG_PADDED) == 0) {
+            if (payload.length < fixed) {
+                throw new ProtocolException(0, FRAME_SIZE_ERROR, "Frame too short");
+            }
+            return 0;
+        }
+        if (payload.length < 1 + fixed || (payload[0] & 0xff) > payload.length - 1 - fixed) {
+            throw new ProtocolException(0, PROTOCOL_ERROR, "Invalid padding");
+        }
+        return payload[0] & 0xff;
+    }
+
+    private static void requireStream(int streamId) throws ProtocolException {
+        if (streamId == 0) {
+            throw new ProtocolException(0, PROTOCOL_ERROR, "Frame type requires a stream");
+        }
+    }
+
+    private synchronized Stream stream(int streamId) {
+        return streams.get(streamId);
+    }
+
+    /**
+     * Hands a stream whose request is complete to the worker group.
+     */
+    private void dispatch(Stream stream) throws IOException {
+        Map<String, String> headers = stream.headers;
+        String contentLength = headers.get("content-length");
+        if (contentLength != null && !contentLength.equals(String.valueOf(stream.body.size()))) {
+            throw new ProtocolException(stream.id, PROTOCOL_ERROR, "Body does not match Content-Length");
+        }
+        headers.put("content-length", String.valueOf(stream.body.size()));
+        HttpRequest request;
+        try {
+            request = HttpRequestParser.request(stream.method, stream.target, VERSION, headers);
+        } catch (HttpRequestParser.ParseException e) {
+            reject(stream, e.status());
+            return;
+        }
+        dispatch(stream, request, stream.body.toByteArray());
+    }
+
+    private void dispatch(Stream stream, HttpRequest request, byte[] body) throws IOException {
+        stream.body = null;
+        request.client(socket.getInetAddress());
+        long enqueuedAt = System.nanoTime();
+        try {
+            workers.execute(() -> handle(stream, request, body, enqueuedAt));
+        } catch (RejectedExecutionException e) {
+            serviceUnavailable(stream, request);
+        }
+    }
+
+    /**
+     * Answers the request of a stream on a worker thread, resetting the stream if the
+     * response cannot be completed.
+     */
+    private void handle(Stream stream, HttpRequest request, byte[] body, long enqueuedAt) {
+        StreamOutput response = stream.output;
+        try {
+            if (!admission.admit(enqueuedAt)) {
+                serviceUnavailable(stream, request);
+                return;
+            }
+            long start = System.nanoTime();
+            handler.logRequestHead(request);
+            boolean complete = handler.processRequest(request, new ByteArrayInputStream(body), response, true);
+            if (!complete && response.streaming) {
+                // A streaming controller failed halfway; the client must not take the body as complete.
+                reset(stream.id, INTERNAL_ERROR);
+            } else {
+                response.finish();
+            }
+            long latency = System.nanoTime() - start;
+            SimpleWebServer.accessLog.log(request.method(), request.path(), response.status(),
+                    response.bytesWritten(), latency);
+            if (response.route() != null) {
+                response.route().record(response.status(), latency);
+            }
+        } catch (IOException e) {
+            if (!stream.reset) {
+                reset(stream.id, CANCEL);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            reset(stream.id, INTERNAL_ERROR);
+        } finally {
+            streamClosed(stream);
+        }
+    }
+
+    /**
+     * Answers a stream that the worker group has no room for with a 503.
+     */
+    private void serviceUnavailable(Stream stream, HttpRequest request) throws IOException {
+        StreamOutput response = stream.output;
+        response.status(503);
+        response.write(ClientHandler.SERVICE_UNAVAILABLE_RESPONSE);
+        SimpleWebServer.accessLog.log(request.method(), request.path(), 503, response.bytesWritten(), 0);
+        SimpleWebServer.metrics.unrouted().record(503, 0);
+        try {
+            response.finish();
+        } finally {
+            streamClosed(stream);
+        }
+    }
+
+    /**
+     * Answers a stream with an empty error response before its request has been
+     * dispatched, and stops receiving the rest of it.
+     *
+     * @param stream the stream.
+     * @param status the status code and reason phrase.
+     */
+    private void reject(Stream stream, String status) throws IOException {
+        StreamOutput response = stream.output;
+        try {
+            handler.sendResponse(response, status, "text/plain", new byte[0], false);
+            response.finish();
+            SimpleWebServer.accessLog.log("-", "-", response.status(), response.bytesWritten(), 0);
+            SimpleWebServer.metrics.unrouted().record(response.status(), 0);
+        } finally {
+            streamClosed(stream);
+        }
+        if (!stream.remoteClosed) {
+            reset(stream.id, NO_ERROR);
+        }
+    }
+
+    private synchronized void streamClosed(Stream stream) {
+        if (streams.remove(stream.id) != null) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Sends RST_STREAM, unless the connection is already closed.
+     */
+    private void reset(int streamId, int errorCode) {
+        synchronized (this) {
+            Stream stream = streams.remove(streamId);
+            if (stream != null) {
+                stream.reset = true;
+                notifyAll();
+            }
+            if (closed) {
+                return;
+            }
+            try {
+                writeFrameHeader(4, RST_STREAM, 0, streamId);
+                writeInt(errorCode);
+                out.flush();
+            } catch (IOException e) {
+                // The connection is broken; its reader will notice.
+            }
+        }
+    }
+
+    private synchronized void goAway(int errorCode) {
+        if (closed) {
+            return;
+        }
+        try {
+            writeFrameHeader(8, GOAWAY, 0, 0);
+            writeInt(lastStreamId);
+            writeInt(errorCode);
+            out.flush();
+        } catch (IOException e) {
+            // The connection is being closed anyway.
+        }
+    }
+
+    /**
+     * Stops the streams still open. After a graceful shutdown their responses are
+     * completed first, for as long as the write timeout allows.
+     *
+     * @param graceful true to let open streams finish.
+     */
+    private synchronized void close(boolean graceful) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(admission.writeTimeoutMillis);
+        while (graceful && !streams.isEmpty()) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        closed = true;
+        for (Stream stream : streams.values()) {
+            stream.reset = true;
+        }
+        streams.clear();
+        notifyAll();
+    }
+
+    /**
+     * Sends the head and part of the body of a response, waiting for the flow control
+     * windows of the stream and the connection to open. The lock is released between
+     * DATA frames, so the streams' frames are interleaved.
+     *
+     * @param stream the stream.
+     * @param head the header fields, or null if the head has been sent.
+     * @param data the body bytes to send, or null.
+     * @param endStream true if these are the last bytes of the response.
+     * @throws IOException if the stream was reset, the connection closed or the client
+     *                     did not open the windows within the write timeout.
+     */
+    private void send(Stream stream, List<String> head, ByteBuffer data, boolean endStream) throws IOException {
+        boolean hasData = data != null && data.hasRemaining();
+        synchronized (this) {
+            checkOpen(stream);
+            if (head != null) {
+                writeHeaders(stream.id, head, endStream && !hasData);
+            } else if (endStream && !hasData) {
+                writeFrameHeader(0, DATA, FLAG_END_STREAM, stream.id);
+            }
+            if (!hasData) {
+                out.flush();
+                return;
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(admission.writeTimeoutMillis);
+        while (data.hasRemaining()) {
+            synchronized (this) {
+                int length;
+                while ((length = Math.min(data.remaining(), Math.min(maxFrameSize,
+                        Math.min(connectionWindow, stream.window)))) <= 0) {
+                    checkOpen(stream);
+                    out.flush();
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        admission.timedOut();
+                        throw new IOException("The client did not open the flow control window in time");
+                    }
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the flow control window");
+                    }
+                }
+                checkOpen(stream);
+                boolean last = endStream && length == data.remaining();
+                writeFrameHeader(length, DATA, last ? FLAG_END_STREAM : 0, stream.id);
+                ByteBuffer frame = data.slice();
+                frame.limit(length);
+                out.write(frame);
+                data.position(data.position() + length);
+                connectionWindow -= length;
+                stream.window -= length;
+                if (!data.hasRemaining()) {
+                    out.flush();
+                }
+            }
+        }
+    }
+
+    private void checkOpen(Stream stream) throws IOException {
+        if (stream.reset || closed) {
+            throw new IOException(closed ? "Connection closed" : "Stream reset");
+        }
+    }
+
+    /**
+     * Encodes a header block and writes it as a HEADERS frame, followed by CONTINUATION
+     * frames if it is larger than the client's maximum frame size.
+     */
+    private void writeHeaders(int streamId, List<String> head, boolean endStream) throws IOException {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        encoder.startBlock(block);
+        for (int i = 0; i < head.size(); i += 2) {
+            encoder.encode(block, head.get(i), head.get(i + 1));
+        }
+        byte[] bytes = block.toByteArray();
+        int offset = 0;
+        do {
+            int length = Math.min(bytes.length - offset, maxFrameSize);
+            boolean lastFrame = offset + length == bytes.length;
+            int flags = (lastFrame ? FLAG_END_HEADERS : 0) | (offset == 0 && endStream ? FLAG_END_STREAM : 0);
+            writeFrameHeader(length, offset == 0 ? HEADERS : CONTINUATION, flags, streamId);
+            out.write(bytes, offset, length);
+            offset += length;
+        } while (offset < bytes.length);
+    }
+
+    private void writeSettings() throws IOException {
+        writeFrameHeader(12, SETTINGS, 0, 0);
+        writeSetting(SETTINGS_MAX_CONCURRENT_STREAMS, MAX_CONCURRENT_STREAMS);
+        writeSetting(SETTINGS_MAX_HEADER_LIST_SIZE, HttpRequestParser.MAX_HEADER_SIZE);
+    }
+
+    private void writeSetting(int id, int value) throws IOException {
+        out.write(id >>> 8);
+        out.write(id);
+        writeInt(value);
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        writeFrameHeader(4, WINDOW_UPDATE, 0, streamId);
+        writeInt(increment);
+    }
+
+    private void writeFrameHeader(int length, int type, int flags, int streamId) throws IOException {
+        out.write(length >>> 16);
+        out.write(length >>> 8);
+        out.write(length);
+        out.write(type);
+        out.write(flags);
+        writeInt(streamId);
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+
+    /**
+     * A connection error, answered with GOAWAY, or a stream error, answered with
+     * RST_STREAM when {@link #streamId} is not 0.
+     */
+    static final class ProtocolException extends IOException {
+        final int streamId;
+        final int errorCode;
+
+        ProtocolException(int streamId, int errorCode, String message) {
+            super(message);
+            this.streamId = streamId;
+            this.errorCode = errorCode;
+        }
+    }
+
+    /**
+     * The state of one stream: its request while it is being received, and its send window.
+     */
+    private final class Stream {
+        final int id;
+        final StreamOutput output = new StreamOutput(this);
+        String method;
+        String target;
+        Map<String, String> headers;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        /** Whether the client has sent END_STREAM; only the reading thread uses it. */
+        boolean remoteClosed;
+        /** Guarded by the connection. */
+        int window;
+        volatile boolean reset;
+
+        Stream(int id, int window) {
+            this.id = id;
+            this.window = window;
+        }
+    }
+
+    /**
+     * Translates the HTTP/1.1 response a handler writes for a stream into HTTP/2 frames.
+     * The head is collected until its empty line and turned into header fields; the
+     * body is collected into DATA frames of up to {@link #DEFAULT_MAX_FRAME_SIZE} bytes,
+     * and large buffers and files are sent without being collected. The response ends
+     * with the byte its Content-Length announces or, without one, when the handler returns.
+     */
+    private final class StreamOutput extends ResponseOutput {
+        private final Stream stream;
+        private byte[] pending = new byte[256];
+        private int pendingCount;
+        private List<String> head;
+        private boolean headSent;
+        private boolean ended;
+        private boolean streaming;
+        private long contentLength = -1;
+        private long bodySent;
+
+        StreamOutput(Stream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            bytesWritten++;
+            append((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            bytesWritten += len;
+            for (int i = 0; i < len; i++) {
+                if (head != null) {
+                    appendBody(b, off + i, len - i);
+                    return;
+                }
+                append(b[off + i]);
+            }
+        }
+
+        @Override
+        void write(ByteBuffer src) throws IOException {
+            bytesWritten += src.remaining();
+            body(src);
+        }
+
+        @Override
+        void transferFrom(FileChannel file, long position, long count) throws IOException {
+            bytesWritten += count;
+            try (FileChannel source = file) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, DEFAULT_MAX_FRAME_SIZE));
+                while (count > 0) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(count, buffer.capacity()));
+                    int read = source.read(buffer, position);
+                    if (read < 0) {
+                        throw new EOFException("File is shorter than expected");
+                    }
+                    buffer.flip();
+                    position += read;
+                    count -= read;
+                    body(buffer);
+                }
+            }
+        }
+
+        @Override
+        void startStreaming() throws IOException {
+            streaming = true;
+            flush();
+        }
+
+        /**
+         * For a streamed response, sends what has been written so far. Does nothing
+         * otherwise: the response is sent as its frames fill, and finished by {@link #finish}.
+         */
+        @Override
+        public void flush() throws IOException {
+            if (streaming && head != null && !ended && (pendingCount > 0 || !headSent)) {
+                sendPending(false);
+            }
+        }
+
+        /**
+         * Sends whatever is left of the response and ends the stream.
+         *
+         * @throws IOException if the handler did not write a complete head, or the
+         *                     response cannot be sent.
+         */
+        void finish() throws IOException {
+            if (head == null) {
+                throw new IOException("The response has no complete head");
+            }
+            if (!ended) {
+                sendPending(true);
+            }
+        }
+
+        private void append(byte b) throws IOException {
+            if (pendingCount == pending.length) {
+                if (head != null) {
+                    sendPending(false);
+                } else if (pending.length >= HttpRequestParser.MAX_HEADER_SIZE * 2) {
+                    throw new IOException("Response head too large");
+                } else {
+                    pending = Arrays.copyOf(pending, pending.length * 2);
+                }
+            }
+            pending[pendingCount++] = b;
+            if (head == null && b == '\n' && pendingCount >= 4 && pending[pendingCount - 2] == '\r'
+                    && pending[pendingCount - 3] == '\n' && pending[pendingCount - 4] == '\r') {
+                head = parseHead(new String(pending, 0, pendingCount - 4, StandardCharsets.ISO_8859_1));
+                pending = new byte[DEFAULT_MAX_FRAME_SIZE];
+                pendingCount = 0;
+            }
+        }
+
+        private void appendBody(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (pendingCount == pending.length) {
+                    sendPending(false);
+                }
+                int n = Math.min(len, pending.length - pendingCount);
+                System.arraycopy(b, off, pending, pendingCount, n);
+                pendingCount += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Adds bytes to the body, sending a large buffer straight from where it is.
+         */
+        private void body(ByteBuffer src) throws IOException {
+            if (head == null || src.remaining() < 1024) {
+                byte[] bytes = new byte[src.remaining()];
+                src.get(bytes);
+                for (int i = 0; i < bytes.length; i++) {
+                    if (head != null) {
+                        appendBody(bytes, i, bytes.length - i);
+                        return;
+                    }
+                    append(bytes[i]);
+                }
+                return;
+            }
+            if (pendingCount > 0 || !headSent) {
+                sendPending(false);
+            }
+            checkNotEnded();
+            bodySent += src.remaining();
+            send(stream, null, src, contentLength >= 0 && bodySent >= contentLength);
+            ended = contentLength >= 0 && bodySent >= contentLength;
+        }
+
+        /**
+         * Sends the head if it has not been sent, and the collected body bytes.
+         */
+        private void sendPending(boolean endStream) throws IOException {
+            checkNotEnded();
+            List<String> fields = headSent ? null : head;
+            headSent = true;
+            bodySent += pendingCount;
+            boolean end = endStream || (contentLength >= 0 && bodySent >= contentLength);
+            ByteBuffer data = ByteBuffer.wrap(pending, 0, pendingCount);
+            pendingCount = 0;
+            send(stream, fields, data, end);
+            ended = end;
+        }
+
+        private void checkNotEnded() throws IOException {
+            if (ended) {
+                throw new IOException("Response longer than its Content-Length");
+            }
+        }
+
+        /**
+         * Turns the status line and header lines of an HTTP/1.1 response head into
+         * HTTP/2 header fields, leaving the connection-specific ones out.
+         */
+        private List<String> parseHead(String text) throws IOException {
+            String[] lines = text.split("\r\n");
+            if (lines[0].length() < 12 || !lines[0].startsWith("HTTP/1.1 ")) {
+                throw new IOException("Invalid status line: " + lines[0]);
+            }
+            List<String> fields = new ArrayList<>();
+            fields.add(":status");
+            fields.add(lines[0].substring(9, 12));
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).trim().toLowerCase();
+                String value = lines[i].substring(colon + 1).trim();
+                if (CONNECTION_HEADERS.contains(name)) {
+                    continue;
+                }
+                if (name.equals("content-length")) {
+                    contentLength = Long.parseLong(value);
+                }
+                fields.add(name);
+                fields.add(value);
+            }
+            return fields;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package edu.escuelaing.arep;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The HttpBody class gives access to the body of a request as a stream that ends where
+ * the body ends, whether its length comes from Content-Length or from the chunked
+ * transfer coding. The stream reads straight from the connection, so a handler can
+ * process an upload of any size in constant memory, and {@link #drain(InputStream)}
+ * skips whatever the handler left unread so the next pipelined request starts at the
+ * right byte.
+ */
+final class HttpBody {
+    static final int MAX_CHUNK_LINE_LENGTH = 1024;
+    static final int MAX_TRAILER_SIZE = 8192;
+    static final long MAX_DRAIN_SIZE = 1024 * 1024;
+    private static final String BAD_REQUEST = "400 Bad Request";
+    private static final String PAYLOAD_TOO_LARGE = "413 Payload Too Large";
+
+    private HttpBody() {
+    }
+
+    /**
+     * Opens the body of a request.
+     *
+     * @param request the head of the request.
+     * @param in the connection's input, positioned at the first byte of the body.
+     * @return a stream over the body; it is empty when the request has none, and closing it
+     *         does not close the connection.
+     */
+    static InputStream open(HttpRequest request, InputStream in) {
+        if (request.chunked()) {
+            return new Chunked(in);
+        }
+        return new FixedLength(in, Math.max(0, request.contentLength()));
+    }
+
+    /**
+     * Reads the rest of a body and discards it.
+     *
+     * @param body a stream returned by {@link #open(HttpRequest, InputStream)}.
+     * @return true if the body was read to its end, false if the connection ended, the
+     *         chunked framing was broken or more than {@link #MAX_DRAIN_SIZE} bytes were
+     *         left unread, in which case the connection should not be reused.
+     */
+    static boolean drain(InputStream body) {
+        try {
+            if (body instanceof FixedLength) {
+                FixedLength fixed = (FixedLength) body;
+                if (fixed.remaining > MAX_DRAIN_SIZE) {
+                    return false;
+                }
+                while (fixed.remaining > 0) {
+                    if (fixed.skip(fixed.remaining) <= 0 && fixed.read() < 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            byte[] scratch = new byte[8192];
+            while (body.read(scratch, 0, scratch.length) >= 0) {
+                // Discard.
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads a whole body into memory.
+     *
+     * @param body a stream returned by {@link #open(HttpRequest, InputStream)}.
+     * @param maxSize the largest body accepted, in bytes.
+     * @return the bytes of the body.
+     * @throws HttpRequestParser.ParseException with 413 if the body is larger than {@code maxSize}.
+     * @throws IOException if the body cannot be read.
+     */
+    static byte[] readAll(InputStream body, int maxSize) throws IOException {
+        if (body instanceof FixedLength) {
+            long length = ((FixedLength) body).remaining;
+            if (length > maxSize) {
+                throw new HttpRequestParser.ParseException(PAYLOAD_TOO_LARGE);
+            }
+            byte[] bytes = body.readNBytes((int) length);
+            if (bytes.length < length) {
+                throw new EOFException("Request body ended early");
+            }
+            return bytes;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] scratch = new byte[8192];
+        int n;
+        while ((n = body.read(scratch, 0, scratch.length)) >= 0) {
+            if (bytes.size() + n > maxSize) {
+                throw new HttpRequestParser.ParseException(PAYLOAD_TOO_LARGE);
+            }
+            bytes.write(scratch, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A body whose length was declared by Content-Length.
+     */
+    private static final class FixedLength extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        FixedLength(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Request body ended early");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new EOFException("Request body ended early");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= Math.max(0, skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+            // The connection stays open for the next request.
+        }
+    }
+
+    /**
+     * A body sent with the chunked transfer coding. Chunk extensions are ignored and
+     * trailer fields are read and discarded.
+     */
+    private static final class Chunked extends InputStream {
+        private final InputStream in;
+        private final byte[] line = new byte[MAX_CHUNK_LINE_LENGTH];
+        private long remaining;
+        private boolean started;
+        private boolean finished;
+
+        Chunked(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (finished) {
+                return -1;
+            }
+            if (remaining == 0) {
+                nextChunk();
+                if (finished) {
+                    return -1;
+                }
+            }
+            if (len == 0) {
+                return 0;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new EOFException("Request body ended early");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            // The connection stays open for the next request.
+        }
+
+        private void nextChunk() throws IOException {
+            if (started && readLine() != 0) {
+                throw new HttpRequestParser.ParseException(BAD_REQUEST);
+            }
+            started = true;
+            int length = readLine();
+            long size = 0;
+            int digits = 0;
+            while (digits < length && hex(line[digits]) >= 0) {
+                if (digits == 15) {
+                    throw new HttpRequestParser.ParseException(PAYLOAD_TOO_LARGE);
+                }
+                size = size << 4 | hex(line[digits]);
+                digits++;
+            }
+            if (digits == 0 || (digits < length && line[digits] != ';' && line[digits] != ' ' && line[digits] != '\t')) {
+                throw new HttpRequestParser.ParseException(BAD_REQUEST);
+            }
+            if (size == 0) {
+                int trailers = 0;
+                while ((length = readLine()) > 0) {
+                    trailers += length;
+                    if (trailers > MAX_TRAILER_SIZE) {
+                        throw new HttpRequestParser.ParseException(BAD_REQUEST);
+                    }
+                }
+                finished = true;
+            }
+            remaining = size;
+        }
+
+        /**
+         * Reads a CRLF (or LF) terminated line into {@link #line}.
+         *
+         * @return the length of the line without its terminator.
+         */
+        private int readLine() throws IOException {
+            int length = 0;
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new EOFException("Request body ended early");
+                }
+                if (length == line.length) {
+                    throw new HttpRequestParser.ParseException(BAD_REQUEST);
+                }
+                line[length++] = (byte) b;
+            }
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Finds the end of a chunked body in a buffer that is filled a piece at a time,
+     * without decoding or copying it. {@link NioServer} uses it to know when the whole
+     * body has arrived.
+     */
+    static final class ChunkedScanner {
+        private static final int SIZE = 0;
+        private static final int EXTENSION = 1;
+        private static final int DATA = 2;
+        private static final int DATA_END = 3;
+        private static final int TRAILER_START = 4;
+        private static final int TRAILER = 5;
+        private static final int END = 6;
+
+        private int state = SIZE;
+        private int scanned;
+        private int digits;
+        private int lineLength;
+        private int trailerSize;
+        private long size;
+
+        /**
+         * Continues scanning the body that starts at the buffer's position.
+         *
+         * @param buffer the buffered bytes, in read mode; its position is not changed.
+         * @return the length of the whole encoded body, or -1 if it is not complete yet.
+         * @throws HttpRequestParser.ParseException if the chunked framing is malformed.
+         */
+        int scan(ByteBuffer buffer) throws HttpRequestParser.ParseException {
+            int start = buffer.position();
+            int limit = buffer.limit();
+            while (start + scanned < limit) {
+                if (state == DATA) {
+                    int skipped = (int) Math.min(size, limit - start - scanned);
+                    scanned += skipped;
+                    size -= skipped;
+                    if (size == 0) {
+                        state = DATA_END;
+                        lineLength = 0;
+                    }
+                    continue;
+                }
+                byte b = buffer.get(start + scanned++);
+                if (b != '\n' && ++lineLength > MAX_CHUNK_LINE_LENGTH) {
+                    throw new HttpRequestParser.ParseException(BAD_REQUEST);
+                }
+                switch (state) {
+                    case SIZE:
+                        if (hex((char) b) >= 0) {
+                            if (++digits > 15) {
+                                throw new HttpRequestParser.ParseException(PAYLOAD_TOO_LARGE);
+                            }
+                            size = size << 4 | hex((char) b);
+                            break;
+                        }
+                        if (digits == 0 || (b != ';' && b != ' ' && b != '\t' && b != '\r' && b != '\n')) {
+                            throw new HttpRequestParser.ParseException(BAD_REQUEST);
+                        }
+                        state = EXTENSION;
+                        // fall through
+                    case EXTENSION:
+                        if (b == '\n') {
+                            digits = 0;
+                            lineLength = 0;
+                            state = size == 0 ? TRAILER_START : DATA;
+                        }
+                        break;
+                    case DATA_END:
+                        if (b == '\n') {
+                            if (lineLength > 1) {
+                                throw new HttpRequestParser.ParseException(BAD_REQUEST);
+                            }
+                            lineLength = 0;
+                            state = SIZE;
+                        } else if (b != '\r') {
+                            throw new HttpRequestParser.ParseException(BAD_REQUEST);
+                        }
+                        break;
+                    case TRAILER_START:
+                        if (b == '\n') {
+                            state = END;
+                            return scanned;
+                        }
+                        state = TRAILER;
+                        // fall through
+                    case TRAILER:
+                        if (++trailerSize > MAX_TRAILER_SIZE) {
+                            throw new HttpRequestParser.ParseException(BAD_REQUEST);
+                        }
+                        if (b == '\n') {
+                            lineLength = 0;
+                            state = TRAILER_START;
+                        } else if (b == '\r' && lineLength == 1) {
+                            state = TRAILER_START;
+                            lineLength = 0;
+                        }
+                        break;
+                    default:
+                        return scanned;
+                }
+            }
+            return state == END ? scanned : -1;
+        }
+    }
+
+    private static int hex(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
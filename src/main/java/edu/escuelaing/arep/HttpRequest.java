@@ -0,0 +1,190 @@
+package edu.escuelaing.arep;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The HttpRequest class holds the head of a request decoded by {@link HttpRequestParser}:
+ * the request line, the headers and the framing of the body. The body itself stays in
+ * the connection's input, starting right after the head.
+ *
+ * <p>The path is already percent-decoded. The query string is kept raw and only split
+ * and decoded the first time {@link #queryParams()} is called, since most requests
+ * never look at it.</p>
+ */
+final class HttpRequest {
+    private final String method;
+    private final String target;
+    private final String path;
+    private final String query;
+    private final String version;
+    private final Map<String, String> headers;
+    private final long contentLength;
+    private final boolean chunked;
+    private Map<String, String> queryParams;
+    private InetAddress client;
+
+    HttpRequest(String method, String target, String path, String query, String version,
+                Map<String, String> headers, long contentLength, boolean chunked) {
+        this.method = method;
+        this.target = target;
+        this.path = path;
+        this.query = query;
+        this.version = version;
+        this.headers = headers;
+        this.contentLength = contentLength;
+        this.chunked = chunked;
+    }
+
+    /**
+     * Returns the request method.
+     *
+     * @return the method (e.g., GET).
+     */
+    String method() {
+        return method;
+    }
+
+    /**
+     * Returns the request target exactly as the client sent it.
+     *
+     * @return the raw target (e.g., /app/hello?name=John%20Doe).
+     */
+    String target() {
+        return target;
+    }
+
+    /**
+     * Returns the percent-decoded path of the target, without the query string.
+     *
+     * @return the path (e.g., /app/hello).
+     */
+    String path() {
+        return path;
+    }
+
+    /**
+     * Returns the raw query string.
+     *
+     * @return the text after the '?', or null if the target has no query.
+     */
+    String query() {
+        return query;
+    }
+
+    /**
+     * Returns the protocol version from the request line.
+     *
+     * @return the version (e.g., "HTTP/1.1").
+     */
+    String version() {
+        return version;
+    }
+
+    /**
+     * Returns the request headers. Names are in lower case, and repeated headers are
+     * joined with ", " in the order they were received.
+     *
+     * @return a map from lower-case header names to their values.
+     */
+    Map<String, String> headers() {
+        return headers;
+    }
+
+    /**
+     * Returns the value of a header.
+     *
+     * @param name the lower-case header name.
+     * @return the value, or null if the header is not present.
+     */
+    String header(String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * Returns the length of the body declared by Content-Length.
+     *
+     * @return the body length, or -1 if the request has no Content-Length or is chunked.
+     */
+    long contentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Tells whether the body is sent with the chunked transfer coding.
+     *
+     * @return true if chunked is the final coding of Transfer-Encoding.
+     */
+    boolean chunked() {
+        return chunked;
+    }
+
+    /**
+     * Returns the address of the client that sent the request.
+     *
+     * @return the client's address, or null if the request did not come from a socket.
+     */
+    InetAddress client() {
+        return client;
+    }
+
+    /**
+     * Records the address of the client that sent the request, set by the engine that
+     * received it.
+     *
+     * @param client the client's address.
+     */
+    void client(InetAddress client) {
+        this.client = client;
+    }
+
+    /**
+     * Returns the query parameters, decoding {@code +} as a space and percent escapes
+     * as UTF-8. A parameter without {@code =} has an empty value, and a repeated
+     * parameter keeps its last value. Malformed escapes are kept as they are.
+     *
+     * @return a map from parameter names to their values.
+     */
+    Map<String, String> queryParams() {
+        if (queryParams == null) {
+            queryParams = parseQuery(query);
+        }
+        return queryParams;
+    }
+
+    /**
+     * Returns the request line, for logging.
+     *
+     * @return the method, target and version separated by spaces.
+     */
+    String requestLine() {
+        return method + " " + target + " " + version;
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        if (query == null || query.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> params = new HashMap<>();
+        int start = 0;
+        while (start <= query.length()) {
+            int end = query.indexOf('&', start);
+            if (end < 0) {
+                end = query.length();
+            }
+            if (end > start) {
+                int equals = query.indexOf('=', start);
+                if (equals < 0 || equals > end) {
+                    params.put(HttpRequestParser.decode(query, start, end, true), "");
+                } else {
+                    params.put(HttpRequestParser.decode(query, start, equals, true),
+                            HttpRequestParser.decode(query, equals + 1, end, true));
+                }
+            }
+            start = end + 1;
+        }
+        return params;
+    }
+}
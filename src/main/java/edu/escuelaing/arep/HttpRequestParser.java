@@ -0,0 +1,499 @@
+package edu.escuelaing.arep;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The HttpRequestParser class decodes the head of HTTP/1.1 requests byte by byte with
+ * a state machine. It can be fed a buffer at a time, in pieces of any size, so the
+ * same parser serves the blocking connections of {@link ClientHandler} (through
+ * {@link RequestInput}) and the incremental reads of {@link NioServer}.
+ *
+ * <p>Bytes are accumulated in a scratch array that is reused for every token of every
+ * request on the connection. Common methods, versions and header names are matched
+ * against pre-encoded constants, so a typical request only allocates its target, its
+ * header values and the header map; nothing is split into intermediate arrays.</p>
+ *
+ * <p>The parser enforces the limits of {@link #MAX_REQUEST_LINE_LENGTH},
+ * {@link #MAX_HEADER_SIZE} and {@link #MAX_HEADER_COUNT}, and rejects malformed
+ * syntax, obsolete line folding, and ambiguous body framing (conflicting
+ * Content-Length values, or Content-Length together with Transfer-Encoding) by
+ * throwing a {@link ParseException} that carries the status to answer with.</p>
+ */
+final class HttpRequestParser {
+    static final int MAX_REQUEST_LINE_LENGTH = 8192;
+    static final int MAX_HEADER_SIZE = 8192;
+    static final int MAX_HEADER_COUNT = 100;
+
+    private static final int LEADING_NEWLINES = 0;
+    private static final int METHOD = 1;
+    private static final int TARGET = 2;
+    private static final int VERSION = 3;
+    private static final int REQUEST_LINE_LF = 4;
+    private static final int HEADER_START = 5;
+    private static final int HEADER_NAME = 6;
+    private static final int VALUE_START = 7;
+    private static final int VALUE = 8;
+    private static final int HEADER_LF = 9;
+    private static final int END_LF = 10;
+
+    private static final String BAD_REQUEST = "400 Bad Request";
+    private static final String[] KNOWN_METHODS = {
+            "GET", "POST", "HEAD", "PUT", "DELETE", "OPTIONS", "PATCH", "TRACE", "CONNECT"
+    };
+    private static final String[] KNOWN_HEADERS = {
+            "host", "connection", "user-agent", "accept", "accept-encoding", "accept-language",
+            "content-length", "content-type", "transfer-encoding", "if-none-match", "if-modified-since",
+            "if-range", "range", "cache-control", "cookie", "authorization", "referer", "origin",
+            "upgrade", "http2-settings", "keep-alive", "expect", "pragma"
+    };
+    private static final byte[][] KNOWN_METHOD_BYTES = encode(KNOWN_METHODS);
+    private static final byte[][] KNOWN_HEADER_BYTES = encode(KNOWN_HEADERS);
+    private static final boolean[] TOKEN_CHARS = new boolean[128];
+
+    static {
+        for (char c = '0'; c <= '9'; c++) {
+            TOKEN_CHARS[c] = true;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            TOKEN_CHARS[c] = true;
+            TOKEN_CHARS[c - 'a' + 'A'] = true;
+        }
+        for (char c : "!#$%&'*+-.^_`|~".toCharArray()) {
+            TOKEN_CHARS[c] = true;
+        }
+    }
+
+    private final int maxRequestLineLength;
+    private final int maxHeaderSize;
+    private byte[] token = new byte[256];
+    private int length;
+    private int valueEnd;
+    private int state = LEADING_NEWLINES;
+    private int requestLineLength;
+    private int headerSize;
+    private String method;
+    private String target;
+    private String version;
+    private String headerName;
+    private Map<String, String> headers;
+
+    /**
+     * Constructs a parser with the default limits.
+     */
+    HttpRequestParser() {
+        this(MAX_REQUEST_LINE_LENGTH, MAX_HEADER_SIZE);
+    }
+
+    /**
+     * Constructs a parser with custom limits.
+     *
+     * @param maxRequestLineLength the longest request line accepted, in bytes.
+     * @param maxHeaderSize the largest total size of the header lines, in bytes.
+     */
+    HttpRequestParser(int maxRequestLineLength, int maxHeaderSize) {
+        this.maxRequestLineLength = maxRequestLineLength;
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    /**
+     * Tells whether the parser has consumed part of a request head, not counting the
+     * empty lines allowed before a request.
+     *
+     * @return true if a request has been started but its head is not complete yet.
+     */
+    boolean inProgress() {
+        return state != LEADING_NEWLINES;
+    }
+
+    /**
+     * Consumes bytes from the buffer until the head of a request is complete. When it
+     * returns a request, the buffer is positioned at the first byte of its body and the
+     * parser is ready for the next request; otherwise every remaining byte has been
+     * consumed and the parser waits for more.
+     *
+     * @param buffer the bytes received from the client, in read mode.
+     * @return the request, or null if its head is not complete yet.
+     * @throws ParseException if the request is malformed or exceeds a limit.
+     */
+    HttpRequest parse(ByteBuffer buffer) throws ParseException {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            switch (state) {
+                case LEADING_NEWLINES:
+                    if (b == '\r' || b == '\n') {
+                        continue;
+                    }
+                    state = METHOD;
+                    // fall through
+                case METHOD:
+                    countRequestLine();
+                    if (b == ' ' && length > 0) {
+                        method = intern(KNOWN_METHODS, KNOWN_METHOD_BYTES);
+                        length = 0;
+                        state = TARGET;
+                    } else if (isToken(b)) {
+                        append(b);
+                    } else {
+                        throw new ParseException(BAD_REQUEST);
+                    }
+                    break;
+                case TARGET:
+                    countRequestLine();
+                    if (b == ' ' && length > 0) {
+                        target = new String(token, 0, length, StandardCharsets.ISO_8859_1);
+                        length = 0;
+                        state = VERSION;
+                    } else if (b > ' ' && b != 0x7f) {
+                        append(b);
+                    } else {
+                        throw new ParseException(BAD_REQUEST);
+                    }
+                    break;
+                case VERSION:
+                    countRequestLine();
+                    if (b == '\r') {
+                        state = REQUEST_LINE_LF;
+                    } else if (b == '\n') {
+                        endRequestLine();
+                    } else if (length < 8) {
+                        append(b);
+                    } else {
+                        throw new ParseException(BAD_REQUEST);
+                    }
+                    break;
+                case REQUEST_LINE_LF:
+                    expectLineFeed(b);
+                    endRequestLine();
+                    break;
+                case HEADER_START:
+                    if (b == '\r') {
+                        state = END_LF;
+                        break;
+                    }
+                    if (b == '\n') {
+                        return complete();
+                    }
+                    // A leading space or tab is obsolete line folding, and lands here too.
+                    // fall through
+                case HEADER_NAME:
+                    countHeader();
+                    if (b == ':' && length > 0) {
+                        headerName = intern(KNOWN_HEADERS, KNOWN_HEADER_BYTES);
+                        length = 0;
+                        state = VALUE_START;
+                    } else if (isToken(b)) {
+                        append(b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b);
+                        state = HEADER_NAME;
+                    } else {
+                        throw new ParseException(BAD_REQUEST);
+                    }
+                    break;
+                case VALUE_START:
+                    if (b == ' ' || b == '\t') {
+                        countHeader();
+                        break;
+                    }
+                    valueEnd = 0;
+                    state = VALUE;
+                    // fall through
+                case VALUE:
+                    if (b == '\r') {
+                        state = HEADER_LF;
+                    } else if (b == '\n') {
+                        endHeader();
+                    } else if (b >= 0 && ((b < ' ' && b != '\t') || b == 0x7f)) {
+                        // Bytes from 0x80 up (negative here) are obs-text, which values may contain.
+                        throw new ParseException(BAD_REQUEST);
+                    } else {
+                        countHeader();
+                        append(b);
+                        if (b != ' ' && b != '\t') {
+                            valueEnd = length;
+                        }
+                    }
+                    break;
+                case HEADER_LF:
+                    expectLineFeed(b);
+                    endHeader();
+                    break;
+                case END_LF:
+                    expectLineFeed(b);
+                    return complete();
+                default:
+                    throw new IllegalStateException("Unknown parser state " + state);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes the percent escapes of part of a string as UTF-8. Escapes that are not
+     * followed by two hexadecimal digits are kept as they are. When there is nothing
+     * to decode the substring is returned without copying any bytes.
+     *
+     * @param s the string to decode.
+     * @param from the index of the first character to decode.
+     * @param to the index after the last character to decode.
+     * @param plusAsSpace whether {@code +} stands for a space, as it does in query strings.
+     * @return the decoded text.
+     */
+    static String decode(String s, int from, int to, boolean plusAsSpace) {
+        int i = from;
+        while (i < to && s.charAt(i) != '%' && !(plusAsSpace && s.charAt(i) == '+')) {
+            i++;
+        }
+        if (i == to) {
+            return s.substring(from, to);
+        }
+        byte[] bytes = new byte[to - from];
+        int n = 0;
+        for (int j = from; j < to; j++) {
+            char c = s.charAt(j);
+            if (c == '%' && j + 2 < to && hex(s.charAt(j + 1)) >= 0 && hex(s.charAt(j + 2)) >= 0) {
+                bytes[n++] = (byte) (hex(s.charAt(j + 1)) << 4 | hex(s.charAt(j + 2)));
+                j += 2;
+            } else if (c == '+' && plusAsSpace) {
+                bytes[n++] = ' ';
+            } else {
+                bytes[n++] = (byte) c;
+            }
+        }
+        return new String(bytes, 0, n, StandardCharsets.UTF_8);
+    }
+
+    private void endRequestLine() throws ParseException {
+        if (length != 8 || token[0] != 'H' || token[1] != 'T' || token[2] != 'T' || token[3] != 'P'
+                || token[4] != '/' || !isDigit(token[5]) || token[6] != '.' || !isDigit(token[7])) {
+            throw new ParseException(BAD_REQUEST);
+        }
+        if (token[5] == '2' && token[7] == '0' && "PRI".equals(method) && "*".equals(target)) {
+            // The start of the HTTP/2 connection preface, see Http2Connection#isPreface.
+            version = "HTTP/2.0";
+        } else if (token[5] != '1') {
+            throw new ParseException("505 HTTP Version Not Supported");
+        } else {
+            version = token[7] == '1' ? "HTTP/1.1" : token[7] == '0' ? "HTTP/1.0"
+                    : new String(token, 0, length, StandardCharsets.ISO_8859_1);
+        }
+        headers = new HashMap<>();
+        length = 0;
+        state = HEADER_START;
+    }
+
+    private void endHeader() throws ParseException {
+        if (headers.size() >= MAX_HEADER_COUNT) {
+            throw new ParseException("431 Request Header Fields Too Large");
+        }
+        String value = new String(token, 0, valueEnd, StandardCharsets.ISO_8859_1);
+        headers.merge(headerName, value, (first, second) -> first + ", " + second);
+        length = 0;
+        state = HEADER_START;
+    }
+
+    private HttpRequest complete() throws ParseException {
+        HttpRequest request = request(method, target, version, headers);
+        method = null;
+        target = null;
+        version = null;
+        headerName = null;
+        headers = null;
+        length = 0;
+        requestLineLength = 0;
+        headerSize = 0;
+        state = LEADING_NEWLINES;
+        return request;
+    }
+
+    /**
+     * Builds a request from its parts, splitting and decoding the target and checking the
+     * body framing as for a parsed request head. {@link Http2Connection} uses it for the
+     * requests it receives as HEADERS frames.
+     *
+     * @param method the request method.
+     * @param target the request target.
+     * @param version the protocol version.
+     * @param headers the headers, with lower-case names.
+     * @return the request.
+     * @throws ParseException if the target or the framing headers are invalid.
+     */
+    static HttpRequest request(String method, String target, String version, Map<String, String> headers)
+            throws ParseException {
+        String path;
+        String query = null;
+        int pathStart = 0;
+        int queryStart = target.indexOf('?');
+        int pathEnd = queryStart < 0 ? target.length() : queryStart;
+        if (queryStart >= 0) {
+            query = target.substring(queryStart + 1);
+        }
+        if (target.charAt(0) != '/' && !target.equals("*")) {
+            int authority = target.indexOf("://");
+            if (authority <= 0 || authority > pathEnd) {
+                throw new ParseException(BAD_REQUEST);
+            }
+            pathStart = target.indexOf('/', authority + 3);
+            if (pathStart < 0 || pathStart > pathEnd) {
+                pathStart = pathEnd;
+            }
+        }
+        path = pathStart == pathEnd ? "/" : decodePath(target, pathStart, pathEnd);
+
+        long contentLength = -1;
+        boolean chunked = false;
+        String transferEncoding = headers.get("transfer-encoding");
+        String contentLengthHeader = headers.get("content-length");
+        if (transferEncoding != null) {
+            String lastCoding = transferEncoding.substring(transferEncoding.lastIndexOf(',') + 1).trim();
+            if (contentLengthHeader != null || !lastCoding.equalsIgnoreCase("chunked")) {
+                throw new ParseException(BAD_REQUEST);
+            }
+            chunked = true;
+        } else if (contentLengthHeader != null) {
+            contentLength = parseContentLength(contentLengthHeader);
+        }
+
+        return new HttpRequest(method, target, path, query, version, headers, contentLength, chunked);
+    }
+
+    /**
+     * Decodes the path of the target, rejecting malformed escapes and encoded NUL bytes
+     * instead of passing them on to the file system or the controllers.
+     */
+    private static String decodePath(String target, int from, int to) throws ParseException {
+        for (int i = target.indexOf('%', from); i >= 0 && i < to; i = target.indexOf('%', i + 1)) {
+            if (i + 2 >= to || hex(target.charAt(i + 1)) < 0 || hex(target.charAt(i + 2)) < 0
+                    || (target.charAt(i + 1) == '0' && target.charAt(i + 2) == '0')) {
+                throw new ParseException(BAD_REQUEST);
+            }
+        }
+        return decode(target, from, to, false);
+    }
+
+    /**
+     * Parses Content-Length, which may have been repeated (and joined) as long as
+     * every copy has the same value.
+     */
+    private static long parseContentLength(String value) throws ParseException {
+        long result = -1;
+        int start = 0;
+        while (start <= value.length()) {
+            int end = value.indexOf(',', start);
+            if (end < 0) {
+                end = value.length();
+            }
+            long parsed = 0;
+            int digits = 0;
+            for (int i = start; i < end; i++) {
+                char c = value.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    if (parsed > (Long.MAX_VALUE - 9) / 10) {
+                        throw new ParseException(BAD_REQUEST);
+                    }
+                    parsed = parsed * 10 + (c - '0');
+                    digits++;
+                } else if (c != ' ' && c != '\t') {
+                    throw new ParseException(BAD_REQUEST);
+                }
+            }
+            if (digits == 0 || (result >= 0 && parsed != result)) {
+                throw new ParseException(BAD_REQUEST);
+            }
+            result = parsed;
+            start = end + 1;
+        }
+        return result;
+    }
+
+    private void countRequestLine() throws ParseException {
+        if (++requestLineLength > maxRequestLineLength) {
+            throw new ParseException("414 URI Too Long");
+        }
+    }
+
+    private void countHeader() throws ParseException {
+        if (++headerSize > maxHeaderSize) {
+            throw new ParseException("431 Request Header Fields Too Large");
+        }
+    }
+
+    private void expectLineFeed(byte b) throws ParseException {
+        if (b != '\n') {
+            throw new ParseException(BAD_REQUEST);
+        }
+    }
+
+    private void append(byte b) {
+        if (length == token.length) {
+            token = Arrays.copyOf(token, length * 2);
+        }
+        token[length++] = b;
+    }
+
+    /**
+     * Returns the constant matching the bytes of the current token, or a new string
+     * if it is not one of them.
+     */
+    private String intern(String[] constants, byte[][] encoded) {
+        for (int i = 0; i < encoded.length; i++) {
+            if (encoded[i].length == length && Arrays.equals(encoded[i], 0, length, token, 0, length)) {
+                return constants[i];
+            }
+        }
+        return new String(token, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isToken(byte b) {
+        return b >= 0 && TOKEN_CHARS[b];
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static int hex(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static byte[][] encode(String[] values) {
+        byte[][] encoded = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            encoded[i] = values[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        return encoded;
+    }
+
+    /**
+     * Signals a request that cannot be accepted, with the status that should be sent
+     * back before closing the connection.
+     */
+    static final class ParseException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final String status;
+
+        ParseException(String status) {
+            super(status);
+            this.status = status;
+        }
+
+        /**
+         * Returns the response status for the rejected request.
+         *
+         * @return the status code and reason phrase (e.g., "400 Bad Request").
+         */
+        String status() {
+            return status;
+        }
+    }
+}
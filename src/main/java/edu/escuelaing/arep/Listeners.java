@@ -0,0 +1,89 @@
+package edu.escuelaing.arep;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * The Listeners class opens the listening sockets of the acceptor threads selected
+ * with the {@code --acceptors} command-line option of SimpleWebServer. A single accept
+ * loop caps the rate at which new connections are taken on, so several acceptors can
+ * share the port, each one handing its connections to its own worker group.
+ *
+ * <p>Where the platform supports {@code SO_REUSEPORT} (Linux, macOS and the BSDs) every
+ * acceptor gets its own socket bound to the same port, and the kernel spreads incoming
+ * connections across their accept queues. Elsewhere the acceptors share one socket and
+ * take turns accepting from its queue, which still spreads the work after the accept
+ * but not the accept itself.</p>
+ */
+final class Listeners {
+
+    private Listeners() {
+    }
+
+    /**
+     * Tells whether listening sockets can share a port with {@code SO_REUSEPORT}.
+     *
+     * @return true if the option is supported.
+     * @throws IOException if a probe channel cannot be opened.
+     */
+    static boolean reusePortSupported() throws IOException {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+    }
+
+    /**
+     * Opens the listening channels of a number of acceptors, in blocking mode. With
+     * {@code SO_REUSEPORT} every element is its own channel; otherwise every element is
+     * the same channel. Port 0 binds the first channel to an ephemeral port and the
+     * others to the same one.
+     *
+     * @param port the port to listen on.
+     * @param backlog the accept queue length of each channel.
+     * @param acceptors the number of acceptors.
+     * @return one channel per acceptor.
+     * @throws IOException if a channel cannot be opened or bound.
+     */
+    static ServerSocketChannel[] open(int port, int backlog, int acceptors) throws IOException {
+        ServerSocketChannel[] channels = new ServerSocketChannel[Math.max(1, acceptors)];
+        boolean reusePort = channels.length > 1 && reusePortSupported();
+        try {
+            for (int i = 0; i < channels.length; i++) {
+                if (i > 0 && !reusePort) {
+                    channels[i] = channels[0];
+                    continue;
+                }
+                channels[i] = ServerSocketChannel.open();
+                if (reusePort) {
+                    channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                channels[i].bind(new InetSocketAddress(port), backlog);
+                port = ((InetSocketAddress) channels[i].getLocalAddress()).getPort();
+            }
+        } catch (IOException e) {
+            close(channels);
+            throw e;
+        }
+        return channels;
+    }
+
+    /**
+     * Closes the channels returned by {@link #open}.
+     *
+     * @param channels the channels, possibly repeated or null; closing a channel twice does nothing.
+     */
+    static void close(ServerSocketChannel[] channels) {
+        for (ServerSocketChannel channel : channels) {
+            if (channel == null) {
+                continue;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing left to do with it.
+            }
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package edu.escuelaing.arep;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The Metrics class collects the server's request statistics and renders them in the
+ * Prometheus text exposition format, served on {@link #PATH}.
+ *
+ * <p>Each controller route gets a {@link Route} when it is registered, so recording a
+ * request only touches that route's {@link LongAdder}s: there are no locks and no map
+ * lookups on the request path. Latencies go into a log-linear histogram in the style
+ * of HdrHistogram, with four sub-buckets per power of two of microseconds, which keeps
+ * every recorded value within 25% of its true value. The histogram is exported with
+ * power-of-two {@code le} boundaries, together with precomputed quantiles.</p>
+ *
+ * <p>Other values, such as the worker pool's queue length or the static cache's hit
+ * count, are registered as {@link #gauge gauges} or {@link #counter counters} read
+ * only when the endpoint is scraped.</p>
+ */
+final class Metrics {
+    static final String PATH = "/app/_metrics";
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    private final List<Sample> samples = new CopyOnWriteArrayList<>();
+    private final Route staticFiles = route("GET", "static");
+    private final Route unrouted = route("-", "unrouted");
+    private final Route scrapes = route("GET", PATH);
+    private final LongAdder openConnections = new LongAdder();
+    private final LongAdder acceptedConnections = new LongAdder();
+
+    /**
+     * Returns the statistics of a route, creating them the first time. Meant to be
+     * called when the route is registered, not for each request.
+     *
+     * @param method the request method the route answers (e.g., GET).
+     * @param pattern the route pattern (e.g., /app/hello/{name}).
+     * @return the route's statistics.
+     */
+    Route route(String method, String pattern) {
+        return routes.computeIfAbsent(method + " " + pattern, key -> new Route(method, pattern));
+    }
+
+    /**
+     * Returns the statistics shared by the requests served from the static files.
+     *
+     * @return the static files route.
+     */
+    Route staticFiles() {
+        return staticFiles;
+    }
+
+    /**
+     * Returns the statistics shared by the requests that did not reach a route: unknown
+     * paths, unparseable requests and rejected connections.
+     *
+     * @return the catch-all route.
+     */
+    Route unrouted() {
+        return unrouted;
+    }
+
+    /**
+     * Returns the statistics of the requests for the metrics themselves.
+     *
+     * @return the metrics endpoint route.
+     */
+    Route scrapes() {
+        return scrapes;
+    }
+
+    /**
+     * Records that a connection was accepted.
+     */
+    void connectionOpened() {
+        acceptedConnections.increment();
+        openConnections.increment();
+    }
+
+    /**
+     * Records that a connection was closed.
+     */
+    void connectionClosed() {
+        openConnections.decrement();
+    }
+
+    /**
+     * Registers a value that can go up and down, read when the metrics are rendered.
+     *
+     * @param name the metric name.
+     * @param help the description shown in the HELP line.
+     * @param value reads the current value.
+     */
+    void gauge(String name, String help, LongSupplier value) {
+        samples.add(new Sample(name, "gauge", help, value));
+    }
+
+    /**
+     * Registers a value that only goes up, read when the metrics are rendered.
+     *
+     * @param name the metric name, ending in {@code _total}.
+     * @param help the description shown in the HELP line.
+     * @param value reads the current value.
+     */
+    void counter(String name, String help, LongSupplier value) {
+        samples.add(new Sample(name, "counter", help, value));
+    }
+
+    /**
+     * Renders every metric in the Prometheus text format.
+     *
+     * @return the exposition text.
+     */
+    String render() {
+        Map<String, Route> sorted = new TreeMap<>(routes);
+        StringBuilder out = new StringBuilder(4096 + sorted.size() * 4096);
+
+        header(out, "arep_requests_total", "counter", "Requests answered, by route and status class.");
+        for (Route route : sorted.values()) {
+            for (int i = 1; i < route.statusClasses.length; i++) {
+                long count = route.statusClasses[i].sum();
+                if (count > 0) {
+                    route.labels(out.append("arep_requests_total{"))
+                            .append(",status=\"").append(i).append("xx\"} ").append(count).append('\n');
+                }
+            }
+        }
+        header(out, "arep_request_errors_total", "counter", "Requests answered with a 5xx status, by route.");
+        for (Route route : sorted.values()) {
+            route.labels(out.append("arep_request_errors_total{")).append("} ").append(route.statusClasses[5].sum()).append('\n');
+        }
+
+        header(out, "arep_request_duration_seconds", "histogram", "Time spent handling a request, by route.");
+        for (Route route : sorted.values()) {
+            route.latency.renderBuckets(out, route);
+        }
+        header(out, "arep_request_duration_quantile_seconds", "gauge",
+                "Request duration quantiles computed from the histogram, by route.");
+        for (Route route : sorted.values()) {
+            route.latency.renderQuantiles(out, route);
+        }
+
+        header(out, "arep_open_connections", "gauge", "Client connections currently open.");
+        out.append("arep_open_connections ").append(openConnections.sum()).append('\n');
+        header(out, "arep_accepted_connections_total", "counter", "Client connections accepted.");
+        out.append("arep_accepted_connections_total ").append(acceptedConnections.sum()).append('\n');
+        for (Sample sample : samples) {
+            header(out, sample.name, sample.type, sample.help);
+            out.append(sample.name).append(' ').append(sample.value.getAsLong()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * The statistics of one route.
+     */
+    static final class Route {
+        private final String method;
+        private final String pattern;
+        private final LongAdder[] statusClasses = new LongAdder[6];
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private Route(String method, String pattern) {
+            this.method = method;
+            this.pattern = pattern;
+            for (int i = 0; i < statusClasses.length; i++) {
+                statusClasses[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records a finished request.
+         *
+         * @param status the response status code, or 0 if no response was sent.
+         * @param latencyNanos the time spent handling the request, in nanoseconds.
+         */
+        void record(int status, long latencyNanos) {
+            int statusClass = status / 100;
+            statusClasses[statusClass >= 1 && statusClass <= 5 ? statusClass : 0].increment();
+            latency.record(latencyNanos);
+        }
+
+        /**
+         * Returns the number of requests recorded for this route.
+         *
+         * @return the request count.
+         */
+        long count() {
+            return latency.count();
+        }
+
+        /**
+         * Returns an upper bound of the given quantile of the recorded latencies.
+         *
+         * @param quantile the quantile, between 0 and 1.
+         * @return the latency in microseconds, or 0 if nothing was recorded.
+         */
+        long quantileMicros(double quantile) {
+            return latency.quantileMicros(quantile);
+        }
+
+        private StringBuilder labels(StringBuilder out) {
+            out.append("method=\"");
+            escape(out, method);
+            out.append("\",route=\"");
+            escape(out, pattern);
+            return out.append('"');
+        }
+
+        private static void escape(StringBuilder out, String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.append('\\').append(c);
+                } else if (c == '\n') {
+                    out.append("\\n");
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * A log-linear latency histogram over microseconds. Values below 4 µs have a bucket
+     * each; above that every power of two is split into {@link #SUB_BUCKETS} equal
+     * buckets, up to about 67 seconds. Longer values fall into an overflow bucket.
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 2;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_EXPONENT = 26;
+        private static final int BUCKETS = MAX_EXPONENT * SUB_BUCKETS;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS + 1];
+        private final LongAdder sumMicros = new LongAdder();
+
+        LatencyHistogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+            buckets[index(micros)].increment();
+            sumMicros.add(micros);
+        }
+
+        long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        long quantileMicros(double quantile) {
+            long[] counts = snapshot();
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(BUCKETS);
+        }
+
+        /**
+         * Returns the bucket of a value.
+         */
+        static int index(long micros) {
+            if (micros < SUB_BUCKETS) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            if (exponent >= MAX_EXPONENT + 1) {
+                return BUCKETS;
+            }
+            int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - 1) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * Returns the smallest value, in microseconds, above every value of a bucket.
+         */
+        static long upperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index + 1;
+            }
+            if (index >= BUCKETS) {
+                return Long.MAX_VALUE;
+            }
+            int exponent = index / SUB_BUCKETS + 1;
+            int sub = index % SUB_BUCKETS;
+            return (long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS);
+        }
+
+        private long[] snapshot() {
+            long[] counts = new long[buckets.length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets[i].sum();
+            }
+            return counts;
+        }
+
+        private void renderBuckets(StringBuilder out, Route route) {
+            long[] counts = snapshot();
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulative += counts[i];
+                long upper = upperBound(i);
+                if (Long.bitCount(upper) == 1) {
+                    route.labels(out.append("arep_request_duration_seconds_bucket{"))
+                            .append(",le=\"").append(upper / 1e6).append("\"} ").append(cumulative).append('\n');
+                }
+            }
+            cumulative += counts[BUCKETS];
+            route.labels(out.append("arep_request_duration_seconds_bucket{"))
+                    .append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+            route.labels(out.append("arep_request_duration_seconds_sum{"))
+                    .append("} ").append(sumMicros.sum() / 1e6).append('\n');
+            route.labels(out.append("arep_request_duration_seconds_count{"))
+                    .append("} ").append(cumulative).append('\n');
+        }
+
+        private void renderQuantiles(StringBuilder out, Route route) {
+            for (double quantile : QUANTILES) {
+                long micros = quantileMicros(quantile);
+                route.labels(out.append("arep_request_duration_quantile_seconds{"))
+                        .append(",quantile=\"").append(quantile).append("\"} ")
+                        .append(micros == Long.MAX_VALUE ? "+Inf" : String.valueOf(micros / 1e6)).append('\n');
+            }
+        }
+    }
+
+    /**
+     * A value registered with {@link #gauge} or {@link #counter}.
+     */
+    private static final class Sample {
+        private final String name;
+        private final String type;
+        private final String help;
+        private final LongSupplier value;
+
+        Sample(String name, String type, String help, LongSupplier value) {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+            this.value = value;
+        }
+    }
+}
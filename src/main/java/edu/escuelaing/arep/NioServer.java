@@ -0,0 +1,685 @@
+package edu.escuelaing.arep;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The NioServer class is a non-blocking alternative to the thread-per-connection
+ * accept loop of SimpleWebServer. Connections are multiplexed over a fixed number
+ * of event loops, each one driving its own {@link Selector}, so idle or slow clients
+ * do not hold a thread while they wait.
+ *
+ * <p>Each event loop reads into a per-connection {@link ByteBuffer} and feeds it to the
+ * connection's {@link HttpRequestParser} as bytes arrive. Once the headers and the body,
+ * declared by {@code Content-Length} or ended by the last chunk, are complete, the request
+ * is handed to the worker pool, which runs the same {@link ClientHandler#processRequest} used by the blocking mode.
+ * The response is written back by the event loop that owns the connection. Reading
+ * is paused while a request is being handled, so pipelined requests are answered
+ * in order.</p>
+ *
+ * <p>The response of an asynchronous controller is {@link ResponseOutput#defer deferred}:
+ * the worker returns to the pool as soon as the controller has returned its future, and
+ * the response is handed to the event loop when the future completes. A streamed
+ * response is written while the worker is still producing it: each chunk it flushes
+ * wakes the event loop, and the worker blocks once the client has fallen
+ * {@link ResponseOutput.Queued#MAX_STREAM_BUFFER} bytes behind.</p>
+ *
+ * <p>With several acceptors the event loops are split into as many groups. The first
+ * loop of each group accepts on its own listening socket (see {@link Listeners}), spreads
+ * its connections round-robin across the loops of its group and hands their requests
+ * to the group's own worker pool, so groups share nothing on the accept path.</p>
+ *
+ * <p>{@link AdmissionControl} limits the open connections, times out slow clients and
+ * answers a request with a 503 when it has waited too long for a worker.</p>
+ *
+ * <p>A connection that starts with the HTTP/2 connection preface, or asks to upgrade to
+ * h2c, leaves its event loop: the channel is switched to blocking mode and served by an
+ * {@link Http2Connection}, which reads its frames on a thread of its own while the
+ * loop's worker group answers its streams.</p>
+ */
+class NioServer {
+    static final int MAX_BODY_SIZE = 1024 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final long SELECT_TIMEOUT = 1000;
+
+    private final int port;
+    private final int acceptors;
+    private final EventLoop[] eventLoops;
+    private final ClientHandler handler = new ClientHandler(null);
+    private final AdmissionControl admission = SimpleWebServer.admission;
+
+    /**
+     * Constructs a new NioServer.
+     *
+     * @param port the port to listen on.
+     * @param eventLoopCount the number of selector threads, usually one per core; raised
+     *                       to the number of worker groups if lower.
+     * @param workerGroups the pools that run the request handlers, one per acceptor.
+     * @throws IOException if a selector cannot be opened.
+     */
+    NioServer(int port, int eventLoopCount, List<ExecutorService> workerGroups) throws IOException {
+        this.port = port;
+        this.acceptors = workerGroups.size();
+        this.eventLoops = new EventLoop[Math.max(acceptors, eventLoopCount)];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(Selector.open(), i, workerGroups.get(i % acceptors));
+        }
+    }
+
+    /**
+     * Binds the listening channels and runs the event loops until the server is stopped.
+     * The first event loop runs on the calling thread. Event loop {@code i} belongs to
+     * group {@code i % acceptors}, and the first loop of each group also accepts new
+     * connections, which are spread round-robin across the loops of its group.
+     *
+     * @throws IOException if the listening channels cannot be opened or bound.
+     */
+    void serve() throws IOException {
+        ServerSocketChannel[] listeners = Listeners.open(port, admission.backlog, acceptors);
+        try {
+            for (int i = 0; i < acceptors; i++) {
+                listeners[i].configureBlocking(false);
+                listeners[i].register(eventLoops[i].selector, SelectionKey.OP_ACCEPT);
+            }
+            for (int i = 1; i < eventLoops.length; i++) {
+                Thread thread = new Thread(eventLoops[i], "nio-event-loop-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            eventLoops[0].run();
+        } finally {
+            Listeners.close(listeners);
+        }
+    }
+
+    /**
+     * Writes the constant 503 response to a connection that is being turned away, as far
+     * as the socket buffer takes it without blocking, and closes it.
+     *
+     * @param channel the accepted channel.
+     */
+    private static void reject(SocketChannel channel) {
+        SimpleWebServer.accessLog.log("-", "-", 503, ClientHandler.SERVICE_UNAVAILABLE_RESPONSE.length, 0);
+        SimpleWebServer.metrics.unrouted().record(503, 0);
+        try {
+            channel.configureBlocking(false);
+            channel.write(ByteBuffer.wrap(ClientHandler.SERVICE_UNAVAILABLE_RESPONSE));
+        } catch (IOException e) {
+            // The client is being turned away anyway.
+        }
+        closeQuietly(channel);
+    }
+
+    /**
+     * A single selector thread. Other threads hand work to it through
+     * {@link #execute(Runnable)}, so the connections it owns are only ever
+     * touched from this thread.
+     */
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ExecutorService workers;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private long lastIdleCheck = System.currentTimeMillis();
+        /** The loop of this group the next accepted connection goes to, when this loop accepts. */
+        private int nextEventLoop;
+
+        EventLoop(Selector selector, int index, ExecutorService workers) {
+            this.selector = selector;
+            this.workers = workers;
+            this.nextEventLoop = index;
+        }
+
+        /**
+         * Accepts every pending connection and assigns it to the next event loop of this
+         * group. Connections beyond the {@link AdmissionControl} limit are answered with a
+         * 503 and closed.
+         *
+         * @param serverChannel the listening channel.
+         * @throws IOException if an I/O error occurs while accepting.
+         */
+        private void accept(ServerSocketChannel serverChannel) throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                if (!admission.tryOpenConnection()) {
+                    reject(channel);
+                    continue;
+                }
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                EventLoop eventLoop = eventLoops[nextEventLoop];
+                nextEventLoop += acceptors;
+                if (nextEventLoop >= eventLoops.length) {
+                    nextEventLoop %= acceptors;
+                }
+                SocketChannel accepted = channel;
+                eventLoop.execute(() -> eventLoop.register(accepted));
+            }
+        }
+
+        /**
+         * Queues a task to run on this event loop and wakes the selector up.
+         *
+         * @param task the task to run.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Registers a newly accepted connection with this event loop.
+         *
+         * @param channel the accepted channel.
+         */
+        void register(SocketChannel channel) {
+            try {
+                Connection connection = new Connection(channel, this);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                SimpleWebServer.metrics.connectionOpened();
+            } catch (IOException e) {
+                admission.connectionClosed();
+                closeQuietly(channel);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (SimpleWebServer.isRunning()) {
+                    selector.select(SELECT_TIMEOUT);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            try {
+                                accept((ServerSocketChannel) key.channel());
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                            continue;
+                        }
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isWritable()) {
+                            connection.onWritable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                    }
+                    closeIdleConnections();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly(key.channel());
+                }
+                closeQuietly(selector);
+            }
+        }
+
+        /**
+         * Closes the connections that have been idle, sending a request or refusing to
+         * read a response for longer than the {@link AdmissionControl} timeouts allow.
+         * Runs at most once per select timeout.
+         */
+        private void closeIdleConnections() {
+            long now = System.currentTimeMillis();
+            if (now - lastIdleCheck < SELECT_TIMEOUT) {
+                return;
+            }
+            lastIdleCheck = now;
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).closeIfExpired(now);
+                }
+            }
+        }
+    }
+
+    /**
+     * The state of one client connection: its input buffer, the incremental
+     * parser position and the response currently being written.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final EventLoop eventLoop;
+        private SelectionKey key;
+        /** Borrowed from {@link BufferPool#DIRECT} while it holds unparsed bytes, null otherwise. */
+        private ByteBuffer input;
+        private final HttpRequestParser parser = new HttpRequestParser();
+        private ResponseOutput.Queued output;
+        /** False while {@link #output} is a streamed response the worker is still writing. */
+        private boolean outputComplete;
+        private boolean closeAfterWrite;
+        private boolean busy;
+        private long lastActivity = System.currentTimeMillis();
+        /** When the first byte of the request being received arrived. */
+        private long requestStarted;
+        private int requestsServed;
+
+        private HttpRequest request;
+        private HttpBody.ChunkedScanner chunkedBody;
+        private int bodyLength;
+
+        Connection(SocketChannel channel, EventLoop eventLoop) {
+            this.channel = channel;
+            this.eventLoop = eventLoop;
+        }
+
+        /**
+         * Reads whatever the client has sent and tries to parse a request from it.
+         */
+        void onReadable() {
+            try {
+                boolean started = request != null || input != null;
+                if (input == null) {
+                    input = BufferPool.DIRECT.acquire(INITIAL_BUFFER_SIZE);
+                }
+                if (channel.read(input) == -1) {
+                    close();
+                    return;
+                }
+                lastActivity = System.currentTimeMillis();
+                if (!started) {
+                    requestStarted = lastActivity;
+                }
+                parse();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Continues writing the pending response. When it has been fully written the
+         * connection either closes or goes back to reading, starting with any pipelined
+         * request that is already buffered.
+         */
+        void onWritable() {
+            try {
+                lastActivity = System.currentTimeMillis();
+                if (!output.writeTo(channel)) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (!outputComplete) {
+                    key.interestOps(0);
+                    return;
+                }
+                output = null;
+                busy = false;
+                requestStarted = lastActivity;
+                if (closeAfterWrite) {
+                    close();
+                    return;
+                }
+                key.interestOps(SelectionKey.OP_READ);
+                parse();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Closes the connection if its current state has lasted too long: waiting for the
+         * client to read the response for longer than the write timeout, receiving a
+         * request for longer than the read timeout, or waiting for the next request for
+         * longer than the idle timeout. A request being handled by a worker is not timed.
+         *
+         * @param now the current time, from {@link System#currentTimeMillis}.
+         */
+        void closeIfExpired(long now) {
+            if (output != null && key.interestOps() == SelectionKey.OP_WRITE) {
+                if (now - lastActivity > admission.writeTimeoutMillis) {
+                    admission.timedOut();
+                    close();
+                }
+            } else if (busy) {
+                return;
+            } else if (request != null || input != null) {
+                if (now - requestStarted > admission.readTimeoutMillis) {
+                    admission.timedOut();
+                    close();
+                }
+            } else if (now - lastActivity > admission.idleTimeoutMillis) {
+                close();
+            }
+        }
+
+        /**
+         * Parses the next request from the input buffer, growing the buffer when the
+         * body does not fit yet. Once every byte has been parsed the buffer goes back to
+         * the pool, so a connection waiting for its next request holds none.
+         */
+        private void parse() {
+            if (busy || !key.isValid() || input == null) {
+                return;
+            }
+            input.flip();
+            int required = nextRequest();
+            if (input == null) {
+                return;
+            }
+            input.compact();
+            if (input.position() == 0) {
+                releaseInput();
+            } else if (required > input.capacity()) {
+                int capacity = Math.max(required, Math.min(input.capacity() * 2, MAX_BODY_SIZE));
+                ByteBuffer larger = BufferPool.DIRECT.acquire(capacity);
+                input.flip();
+                larger.put(input);
+                BufferPool.DIRECT.release(input);
+                input = larger;
+            }
+        }
+
+        private void releaseInput() {
+            if (input != null) {
+                BufferPool.DIRECT.release(input);
+                input = null;
+            }
+        }
+
+        /**
+         * Feeds the (flipped) input buffer to the parser and dispatches the request once
+         * its head and body are complete.
+         *
+         * @return 0 if a request was dispatched or rejected or more of its head is needed,
+         *         otherwise the number of buffered bytes needed before its body is complete.
+         */
+        private int nextRequest() {
+            if (request == null) {
+                try {
+                    request = parser.parse(input);
+                } catch (HttpRequestParser.ParseException e) {
+                    reject(e.status());
+                    return 0;
+                }
+                if (request == null) {
+                    return 0;
+                }
+                if (Http2Connection.isPreface(request) || Http2Connection.isUpgrade(request)) {
+                    HttpRequest switching = request;
+                    request = null;
+                    switchToHttp2(switching);
+                    return 0;
+                }
+                if (request.contentLength() > MAX_BODY_SIZE) {
+                    request = null;
+                    reject("413 Payload Too Large");
+                    return 0;
+                }
+                bodyLength = (int) Math.max(0, request.contentLength());
+                chunkedBody = request.chunked() ? new HttpBody.ChunkedScanner() : null;
+            }
+            if (chunkedBody != null) {
+                int length;
+                try {
+                    length = chunkedBody.scan(input);
+                } catch (HttpRequestParser.ParseException e) {
+                    request = null;
+                    reject(e.status());
+                    return 0;
+                }
+                if (length < 0) {
+                    if (input.remaining() >= MAX_BODY_SIZE) {
+                        request = null;
+                        reject("413 Payload Too Large");
+                        return 0;
+                    }
+                    return input.remaining() + 1;
+                }
+                bodyLength = length;
+                chunkedBody = null;
+            }
+            if (input.remaining() < bodyLength) {
+                return bodyLength;
+            }
+            byte[] body = new byte[bodyLength];
+            input.get(body);
+            dispatch(body);
+            return 0;
+        }
+
+        /**
+         * Hands a complete request to the worker pool and stops reading until its
+         * response has been written.
+         *
+         * @param body the request body.
+         */
+        private void dispatch(byte[] body) {
+            HttpRequest dispatched = request;
+            request = null;
+            dispatched.client(channel.socket().getInetAddress());
+
+            requestsServed++;
+            boolean keepAlive = ClientHandler.isKeepAlive(dispatched.version(), dispatched.headers())
+                    && requestsServed < SimpleWebServer.MAX_KEEP_ALIVE_REQUESTS;
+
+            busy = true;
+            key.interestOps(0);
+            long enqueuedAt = System.nanoTime();
+            try {
+                eventLoop.workers.execute(() -> {
+                    if (!admission.admit(enqueuedAt)) {
+                        ResponseOutput.Queued shed = serviceUnavailable(dispatched);
+                        eventLoop.execute(() -> write(shed, true));
+                        return;
+                    }
+                    long start = System.nanoTime();
+                    ResponseOutput.Queued response = new ResponseOutput.Queued();
+                    response.onData(() -> eventLoop.execute(() -> stream(response)));
+                    boolean reuse;
+                    try {
+                        handler.logRequestHead(dispatched);
+                        reuse = handler.processRequest(dispatched, new ByteArrayInputStream(body), response, keepAlive);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        reuse = false;
+                    } catch (RuntimeException e) {
+                        // The connection must still go back to its loop, or it would stay busy and never be closed.
+                        e.printStackTrace();
+                        reuse = false;
+                        if (response.bytesWritten() == 0) {
+                            internalServerError(response);
+                        }
+                    }
+                    CompletableFuture<Boolean> deferred = response.deferred();
+                    if (deferred == null) {
+                        respond(dispatched, response, reuse, start);
+                    } else {
+                        deferred.whenComplete((reused, error) ->
+                                respond(dispatched, response, error == null && reused, start));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                write(serviceUnavailable(dispatched), true);
+            }
+        }
+
+        /**
+         * Takes the connection off the event loop and hands it to an
+         * {@link Http2Connection}. The key is cancelled first, and the channel can only be
+         * made blocking once the selector has dropped it, so the rest happens in a task of
+         * the loop.
+         *
+         * @param request the preface head or the upgrade request.
+         */
+        private void switchToHttp2(HttpRequest request) {
+            busy = true;
+            ByteBuffer buffered = ByteBuffer.allocate(input.remaining());
+            buffered.put(input).flip();
+            releaseInput();
+            key.cancel();
+            eventLoop.execute(() -> {
+                try {
+                    eventLoop.selector.selectNow();
+                    channel.configureBlocking(true);
+                    Socket socket = channel.socket();
+                    Http2Connection.start(socket, new RequestInput(socket.getInputStream(), buffered),
+                            ResponseOutput.forSocket(socket), handler, eventLoop.workers, request);
+                } catch (IOException | RejectedExecutionException e) {
+                    SimpleWebServer.metrics.connectionClosed();
+                    admission.connectionClosed();
+                    closeQuietly(channel);
+                }
+            });
+        }
+
+        /**
+         * Builds the 503 response of a request that the worker pool rejected or that
+         * waited in its queue for too long, and records it.
+         *
+         * @param request the request being turned away.
+         * @return the constant response, to be written before closing the connection.
+         */
+        private ResponseOutput.Queued serviceUnavailable(HttpRequest request) {
+            ResponseOutput.Queued response = new ResponseOutput.Queued();
+            response.write(ClientHandler.SERVICE_UNAVAILABLE_RESPONSE, 0, ClientHandler.SERVICE_UNAVAILABLE_RESPONSE.length);
+            SimpleWebServer.accessLog.log(request.method(), request.path(), 503, response.bytesWritten(), 0);
+            SimpleWebServer.metrics.unrouted().record(503, 0);
+            return response;
+        }
+
+        /**
+         * Answers 500 for a request whose handler failed before writing anything.
+         *
+         * @param response the request's still empty response.
+         */
+        private void internalServerError(ResponseOutput.Queued response) {
+            try {
+                handler.sendResponse(response, "500 Internal Server Error", "text/plain", new byte[0], false);
+            } catch (IOException e) {
+                // A queued response only buffers what it is given.
+            }
+        }
+
+        /**
+         * Records a handled request and passes its response to the event loop.
+         *
+         * @param request the request that was handled.
+         * @param response its complete response.
+         * @param reuse whether the connection can be reused afterwards.
+         * @param start when the worker started handling the request, from {@link System#nanoTime}.
+         */
+        private void respond(HttpRequest request, ResponseOutput.Queued response, boolean reuse, long start) {
+            long latency = System.nanoTime() - start;
+            SimpleWebServer.accessLog.log(request.method(), request.path(), response.status(),
+                    response.bytesWritten(), latency);
+            if (response.route() != null) {
+                response.route().record(response.status(), latency);
+            }
+            eventLoop.execute(() -> write(response, !reuse));
+        }
+
+        /**
+         * Answers with an empty error response and closes the connection afterwards.
+         *
+         * @param status the status code and reason phrase.
+         */
+        private void reject(String status) {
+            ResponseOutput.Queued response = new ResponseOutput.Queued();
+            try {
+                handler.sendResponse(response, status, "text/plain", new byte[0], false);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            SimpleWebServer.accessLog.log("-", "-", response.status(), response.bytesWritten(), 0);
+            SimpleWebServer.metrics.unrouted().record(response.status(), 0);
+            busy = true;
+            write(response, true);
+        }
+
+        /**
+         * Starts writing a response on the event loop thread.
+         *
+         * @param response the encoded response.
+         * @param close whether to close the connection once it has been written.
+         */
+        private void write(ResponseOutput.Queued response, boolean close) {
+            if (!key.isValid()) {
+                response.release();
+                return;
+            }
+            output = response;
+            outputComplete = true;
+            closeAfterWrite = close;
+            onWritable();
+        }
+
+        /**
+         * Writes what a worker has produced so far of a streamed response, on the event
+         * loop thread. The response stays the connection's output until {@link #write}
+         * hands it over complete.
+         *
+         * @param response the response being streamed.
+         */
+        private void stream(ResponseOutput.Queued response) {
+            if (!key.isValid()) {
+                response.release();
+                return;
+            }
+            if (output == null) {
+                output = response;
+                outputComplete = false;
+            }
+            if (output == response) {
+                onWritable();
+            }
+        }
+
+        /**
+         * Cancels the selection key and closes the channel.
+         */
+        void close() {
+            if (!key.isValid()) {
+                return;
+            }
+            SimpleWebServer.metrics.connectionClosed();
+            admission.connectionClosed();
+            key.cancel();
+            closeQuietly(channel);
+            releaseInput();
+            if (output != null) {
+                output.release();
+                output = null;
+            }
+        }
+    }
+
+    /**
+     * Closes a resource, ignoring any error.
+     *
+     * @param closeable the resource to close.
+     */
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // Nothing left to do with a connection that failed to close.
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package edu.escuelaing.arep;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The PiEngine class computes the decimal digits of Pi with the Chudnovsky series,
+ * summed by binary splitting. Large computations split the series across the
+ * common {@link ForkJoinPool}.
+ *
+ * <p>The digits of the largest precision computed so far are kept, so a request for
+ * that many decimals or fewer is answered by rounding the cached digits. When several
+ * threads ask for a precision that is not cached yet, one of them computes it and the
+ * others wait for its result instead of repeating the work.</p>
+ */
+final class PiEngine {
+    static final int MAX_DECIMALS = 1_000_000;
+    /** Precisions are rounded up to a multiple of this, so growing requests do not each recompute. */
+    static final int PRECISION_STEP = 1000;
+    private static final double DIGITS_PER_TERM = 14.181647462725477;
+    private static final int GUARD_DIGITS = 10;
+    /** Ranges of the series with fewer terms than this are summed on the calling thread. */
+    private static final int PARALLEL_THRESHOLD = 512;
+    private static final BigDecimal HALF = new BigDecimal("0.5");
+    private static final BigInteger C3_OVER_24 = BigInteger.valueOf(640320).pow(3).divide(BigInteger.valueOf(24));
+
+    private volatile String fraction = "";
+    private final AtomicReference<CompletableFuture<String>> pending = new AtomicReference<>();
+
+    /**
+     * Returns Pi rounded half up to the given number of decimals.
+     *
+     * @param decimals the number of decimals, between 0 and {@link #MAX_DECIMALS}.
+     * @return Pi in plain notation (e.g., 3.14 for 2 decimals, 3 for 0).
+     * @throws IllegalArgumentException if {@code decimals} is out of range.
+     */
+    String pi(int decimals) {
+        if (decimals < 0 || decimals > MAX_DECIMALS) {
+            throw new IllegalArgumentException("decimals must be between 0 and " + MAX_DECIMALS);
+        }
+        return round(fraction(decimals + 1), decimals);
+    }
+
+    /**
+     * Returns at least the given number of fractional digits of Pi, computing them if
+     * they are not cached yet.
+     */
+    private String fraction(int digits) {
+        while (true) {
+            String cached = fraction;
+            if (cached.length() >= digits) {
+                return cached;
+            }
+            CompletableFuture<String> inFlight = pending.get();
+            if (inFlight != null) {
+                inFlight.join();
+                continue;
+            }
+            CompletableFuture<String> mine = new CompletableFuture<>();
+            if (!pending.compareAndSet(null, mine)) {
+                continue;
+            }
+            try {
+                String computed = compute((digits + PRECISION_STEP - 1) / PRECISION_STEP * PRECISION_STEP);
+                fraction = computed;
+                pending.set(null);
+                mine.complete(computed);
+            } catch (RuntimeException | Error e) {
+                pending.set(null);
+                mine.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Computes the fractional digits of Pi.
+     *
+     * @param digits the number of correct digits wanted after the decimal point.
+     * @return exactly that many digits, without the leading "3.".
+     */
+    static String compute(int digits) {
+        long terms = (long) (digits / DIGITS_PER_TERM) + 2;
+        Sum sum = terms > PARALLEL_THRESHOLD
+                ? ForkJoinPool.commonPool().invoke(new Split(0, terms))
+                : split(0, terms);
+
+        MathContext context = new MathContext(digits + GUARD_DIGITS);
+        BigDecimal numerator = new BigDecimal(sum.q.multiply(BigInteger.valueOf(426880)))
+                .multiply(sqrt(10005, context), context);
+        String pi = numerator.divide(new BigDecimal(sum.t), context).toPlainString();
+        return pi.substring(2, 2 + digits);
+    }
+
+    /**
+     * Computes a square root with Newton's method, doubling the working precision at
+     * each step so that only the last step runs at full precision. It is much faster
+     * than {@link BigDecimal#sqrt} for thousands of digits.
+     */
+    static BigDecimal sqrt(long n, MathContext context) {
+        BigDecimal value = BigDecimal.valueOf(n);
+        BigDecimal x = new BigDecimal(Math.sqrt(n), MathContext.DECIMAL64);
+        int precision = MathContext.DECIMAL64.getPrecision() - 1;
+        do {
+            precision = Math.min(precision * 2, context.getPrecision());
+            MathContext step = new MathContext(precision + 2);
+            x = x.add(value.divide(x, step)).multiply(HALF).round(step);
+        } while (precision < context.getPrecision());
+        return x.round(context);
+    }
+
+    /**
+     * Rounds Pi, given as its fractional digits, half up to {@code decimals} places.
+     */
+    static String round(String fraction, int decimals) {
+        char[] digits = new char[decimals + 1];
+        digits[0] = '3';
+        fraction.getChars(0, decimals, digits, 1);
+        if (fraction.charAt(decimals) >= '5') {
+            int i = decimals;
+            while (digits[i] == '9') {
+                digits[i--] = '0';
+            }
+            digits[i]++;
+        }
+        if (decimals == 0) {
+            return new String(digits);
+        }
+        return new StringBuilder(decimals + 2).append(digits[0]).append('.').append(digits, 1, decimals).toString();
+    }
+
+    /**
+     * Sums the terms {@code [a, b)} of the series by binary splitting.
+     */
+    static Sum split(long a, long b) {
+        if (b - a == 1) {
+            if (a == 0) {
+                return new Sum(BigInteger.ONE, BigInteger.ONE, BigInteger.valueOf(13591409));
+            }
+            BigInteger p = BigInteger.valueOf(6 * a - 5)
+                    .multiply(BigInteger.valueOf(2 * a - 1))
+                    .multiply(BigInteger.valueOf(6 * a - 1));
+            BigInteger q = BigInteger.valueOf(a).pow(3).multiply(C3_OVER_24);
+            BigInteger t = p.multiply(BigInteger.valueOf(13591409 + 545140134 * a));
+            return new Sum(p, q, (a & 1) == 1 ? t.negate() : t);
+        }
+        long m = (a + b) >>> 1;
+        return split(a, m).combine(split(m, b));
+    }
+
+    /**
+     * The P, Q and T values of a range of the series.
+     */
+    static final class Sum {
+        final BigInteger p;
+        final BigInteger q;
+        final BigInteger t;
+
+        Sum(BigInteger p, BigInteger q, BigInteger t) {
+            this.p = p;
+            this.q = q;
+            this.t = t;
+        }
+
+        Sum combine(Sum right) {
+            return new Sum(p.multiply(right.p), q.multiply(right.q), t.multiply(right.q).add(p.multiply(right.t)));
+        }
+    }
+
+    /**
+     * Binary splitting as a fork/join task: both halves of a large range are summed
+     * in parallel.
+     */
+    private static final class Split extends RecursiveTask<Sum> {
+        private final long a;
+        private final long b;
+
+        Split(long a, long b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        protected Sum compute() {
+            if (b - a <= PARALLEL_THRESHOLD) {
+                return split(a, b);
+            }
+            long m = (a + b) >>> 1;
+            Split left = new Split(a, m);
+            left.fork();
+            Sum right = new Split(m, b).compute();
+            return left.join().combine(right);
+        }
+    }
+}
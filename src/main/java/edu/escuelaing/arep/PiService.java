@@ -1,17 +1,21 @@
 package edu.escuelaing.arep;
 
+import java.nio.charset.StandardCharsets;
+
 import edu.escuelaing.arep.annotations.*;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 
 /**
  * The PiService class provides a RESTful service that calculates the value of Pi
  * to a specified number of decimal places. It is annotated with @RestController
  * to indicate that it is a controller class that handles HTTP requests.
+ * The digits come from a {@link PiEngine}, which keeps the largest precision
+ * computed so far.
  */
 @RestController
 public class PiService {
 
+    private final PiEngine engine = new PiEngine();
+
     /**
      * Handles HTTP GET requests to the /app/pi endpoint. This method calculates
      * the value of Pi to the number of decimal places specified by the `decimals`
@@ -19,19 +23,62 @@ public class PiService {
      *
      * @param decimals the number of decimal places to include in the calculated value of Pi.
      *                 If not provided, a default value of 2 decimal places is used.
-     *                 If the number of decimals is negative, an error message is returned.
+     *                 If the number of decimals is negative or larger than {@link PiEngine#MAX_DECIMALS},
+     *                 an error message is returned.
      * @return a string representation of Pi calculated to the specified number of decimal places,
-     *         or an error message if the number of decimals is negative.
+     *         or an error message if the number of decimals is out of range.
      */
+    @Cacheable(ttlSeconds = 3600, maxEntries = 256)
+    @RateLimit(value = 10, burst = 20)
     @GetMapping("/app/pi")
     public String pi(@RequestParam(value = "decimals", defaultValue = "2") int decimals) {
-        if (decimals < 0) {
-            return "Error: El número de decimales no puede ser negativo.";
+        String error = validate(decimals);
+        if (error != null) {
+            return error;
         }
 
-        BigDecimal pi = new BigDecimal(Math.PI);
-        pi = pi.setScale(decimals, RoundingMode.HALF_UP);
+        return "Pi con " + decimals + " decimales: " + engine.pi(decimals);
+    }
+
+    /**
+     * Handles HTTP GET requests to the /app/pi/stream endpoint. It answers the same as
+     * {@link #pi}, but the digits are streamed to the client in chunks instead of being
+     * copied into a single response, which suits large numbers of decimals.
+     *
+     * @param decimals the number of decimal places, 2 by default.
+     * @return the body that writes Pi, or an error message if the number of decimals is out of range.
+     */
+    @RateLimit(value = 10, burst = 20)
+    @GetMapping("/app/pi/stream")
+    public StreamingBody piStream(@RequestParam(value = "decimals", defaultValue = "2") int decimals) {
+        String error = validate(decimals);
+        if (error != null) {
+            return out -> out.write(error.getBytes(StandardCharsets.UTF_8));
+        }
 
-        return "Pi con " + decimals + " decimales: " + pi.toString();
+        String digits = engine.pi(decimals);
+        return out -> {
+            out.write(("Pi con " + decimals + " decimales: ").getBytes(StandardCharsets.UTF_8));
+            for (int start = 0; start < digits.length(); start += ChunkedOutputStream.CHUNK_SIZE) {
+                int end = Math.min(digits.length(), start + ChunkedOutputStream.CHUNK_SIZE);
+                out.write(digits.substring(start, end).getBytes(StandardCharsets.US_ASCII));
+            }
+        };
+    }
+
+    /**
+     * Checks the number of decimals requested.
+     *
+     * @param decimals the number of decimals.
+     * @return the error message, or null if the number is valid.
+     */
+    private static String validate(int decimals) {
+        if (decimals < 0) {
+            return "Error: El número de decimales no puede ser negativo.";
+        }
+        if (decimals > PiEngine.MAX_DECIMALS) {
+            return "Error: El número de decimales no puede ser mayor que " + PiEngine.MAX_DECIMALS + ".";
+        }
+        return null;
     }
 }
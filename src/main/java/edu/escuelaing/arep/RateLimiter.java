@@ -0,0 +1,181 @@
+package edu.escuelaing.arep;
+
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.escuelaing.arep.annotations.RateLimit;
+
+/**
+ * The RateLimiter class keeps a token bucket per client address, so that one client
+ * cannot take all the worker threads by sending requests faster than they are answered.
+ * A bucket holds up to {@code burst} tokens and refills at {@code permitsPerSecond}; a
+ * request takes a token, and a request that finds the bucket empty is refused and told
+ * how long to wait.
+ *
+ * <p>Each bucket is a single {@link AtomicLong} in a {@link ConcurrentHashMap}, updated
+ * with compare-and-set, so clients never wait on each other. Rather than a token count
+ * and a refill time, the bucket stores the time at which it would be full again (the
+ * generic cell rate algorithm): taking a token pushes that time one interval further,
+ * and a request is refused if it would push it more than {@code burst} intervals past
+ * now. The two forms allow exactly the same requests, but this one needs no background
+ * refill and changes in one step.</p>
+ *
+ * <p>A bucket whose full time has passed is the same as no bucket at all, so idle
+ * clients are dropped from the map every {@link #SWEEP_INTERVAL_NANOS} by whichever
+ * request comes first after it; the map only holds clients seen within the last
+ * {@code burst / permitsPerSecond} seconds. A request racing with the sweep of its own
+ * client may be let through without being counted, which forgives at most one request
+ * per client and sweep.</p>
+ *
+ * <p>The server builds one limiter from {@code --rate-limit=R} and
+ * {@code --rate-limit-burst=N} that applies to every controller request of a client,
+ * and one per route, from {@link RateLimit} or else from {@code --route-rate-limit=R}
+ * and {@code --route-rate-limit-burst=N}.</p>
+ */
+final class RateLimiter {
+    static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    /** Requests refused by any limiter, for {@link Metrics#PATH}. */
+    private static final LongAdder limited = new LongAdder();
+
+    final double permitsPerSecond;
+    final int burst;
+    /** The time it takes to refill one token. */
+    private final long intervalNanos;
+    /** How far past now a bucket's full time may be pushed. */
+    private final long capacityNanos;
+    /** The time each client's bucket is full again, from {@link System#nanoTime}. */
+    private final ConcurrentHashMap<InetAddress, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep;
+
+    /**
+     * Constructs a new RateLimiter.
+     *
+     * @param permitsPerSecond the sustained rate each client is allowed.
+     * @param burst how many requests a client may make at once after being idle, or 0
+     *              for the rate rounded up.
+     * @throws IllegalArgumentException if the rate is not positive or the burst is negative.
+     */
+    RateLimiter(double permitsPerSecond, int burst) {
+        if (!(permitsPerSecond > 0) || burst < 0) {
+            throw new IllegalArgumentException("Rate limit must be positive and burst at least 0: "
+                    + permitsPerSecond + ", " + burst);
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst > 0 ? burst : (int) Math.min(Integer.MAX_VALUE, Math.ceil(permitsPerSecond));
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.capacityNanos = this.burst * intervalNanos;
+        this.nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+    }
+
+    /**
+     * Builds a limiter from the {@code --name=R} and {@code --name-burst=N} command-line
+     * arguments.
+     *
+     * @param args the command-line arguments.
+     * @param name the option name, e.g. {@code rate-limit}.
+     * @return the limiter, or null if the option is absent or 0.
+     * @throws IllegalArgumentException if the values are not numbers or are negative.
+     */
+    static RateLimiter create(String[] args, String name) {
+        double permitsPerSecond = Double.parseDouble(SimpleWebServer.option(args, name, "0"));
+        int burst = Integer.parseInt(SimpleWebServer.option(args, name + "-burst", "0"));
+        return permitsPerSecond == 0 ? null : new RateLimiter(permitsPerSecond, burst);
+    }
+
+    /**
+     * Builds the limiter of a controller method: the one its {@link RateLimit} annotation
+     * describes, or else one with the same settings as the default route limit.
+     *
+     * @param method the handler method.
+     * @param defaults the limit of routes without the annotation, or null for none.
+     * @return a limiter of the route's own, or null if the route is not limited.
+     * @throws IllegalArgumentException if the annotation's rate is not positive or its burst is negative.
+     */
+    static RateLimiter forRoute(Method method, RateLimiter defaults) {
+        RateLimit rateLimit = method.getAnnotation(RateLimit.class);
+        if (rateLimit != null) {
+            if (!(rateLimit.value() > 0) || rateLimit.burst() < 0) {
+                throw new IllegalArgumentException("@RateLimit must have a positive rate and a burst of at least 0: " + method);
+            }
+            return new RateLimiter(rateLimit.value(), rateLimit.burst());
+        }
+        return defaults == null ? null : new RateLimiter(defaults.permitsPerSecond, defaults.burst);
+    }
+
+    /**
+     * Takes a token from a client's bucket.
+     *
+     * @param client the client's address.
+     * @param now the current time, from {@link System#nanoTime}.
+     * @return 0 if the request may proceed, otherwise how many nanoseconds the client
+     *         should wait before its next request will be let through.
+     */
+    long acquire(InetAddress client, long now) {
+        if (now - nextSweep.get() >= 0) {
+            sweep(now);
+        }
+        AtomicLong fullAt = buckets.get(client);
+        if (fullAt == null) {
+            fullAt = buckets.putIfAbsent(client, new AtomicLong(now + intervalNanos));
+            if (fullAt == null) {
+                return 0;
+            }
+        }
+        while (true) {
+            long current = fullAt.get();
+            long next = (current - now < 0 ? now : current) + intervalNanos;
+            long excess = next - now - capacityNanos;
+            if (excess > 0) {
+                limited.increment();
+                return excess;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Drops the buckets that have filled up again, unless another thread is already
+     * doing it.
+     */
+    private void sweep(long now) {
+        long scheduled = nextSweep.get();
+        if (now - scheduled >= 0 && nextSweep.compareAndSet(scheduled, now + SWEEP_INTERVAL_NANOS)) {
+            buckets.values().removeIf(fullAt -> fullAt.get() - now <= 0);
+        }
+    }
+
+    /**
+     * Returns the number of clients that have a bucket.
+     *
+     * @return the clients seen recently enough that their bucket is not full.
+     */
+    int clients() {
+        return buckets.size();
+    }
+
+    /**
+     * Returns the number of requests refused by all limiters.
+     *
+     * @return the refused requests.
+     */
+    static long limited() {
+        return limited.sum();
+    }
+
+    /**
+     * Converts the wait returned by {@link #acquire} into the value of a
+     * {@code Retry-After} header.
+     *
+     * @param waitNanos the time to wait.
+     * @return the whole seconds to wait, at least 1.
+     */
+    static long retryAfterSeconds(long waitNanos) {
+        return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+}
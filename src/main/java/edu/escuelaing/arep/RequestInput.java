@@ -0,0 +1,152 @@
+package edu.escuelaing.arep;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The RequestInput class is the buffered input of a blocking connection. It reads
+ * from the socket into a single reusable buffer that {@link HttpRequestParser} works
+ * on directly, and then serves the body of each request from whatever is left in the
+ * buffer before reading from the socket again, so pipelined requests are not lost.
+ * The buffer is borrowed from {@link BufferPool#HEAP} and given back when the input
+ * is closed.
+ */
+final class RequestInput extends InputStream {
+    static final int BUFFER_SIZE = 8192;
+    private final InputStream in;
+    /** Null once the input has been closed. */
+    private ByteBuffer buffer;
+
+    /**
+     * Constructs a new RequestInput with the default buffer size.
+     *
+     * @param in the stream of the connection.
+     */
+    RequestInput(InputStream in) {
+        this(in, BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a new RequestInput.
+     *
+     * @param in the stream of the connection.
+     * @param bufferSize the least size of the read buffer.
+     */
+    RequestInput(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = BufferPool.HEAP.acquire(bufferSize);
+        this.buffer.flip();
+    }
+
+    /**
+     * Constructs a new RequestInput that first returns bytes already read from the
+     * connection by someone else, as when {@link NioServer} hands a connection over.
+     *
+     * @param in the stream of the connection.
+     * @param buffered the bytes read ahead; its remaining bytes are copied.
+     */
+    RequestInput(InputStream in, ByteBuffer buffered) {
+        this(in, Math.max(BUFFER_SIZE, buffered.remaining()));
+        buffer.clear();
+        buffer.put(buffered);
+        buffer.flip();
+    }
+
+    /**
+     * Reads the head of the next request, reading from the connection as needed.
+     *
+     * @param parser the parser of this connection.
+     * @return the request, or null if the connection ended before a complete head.
+     * @throws HttpRequestParser.ParseException if the request is malformed or too large.
+     * @throws IOException if an I/O error occurs while reading.
+     */
+    HttpRequest readRequest(HttpRequestParser parser) throws IOException {
+        HttpRequest request;
+        while ((request = parser.parse(buffer)) == null) {
+            if (!fill()) {
+                return null;
+            }
+        }
+        return request;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            if (len >= buffer.capacity()) {
+                return in.read(b, off, len);
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        if (buffer.hasRemaining()) {
+            int skipped = (int) Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+        return in.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return buffer.remaining() + in.available();
+    }
+
+    /**
+     * Closes the connection's stream and gives the buffer back to the pool. Does
+     * nothing if the input is already closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            in.close();
+        } finally {
+            BufferPool.HEAP.release(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Reads more bytes from the connection into the free part of the buffer.
+     *
+     * @return false if the connection has ended.
+     */
+    private boolean fill() throws IOException {
+        buffer.compact();
+        try {
+            int n = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (n > 0) {
+                buffer.position(buffer.position() + n);
+            }
+            return n > 0;
+        } finally {
+            buffer.flip();
+        }
+    }
+}
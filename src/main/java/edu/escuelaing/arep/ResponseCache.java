@@ -0,0 +1,171 @@
+package edu.escuelaing.arep;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ResponseCache class keeps the encoded responses of a {@code @Cacheable} controller
+ * method, keyed by the values of its parameters.
+ *
+ * <p>An entry holds a future, so the first request that misses the cache for a key
+ * installs the entry and calls the loader while concurrent requests for the same key wait
+ * for that result instead of calling the controller again. A failed load is removed so the
+ * next request retries it. Every entry lives for the same time, so entries are evicted in
+ * insertion order once the cache holds {@code maxEntries}. Responses larger than
+ * {@link #MAX_ENTRY_BYTES} are handed to the waiting requests but not kept, so the number
+ * of entries also bounds the memory used.</p>
+ */
+final class ResponseCache {
+    static final int MAX_ENTRY_BYTES = 64 * 1024;
+
+    /**
+     * Produces the response for a key that is not cached.
+     */
+    interface Loader {
+        byte[] load() throws Exception;
+    }
+
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructs a new ResponseCache.
+     *
+     * @param ttlSeconds how long an entry is served.
+     * @param maxEntries the maximum number of entries.
+     */
+    ResponseCache(long ttlSeconds, int maxEntries) {
+        if (ttlSeconds <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("ttlSeconds and maxEntries must be positive");
+        }
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the cached response for a key, loading it if it is missing or expired.
+     *
+     * @param key the normalized parameter values.
+     * @param loader produces the response on a miss.
+     * @return the response.
+     * @throws Exception what the loader threw, for this request or for the concurrent one
+     *                   whose load it was waiting for.
+     */
+    byte[] get(String key, Loader loader) throws Exception {
+        long now = System.nanoTime();
+        Entry entry = entries.get(key);
+        while (entry == null || entry.isExpired(now)) {
+            Entry loading = new Entry(key, now + ttlNanos);
+            boolean installed = entry == null
+                    ? entries.putIfAbsent(key, loading) == null
+                    : entries.replace(key, entry, loading);
+            if (installed) {
+                misses.increment();
+                insertionOrder.add(loading);
+                evict(now);
+                return loading.load(loader, this);
+            }
+            entry = entries.get(key);
+        }
+        hits.increment();
+        return entry.await();
+    }
+
+    /**
+     * Returns the number of requests answered from the cache, including the ones that
+     * waited for a concurrent load.
+     *
+     * @return the number of hits.
+     */
+    long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of requests that called the loader.
+     *
+     * @return the number of misses.
+     */
+    long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of entries, including expired ones not replaced yet.
+     *
+     * @return the number of entries.
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes the oldest entries while the cache is too large, and the expired or already
+     * replaced ones at the head of the insertion order, so the queue never grows beyond
+     * the entries inserted within one time to live.
+     */
+    private void evict(long now) {
+        Entry oldest;
+        while ((oldest = insertionOrder.peek()) != null
+                && (entries.size() > maxEntries || oldest.isExpired(now) || entries.get(oldest.key) != oldest)) {
+            if (insertionOrder.remove(oldest)) {
+                entries.remove(oldest.key, oldest);
+            }
+        }
+    }
+
+    /**
+     * A cached response, or the promise of one while it is being loaded.
+     */
+    private static final class Entry {
+        private final String key;
+        private final long expiresAt;
+        private final CompletableFuture<byte[]> value = new CompletableFuture<>();
+
+        Entry(String key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+
+        byte[] load(Loader loader, ResponseCache cache) throws Exception {
+            try {
+                byte[] response = loader.load();
+                if (response.length > MAX_ENTRY_BYTES) {
+                    cache.entries.remove(key, this);
+                }
+                value.complete(response);
+                return response;
+            } catch (Exception | Error e) {
+                cache.entries.remove(key, this);
+                value.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        byte[] await() throws Exception {
+            try {
+                return value.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw (Error) cause;
+            }
+        }
+    }
+}
@@ -0,0 +1,587 @@
+package edu.escuelaing.arep;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The ResponseOutput class is the destination of an HTTP response. Besides the
+ * usual {@link OutputStream} methods for headers and small bodies, it can send
+ * direct buffers (such as memory-mapped files) and file regions without copying
+ * them through the Java heap.
+ *
+ * <p>{@link Blocking} writes straight to a socket channel and is used by
+ * {@link ClientHandler}; {@link Queued} collects the response so a
+ * {@link NioServer} event loop can write it when the channel is ready. A queued
+ * response can also be {@link #defer deferred}, finished by whichever thread
+ * completes an asynchronous controller's result, or {@link #startStreaming streamed},
+ * written by the event loop while the handler is still producing it.</p>
+ */
+abstract class ResponseOutput extends OutputStream {
+    private int status;
+    private Metrics.Route route;
+    private CompletableFuture<Boolean> deferred;
+    long bytesWritten;
+
+    /**
+     * Records the status code of the response being written, for the access log.
+     *
+     * @param status the status code (e.g., 200).
+     */
+    void status(int status) {
+        this.status = status;
+    }
+
+    /**
+     * Returns the status code of the last response whose headers were written.
+     *
+     * @return the status code, or 0 if no response has been started.
+     */
+    int status() {
+        return status;
+    }
+
+    /**
+     * Records the route whose statistics the response being written counts towards.
+     *
+     * @param route the route's metrics.
+     */
+    void route(Metrics.Route route) {
+        this.route = route;
+    }
+
+    /**
+     * Returns the route set with {@link #route(Metrics.Route)}.
+     *
+     * @return the route's metrics, or null if the response has not been routed.
+     */
+    Metrics.Route route() {
+        return route;
+    }
+
+    /**
+     * Tells whether the response may still be written after the request handler has
+     * returned, so the handler does not have to wait for an asynchronous result.
+     *
+     * @return true if {@link #defer} may be used.
+     */
+    boolean supportsDeferral() {
+        return false;
+    }
+
+    /**
+     * Marks the response as not written yet: it will be written by the time the given
+     * future completes, with whether the connection can be reused.
+     *
+     * @param completion completes once the response has been written.
+     */
+    void defer(CompletableFuture<Boolean> completion) {
+        this.deferred = completion;
+    }
+
+    /**
+     * Returns the future set with {@link #defer}.
+     *
+     * @return the completion of a deferred response, or null if the response was written
+     *         before the request handler returned.
+     */
+    CompletableFuture<Boolean> deferred() {
+        return deferred;
+    }
+
+    /**
+     * Announces that the rest of the response is produced incrementally, as a
+     * {@link ChunkedOutputStream} does: what has been written so far may be sent, and
+     * from now on every {@link #flush} sends the bytes written since the previous one,
+     * blocking while the client is too far behind.
+     *
+     * @throws IOException if an I/O error occurs while sending the headers.
+     */
+    void startStreaming() throws IOException {
+        flush();
+    }
+
+    /**
+     * Returns the number of bytes written to this output so far, including the
+     * ones still buffered.
+     *
+     * @return the total number of bytes written.
+     */
+    long bytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer. The buffer's position is advanced.
+     *
+     * @param buffer the bytes to write.
+     * @throws IOException if an I/O error occurs while writing.
+     */
+    abstract void write(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Sends a region of a file. Where the platform supports it this uses
+     * {@link FileChannel#transferTo}, so the data goes from the page cache to the
+     * socket without being copied into user space.
+     *
+     * @param file the file to send from; it is closed once the region has been sent.
+     * @param position the offset of the first byte to send.
+     * @param count the number of bytes to send.
+     * @throws IOException if an I/O error occurs while reading or writing.
+     */
+    abstract void transferFrom(FileChannel file, long position, long count) throws IOException;
+
+    /**
+     * Creates a blocking output for a client socket, using its channel when it has one.
+     *
+     * @param socket the client socket.
+     * @return the response output.
+     * @throws IOException if the socket output cannot be obtained.
+     */
+    static Blocking forSocket(Socket socket) throws IOException {
+        WritableByteChannel channel = socket.getChannel();
+        if (channel == null) {
+            channel = Channels.newChannel(socket.getOutputStream());
+        }
+        return new Blocking(channel);
+    }
+
+    /**
+     * Writes responses synchronously to a blocking channel. Headers and small bodies are
+     * collected in a direct buffer borrowed from {@link BufferPool#DIRECT}, which the
+     * connection keeps for all its requests until it is closed; a body that does
+     * not fit is sent in the same gathering write as the buffered headers, so a response
+     * normally leaves in a single system call.
+     *
+     * <p>A blocking write cannot time out by itself, so each channel call records when
+     * it started and {@link AdmissionControl} {@link #abort aborts} the connection when
+     * a call has been waiting for the client for too long.</p>
+     */
+    static final class Blocking extends ResponseOutput {
+        private static final int BUFFER_SIZE = 8192;
+        private final WritableByteChannel channel;
+        /** Null once the output has been closed and the buffer given back. */
+        private ByteBuffer buffer = BufferPool.DIRECT.acquire(BUFFER_SIZE);
+        /** When the channel call in progress started, from {@link System#nanoTime}, or 0 if there is none. */
+        private volatile long writingSince;
+
+        Blocking(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) b);
+            bytesWritten++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            bytesWritten += len;
+            if (len > buffer.remaining()) {
+                if (len >= BUFFER_SIZE) {
+                    writeAfterBuffer(ByteBuffer.wrap(b, off, len));
+                    return;
+                }
+                flush();
+            }
+            buffer.put(b, off, len);
+        }
+
+        @Override
+        void write(ByteBuffer src) throws IOException {
+            bytesWritten += src.remaining();
+            if (src.remaining() <= buffer.remaining()) {
+                buffer.put(src);
+            } else {
+                writeAfterBuffer(src);
+            }
+        }
+
+        @Override
+        void transferFrom(FileChannel file, long position, long count) throws IOException {
+            bytesWritten += count;
+            try (FileChannel source = file) {
+                flush();
+                while (count > 0) {
+                    writingSince = System.nanoTime();
+                    long sent = source.transferTo(position, count, channel);
+                    if (sent <= 0) {
+                        throw new EOFException("File is shorter than expected");
+                    }
+                    position += sent;
+                    count -= sent;
+                }
+            } finally {
+                writingSince = 0;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        /**
+         * Sends what is buffered, closes the channel and gives the buffer back to the
+         * pool. Does nothing if the output is already closed.
+         */
+        @Override
+        public void close() throws IOException {
+            if (buffer == null) {
+                return;
+            }
+            try {
+                flush();
+            } finally {
+                try {
+                    channel.close();
+                } finally {
+                    BufferPool.DIRECT.release(buffer);
+                    buffer = null;
+                }
+            }
+        }
+
+        /**
+         * Sends the buffered bytes followed by a large buffer, together when the channel
+         * supports gathering writes.
+         */
+        private void writeAfterBuffer(ByteBuffer src) throws IOException {
+            buffer.flip();
+            if (buffer.hasRemaining() && channel instanceof GatheringByteChannel) {
+                ByteBuffer[] buffers = {buffer, src};
+                try {
+                    while (src.hasRemaining()) {
+                        writingSince = System.nanoTime();
+                        ((GatheringByteChannel) channel).write(buffers);
+                    }
+                } finally {
+                    writingSince = 0;
+                }
+            } else {
+                writeFully(buffer);
+                writeFully(src);
+            }
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer src) throws IOException {
+            try {
+                while (src.hasRemaining()) {
+                    writingSince = System.nanoTime();
+                    channel.write(src);
+                }
+            } finally {
+                writingSince = 0;
+            }
+        }
+
+        /**
+         * Tells whether a channel call has been waiting for the client for too long.
+         *
+         * @param now the current time, from {@link System#nanoTime}.
+         * @param timeoutNanos the write timeout.
+         * @return true if the connection should be aborted.
+         */
+        boolean isWriteStalled(long now, long timeoutNanos) {
+            long since = writingSince;
+            return since != 0 && now - since > timeoutNanos;
+        }
+
+        /**
+         * Closes the channel from another thread, which makes the stalled write fail.
+         */
+        void abort() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // The connection is being dropped anyway.
+            }
+        }
+    }
+
+    /**
+     * Collects a response as a queue of segments that a non-blocking event loop
+     * drains with {@link #writeTo(WritableByteChannel)}. Large buffers are queued
+     * without being copied, and consecutive buffers are written with a single
+     * gathering write. Smaller writes are collected in direct buffers borrowed from
+     * {@link BufferPool#DIRECT}, each given back as soon as it has been written.
+     *
+     * <p>A streamed response is drained while the handler thread is still adding to it:
+     * each {@link #flush} hands the new bytes over, tells the event loop through the
+     * {@link #onData listener}, and blocks while more than {@link #MAX_STREAM_BUFFER}
+     * bytes are waiting to be written.</p>
+     */
+    static final class Queued extends ResponseOutput {
+        /** How many bytes of a streamed response may wait for the client before the handler blocks. */
+        static final int MAX_STREAM_BUFFER = 64 * 1024;
+        /** Buffers smaller than this are copied with the headers rather than queued on their own. */
+        private static final int MIN_SEGMENT_SIZE = 1024;
+        /** The most buffers passed to one gathering write. */
+        private static final int MAX_GATHER = 16;
+        private final Deque<Object> segments = new ArrayDeque<>();
+        /** The queued segments that belong to the pool, in the order they were queued. */
+        private final Deque<ByteBuffer> borrowed = new ArrayDeque<>();
+        /** Bytes written since the last segment was queued; handed over as the next segment. */
+        private ByteBuffer pending;
+        private Runnable onData;
+        private boolean streaming;
+        private boolean released;
+        private long queuedBytes;
+
+        @Override
+        boolean supportsDeferral() {
+            return true;
+        }
+
+        /**
+         * Sets what to run, on the handler thread, when a streamed response has new
+         * bytes to write. Must be set before the response is handed to the handler.
+         *
+         * @param listener usually schedules a write on the connection's event loop.
+         */
+        void onData(Runnable listener) {
+            this.onData = listener;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (released) {
+                return;
+            }
+            reserve(1);
+            pending.put((byte) b);
+            bytesWritten++;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            if (released || len == 0) {
+                return;
+            }
+            reserve(len);
+            pending.put(b, off, len);
+            bytesWritten += len;
+        }
+
+        @Override
+        synchronized void write(ByteBuffer src) {
+            if (src.remaining() < MIN_SEGMENT_SIZE && src.hasArray()) {
+                write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+                src.position(src.limit());
+                return;
+            }
+            bytesWritten += src.remaining();
+            seal();
+            queuedBytes += src.remaining();
+            segments.add(src.slice());
+            src.position(src.limit());
+        }
+
+        @Override
+        synchronized void transferFrom(FileChannel file, long position, long count) {
+            bytesWritten += count;
+            seal();
+            segments.add(new FileRegion(file, position, count));
+        }
+
+        @Override
+        synchronized void startStreaming() throws IOException {
+            streaming = true;
+            flush();
+        }
+
+        /**
+         * For a streamed response, hands the bytes written so far to the event loop and
+         * waits until no more than {@link #MAX_STREAM_BUFFER} bytes are left unwritten.
+         * Does nothing otherwise: the whole response is written once it is complete.
+         *
+         * @throws IOException if the connection was closed, or the thread was interrupted while waiting.
+         */
+        @Override
+        public synchronized void flush() throws IOException {
+            if (!streaming) {
+                return;
+            }
+            seal();
+            if (onData != null) {
+                onData.run();
+            }
+            while (queuedBytes > MAX_STREAM_BUFFER && !released) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the client");
+                }
+            }
+            if (released) {
+                throw new IOException("Connection closed");
+            }
+        }
+
+        /**
+         * Writes as much of the response as the channel accepts without blocking.
+         *
+         * @param channel the non-blocking channel to write to.
+         * @return true if the whole response has been written.
+         * @throws IOException if an I/O error occurs while reading a file or writing.
+         */
+        synchronized boolean writeTo(WritableByteChannel channel) throws IOException {
+            seal();
+            while (!segments.isEmpty()) {
+                Object segment = segments.peek();
+                if (segment instanceof ByteBuffer) {
+                    if (!writeBuffers(channel)) {
+                        return false;
+                    }
+                    continue;
+                } else {
+                    FileRegion region = (FileRegion) segment;
+                    if (!region.writeTo(channel)) {
+                        return false;
+                    }
+                    region.file.close();
+                }
+                segments.poll();
+            }
+            return true;
+        }
+
+        /**
+         * Writes the buffers at the head of the queue, as many as possible in one call.
+         *
+         * @return true if they were all written.
+         */
+        private boolean writeBuffers(WritableByteChannel channel) throws IOException {
+            int count = 0;
+            int max = channel instanceof GatheringByteChannel ? MAX_GATHER : 1;
+            for (Object segment : segments) {
+                if (count == max || !(segment instanceof ByteBuffer)) {
+                    break;
+                }
+                count++;
+            }
+            ByteBuffer[] buffers = new ByteBuffer[count];
+            Iterator<Object> queued = segments.iterator();
+            for (int i = 0; i < count; i++) {
+                buffers[i] = (ByteBuffer) queued.next();
+            }
+            queuedBytes -= count == 1 ? channel.write(buffers[0])
+                    : ((GatheringByteChannel) channel).write(buffers, 0, count);
+            if (streaming) {
+                notifyAll();
+            }
+            for (int i = 0; i < count; i++) {
+                if (buffers[i].hasRemaining()) {
+                    return false;
+                }
+                segments.poll();
+                if (buffers[i] == borrowed.peek()) {
+                    BufferPool.DIRECT.release(borrowed.poll());
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Closes any file still waiting to be sent and gives the buffers back to the pool,
+         * for when the connection is dropped before the response has been written. Later
+         * writes are ignored.
+         */
+        synchronized void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            notifyAll();
+            for (Object segment : segments) {
+                if (segment instanceof FileRegion) {
+                    try {
+                        ((FileRegion) segment).file.close();
+                    } catch (IOException e) {
+                        // The file was only open for reading.
+                    }
+                }
+            }
+            segments.clear();
+            for (ByteBuffer buffer : borrowed) {
+                BufferPool.DIRECT.release(buffer);
+            }
+            borrowed.clear();
+            if (pending != null) {
+                BufferPool.DIRECT.release(pending);
+                pending = null;
+            }
+        }
+
+        private void seal() {
+            if (pending != null && pending.position() > 0) {
+                pending.flip();
+                queuedBytes += pending.remaining();
+                segments.add(pending);
+                borrowed.add(pending);
+                pending = null;
+            }
+        }
+
+        private void reserve(int length) {
+            if (pending == null) {
+                pending = BufferPool.DIRECT.acquire(Math.max(BufferPool.MIN_SIZE, length));
+            } else if (pending.remaining() < length) {
+                ByteBuffer larger = BufferPool.DIRECT.acquire(Math.max(pending.capacity() * 2, pending.position() + length));
+                pending.flip();
+                larger.put(pending);
+                BufferPool.DIRECT.release(pending);
+                pending = larger;
+            }
+        }
+    }
+
+    /**
+     * A part of a file that still has to be sent.
+     */
+    private static final class FileRegion {
+        private final FileChannel file;
+        private long position;
+        private long remaining;
+
+        FileRegion(FileChannel file, long position, long remaining) {
+            this.file = file;
+            this.position = position;
+            this.remaining = remaining;
+        }
+
+        boolean writeTo(WritableByteChannel channel) throws IOException {
+            while (remaining > 0) {
+                long sent = file.transferTo(position, remaining, channel);
+                if (sent <= 0) {
+                    if (position >= file.size()) {
+                        throw new EOFException("File is shorter than expected");
+                    }
+                    return false;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+            return true;
+        }
+    }
+}
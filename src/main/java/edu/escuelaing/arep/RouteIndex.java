@@ -0,0 +1,181 @@
+package edu.escuelaing.arep;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import edu.escuelaing.arep.processor.RouteIndexProcessor;
+
+/**
+ * The RouteIndex class finds the controller routes when the server starts.
+ *
+ * <p>The routes are normally read from the index that {@link RouteIndexProcessor}
+ * writes at compile time, so starting the server loads only the controller classes.
+ * When no index is on the class path, for example when the sources were compiled
+ * without the processor, {@link #scan} lists the classes of a package instead, both
+ * from directories and from jar files.</p>
+ */
+final class RouteIndex {
+    /** Where the index is found on the class path; must match {@link RouteIndexProcessor}. */
+    static final String LOCATION = "META-INF/arep/routes.idx";
+    private static final Map<String, Class<?>> PRIMITIVES = Map.of(
+            "boolean", boolean.class, "byte", byte.class, "char", char.class, "short", short.class,
+            "int", int.class, "long", long.class, "float", float.class, "double", double.class);
+
+    private RouteIndex() {
+    }
+
+    /**
+     * Reads every route index on the class path.
+     *
+     * @param classLoader the class loader to look for the indexes in.
+     * @return the routes, or null if there is no index.
+     * @throws IOException if an index cannot be read or has a malformed line.
+     */
+    static List<Route> load(ClassLoader classLoader) throws IOException {
+        Enumeration<URL> indexes = classLoader.getResources(LOCATION);
+        if (!indexes.hasMoreElements()) {
+            return null;
+        }
+        List<Route> routes = new ArrayList<>();
+        while (indexes.hasMoreElements()) {
+            URL index = indexes.nextElement();
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(index.openStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        routes.add(Route.parse(line, index));
+                    }
+                }
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * Lists the classes of a package, including nested classes, looking in every
+     * directory and jar file of the class path that contains it. Subpackages are not
+     * listed.
+     *
+     * @param packageName the name of the package.
+     * @param classLoader the class loader whose class path is scanned.
+     * @return the fully qualified class names, without duplicates.
+     * @throws IOException if a directory or jar file cannot be read.
+     */
+    static List<String> scan(String packageName, ClassLoader classLoader) throws IOException {
+        String path = packageName.replace('.', '/');
+        Set<String> classNames = new LinkedHashSet<>();
+        Enumeration<URL> resources = classLoader.getResources(path);
+        while (resources.hasMoreElements()) {
+            URL resource = resources.nextElement();
+            if ("jar".equals(resource.getProtocol())) {
+                scanJar(resource, path, classNames);
+            } else if ("file".equals(resource.getProtocol())) {
+                scanDirectory(resource, packageName, classNames);
+            }
+        }
+        return new ArrayList<>(classNames);
+    }
+
+    private static void scanDirectory(URL resource, String packageName, Set<String> classNames) throws IOException {
+        Path directory;
+        try {
+            directory = Paths.get(resource.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid class path entry " + resource, e);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.class")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                classNames.add(packageName + '.' + name.substring(0, name.length() - ".class".length()));
+            }
+        }
+    }
+
+    private static void scanJar(URL resource, String path, Set<String> classNames) throws IOException {
+        URLConnection connection = resource.openConnection();
+        connection.setUseCaches(false);
+        String prefix = path + '/';
+        try (JarFile jar = ((JarURLConnection) connection).getJarFile()) {
+            for (Iterator<JarEntry> entries = jar.entries().asIterator(); entries.hasNext(); ) {
+                String name = entries.next().getName();
+                if (name.startsWith(prefix) && name.endsWith(".class") && name.indexOf('/', prefix.length()) < 0) {
+                    classNames.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                }
+            }
+        }
+    }
+
+    /**
+     * One line of the index: a controller method and the route it is mapped to.
+     */
+    static final class Route {
+        final String httpMethod;
+        final String pattern;
+        final String className;
+        final String methodName;
+        final String[] parameterTypes;
+
+        Route(String httpMethod, String pattern, String className, String methodName, String[] parameterTypes) {
+            this.httpMethod = httpMethod;
+            this.pattern = pattern;
+            this.className = className;
+            this.methodName = methodName;
+            this.parameterTypes = parameterTypes;
+        }
+
+        static Route parse(String line, URL index) throws IOException {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 5 || !("GET".equals(fields[0]) || "POST".equals(fields[0]))) {
+                throw new IOException("Malformed route in " + index + ": " + line);
+            }
+            String[] parameterTypes = fields[4].isEmpty() ? new String[0] : fields[4].split(",");
+            return new Route(fields[0], fields[1], fields[2], fields[3], parameterTypes);
+        }
+
+        /**
+         * Finds the indexed method in its controller class.
+         *
+         * @param controllerClass the class named by {@link #className}.
+         * @return the method.
+         * @throws ReflectiveOperationException if a parameter type or the method no longer
+         *                                      exists, which means the index is stale.
+         */
+        Method resolve(Class<?> controllerClass) throws ReflectiveOperationException {
+            ClassLoader classLoader = controllerClass.getClassLoader();
+            Class<?>[] types = new Class<?>[parameterTypes.length];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = type(parameterTypes[i], classLoader);
+            }
+            return controllerClass.getDeclaredMethod(methodName, types);
+        }
+
+        private static Class<?> type(String name, ClassLoader classLoader) throws ClassNotFoundException {
+            if (name.endsWith("[]")) {
+                return Array.newInstance(type(name.substring(0, name.length() - 2), classLoader), 0).getClass();
+            }
+            Class<?> primitive = PRIMITIVES.get(name);
+            return primitive != null ? primitive : Class.forName(name, false, classLoader);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package edu.escuelaing.arep;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The Router class maps request paths to handlers with a radix tree, so a lookup
+ * costs time proportional to the length of the path rather than to the number of
+ * routes. Literal parts of the routes share their common prefixes and are compared
+ * in place against the request path, so matching does not split the path or
+ * allocate anything besides the values of the path variables it extracts, and nothing
+ * at all when it is not given a map to bind them into.
+ *
+ * <p>Route patterns are made of literal text and three kinds of special segments:</p>
+ * <ul>
+ *   <li><strong>{name}:</strong> matches one non-empty segment and binds it to the path variable {@code name}.</li>
+ *   <li><strong>*:</strong> matches one non-empty segment without binding it.</li>
+ *   <li><strong>**:</strong> only allowed as the last segment; matches the rest of the path, including nothing.</li>
+ * </ul>
+ *
+ * <p>When several routes match, literal text wins over a path variable, which wins
+ * over {@code *}, which wins over {@code **}. For example {@code /app/users/me} is
+ * preferred to {@code /app/users/{id}} for the path {@code /app/users/me}.</p>
+ *
+ * @param <T> the type of the handlers.
+ */
+final class Router<T> {
+    private final Node<T> root = new Node<>("");
+    private int size;
+
+    /**
+     * Adds a route.
+     *
+     * @param pattern the route pattern (e.g., /app/users/{id}/posts).
+     * @param handler the handler for the route.
+     * @throws IllegalArgumentException if the pattern is invalid or already registered.
+     */
+    void add(String pattern, T handler) {
+        if (!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Route must start with '/': " + pattern);
+        }
+        Node<T> node = root;
+        int i = 0;
+        while (i < pattern.length()) {
+            if (i > 0 && pattern.charAt(i - 1) == '/') {
+                int segmentEnd = pattern.indexOf('/', i);
+                if (segmentEnd < 0) {
+                    segmentEnd = pattern.length();
+                }
+                String segment = pattern.substring(i, segmentEnd);
+                if (segment.startsWith("{") && segment.endsWith("}") && segment.length() > 2) {
+                    node = node.parameterChild(segment.substring(1, segment.length() - 1), pattern);
+                    i = segmentEnd;
+                    continue;
+                } else if (segment.equals("*")) {
+                    node = node.wildcardChild();
+                    i = segmentEnd;
+                    continue;
+                } else if (segment.equals("**")) {
+                    if (segmentEnd != pattern.length()) {
+                        throw new IllegalArgumentException("'**' must be the last segment: " + pattern);
+                    }
+                    node = node.catchAllChild();
+                    i = segmentEnd;
+                    continue;
+                }
+            }
+            int literalEnd = nextSpecialSegment(pattern, i);
+            node = node.insertLiteral(pattern.substring(i, literalEnd));
+            i = literalEnd;
+        }
+        if (node.handler != null) {
+            throw new IllegalArgumentException("Duplicate route: " + pattern);
+        }
+        node.handler = handler;
+        size++;
+    }
+
+    /**
+     * Finds the handler for a request path.
+     *
+     * @param path the request target; only the characters before {@code end} are matched.
+     * @param end the end of the path within {@code path}, e.g. the index of the '?' that starts the query.
+     * @param variables the map that receives the path variables of the matching route,
+     *                  or null to only find the handler.
+     * @return the handler, or null if no route matches.
+     */
+    T find(String path, int end, Map<String, String> variables) {
+        return match(root, path, 0, end, variables);
+    }
+
+    /**
+     * Finds the handler for a request path with no query string.
+     *
+     * @param path the request path.
+     * @param variables the map that receives the path variables of the matching route,
+     *                  or null to only find the handler.
+     * @return the handler, or null if no route matches.
+     */
+    T find(String path, Map<String, String> variables) {
+        return find(path, path.length(), variables);
+    }
+
+    /**
+     * Returns the number of routes.
+     *
+     * @return the number of routes added.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Tells whether the router has no routes.
+     *
+     * @return true if no route has been added.
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private static int nextSpecialSegment(String pattern, int from) {
+        int slash = pattern.indexOf('/', from);
+        while (slash >= 0 && slash + 1 < pattern.length()) {
+            char next = pattern.charAt(slash + 1);
+            if (next == '{' || next == '*') {
+                return slash + 1;
+            }
+            slash = pattern.indexOf('/', slash + 1);
+        }
+        return pattern.length();
+    }
+
+    private static <T> T match(Node<T> node, String path, int i, int end, Map<String, String> variables) {
+        int prefixLength = node.prefix.length();
+        if (end - i < prefixLength || !path.regionMatches(i, node.prefix, 0, prefixLength)) {
+            return null;
+        }
+        i += prefixLength;
+        if (i == end) {
+            if (node.handler != null) {
+                return node.handler;
+            }
+            return node.catchAll != null ? node.catchAll.handler : null;
+        }
+
+        Node<T> literal = node.literalChild(path.charAt(i));
+        if (literal != null) {
+            T handler = match(literal, path, i, end, variables);
+            if (handler != null) {
+                return handler;
+            }
+        }
+        if (node.parameter != null || node.wildcard != null) {
+            int segmentEnd = i;
+            while (segmentEnd < end && path.charAt(segmentEnd) != '/') {
+                segmentEnd++;
+            }
+            if (segmentEnd > i) {
+                if (node.parameter != null) {
+                    T handler = match(node.parameter, path, segmentEnd, end, variables);
+                    if (handler != null) {
+                        if (variables != null) {
+                                variables.put(node.parameter.parameterName, path.substring(i, segmentEnd));
+                        }
+                        return handler;
+                    }
+                }
+                if (node.wildcard != null) {
+                    T handler = match(node.wildcard, path, segmentEnd, end, variables);
+                    if (handler != null) {
+                        return handler;
+                    }
+                }
+            }
+        }
+        return node.catchAll != null ? node.catchAll.handler : null;
+    }
+
+    /**
+     * A node of the radix tree. Literal children are kept in an array indexed by
+     * their first character; special segments have a dedicated child each.
+     */
+    private static final class Node<T> {
+        private String prefix;
+        private char[] firstChars = new char[0];
+        private Node<T>[] children = none();
+        private Node<T> parameter;
+        private String parameterName;
+        private Node<T> wildcard;
+        private Node<T> catchAll;
+        private T handler;
+
+        /**
+         * Returns an empty array of children, since an array of a generic type cannot be created directly.
+         */
+        @SuppressWarnings("unchecked")
+        private static <T> Node<T>[] none() {
+            return (Node<T>[]) new Node<?>[0];
+        }
+
+        Node(String prefix) {
+            this.prefix = prefix;
+        }
+
+        Node<T> literalChild(char first) {
+            for (int i = 0; i < firstChars.length; i++) {
+                if (firstChars[i] == first) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node<T> insertLiteral(String literal) {
+            Node<T> child = literalChild(literal.charAt(0));
+            if (child == null) {
+                child = new Node<>(literal);
+                addChild(child);
+                return child;
+            }
+            int common = 0;
+            int max = Math.min(literal.length(), child.prefix.length());
+            while (common < max && literal.charAt(common) == child.prefix.charAt(common)) {
+                common++;
+            }
+            if (common < child.prefix.length()) {
+                child.split(common);
+            }
+            return common == literal.length() ? child : child.insertLiteral(literal.substring(common));
+        }
+
+        Node<T> parameterChild(String name, String pattern) {
+            if (parameter == null) {
+                parameter = new Node<>("");
+                parameter.parameterName = name;
+            } else if (!parameter.parameterName.equals(name)) {
+                throw new IllegalArgumentException("Path variable {" + name + "} in " + pattern
+                        + " conflicts with {" + parameter.parameterName + "}");
+            }
+            return parameter;
+        }
+
+        Node<T> wildcardChild() {
+            if (wildcard == null) {
+                wildcard = new Node<>("");
+            }
+            return wildcard;
+        }
+
+        Node<T> catchAllChild() {
+            if (catchAll == null) {
+                catchAll = new Node<>("");
+            }
+            return catchAll;
+        }
+
+        private void split(int at) {
+            Node<T> rest = new Node<>(prefix.substring(at));
+            rest.firstChars = firstChars;
+            rest.children = children;
+            rest.parameter = parameter;
+            rest.wildcard = wildcard;
+            rest.catchAll = catchAll;
+            rest.handler = handler;
+
+            prefix = prefix.substring(0, at);
+            firstChars = new char[0];
+            children = none();
+            parameter = null;
+            wildcard = null;
+            catchAll = null;
+            handler = null;
+            addChild(rest);
+        }
+
+        private void addChild(Node<T> child) {
+            firstChars = Arrays.copyOf(firstChars, firstChars.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            firstChars[firstChars.length - 1] = child.prefix.charAt(0);
+            children[children.length - 1] = child;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package edu.escuelaing.arep;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * The ServerExecutors class builds the executor that runs the request handlers,
+ * selected with the {@code --executor} command-line option of SimpleWebServer:
+ *
+ * <ul>
+ *   <li><strong>fixed:</strong> a fixed pool of platform threads with an unbounded queue (the original behaviour).</li>
+ *   <li><strong>bounded:</strong> a fixed pool of platform threads with a bounded queue. When the queue is full
+ *   the task is rejected and the client receives a 503 instead of waiting behind an ever-growing backlog.</li>
+ *   <li><strong>virtual:</strong> one virtual thread per task, so handlers that block on I/O do not hold a
+ *   platform thread. A semaphore caps the number of tasks in flight and rejects the rest with a 503.</li>
+ * </ul>
+ */
+final class ServerExecutors {
+
+    private ServerExecutors() {
+    }
+
+    /**
+     * Creates the executor described by the command-line arguments.
+     *
+     * @param args the command-line arguments ({@code --executor}, {@code --threads},
+     *             {@code --queue} and {@code --max-concurrency}).
+     * @return the executor to submit request handlers to.
+     */
+    static ExecutorService create(String[] args) {
+        String type = SimpleWebServer.option(args, "executor", "fixed");
+        int threads = Integer.parseInt(SimpleWebServer.option(args, "threads", "10"));
+        switch (type) {
+            case "bounded":
+                int queue = Integer.parseInt(SimpleWebServer.option(args, "queue", "100"));
+                return bounded(threads, queue);
+            case "virtual":
+                int maxConcurrency = Integer.parseInt(SimpleWebServer.option(args, "max-concurrency", "10000"));
+                return limited(virtualThreadPerTask(), maxConcurrency);
+            case "fixed":
+                return Executors.newFixedThreadPool(threads);
+            default:
+                throw new IllegalArgumentException("Unknown executor type: " + type);
+        }
+    }
+
+    /**
+     * Registers the saturation gauges of the executors created by this class, one per
+     * worker group, summed across the groups: the active threads and queued tasks of
+     * thread pools, and the tasks in flight of concurrency-limited executors.
+     *
+     * @param executors the executors that run the request handlers.
+     * @param metrics where to register the gauges.
+     */
+    static void registerMetrics(List<ExecutorService> executors, Metrics metrics) {
+        List<ConcurrencyLimitedExecutor> limited = new ArrayList<>();
+        List<ThreadPoolExecutor> pools = new ArrayList<>();
+        for (ExecutorService executor : executors) {
+            if (executor instanceof ConcurrencyLimitedExecutor) {
+                limited.add((ConcurrencyLimitedExecutor) executor);
+                executor = ((ConcurrencyLimitedExecutor) executor).delegate;
+            }
+            if (executor instanceof ThreadPoolExecutor) {
+                pools.add((ThreadPoolExecutor) executor);
+            }
+        }
+        if (!limited.isEmpty()) {
+            metrics.gauge("arep_executor_in_flight_tasks", "Tasks running or waiting in the executor.",
+                    sum(limited, ConcurrencyLimitedExecutor::inFlight));
+            metrics.gauge("arep_executor_max_in_flight_tasks", "Tasks the executor accepts before rejecting.",
+                    sum(limited, executor -> executor.maxConcurrency));
+        }
+        if (!pools.isEmpty()) {
+            metrics.gauge("arep_executor_active_threads", "Worker threads running a task.",
+                    sum(pools, ThreadPoolExecutor::getActiveCount));
+            metrics.gauge("arep_executor_pool_threads", "Worker threads in the pool.",
+                    sum(pools, ThreadPoolExecutor::getPoolSize));
+            metrics.gauge("arep_executor_queued_tasks", "Tasks waiting for a worker thread.",
+                    sum(pools, pool -> pool.getQueue().size()));
+            metrics.counter("arep_executor_completed_tasks_total", "Tasks finished by the pool.",
+                    sum(pools, ThreadPoolExecutor::getCompletedTaskCount));
+        }
+    }
+
+    private static <T> LongSupplier sum(List<T> executors, ToLongFunction<T> value) {
+        return () -> {
+            long total = 0;
+            for (T executor : executors) {
+                total += value.applyAsLong(executor);
+            }
+            return total;
+        };
+    }
+
+    /**
+     * Creates a fixed pool of platform threads whose queue holds at most
+     * {@code queueCapacity} waiting tasks. Submitting to a full pool throws
+     * {@link RejectedExecutionException}.
+     *
+     * @param threads the number of worker threads.
+     * @param queueCapacity the maximum number of queued tasks.
+     * @return the bounded executor.
+     */
+    static ExecutorService bounded(int threads, int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task. Virtual threads
+     * need Java 21; on older runtimes a cached pool of platform threads is used instead.
+     *
+     * @return the thread-per-task executor.
+     */
+    static ExecutorService virtualThreadPerTask() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads are not available on Java "
+                    + System.getProperty("java.version") + ", using platform threads instead");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Wraps an executor so that at most {@code maxConcurrency} tasks run or wait at the
+     * same time. Tasks submitted beyond that limit are rejected right away.
+     *
+     * @param delegate the executor that runs the tasks.
+     * @param maxConcurrency the maximum number of tasks in flight.
+     * @return the limited executor.
+     */
+    static ExecutorService limited(ExecutorService delegate, int maxConcurrency) {
+        return new ConcurrencyLimitedExecutor(delegate, maxConcurrency);
+    }
+
+    /**
+     * An executor that guards a delegate with a semaphore, releasing the permit when
+     * each task finishes.
+     */
+    private static final class ConcurrencyLimitedExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+        private final int maxConcurrency;
+
+        ConcurrencyLimitedExecutor(ExecutorService delegate, int maxConcurrency) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxConcurrency);
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        long inFlight() {
+            return maxConcurrency - permits.availablePermits();
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (!permits.tryAcquire()) {
+                throw new RejectedExecutionException("Too many requests in flight");
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package edu.escuelaing.arep;
 
 import java.io.*;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Parameter;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.*;
@@ -12,8 +12,9 @@ import java.lang.annotation.Annotation;
 import java.util.ArrayList;
 import java.util.List;
 
+import edu.escuelaing.arep.annotations.Cacheable;
 import edu.escuelaing.arep.annotations.GetMapping;
-import edu.escuelaing.arep.annotations.RequestParam;
+import edu.escuelaing.arep.annotations.PostMapping;
 import edu.escuelaing.arep.annotations.RestController;
 
 /**
@@ -24,380 +25,327 @@ import edu.escuelaing.arep.annotations.RestController;
  */
 public class SimpleWebServer {
     static final int PORT = 8080;
+    static final int KEEP_ALIVE_TIMEOUT = 5000;
+    static final int MAX_KEEP_ALIVE_REQUESTS = 100;
     public static final String WEB_ROOT = "src/main/java/edu/escuelaing/arep/resources/";
-    private static boolean running = true;
-    static Map<String, Method> getMappings = new HashMap<>();
-    static Map<String, Method> postMappings = new HashMap<>();
+    private static volatile boolean running = true;
+    static Router<ControllerInvoker> getMappings = new Router<>();
+    static Router<ControllerInvoker> postMappings = new Router<>();
     static Map<String, Object> controllers = new HashMap<>();
+    static AccessLog accessLog = new AccessLog(AccessLog.Level.OFF, 1, 2, AccessLog.standardOutput());
+    static Metrics metrics = new Metrics();
+    static AdmissionControl admission = AdmissionControl.defaults();
+    /** The limit on the controller requests of each client, or null for none. */
+    static RateLimiter clientRateLimit;
+    /** The limit each route without a {@code @RateLimit} gets a copy of, or null for none. */
+    static RateLimiter routeRateLimit;
+    static StaticResourceCache staticResources =
+            new StaticResourceCache(Paths.get(WEB_ROOT), StaticResourceCache.DEFAULT_MAX_BYTES);
 
     /**
-     * The main entry point of the SimpleWebServer. It sets up the server
-     * to listen on the specified port, initializes REST services, and
-     * handles incoming client connections.
+     * The main entry point of the SimpleWebServer. It initializes REST services,
+     * sets up the server to listen on the configured port and handles incoming
+     * client connections.
      *
-     * @param args command-line arguments (not used).
+     * <p>Supported arguments:</p>
+     * <ul>
+     *   <li><strong>--port=N:</strong> the port to listen on (default 8080).</li>
+     *   <li><strong>--mode=blocking|nio:</strong> {@code blocking} accepts connections on a
+     *   blocking {@link ServerSocketChannel} and runs one {@link ClientHandler} per connection on the thread pool;
+     *   {@code nio} multiplexes every connection over {@link NioServer} event loops (one per core)
+     *   and only uses the thread pool to run the request handlers.</li>
+     *   <li><strong>--executor=fixed|bounded|virtual:</strong> how request handlers are run, see
+     *   {@link ServerExecutors}. {@code --threads}, {@code --queue} and {@code --max-concurrency}
+     *   size the chosen executor.</li>
+     *   <li><strong>--acceptors=N:</strong> the number of threads accepting connections (default 1),
+     *   each on its own listening socket where {@code SO_REUSEPORT} is available (see {@link Listeners})
+     *   and each with its own worker group, an executor as described above. In {@code nio} mode the
+     *   acceptors are the first N event loops.</li>
+     *   <li><strong>--static-cache-bytes=N:</strong> the maximum total size of the static files kept in
+     *   {@link StaticResourceCache} (default 64 MB).</li>
+     *   <li><strong>--access-log=off|error|info|debug:</strong> what the {@link AccessLog} records
+     *   (default info); {@code --access-log-sample=N} keeps about one request in N.</li>
+     *   <li><strong>--backlog, --max-connections, --idle-timeout-ms, --read-timeout-ms,
+     *   --write-timeout-ms, --shed-target-ms, --shed-interval-ms:</strong> which connections and
+     *   requests are taken on and for how long, see {@link AdmissionControl}.</li>
+     *   <li><strong>--rate-limit=R:</strong> the controller requests per second each client address
+     *   may make (default unlimited), with bursts of up to {@code --rate-limit-burst=N}; see {@link RateLimiter}.</li>
+     *   <li><strong>--route-rate-limit=R:</strong> the requests per second each client may make to each
+     *   route (default unlimited), with bursts of up to {@code --route-rate-limit-burst=N}. A
+     *   {@code @RateLimit} annotation overrides it for its route.</li>
+     * </ul>
+     *
+     * @param args command-line arguments in {@code --name=value} form.
      * @throws IOException if an I/O error occurs while opening the server socket.
      */
     public static void main(String[] args) throws IOException, ReflectiveOperationException {
-        ExecutorService threadPool = Executors.newFixedThreadPool(10);
-        ServerSocket serverSocket = new ServerSocket(PORT);
-        System.out.println("Ready to receive on port " + PORT + "...");
+        int port = Integer.parseInt(option(args, "port", String.valueOf(PORT)));
+        String mode = option(args, "mode", "blocking");
+        int acceptors = Math.max(1, Integer.parseInt(option(args, "acceptors", "1")));
+        List<ExecutorService> workerGroups = new ArrayList<>();
+        for (int i = 0; i < acceptors; i++) {
+            workerGroups.add(ServerExecutors.create(args));
+        }
+        accessLog.stop();
+        accessLog = AccessLog.create(args);
+        long staticCacheBytes = Long.parseLong(option(args, "static-cache-bytes",
+                String.valueOf(StaticResourceCache.DEFAULT_MAX_BYTES)));
+        staticResources = new StaticResourceCache(Paths.get(WEB_ROOT), staticCacheBytes);
+        staticResources.watch();
+        admission.stop();
+        admission = AdmissionControl.create(args);
+        clientRateLimit = RateLimiter.create(args, "rate-limit");
+        routeRateLimit = RateLimiter.create(args, "route-rate-limit");
+        metrics = new Metrics();
+        registerGauges(workerGroups);
         initializeControllers();
-        while (running) {
-            Socket clientSocket = serverSocket.accept();
-            threadPool.submit(new ClientHandler(clientSocket));
+        if ("nio".equals(mode)) {
+            NioServer server = new NioServer(port, Runtime.getRuntime().availableProcessors(), workerGroups);
+            System.out.println("Ready to receive on port " + port + " (nio)...");
+            server.serve();
+        } else {
+            ServerSocketChannel[] listeners = Listeners.open(port, admission.backlog, acceptors);
+            System.out.println("Ready to receive on port " + port + "...");
+            try {
+                for (int i = 1; i < acceptors; i++) {
+                    ServerSocketChannel listener = listeners[i];
+                    ExecutorService threadPool = workerGroups.get(i);
+                    Thread acceptor = new Thread(() -> {
+                        try {
+                            acceptConnections(listener, threadPool);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }, "acceptor-" + i);
+                    acceptor.setDaemon(true);
+                    acceptor.start();
+                }
+                acceptConnections(listeners[0], workerGroups.get(0));
+            } finally {
+                Listeners.close(listeners);
+            }
+        }
+        for (ExecutorService threadPool : workerGroups) {
+            threadPool.shutdown();
         }
-        serverSocket.close();
-        threadPool.shutdown();
     }
 
     /**
-     * Initializes the controllers by scanning the specified package for classes
-     * annotated with @RestController. It registers each found controller class
-     * to handle RESTful service requests.
+     * Accepts connections on a blocking listening channel until the server is stopped,
+     * running one {@link ClientHandler} per connection on the acceptor's worker group.
      *
-     * @throws ReflectiveOperationException if an error occurs while reflecting on the controller classes.
-     * @throws IOException if an error occurs while scanning the package for classes.
+     * @param serverChannel the acceptor's listening channel.
+     * @param threadPool the acceptor's worker group.
+     * @throws IOException if an I/O error occurs while accepting.
      */
-    private static void initializeControllers() throws ReflectiveOperationException, IOException {
-        String packageName = "edu.escuelaing.arep";
-        List<Class<?>> controllerClasses = findClassesWithAnnotation(packageName, RestController.class);
-        
-        for (Class<?> controllerClass : controllerClasses) {
-            registerController(controllerClass);
+    private static void acceptConnections(ServerSocketChannel serverChannel, ExecutorService threadPool) throws IOException {
+        while (running) {
+            Socket clientSocket = serverChannel.accept().socket();
+            if (!admission.tryOpenConnection()) {
+                ClientHandler.rejectConnection(clientSocket);
+                continue;
+            }
+            admission.connectionQueued();
+            try {
+                threadPool.execute(new ClientHandler(clientSocket, threadPool));
+            } catch (RejectedExecutionException e) {
+                admission.connectionStarted();
+                admission.connectionClosed();
+                ClientHandler.rejectConnection(clientSocket);
+            }
         }
     }
 
     /**
-     * Registers a controller class by creating an instance of it and mapping
-     * its methods annotated with @GetMapping to their corresponding HTTP paths.
+     * Registers the values served on {@link Metrics#PATH} that are read from other
+     * components: the worker pools, the static resource cache, the buffer pools and the
+     * access log.
      *
-     * @param controllerClass the class to be registered as a controller.
-     * @throws ReflectiveOperationException if an error occurs while creating an instance of the controller class
-     *                                      or accessing its methods.
+     * @param workerGroups the executors that run the request handlers, one per acceptor.
      */
-    private static void registerController(Class<?> controllerClass) throws ReflectiveOperationException {
-        Object controllerInstance = controllerClass.getDeclaredConstructor().newInstance();
-        controllers.put(controllerClass.getName(), controllerInstance);
-
-        for (Method method : controllerClass.getDeclaredMethods()) {
-            if (method.isAnnotationPresent(GetMapping.class)) {
-                GetMapping getMapping = method.getAnnotation(GetMapping.class);
-                getMappings.put(getMapping.value(), method);
-            }
+    private static void registerGauges(List<ExecutorService> workerGroups) {
+        ServerExecutors.registerMetrics(workerGroups, metrics);
+        admission.registerMetrics(metrics);
+        StaticResourceCache cache = staticResources;
+        metrics.counter("arep_static_cache_hits_total", "Static file lookups served from the cache.", cache::hits);
+        metrics.counter("arep_static_cache_misses_total", "Static file lookups that had to load the file.", cache::misses);
+        metrics.counter("arep_static_cache_evictions_total", "Static files evicted from the cache.", cache::evictions);
+        metrics.gauge("arep_static_cache_entries", "Static files currently cached.", cache::size);
+        metrics.gauge("arep_static_cache_bytes", "Bytes of static files currently cached.", cache::totalBytes);
+        BufferPool.DIRECT.registerMetrics(metrics, "direct");
+        BufferPool.HEAP.registerMetrics(metrics, "heap");
+        metrics.counter("arep_rate_limited_total", "Controller requests refused with a 429 by a rate limit.",
+                RateLimiter::limited);
+        RateLimiter clients = clientRateLimit;
+        if (clients != null) {
+            metrics.gauge("arep_rate_limit_clients", "Clients currently tracked by the per-client rate limit.",
+                    clients::clients);
         }
+        AccessLog log = accessLog;
+        metrics.counter("arep_access_log_dropped_total", "Access log entries dropped because the ring was full.", log::dropped);
     }
 
     /**
-     * Scans the specified package for classes annotated with the specified annotation.
+     * Returns the value of a {@code --name=value} command-line argument.
      *
-     * @param packageName the name of the package to scan.
-     * @param annotation the annotation to look for in the classes.
-     * @return a list of classes that are annotated with the specified annotation.
-     * @throws ClassNotFoundException if a class cannot be found during the scan.
-     * @throws IOException if an error occurs while reading from the file system.
+     * @param args the command-line arguments.
+     * @param name the name of the option, without the leading dashes.
+     * @param defaultValue the value to use when the option is not present.
+     * @return the value of the option, or the default value.
      */
-    private static List<Class<?>> findClassesWithAnnotation(String packageName, Class<? extends Annotation> annotation) throws ClassNotFoundException, IOException {
-        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
-        assert classLoader != null;
-        String path = packageName.replace('.', '/');
-        URL resource = classLoader.getResource(path);
-        File directory = new File(resource.getFile());
-        List<Class<?>> classes = new ArrayList<>();
-        if (directory.exists()) {
-            String[] files = directory.list();
-            for (String file : files) {
-                if (file.endsWith(".class")) {
-                    String className = packageName + '.' + file.substring(0, file.length() - 6);
-                    Class<?> clazz = Class.forName(className);
-                    if (clazz.isAnnotationPresent(annotation)) {
-                        classes.add(clazz);
-                    }
-                }
+    static String option(String[] args, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
             }
         }
-        return classes;
+        return defaultValue;
     }
 
     /**
-     * Stops the server by setting the running flag to false.
-     * This method is called to gracefully shut down the server.
-     */
-    public static void stop() {
-        running = false;
-    }
-}
-
-
-/**
- * The ClientHandler class implements Runnable and is responsible for
- * handling individual client connections to the SimpleWebServer. It
- * processes HTTP requests, serves static files, and delegates requests
- * to registered RESTful services.
- */
-class ClientHandler implements Runnable {
-    private Socket clientSocket;
-
-    /**
-     * Constructs a new ClientHandler for the given client socket.
+     * Initializes the controllers from the route index generated at compile time by
+     * {@link edu.escuelaing.arep.processor.RouteIndexProcessor}, which only loads the
+     * controller classes. When there is no index, or it names a method that no longer
+     * exists, the package is scanned for classes annotated with @RestController instead.
+     * The routes of a previous start are discarded.
      *
-     * @param socket the client socket to handle.
-     */
-    public ClientHandler(Socket socket) {
-        this.clientSocket = socket;
-    }
-
-    /**
-     * The run method is invoked when the ClientHandler is executed by a thread.
-     * It processes the client's HTTP request, determines the type of request,
-     * and calls the appropriate method to handle it.
+     * @throws ReflectiveOperationException if an error occurs while reflecting on the controller classes.
+     * @throws IOException if an error occurs while reading the index or scanning the package for classes.
      */
-    @Override
-    public void run() {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
-             BufferedOutputStream dataOut = new BufferedOutputStream(clientSocket.getOutputStream())) {
-
-            String requestLine = in.readLine();
-            if (requestLine == null)
-                return;
-            String[] tokens = requestLine.split(" ");
-            String method = tokens[0];
-            String fileRequested = tokens[1];
-
-            printRequestLine(requestLine, in);
-            if (fileRequested.startsWith("/app")) {
-                handleAppRequest(method, fileRequested, out);
-            } else {
-                if (method.equals("GET")) {
-                    handleGetRequest(fileRequested, out, dataOut);
-                } else if (method.equals("POST")) {
-                    handlePostRequest(fileRequested, out, dataOut);
-                }
-            }
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
+    private static void initializeControllers() throws ReflectiveOperationException, IOException {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        List<RouteIndex.Route> routes = RouteIndex.load(classLoader);
+        if (routes != null) {
             try {
-                clientSocket.close(); 
-            } catch (IOException e) {
-                e.printStackTrace();
+                registerRoutes(routes, classLoader);
+                return;
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Stale route index, scanning for controllers instead: " + e);
             }
         }
-    }
-
-    /**
-     * Prints the request line and headers from the client's HTTP request to the console.
-     *
-     * @param requestLine the initial request line (e.g., "GET /index.html HTTP/1.1").
-     * @param in the BufferedReader for reading the client's request headers.
-     */    
-    private void printRequestLine(String requestLine, BufferedReader in) {
-        System.out.println("Request line: " + requestLine);
-        String inputLine;
-        try {
-            while ((inputLine = in.readLine()) != null) {
-                System.out.println("Header: " + inputLine);
-                if (in.ready()) {
-                    break;
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        getMappings = new Router<>();
+        postMappings = new Router<>();
+        for (Class<?> controllerClass : findClassesWithAnnotation("edu.escuelaing.arep", RestController.class, classLoader)) {
+            registerController(controllerClass);
         }
     }
 
     /**
-     * Handles a GET request by serving a static file from the server's root directory.
-     * If the file is found, it is sent to the client along with appropriate HTTP headers.
-     * If the file is not found, a 404 error message is returned.
+     * Registers the routes read from the route index, creating one instance of each
+     * controller class.
      *
-     * @param fileRequested the file requested by the client.
-     * @param out the PrintWriter to send the HTTP headers to the client.
-     * @param dataOut the BufferedOutputStream to send the file data to the client.
-     * @throws IOException if an I/O error occurs while reading the file or sending the response.
-     */    
-    private void handleGetRequest(String fileRequested, PrintWriter out, BufferedOutputStream dataOut) throws IOException {
-        File file = new File(SimpleWebServer.WEB_ROOT, fileRequested);
-        int fileLength = (int) file.length();
-        String content = getContentType(fileRequested);
-
-        if (file.exists()) {
-            byte[] fileData = readFileData(file, fileLength);
-            out.println("HTTP/1.1 200 OK");
-            out.println("Content-type: " + content);
-            out.println("Content-length: " + fileLength);
-            out.println();
-            out.flush();
-            dataOut.write(fileData, 0, fileLength);
-            dataOut.flush();
-        } else {
-            out.println("HTTP/1.1 404 Not Found");
-            out.println("Content-type: text/html");
-            out.println();
-            out.flush();
-            out.println("<html><body><h1>File Not Found</h1></body></html>");
-            out.flush();
+     * @param routes the indexed routes.
+     * @param classLoader the class loader to load the controllers with.
+     * @throws ReflectiveOperationException if a controller cannot be created, or an
+     *                                      indexed method no longer exists or is no longer mapped to its route.
+     */
+    private static void registerRoutes(List<RouteIndex.Route> routes, ClassLoader classLoader) throws ReflectiveOperationException {
+        getMappings = new Router<>();
+        postMappings = new Router<>();
+        Map<String, Object> instances = new HashMap<>();
+        for (RouteIndex.Route route : routes) {
+            Object controller = instances.get(route.className);
+            if (controller == null) {
+                controller = newController(Class.forName(route.className, true, classLoader));
+                instances.put(route.className, controller);
+            }
+            Method method = route.resolve(controller.getClass());
+            String mapped = "GET".equals(route.httpMethod)
+                    ? method.isAnnotationPresent(GetMapping.class) ? method.getAnnotation(GetMapping.class).value() : null
+                    : method.isAnnotationPresent(PostMapping.class) ? method.getAnnotation(PostMapping.class).value() : null;
+            if (!route.pattern.equals(mapped)) {
+                throw new NoSuchMethodException(route.httpMethod + " " + route.pattern + " is no longer mapped to " + method);
+            }
+            registerRoute(route.httpMethod, route.pattern, controller, method);
         }
     }
 
     /**
-     * Handles a POST request by reading the request payload and returning a simple HTML
-     * response that includes the received data.
+     * Registers a controller class by creating an instance of it and mapping
+     * its methods annotated with @GetMapping or @PostMapping to their corresponding HTTP paths.
      *
-     * @param fileRequested the file requested by the client (not used in this method).
-     * @param out the PrintWriter to send the HTTP headers and response to the client.
-     * @param dataOut the BufferedOutputStream to send the response body to the client.
-     * @throws IOException if an I/O error occurs while reading the input or sending the response.
+     * @param controllerClass the class to be registered as a controller.
+     * @throws ReflectiveOperationException if an error occurs while creating an instance of the controller class
+     *                                      or accessing its methods.
      */
-    private void handlePostRequest(String fileRequested, PrintWriter out, BufferedOutputStream dataOut) throws IOException {
-        StringBuilder payload = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null && !line.isEmpty()) {
-                payload.append(line);
+    private static void registerController(Class<?> controllerClass) throws ReflectiveOperationException {
+        Object controllerInstance = newController(controllerClass);
+        for (Method method : controllerClass.getDeclaredMethods()) {
+            if (method.isAnnotationPresent(GetMapping.class)) {
+                registerRoute("GET", method.getAnnotation(GetMapping.class).value(), controllerInstance, method);
+            }
+            if (method.isAnnotationPresent(PostMapping.class)) {
+                registerRoute("POST", method.getAnnotation(PostMapping.class).value(), controllerInstance, method);
             }
         }
+    }
 
-        out.println("HTTP/1.1 200 OK");
-        out.println("Content-type: text/html");
-        out.println();
-        out.println("<html><body><h1>POST data received:</h1>");
-        out.println("<p>" + payload.toString() + "</p>");
-        out.println("</body></html>");
-        out.flush();
+    private static Object newController(Class<?> controllerClass) throws ReflectiveOperationException {
+        Object controllerInstance = controllerClass.getDeclaredConstructor().newInstance();
+        controllers.put(controllerClass.getName(), controllerInstance);
+        return controllerInstance;
     }
 
     /**
-     * Handles an application-specific HTTP request by determining the request method (GET),
-     * extracting any query parameters, and invoking the appropriate controller method
-     * that corresponds to the requested path.
+     * Maps a controller method to an HTTP path. Paths may contain {@code {name}} variables
+     * and wildcards, see {@link Router}. The method is precompiled into a
+     * {@link ControllerInvoker} so that handling a request does not use reflection.
      *
-     * @param method the HTTP method of the request (e.g., GET).
-     * @param path the request path (e.g., /app/hello?name=John).
-     * @param out the PrintWriter used to send the HTTP response back to the client.
+     * @param httpMethod GET or POST.
+     * @param pattern the route pattern.
+     * @param controller the controller instance.
+     * @param method the handler method.
+     * @throws IllegalAccessException if the method cannot be accessed.
+     * @throws IllegalArgumentException if a route is invalid or registered twice, or a
+     *                                  {@code @PostMapping} method is {@code @Cacheable}.
      */
-    private void handleAppRequest(String method, String path, PrintWriter out) {
-        if ("GET".equalsIgnoreCase(method)) {
-            String[] pathParts = path.split("\\?");
-            String basePath = pathParts[0];
-            Map<String, String> queryParams = new HashMap<>();
-
-            if (pathParts.length > 1) {
-                String queryString = pathParts[1];
-                String[] pairs = queryString.split("&");
-                for (String pair : pairs) {
-                    String[] keyValue = pair.split("=");
-                    if (keyValue.length > 1) {
-                        queryParams.put(keyValue[0], keyValue[1]);
-                    } else {
-                        queryParams.put(keyValue[0], "");
-                    }
-                }
-            }
-
-            Method handlerMethod = SimpleWebServer.getMappings.get(basePath);
-            if (handlerMethod != null) {
-                try {
-                    Object controller = SimpleWebServer.controllers.get(handlerMethod.getDeclaringClass().getName());
-                    Object response = invokeControllerMethod(handlerMethod, controller, queryParams);
-                    System.out.println("Se invoca el servicio: " +handlerMethod.getDeclaringClass().getName()+" y la respuesta es: "+response);
-                    out.println("HTTP/1.1 200 OK");
-                    out.println("Content-type: text/plain");
-                    out.println();
-                    out.println(response.toString());
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    out.println("HTTP/1.1 500 Internal Server Error");
-                }
-            } else {
-                out.println("HTTP/1.1 404 Not Found");
-            }
-        } else {
-            out.println("HTTP/1.1 405 Method Not Allowed");
+    private static void registerRoute(String httpMethod, String pattern, Object controller, Method method) throws IllegalAccessException {
+        boolean post = "POST".equals(httpMethod);
+        if (post && method.isAnnotationPresent(Cacheable.class)) {
+            throw new IllegalArgumentException("@Cacheable is only supported on @GetMapping methods: " + method);
         }
-        out.flush();
+        (post ? postMappings : getMappings).add(pattern,
+                ControllerInvoker.create(controller, method, metrics.route(httpMethod, pattern), routeRateLimit));
     }
 
     /**
-     * Invokes the appropriate controller method that corresponds to the provided HTTP request.
-     * It binds query parameters to method parameters based on the @RequestParam annotation
-     * and converts parameter values to the required types.
+     * Scans the specified package, in directories and jar files, for classes annotated
+     * with the specified annotation. The classes are loaded without being initialized.
      *
-     * @param handlerMethod the method to be invoked, which corresponds to the requested path.
-     * @param controller the instance of the controller class containing the method.
-     * @param queryParams a map of query parameters extracted from the request URL.
-     * @return the result of invoking the controller method, which is typically a response to be sent back to the client.
-     * @throws IllegalAccessException if the controller method is inaccessible.
-     * @throws InvocationTargetException if the controller method throws an exception.
+     * @param packageName the name of the package to scan.
+     * @param annotation the annotation to look for in the classes.
+     * @param classLoader the class loader whose class path is scanned.
+     * @return a list of classes that are annotated with the specified annotation.
+     * @throws ClassNotFoundException if a class cannot be found during the scan.
+     * @throws IOException if an error occurs while reading from the file system.
      */
-    private Object invokeControllerMethod(Method handlerMethod, Object controller, Map<String, String> queryParams) throws IllegalAccessException, InvocationTargetException {
-        Parameter[] parameters = handlerMethod.getParameters();
-        Object[] args = new Object[parameters.length];
-    
-        for (int i = 0; i < parameters.length; i++) {
-            RequestParam requestParam = parameters[i].getAnnotation(RequestParam.class);
-            if (requestParam != null) {
-                String paramName = requestParam.value();
-                String defaultValue = requestParam.defaultValue();
-                String paramValue = queryParams.get(paramName);
-    
-                // Si el parámetro no está en queryParams o está presente pero es vacío, usar el valor por defecto
-                if (paramValue == null || paramValue.isEmpty()) {
-                    paramValue = defaultValue;
-                }
-    
-                Class<?> paramType = parameters[i].getType();
-                if (paramType == int.class) {
-                    args[i] = Integer.parseInt(paramValue);
-                } else {
-                    args[i] = paramValue; 
-                }
+    static List<Class<?>> findClassesWithAnnotation(String packageName, Class<? extends Annotation> annotation,
+                                                    ClassLoader classLoader) throws ClassNotFoundException, IOException {
+        List<Class<?>> classes = new ArrayList<>();
+        for (String className : RouteIndex.scan(packageName, classLoader)) {
+            Class<?> clazz = Class.forName(className, false, classLoader);
+            if (clazz.isAnnotationPresent(annotation)) {
+                classes.add(clazz);
             }
         }
-    
-        return handlerMethod.invoke(controller, args);
+        return classes;
     }
-      
+
     /**
-     * Determines the MIME type of the requested file based on its extension.
-     *
-     * @param fileRequested the file requested by the client.
-     * @return the MIME type of the file.
+     * Stops the server by setting the running flag to false.
+     * This method is called to gracefully shut down the server.
      */
-    String getContentType(String fileRequested) {
-        if (fileRequested.endsWith(".html"))
-            return "text/html";
-        else if (fileRequested.endsWith(".css"))
-            return "text/css";
-        else if (fileRequested.endsWith(".js"))
-            return "application/javascript";
-        else if (fileRequested.endsWith(".png"))
-            return "image/png";
-        else if (fileRequested.endsWith(".jpg"))
-            return "image/jpeg";
-        return "text/plain";
+    public static void stop() {
+        running = false;
     }
 
     /**
-     * Reads the contents of a file into a byte array.
+     * Tells whether the server has not been asked to stop yet.
      *
-     * @param file the file to be read.
-     * @param fileLength the length of the file in bytes.
-     * @return a byte array containing the file's data.
-     * @throws IOException if an I/O error occurs while reading the file.
+     * @return true while the server is running.
      */
-    byte[] readFileData(File file, int fileLength) throws IOException {
-        FileInputStream fileIn = null;
-        byte[] fileData = new byte[fileLength];
-        try {
-            fileIn = new FileInputStream(file);
-            fileIn.read(fileData);
-        } finally {
-            if (fileIn != null)
-                fileIn.close();
-        }
-        return fileData;
+    static boolean isRunning() {
+        return running;
     }
 }
@@ -0,0 +1,466 @@
+package edu.escuelaing.arep;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The StaticResourceCache class keeps the static files under the web root resolved
+ * in memory: a read-only view of the file's memory mapping together with its content
+ * type, length, modification time and the pre-encoded entity headers. A cache hit
+ * serves a file without touching the file system or allocating a body array.
+ *
+ * <p>Text resources also get compressed variants, each with its own strong ETag:
+ * gzip is taken from a precompressed {@code .gz} sibling file or computed once when
+ * the resource is loaded, and brotli is served when a precompressed {@code .br}
+ * sibling exists. {@link Resource#select(String)} picks the variant matching the
+ * client's {@code Accept-Encoding}.</p>
+ *
+ * <p>The cache is shared by all the connection threads. It is bounded by the total
+ * size of the cached files and evicts the least recently used entry when a new one
+ * does not fit. Once {@link #watch()} has been called, a {@link WatchService} on the
+ * web root removes entries as soon as their file is modified or deleted; without it
+ * every hit checks the file's length and modification time instead.</p>
+ *
+ * <p>Files larger than {@link #MAPPED_FILE_THRESHOLD} are not cached; they are
+ * streamed with {@link FileChannel#transferTo} instead.</p>
+ */
+final class StaticResourceCache {
+    static final long MAPPED_FILE_THRESHOLD = 1024 * 1024;
+    static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    static final int MIN_COMPRESSIBLE_SIZE = 256;
+    /** Formats the IMF-fixdate that RFC 9110 requires of senders, e.g. {@code Tue, 03 Sep 2024 02:58:15 GMT}. */
+    static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+    /** Parses the dates clients send, which may also have a one-digit day or a numeric offset. */
+    static final DateTimeFormatter HTTP_DATE_PARSER = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private final Path root;
+    private final long maxBytes;
+    private final ConcurrentHashMap<String, Resource> resources = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    /** Advanced by every {@link #invalidate}, so a load that raced with one is not kept. */
+    private final AtomicLong generation = new AtomicLong();
+    private volatile boolean watching;
+
+    /**
+     * Constructs a new cache for the files under a directory.
+     *
+     * @param root the web root.
+     * @param maxBytes the maximum total size of the cached files.
+     */
+    StaticResourceCache(Path root, long maxBytes) {
+        this.root = root.toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Resolves a request path against the web root.
+     *
+     * @param requestPath the path requested by the client (e.g., /index.html).
+     * @return the file the path refers to, or null if it points outside the web root or
+     *         is not a valid file name on this platform (e.g., it contains a NUL or
+     *         characters the file system encoding cannot represent).
+     */
+    Path resolve(String requestPath) {
+        int start = 0;
+        while (start < requestPath.length() && requestPath.charAt(start) == '/') {
+            start++;
+        }
+        Path file;
+        try {
+            file = root.resolve(requestPath.substring(start)).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        return file.startsWith(root) ? file : null;
+    }
+
+    /**
+     * Returns the cached resource for a request path, loading it on a miss.
+     *
+     * @param requestPath the path requested by the client (e.g., /index.html).
+     * @return the resource, or null if the path is not a regular file under the web
+     *         root or the file is too large to be cached.
+     * @throws IOException if the file cannot be read or mapped.
+     */
+    Resource get(String requestPath) throws IOException {
+        Resource resource = resources.get(requestPath);
+        if (resource != null && (watching || resource.isCurrent())) {
+            hits.increment();
+            resource.lastAccess = System.nanoTime();
+            return resource;
+        }
+        misses.increment();
+        if (resource != null) {
+            remove(requestPath, resource);
+        }
+
+        long loadGeneration = generation.get();
+        Path file = resolve(requestPath);
+        if (file == null || !Files.isRegularFile(file)) {
+            return null;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long length = attributes.size();
+        if (length > MAPPED_FILE_THRESHOLD || length > maxBytes) {
+            return null;
+        }
+        resource = load(file, ClientHandler.getContentType(requestPath), length, attributes.lastModifiedTime().toMillis());
+        return cache(requestPath, resource, loadGeneration);
+    }
+
+    /**
+     * Keeps a freshly loaded resource, unless another thread cached the same path first.
+     * While the web root is watched a cached entry is never checked against its file
+     * again, so if a file changed while it was being loaded (the generation moved on),
+     * the entry is dropped and the next request loads the file anew.
+     *
+     * @param requestPath the path requested by the client.
+     * @param resource the resource just loaded.
+     * @param loadGeneration the {@link #generation()} read before the file was loaded.
+     * @return the resource to serve.
+     */
+    Resource cache(String requestPath, Resource resource, long loadGeneration) {
+        Resource existing = resources.putIfAbsent(requestPath, resource);
+        if (existing != null) {
+            return existing;
+        }
+        totalBytes.addAndGet(resource.weight);
+        if (generation.get() != loadGeneration) {
+            remove(requestPath, resource);
+            return resource;
+        }
+        while (totalBytes.get() > maxBytes && evictLeastRecentlyUsed()) {
+            evictions.increment();
+        }
+        return resource;
+    }
+
+    long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Starts a daemon thread that watches the web root and its subdirectories and
+     * invalidates cached entries when their files change.
+     *
+     * @throws IOException if the watch service cannot be created or registered.
+     */
+    void watch() throws IOException {
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+        register(watchService, root, directories);
+        Thread watcher = new Thread(() -> processEvents(watchService, directories), "static-resource-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        watching = true;
+    }
+
+    /**
+     * Removes every cached entry backed by a file (including its precompressed
+     * siblings), or by a file below a directory.
+     *
+     * @param changed the file or directory that changed.
+     */
+    void invalidate(Path changed) {
+        Path path = changed.toAbsolutePath().normalize();
+        generation.incrementAndGet();
+        for (Map.Entry<String, Resource> entry : resources.entrySet()) {
+            Path file = entry.getValue().file;
+            if (file.startsWith(path) || path.equals(sibling(file, ".gz")) || path.equals(sibling(file, ".br"))) {
+                remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    int size() {
+        return resources.size();
+    }
+
+    long totalBytes() {
+        return totalBytes.get();
+    }
+
+    private boolean evictLeastRecentlyUsed() {
+        Map.Entry<String, Resource> oldest = null;
+        for (Map.Entry<String, Resource> entry : resources.entrySet()) {
+            if (oldest == null || entry.getValue().lastAccess < oldest.getValue().lastAccess) {
+                oldest = entry;
+            }
+        }
+        return oldest != null && remove(oldest.getKey(), oldest.getValue());
+    }
+
+    private boolean remove(String requestPath, Resource resource) {
+        if (resources.remove(requestPath, resource)) {
+            totalBytes.addAndGet(-resource.weight);
+            return true;
+        }
+        return false;
+    }
+
+    private void register(WatchService watchService, Path directory, Map<WatchKey, Path> directories) throws IOException {
+        try (Stream<Path> tree = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) tree.filter(Files::isDirectory)::iterator) {
+                WatchKey key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, path);
+            }
+        }
+    }
+
+    private void processEvents(WatchService watchService, Map<WatchKey, Path> directories) {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = directories.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                        invalidate(root);
+                        continue;
+                    }
+                    Path changed = directory.resolve((Path) event.context());
+                    invalidate(changed);
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                        register(watchService, changed, directories);
+                    }
+                }
+                if (!key.reset()) {
+                    directories.remove(key);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            watching = false;
+        } catch (IOException e) {
+            watching = false;
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Maps a file and builds its variants.
+     */
+    private static Resource load(Path file, String contentType, long length, long lastModified) throws IOException {
+        ByteBuffer data = map(file, length);
+        Variant identity = new Variant(contentType, null, data, lastModified);
+        Variant gzip = null;
+        Variant brotli = null;
+        if (isCompressible(contentType)) {
+            Path gzipFile = sibling(file, ".gz");
+            Path brotliFile = sibling(file, ".br");
+            if (Files.isRegularFile(gzipFile)) {
+                gzip = new Variant(contentType, "gzip", map(gzipFile, Files.size(gzipFile)), lastModified);
+            } else if (length >= MIN_COMPRESSIBLE_SIZE) {
+                ByteBuffer compressed = gzip(data.duplicate());
+                if (compressed.remaining() < length) {
+                    gzip = new Variant(contentType, "gzip", compressed, lastModified);
+                }
+            }
+            if (Files.isRegularFile(brotliFile)) {
+                brotli = new Variant(contentType, "br", map(brotliFile, Files.size(brotliFile)), lastModified);
+            }
+        }
+        return new Resource(file, contentType, length, lastModified, identity, gzip, brotli);
+    }
+
+    private static ByteBuffer map(Path file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, length).asReadOnlyBuffer();
+        }
+    }
+
+    private static ByteBuffer gzip(ByteBuffer data) throws IOException {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(compressed.size());
+        buffer.put(compressed.toByteArray()).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private static Path sibling(Path file, String suffix) {
+        return file.resolveSibling(file.getFileName() + suffix);
+    }
+
+    static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/") || contentType.equals("application/javascript")
+                || contentType.equals("application/json") || contentType.equals("image/svg+xml");
+    }
+
+    /**
+     * Tells whether an Accept-Encoding header allows a content coding, honouring
+     * {@code q=0} exclusions and the {@code *} wildcard.
+     *
+     * @param acceptEncoding the value of the Accept-Encoding header, or null.
+     * @param coding the content coding (e.g., gzip).
+     * @return true if the client accepts the coding.
+     */
+    static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String name = parts[0].trim();
+            boolean acceptable = true;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        acceptable = Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        acceptable = false;
+                    }
+                }
+            }
+            if (name.equalsIgnoreCase(coding)) {
+                return acceptable;
+            }
+            if (name.equals("*")) {
+                wildcard = acceptable;
+            }
+        }
+        return wildcard != null && wildcard;
+    }
+
+    /**
+     * A cached static file and its encoded variants.
+     */
+    static final class Resource {
+        final Path file;
+        final String contentType;
+        final long length;
+        final long lastModified;
+        final Variant identity;
+        final Variant gzip;
+        final Variant brotli;
+        private final long weight;
+        private volatile long lastAccess = System.nanoTime();
+
+        Resource(Path file, String contentType, long length, long lastModified,
+                 Variant identity, Variant gzip, Variant brotli) {
+            this.file = file;
+            this.contentType = contentType;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.identity = identity;
+            this.gzip = gzip;
+            this.brotli = brotli;
+            this.weight = identity.length + (gzip == null ? 0 : gzip.length) + (brotli == null ? 0 : brotli.length);
+        }
+
+        /**
+         * Chooses the variant to send, preferring brotli, then gzip, then the file as is.
+         *
+         * @param acceptEncoding the value of the request's Accept-Encoding header, or null.
+         * @return the variant to send.
+         */
+        Variant select(String acceptEncoding) {
+            if (brotli != null && accepts(acceptEncoding, "br")) {
+                return brotli;
+            }
+            if (gzip != null && accepts(acceptEncoding, "gzip")) {
+                return gzip;
+            }
+            return identity;
+        }
+
+        private boolean isCurrent() {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                return attributes.size() == length && attributes.lastModifiedTime().toMillis() == lastModified;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * One representation of a cached resource with its pre-encoded headers.
+     */
+    static final class Variant {
+        final String contentType;
+        final String encoding;
+        final String etag;
+        final long length;
+        final byte[] headers;
+        final byte[] notModifiedHeaders;
+        /** The entity headers of a partial response, apart from its Content-Type, Content-Length and Content-Range. */
+        final String rangeHeaders;
+        private final ByteBuffer data;
+
+        Variant(String contentType, String encoding, ByteBuffer data, long lastModified) {
+            this.contentType = contentType;
+            this.encoding = encoding;
+            this.data = data;
+            this.length = data.remaining();
+            CRC32 crc = new CRC32();
+            crc.update(data.duplicate());
+            this.etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(crc.getValue())
+                    + (encoding == null ? "" : "-" + encoding) + "\"";
+
+            String validators = "ETag: " + etag + "\r\n"
+                    + "Last-Modified: " + HTTP_DATE.format(Instant.ofEpochMilli(lastModified)) + "\r\n"
+                    + (isCompressible(contentType) ? "Vary: Accept-Encoding\r\n" : "");
+            this.rangeHeaders = (encoding == null ? "" : "Content-Encoding: " + encoding + "\r\n")
+                    + validators + ByteRanges.ACCEPT_RANGES;
+            this.headers = ("Content-Type: " + contentType + "\r\n"
+                    + "Content-Length: " + length + "\r\n"
+                    + rangeHeaders).getBytes(StandardCharsets.US_ASCII);
+            this.notModifiedHeaders = validators.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * Returns the variant's bytes as a new buffer over the shared data.
+         *
+         * @return a buffer positioned at the start of the variant.
+         */
+        ByteBuffer data() {
+            return data.duplicate();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package edu.escuelaing.arep;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A response body that a controller method writes as it is produced instead of
+ * returning it as a whole. The server calls {@link #writeTo} after sending the
+ * headers and forwards the bytes to the client in chunks of at most
+ * {@link ChunkedOutputStream#CHUNK_SIZE} bytes, with {@code Transfer-Encoding: chunked},
+ * so the first bytes reach the client before the rest exist and the server never
+ * holds more than a bounded amount of the response. When the client reads slowly,
+ * {@code write} blocks until there is room again.
+ *
+ * <p>Example usage:</p>
+ * <pre>
+ * {@literal @}GetMapping("/app/numbers")
+ * public StreamingBody numbers() {
+ *     return out -&gt; {
+ *         for (int i = 0; i &lt; 1_000_000; i++) {
+ *             out.write((i + "\n").getBytes(StandardCharsets.US_ASCII));
+ *         }
+ *     };
+ * }
+ * </pre>
+ *
+ * <p>Controllers can also declare {@code Iterable} as their return type; each element is
+ * then written as UTF-8 text the same way.</p>
+ */
+@FunctionalInterface
+public interface StreamingBody {
+
+    /**
+     * Writes the body. The stream must not be closed by the callback.
+     *
+     * @param out the response body stream.
+     * @throws IOException if the body cannot be produced or the client has gone away.
+     */
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,49 @@
+package edu.escuelaing.arep.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The @Cacheable annotation marks a @GetMapping method whose response depends only on its
+ * @RequestParam and @PathVariable values, so the server can keep the encoded response and
+ * answer later requests with the same values without calling the method again. When
+ * several requests miss the cache for the same values at once, the method is called only
+ * once and all of them receive its result.
+ *
+ * <p>Attributes:</p>
+ * <ul>
+ *   <li><strong>ttlSeconds:</strong> Specifies how long a cached response is served before the method is called again. The default is 60 seconds.</li>
+ *   <li><strong>maxEntries:</strong> Specifies how many different responses are kept for the method; the oldest ones are discarded first. The default is 1000.</li>
+ * </ul>
+ *
+ * <p>Example usage:</p>
+ * <pre>
+ * {@literal @}Cacheable(ttlSeconds = 300, maxEntries = 100)
+ * {@literal @}GetMapping("/app/pi")
+ * public String pi({@literal @}RequestParam(value = "decimals", defaultValue = "2") int decimals) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * <p>This annotation is retained at runtime, allowing the server to set up the cache when the controller is registered.</p>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Cacheable {
+
+    /**
+     * Specifies how long, in seconds, a cached response stays valid.
+     *
+     * @return the time to live of a cached response.
+     */
+    long ttlSeconds() default 60;
+
+    /**
+     * Specifies the maximum number of responses kept for the method.
+     *
+     * @return the maximum number of cached responses.
+     */
+    int maxEntries() default 1000;
+}
@@ -0,0 +1,32 @@
+package edu.escuelaing.arep.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The @PathVariable annotation is used to bind a method parameter to a variable segment
+ * of the request path. The variable is declared in the route of the handler method with
+ * curly braces, for example {@code /app/users/{id}}.
+ *
+ * <p>Attributes:</p>
+ * <ul>
+ *   <li><strong>value:</strong> Specifies the name of the path variable to bind to, as written between the braces in the route.</li>
+ * </ul>
+ *
+ * <p>Example usage:</p>
+ * <pre>
+ * {@literal @}GetMapping("/app/users/{id}")
+ * public String user(@PathVariable("id") int id) {
+ *     return "User " + id;
+ * }
+ * </pre>
+ *
+ * <p>This annotation is retained at runtime, allowing the server to bind path segments to method parameters during the execution of the program.</p>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface PathVariable {
+    String value();
+}
@@ -0,0 +1,39 @@
+package edu.escuelaing.arep.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The @PostMapping annotation is used to map HTTP POST requests onto specific handler methods.
+ * It is applied to methods in a class annotated with @RestController to indicate which method
+ * should handle POST requests for a specific URL path. The request body can be bound to a
+ * parameter with @RequestBody.
+ *
+ * <p>Attributes:</p>
+ * <ul>
+ *   <li><strong>value:</strong> Specifies the URI path that the method should handle. Like @GetMapping, it may contain path variables.</li>
+ * </ul>
+ *
+ * <p>Example usage:</p>
+ * <pre>
+ * {@literal @}PostMapping("/app/echo")
+ * public String echo({@literal @}RequestBody String body) {
+ *     return body;
+ * }
+ * </pre>
+ *
+ * <p>This annotation is retained at runtime, allowing the server to map incoming POST requests to the appropriate method during the execution of the program.</p>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface PostMapping {
+
+    /**
+     * Specifies the URI path that the annotated method should handle.
+     *
+     * @return the URI path as a string.
+     */
+    public String value();
+}
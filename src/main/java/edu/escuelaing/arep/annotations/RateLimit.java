@@ -0,0 +1,53 @@
+package edu.escuelaing.arep.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The @RateLimit annotation limits how often each client may call a @GetMapping or
+ * @PostMapping method, so that a single client cannot keep the worker threads busy with
+ * an expensive endpoint. Every client address has a bucket of {@code burst} requests that
+ * refills at {@code value} requests per second; a request that finds the bucket empty is
+ * answered with a 429 Too Many Requests and a {@code Retry-After} header, without calling
+ * the method.
+ *
+ * <p>It overrides the limit that the server's {@code --route-rate-limit} option sets for
+ * every route, and applies in addition to the per-client limit of {@code --rate-limit}.</p>
+ *
+ * <p>Attributes:</p>
+ * <ul>
+ *   <li><strong>value:</strong> Specifies the sustained rate, in requests per second per client.</li>
+ *   <li><strong>burst:</strong> Specifies how many requests a client may send at once before the rate applies. The default, 0, allows one second's worth of requests.</li>
+ * </ul>
+ *
+ * <p>Example usage:</p>
+ * <pre>
+ * {@literal @}RateLimit(value = 5, burst = 20)
+ * {@literal @}GetMapping("/app/pi")
+ * public String pi({@literal @}RequestParam(value = "decimals", defaultValue = "2") int decimals) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * <p>This annotation is retained at runtime, allowing the server to set up the limit when the controller is registered.</p>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimit {
+
+    /**
+     * Specifies how many requests per second each client may make to the method.
+     *
+     * @return the sustained rate; it must be positive.
+     */
+    double value();
+
+    /**
+     * Specifies how many requests a client may make at once after being idle.
+     *
+     * @return the burst size, or 0 for the rate rounded up.
+     */
+    int burst() default 0;
+}
@@ -0,0 +1,38 @@
+package edu.escuelaing.arep.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The @RequestBody annotation is used to bind the body of the request to a method parameter.
+ * The body is read according to its Content-Length or decoded from the chunked transfer coding.
+ *
+ * <p>The parameter can be:</p>
+ * <ul>
+ *   <li><strong>InputStream:</strong> the body is streamed to the method as it arrives, so large uploads are never held in memory.</li>
+ *   <li><strong>byte[]</strong> or <strong>String:</strong> the body is read into memory, up to {@code maxSize} bytes; a larger body is answered with 413 Payload Too Large. Strings are decoded as UTF-8.</li>
+ * </ul>
+ *
+ * <p>Example usage:</p>
+ * <pre>
+ * {@literal @}PostMapping("/app/upload")
+ * public long upload({@literal @}RequestBody InputStream body) throws IOException {
+ *     return body.transferTo(OutputStream.nullOutputStream());
+ * }
+ * </pre>
+ *
+ * <p>This annotation is retained at runtime, allowing the server to bind the request body to method parameters during the execution of the program.</p>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface RequestBody {
+
+    /**
+     * Specifies the largest body, in bytes, that is read into a byte[] or String parameter.
+     *
+     * @return the maximum body size.
+     */
+    int maxSize() default 1024 * 1024;
+}
@@ -0,0 +1,45 @@
+package edu.escuelaing.arep.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The @ResponseTimeout annotation sets how long the server waits for the result of an
+ * asynchronous controller method, one that returns a {@code CompletableFuture} or another
+ * {@code CompletionStage}. The server does not hold a thread while it waits: the response
+ * is written when the future completes. If it has not completed when the timeout expires,
+ * the client receives a 504 Gateway Timeout instead.
+ *
+ * <p>Asynchronous methods without this annotation use a timeout of 30 seconds. It cannot
+ * be applied to methods that return their result directly, since those cannot be
+ * interrupted.</p>
+ *
+ * <p>Attributes:</p>
+ * <ul>
+ *   <li><strong>value:</strong> Specifies the timeout in milliseconds.</li>
+ * </ul>
+ *
+ * <p>Example usage:</p>
+ * <pre>
+ * {@literal @}ResponseTimeout(2000)
+ * {@literal @}GetMapping("/app/quote")
+ * public CompletableFuture&lt;String&gt; quote({@literal @}RequestParam(value = "symbol") String symbol) {
+ *     return quoteClient.fetch(symbol);
+ * }
+ * </pre>
+ *
+ * <p>This annotation is retained at runtime, allowing the server to read the timeout when the controller is registered.</p>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ResponseTimeout {
+
+    /**
+     * Specifies how long, in milliseconds, the server waits for the method's result.
+     *
+     * @return the timeout in milliseconds.
+     */
+    long value();
+}
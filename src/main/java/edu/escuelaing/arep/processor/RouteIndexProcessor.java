@@ -0,0 +1,305 @@
+package edu.escuelaing.arep.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import edu.escuelaing.arep.annotations.Cacheable;
+import edu.escuelaing.arep.annotations.GetMapping;
+import edu.escuelaing.arep.annotations.PathVariable;
+import edu.escuelaing.arep.annotations.PostMapping;
+import edu.escuelaing.arep.annotations.RequestBody;
+import edu.escuelaing.arep.annotations.RequestParam;
+import edu.escuelaing.arep.annotations.ResponseTimeout;
+import edu.escuelaing.arep.annotations.RestController;
+
+/**
+ * The RouteIndexProcessor class is an annotation processor that writes the route
+ * index at compile time, so the server does not have to scan the class path for
+ * controllers when it starts.
+ *
+ * <p>Every {@code @GetMapping} and {@code @PostMapping} method of a {@code @RestController}
+ * class becomes one line of {@value #INDEX}, with the tab-separated HTTP method, route
+ * pattern, controller class, method name and parameter types. The server reads it
+ * with {@code RouteIndex.load} and only scans when no index is present.</p>
+ *
+ * <p>The processor also reports at compile time the mistakes the server would only
+ * find at startup: a controller it cannot instantiate, a primitive parameter without
+ * {@code @RequestParam} or {@code @PathVariable}, a {@code @RequestBody} parameter of an
+ * unsupported type, {@code @Cacheable} on a method that is not a cacheable GET or that
+ * streams its response, and
+ * {@code @ResponseTimeout} on a method that does not return a {@code CompletionStage}.</p>
+ *
+ * <p>When only some sources are recompiled, the routes of the controllers that were
+ * not recompiled are kept from the previous index.</p>
+ */
+@SupportedAnnotationTypes({
+        "edu.escuelaing.arep.annotations.RestController",
+        "edu.escuelaing.arep.annotations.GetMapping",
+        "edu.escuelaing.arep.annotations.PostMapping"
+})
+public class RouteIndexProcessor extends AbstractProcessor {
+    /** Where the index is written in the class output; must match {@code RouteIndex.LOCATION}. */
+    static final String INDEX = "META-INF/arep/routes.idx";
+
+    private final TreeMap<String, List<String>> routesByController = new TreeMap<>();
+    private final Set<String> processedControllers = new HashSet<>();
+    private Messager messager;
+    private Elements elements;
+    private Types types;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        messager = processingEnv.getMessager();
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element root : roundEnv.getRootElements()) {
+            if (root instanceof TypeElement) {
+                forgetController((TypeElement) root);
+            }
+        }
+        for (TypeElement controller : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(RestController.class))) {
+            indexController(controller);
+        }
+        for (Element method : roundEnv.getElementsAnnotatedWith(GetMapping.class)) {
+            warnIfOutsideController(method);
+        }
+        for (Element method : roundEnv.getElementsAnnotatedWith(PostMapping.class)) {
+            warnIfOutsideController(method);
+        }
+        if (roundEnv.processingOver() && !roundEnv.errorRaised()) {
+            writeIndex();
+        }
+        return false;
+    }
+
+    /**
+     * Marks a compiled class, and its nested classes, as replaced by this compilation:
+     * their routes from a previous index are dropped.
+     */
+    private void forgetController(TypeElement type) {
+        processedControllers.add(elements.getBinaryName(type).toString());
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            forgetController(nested);
+        }
+    }
+
+    private void indexController(TypeElement controller) {
+        if (!isInstantiable(controller)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "@RestController class " + controller
+                    + " must be a non-private, non-abstract, top-level or static class with a non-private no-argument constructor",
+                    controller);
+            return;
+        }
+        String className = elements.getBinaryName(controller).toString();
+        List<String> routes = new ArrayList<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(controller.getEnclosedElements())) {
+            GetMapping getMapping = method.getAnnotation(GetMapping.class);
+            PostMapping postMapping = method.getAnnotation(PostMapping.class);
+            if (getMapping == null && postMapping == null) {
+                continue;
+            }
+            if (!checkParameters(method, getMapping != null && postMapping == null)) {
+                continue;
+            }
+            String signature = className + '\t' + method.getSimpleName() + '\t' + parameterTypes(method);
+            if (getMapping != null) {
+                routes.add("GET\t" + getMapping.value() + '\t' + signature);
+            }
+            if (postMapping != null) {
+                routes.add("POST\t" + postMapping.value() + '\t' + signature);
+            }
+        }
+        routesByController.put(className, routes);
+    }
+
+    private static boolean isInstantiable(TypeElement controller) {
+        Set<Modifier> modifiers = controller.getModifiers();
+        NestingKind nesting = controller.getNestingKind();
+        boolean reachable = nesting == NestingKind.TOP_LEVEL
+                || nesting == NestingKind.MEMBER && modifiers.contains(Modifier.STATIC);
+        if (controller.getKind() != ElementKind.CLASS || !reachable
+                || modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.ABSTRACT)) {
+            return false;
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(controller.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies the rules {@code ControllerInvoker} checks when it binds the parameters.
+     *
+     * @return true if the method can be registered.
+     */
+    private boolean checkParameters(ExecutableElement method, boolean cacheableAllowed) {
+        boolean valid = true;
+        boolean readsBody = false;
+        for (VariableElement parameter : method.getParameters()) {
+            TypeMirror type = parameter.asType();
+            if (parameter.getAnnotation(RequestBody.class) != null) {
+                readsBody = true;
+                if (!isBodyType(type)) {
+                    messager.printMessage(Diagnostic.Kind.ERROR,
+                            "@RequestBody parameter must be an InputStream, byte[] or String", parameter);
+                    valid = false;
+                }
+            } else if (type.getKind().isPrimitive() && parameter.getAnnotation(RequestParam.class) == null
+                    && parameter.getAnnotation(PathVariable.class) == null) {
+                messager.printMessage(Diagnostic.Kind.ERROR,
+                        "Parameter must be annotated with @RequestParam, @PathVariable or @RequestBody", parameter);
+                valid = false;
+            }
+        }
+        boolean async = types.isAssignable(types.erasure(method.getReturnType()),
+                types.erasure(elements.getTypeElement("java.util.concurrent.CompletionStage").asType()));
+        if (method.getAnnotation(Cacheable.class) != null
+                && (!cacheableAllowed || readsBody || async || isStreaming(method.getReturnType()))) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "@Cacheable is only supported on @GetMapping methods"
+                    + " that do not read the request body or return a CompletionStage or a streaming body", method);
+            valid = false;
+        }
+        ResponseTimeout timeout = method.getAnnotation(ResponseTimeout.class);
+        if (timeout != null && (!async || timeout.value() <= 0)) {
+            messager.printMessage(Diagnostic.Kind.ERROR,
+                    "@ResponseTimeout must be positive and only applies to methods returning a CompletionStage", method);
+            valid = false;
+        }
+        return valid;
+    }
+
+    private boolean isStreaming(TypeMirror type) {
+        TypeElement streamingBody = elements.getTypeElement("edu.escuelaing.arep.StreamingBody");
+        TypeMirror erasure = types.erasure(type);
+        return streamingBody != null && types.isAssignable(erasure, streamingBody.asType())
+                || types.isSameType(erasure, types.erasure(elements.getTypeElement("java.lang.Iterable").asType()));
+    }
+
+    private boolean isBodyType(TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return ((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE;
+        }
+        TypeMirror erased = types.erasure(type);
+        return types.isSameType(erased, elements.getTypeElement("java.io.InputStream").asType())
+                || types.isSameType(erased, elements.getTypeElement("java.lang.String").asType());
+    }
+
+    /**
+     * Returns the erased parameter types as class names, with {@code []} suffixes for
+     * arrays, separated by commas.
+     */
+    private String parameterTypes(ExecutableElement method) {
+        StringBuilder out = new StringBuilder();
+        for (VariableElement parameter : method.getParameters()) {
+            if (out.length() > 0) {
+                out.append(',');
+            }
+            out.append(typeName(types.erasure(parameter.asType())));
+        }
+        return out.toString();
+    }
+
+    private String typeName(TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return typeName(((ArrayType) type).getComponentType()) + "[]";
+        }
+        if (type.getKind().isPrimitive()) {
+            return type.getKind().name().toLowerCase();
+        }
+        return elements.getBinaryName((TypeElement) types.asElement(type)).toString();
+    }
+
+    private void warnIfOutsideController(Element method) {
+        Element type = method.getEnclosingElement();
+        if (type.getAnnotation(RestController.class) == null) {
+            messager.printMessage(Diagnostic.Kind.WARNING,
+                    "Route of a class without @RestController will not be registered", method);
+        }
+    }
+
+    /**
+     * Writes the index: the routes found in this compilation, plus the routes of the
+     * previous index whose controllers were not recompiled and still exist.
+     */
+    private void writeIndex() {
+        TreeMap<String, List<String>> all = new TreeMap<>(routesByController);
+        try {
+            readPreviousIndex(all);
+        } catch (IOException e) {
+            // No previous index: every controller was compiled in this run.
+        }
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+            try (Writer out = file.openWriter()) {
+                out.write("# Route index generated by " + getClass().getName() + ". One route per line:\n");
+                out.write("# method\tpattern\tcontroller class\tmethod name\tparameter types\n");
+                for (List<String> routes : all.values()) {
+                    for (String route : routes) {
+                        out.write(route);
+                        out.write('\n');
+                    }
+                }
+            }
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Cannot write " + INDEX + ": " + e.getMessage());
+        }
+    }
+
+    private void readPreviousIndex(TreeMap<String, List<String>> all) throws IOException {
+        FileObject previous = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+        try (BufferedReader in = new BufferedReader(previous.openReader(true))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (line.startsWith("#") || fields.length < 4 || processedControllers.contains(fields[2])) {
+                    continue;
+                }
+                TypeElement controller = elements.getTypeElement(fields[2].replace('$', '.'));
+                if (controller != null && controller.getAnnotation(RestController.class) != null) {
+                    all.computeIfAbsent(fields[2], name -> new ArrayList<>()).add(line);
+                }
+            }
+        }
+    }
+}
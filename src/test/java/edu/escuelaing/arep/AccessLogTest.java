@@ -0,0 +1,116 @@
+package edu.escuelaing.arep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+public class AccessLogTest {
+
+    private static final class CapturingSink implements AccessLog.Sink {
+        private final List<String> lines = new ArrayList<>();
+        private int flushes;
+
+        @Override
+        public void write(String line) {
+            lines.add(line);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+    }
+
+    @Test
+    public void testFormatsStructuredLines() {
+        CapturingSink sink = new CapturingSink();
+        AccessLog log = new AccessLog(AccessLog.Level.INFO, 1, 16, sink);
+
+        log.log("GET", "/app/hello", 200, 120, 84_500);
+        log.log("GET", "/docs/my \"file\".html", 404, 0, 1_000);
+        log.debug("not recorded at info");
+        assertEquals(2, log.drain());
+
+        assertTrue(sink.lines.get(0).matches(
+                "ts=\\S+Z method=GET path=/app/hello status=200 bytes=120 latency_us=84"), sink.lines.get(0));
+        assertTrue(sink.lines.get(1).contains("path=\"/docs/my \\\"file\\\".html\" status=404"), sink.lines.get(1));
+        assertEquals(1, sink.flushes);
+        assertEquals(0, log.drain());
+        assertEquals(1, sink.flushes);
+    }
+
+    @Test
+    public void testLevelsAndSampling() {
+        CapturingSink sink = new CapturingSink();
+        AccessLog errors = new AccessLog(AccessLog.Level.ERROR, 1, 16, sink);
+        errors.log("GET", "/a", 200, 0, 0);
+        errors.log("GET", "/b", 503, 0, 0);
+        errors.debug("ignored");
+        errors.drain();
+        assertEquals(1, sink.lines.size());
+        assertTrue(sink.lines.get(0).contains("status=503"));
+
+        sink.lines.clear();
+        AccessLog sampled = new AccessLog(AccessLog.Level.DEBUG, 1_000_000, 16, sink);
+        sampled.log("GET", "/a", 200, 0, 0);
+        sampled.log("GET", "/b", 500, 0, 0);
+        sampled.debug("controller=x response=\"y\"");
+        sampled.drain();
+        assertEquals(2, sink.lines.size());
+        assertTrue(sink.lines.get(0).contains("status=500"));
+        assertTrue(sink.lines.get(1).endsWith(" controller=x response=\"y\""));
+
+        sink.lines.clear();
+        AccessLog off = new AccessLog(AccessLog.Level.OFF, 1, 16, sink);
+        off.log("GET", "/a", 500, 0, 0);
+        assertEquals(0, off.drain());
+    }
+
+    @Test
+    public void testFullRingDropsInsteadOfBlocking() {
+        CapturingSink sink = new CapturingSink();
+        AccessLog log = new AccessLog(AccessLog.Level.INFO, 1, 4, sink);
+        for (int i = 0; i < 6; i++) {
+            log.log("GET", "/" + i, 200, 0, 0);
+        }
+        assertEquals(2, log.dropped());
+        assertEquals(4, log.drain());
+        assertTrue(sink.lines.get(3).contains("path=/3 "));
+
+        log.log("GET", "/again", 200, 0, 0);
+        assertEquals(1, log.drain());
+        assertTrue(sink.lines.get(4).contains("path=/again "));
+    }
+
+    @Test
+    public void testConcurrentProducersLoseNothingButDrops() throws InterruptedException {
+        CapturingSink sink = new CapturingSink();
+        AccessLog log = new AccessLog(AccessLog.Level.INFO, 1, 256, sink);
+        int threads = 4;
+        int perThread = 20_000;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    log.log("GET", "/load", 200, i, 0);
+                }
+                done.countDown();
+            }).start();
+        }
+        boolean finished;
+        do {
+            finished = done.getCount() == 0;
+            log.drain();
+        } while (!finished);
+
+        assertEquals(threads * perThread, sink.lines.size() + log.dropped());
+        for (String line : sink.lines) {
+            assertTrue(line.contains(" path=/load status=200 "), line);
+        }
+    }
+}
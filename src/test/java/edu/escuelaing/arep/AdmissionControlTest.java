@@ -0,0 +1,63 @@
+package edu.escuelaing.arep;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.Pipe;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class AdmissionControlTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testShedsOnlyUnderStandingQueues() {
+        AdmissionControl admission = new AdmissionControl(50, 100, 5000, 10_000, 10_000, 10, 100);
+        long now = System.nanoTime();
+        assertTrue(admission.admit(now - 5 * MS, now));
+        // A burst: the delay exceeds the target, but some task started on time recently.
+        assertTrue(admission.admit(now + 50 * MS - 60 * MS, now + 50 * MS));
+        assertFalse(admission.admit(now + 60 * MS - 150 * MS, now + 60 * MS), "Waited longer than the interval");
+        // No task has started within the target for a whole interval: only the target is tolerated.
+        assertFalse(admission.admit(now + 200 * MS - 50 * MS, now + 200 * MS));
+        assertTrue(admission.admit(now + 210 * MS - 5 * MS, now + 210 * MS));
+        assertTrue(admission.admit(now + 220 * MS - 50 * MS, now + 220 * MS), "The queue drained, so bursts are absorbed again");
+
+        AdmissionControl disabled = new AdmissionControl(50, 100, 5000, 10_000, 10_000, 0, 100);
+        assertTrue(disabled.admit(now - 10_000 * MS, now));
+    }
+
+    @Test
+    public void testConnectionLimit() {
+        AdmissionControl admission = new AdmissionControl(50, 2, 5000, 10_000, 10_000, 10, 100);
+        assertTrue(admission.tryOpenConnection());
+        assertTrue(admission.tryOpenConnection());
+        assertFalse(admission.tryOpenConnection());
+        admission.connectionClosed();
+        assertTrue(admission.tryOpenConnection());
+    }
+
+    @Test
+    public void testWatchdogAbortsAWriteTheClientDoesNotRead() throws Exception {
+        AdmissionControl admission = new AdmissionControl(50, 100, 5000, 10_000, 200, 10, 100);
+        Pipe pipe = Pipe.open();
+        ResponseOutput.Blocking out = new ResponseOutput.Blocking(pipe.sink());
+        admission.watch(out);
+        admission.start();
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                assertThrows(ClosedChannelException.class, () -> out.write(ByteBuffer.allocate(4 * 1024 * 1024)));
+            });
+        } finally {
+            admission.stop();
+            pipe.source().close();
+        }
+    }
+}
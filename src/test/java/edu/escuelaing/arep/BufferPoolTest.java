@@ -0,0 +1,89 @@
+package edu.escuelaing.arep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testBuffersAreRoundedToTheirClassAndReused() {
+        BufferPool pool = new BufferPool(true, false);
+        ByteBuffer buffer = pool.acquire(5000);
+        assertTrue(buffer.isDirect());
+        assertEquals(8192, buffer.capacity());
+        assertEquals(8192, buffer.remaining());
+        buffer.put((byte) 1);
+        pool.release(buffer);
+
+        ByteBuffer again = pool.acquire(8192);
+        assertSame(buffer, again, "The thread's own cache should hand the buffer back");
+        assertEquals(0, again.position());
+        assertEquals(2, pool.acquired());
+        assertEquals(1, pool.allocated());
+        assertEquals(1, pool.inUse());
+        pool.release(again);
+        assertEquals(0, pool.inUse());
+
+        assertEquals(16, pool.acquire(16).capacity(), "A buffer below the smallest class is allocated as asked");
+        ByteBuffer large = pool.acquire(BufferPool.MAX_SIZE + 1);
+        assertEquals(BufferPool.MAX_SIZE + 1, large.capacity());
+        pool.release(large);
+        assertEquals(1, pool.discarded(), "A buffer outside the classes is not kept");
+    }
+
+    @Test
+    public void testBuffersReleasedByAnotherThreadAreShared() throws InterruptedException {
+        BufferPool pool = new BufferPool(false, false);
+        ByteBuffer[] buffers = new ByteBuffer[BufferPool.THREAD_CACHE_SIZE + 2];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(BufferPool.MIN_SIZE);
+        }
+        Thread releaser = new Thread(() -> {
+            for (ByteBuffer buffer : buffers) {
+                pool.release(buffer);
+            }
+        });
+        releaser.start();
+        releaser.join();
+        assertEquals(2, pool.idleBuffers(), "What the releasing thread does not keep goes to the shared queue");
+        assertEquals(2L * BufferPool.MIN_SIZE, pool.idleBytes());
+
+        ByteBuffer shared = pool.acquire(BufferPool.MIN_SIZE);
+        assertTrue(shared == buffers[buffers.length - 2] || shared == buffers[buffers.length - 1]);
+        assertEquals(buffers.length, pool.allocated());
+    }
+
+    @Test
+    public void testLeaksAndDoubleReleasesAreDetected() throws InterruptedException {
+        BufferPool pool = new BufferPool(true, true);
+        ByteBuffer released = pool.acquire(BufferPool.MIN_SIZE);
+        AtomicReference<ByteBuffer> leaked = new AtomicReference<>();
+        Thread leaker = new Thread(() -> leaked.set(pool.acquire(BufferPool.MIN_SIZE)), "leaker");
+        leaker.start();
+        leaker.join();
+        pool.release(released);
+
+        List<Throwable> leaks = pool.leaks();
+        assertEquals(1, leaks.size());
+        boolean fromLeaker = false;
+        for (StackTraceElement frame : leaks.get(0).getStackTrace()) {
+            fromLeaker |= frame.getMethodName().contains("lambda$testLeaksAndDoubleReleasesAreDetected");
+        }
+        assertTrue(fromLeaker, "The leak should point at where the buffer was acquired");
+
+        assertThrows(IllegalStateException.class, () -> pool.release(released));
+        pool.release(leaked.get());
+        assertTrue(pool.leaks().isEmpty());
+        BufferPool untracked = new BufferPool(true, false);
+        untracked.acquire(BufferPool.MIN_SIZE);
+        assertTrue(untracked.leaks().isEmpty());
+    }
+}
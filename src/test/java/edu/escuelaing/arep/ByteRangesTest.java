@@ -0,0 +1,78 @@
+package edu.escuelaing.arep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class ByteRangesTest {
+
+    private static List<ByteRanges.Range> ranges(long... bounds) {
+        ByteRanges.Range[] ranges = new ByteRanges.Range[bounds.length / 2];
+        for (int i = 0; i < ranges.length; i++) {
+            ranges[i] = new ByteRanges.Range(bounds[2 * i], bounds[2 * i + 1]);
+        }
+        return List.of(ranges);
+    }
+
+    @Test
+    public void testRangesAreResolvedAgainstTheLength() {
+        assertEquals(ranges(0, 499), ByteRanges.parse("bytes=0-499", 10_000));
+        assertEquals(ranges(9500, 9999), ByteRanges.parse("bytes=9500-", 10_000));
+        assertEquals(ranges(9500, 9999), ByteRanges.parse("bytes=-500", 10_000));
+        assertEquals(ranges(0, 99), ByteRanges.parse("bytes=-500", 100));
+        assertEquals(ranges(50, 99), ByteRanges.parse("bytes=50-99999999999999999999999", 100));
+        assertEquals(ranges(0, 0, 99, 99), ByteRanges.parse("Bytes=0-0, -1", 100));
+    }
+
+    @Test
+    public void testOverlappingAndAdjacentRangesAreMerged() {
+        assertEquals(ranges(0, 199, 500, 599), ByteRanges.parse("bytes=500-599,100-199,0-99,150-160", 1000));
+        assertEquals(ranges(0, 999), ByteRanges.parse("bytes=0-,500-599", 1000));
+    }
+
+    @Test
+    public void testUnsatisfiableAndIgnoredHeaders() {
+        assertSame(ByteRanges.UNSATISFIABLE, ByteRanges.parse("bytes=1000-", 1000));
+        assertSame(ByteRanges.UNSATISFIABLE, ByteRanges.parse("bytes=-0", 1000));
+        assertSame(ByteRanges.UNSATISFIABLE, ByteRanges.parse("bytes=0-10", 0));
+        assertEquals(ranges(0, 10), ByteRanges.parse("bytes=2000-3000, 0-10", 1000));
+
+        assertNull(ByteRanges.parse(null, 1000));
+        assertNull(ByteRanges.parse("items=0-10", 1000));
+        assertNull(ByteRanges.parse("bytes=10-5", 1000));
+        assertNull(ByteRanges.parse("bytes=a-5", 1000));
+        assertNull(ByteRanges.parse("bytes=5", 1000));
+        assertNull(ByteRanges.parse("bytes=", 1000));
+
+        StringBuilder many = new StringBuilder("bytes=0-0");
+        for (int i = 1; i <= ByteRanges.MAX_RANGES; i++) {
+            many.append(',').append(2 * i).append('-').append(2 * i);
+        }
+        assertNull(ByteRanges.parse(many.toString(), 1000), "Too many separate ranges are ignored");
+    }
+
+    @Test
+    public void testIfRange() {
+        String etag = "\"2f-1a\"";
+        long lastModified = 1_700_000_000_123L;
+        String date = StaticResourceCache.HTTP_DATE.format(java.time.Instant.ofEpochMilli(lastModified));
+
+        assertTrue(ByteRanges.ifRangeMatches(null, etag, lastModified));
+        assertTrue(ByteRanges.ifRangeMatches(etag, etag, lastModified));
+        assertFalse(ByteRanges.ifRangeMatches("\"other\"", etag, lastModified));
+        assertFalse(ByteRanges.ifRangeMatches("W/" + etag, etag, lastModified));
+        assertTrue(ByteRanges.ifRangeMatches(date, etag, lastModified));
+        assertFalse(ByteRanges.ifRangeMatches(date, etag, lastModified + 5000));
+
+        Map<String, String> headers = Map.of("range", "bytes=0-9", "if-range", "\"other\"");
+        assertNull(ByteRanges.requested(headers, etag, lastModified, 100), "A changed representation is sent whole");
+        assertEquals(ranges(0, 9), ByteRanges.requested(Map.of("range", "bytes=0-9"), etag, lastModified, 100));
+    }
+}
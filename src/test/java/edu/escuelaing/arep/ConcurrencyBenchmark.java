@@ -0,0 +1,111 @@
+package edu.escuelaing.arep;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts the server in-process and measures throughput and latency with many
+ * concurrent keep-alive clients hitting an {@code /app} endpoint.
+ *
+ * <p>Usage (server options are passed through to SimpleWebServer.main):</p>
+ * <pre>
+ * java -cp target/classes:target/test-classes edu.escuelaing.arep.ConcurrencyBenchmark \
+ *     --clients=1000 --requests=20 --path=/app/hello?name=bench --executor=virtual
+ * </pre>
+ */
+public class ConcurrencyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int port = Integer.parseInt(SimpleWebServer.option(args, "port", "8090"));
+        int clients = Integer.parseInt(SimpleWebServer.option(args, "clients", "1000"));
+        int requests = Integer.parseInt(SimpleWebServer.option(args, "requests", "20"));
+        String path = SimpleWebServer.option(args, "path", "/app/hello?name=bench");
+
+        List<String> serverArgs = new ArrayList<>(Arrays.asList(args));
+        serverArgs.add("--port=" + port);
+        Thread server = new Thread(() -> {
+            try {
+                SimpleWebServer.main(serverArgs.toArray(new String[0]));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        Thread.sleep(1000);
+
+        byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        long[] latencies = new long[clients * requests];
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(clients);
+
+        for (int c = 0; c < clients; c++) {
+            Thread client = new Thread(() -> {
+                try (Socket socket = new Socket("localhost", port)) {
+                    OutputStream out = socket.getOutputStream();
+                    InputStream in = new BufferedInputStream(socket.getInputStream());
+                    start.await();
+                    for (int r = 0; r < requests; r++) {
+                        long begin = System.nanoTime();
+                        out.write(request);
+                        out.flush();
+                        String status = HttpLines.readLine(in);
+                        if (status == null) {
+                            failed.incrementAndGet();
+                            return;
+                        }
+                        Map<String, String> headers = HttpLines.readHeaders(in);
+                        in.readNBytes(Integer.parseInt(headers.getOrDefault("content-length", "0")));
+                        if (status.contains(" 503 ")) {
+                            rejected.incrementAndGet();
+                            return;
+                        }
+                        latencies[completed.getAndIncrement()] = System.nanoTime() - begin;
+                    }
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+            client.setDaemon(true);
+            client.start();
+        }
+
+        Thread.sleep(500);
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        int count = completed.get();
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        System.out.printf("clients=%d requests=%d completed=%d rejected=%d failed=%d%n",
+                clients, clients * requests, count, rejected.get(), failed.get());
+        System.out.printf("throughput=%.0f req/s p50=%.2f ms p99=%.2f ms%n", count / seconds,
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6);
+        SimpleWebServer.stop();
+        System.exit(0);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+}
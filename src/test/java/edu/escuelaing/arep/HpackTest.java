@@ -0,0 +1,97 @@
+package edu.escuelaing.arep;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the HPACK codec against the examples of RFC 7541, appendix C.
+ */
+public class HpackTest {
+
+    @Test
+    public void testDecodesHuffmanCodedRequests() throws Exception {
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        assertEquals(List.of(":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com"),
+                decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff"));
+        assertEquals(List.of(":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com",
+                "cache-control: no-cache"), decode(decoder, "828684be5886a8eb10649cbf"));
+        assertEquals(List.of(":method: GET", ":scheme: https", ":path: /index.html", ":authority: www.example.com",
+                "custom-key: custom-value"), decode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"));
+    }
+
+    @Test
+    public void testDecodesResponsesEvictingFromASmallTable() throws Exception {
+        Hpack.Decoder decoder = new Hpack.Decoder(256);
+        assertEquals(List.of(":status: 302", "cache-control: private", "date: Mon, 21 Oct 2013 20:13:21 GMT",
+                "location: https://www.example.com"), decode(decoder, "488264025885aec3771a4b6196d07abe941054d444a8200595"
+                + "040b8166e082a62d1bff6e919d29ad171863c78f0b97c8e9ae82ae43d3"));
+        assertEquals(List.of(":status: 307", "cache-control: private", "date: Mon, 21 Oct 2013 20:13:21 GMT",
+                "location: https://www.example.com"), decode(decoder, "4883640effc1c0bf"));
+        assertEquals(List.of(":status: 200", "cache-control: private", "date: Mon, 21 Oct 2013 20:13:22 GMT",
+                "location: https://www.example.com", "content-encoding: gzip",
+                "set-cookie: foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1"),
+                decode(decoder, "88c16196d07abe941054d444a8200595040b8166e084a62d1bffc05a839bd9ab77ad94e7821dd7f2e6c7b335dfdfcd5b"
+                        + "3960d5af27087f3672c1ab270fb5291f9587316065c003ed4ee5b1063d5007"));
+    }
+
+    @Test
+    public void testEncoderRoundTripsAndIndexesRepeatedFields() throws Exception {
+        ByteArrayOutputStream literal = new ByteArrayOutputStream();
+        Hpack.writeString(literal, "www.example.com");
+        assertArrayEquals(HexFormat.of().parseHex("8cf1e3c2e5f23a6ba0ab90f4ff"), literal.toByteArray());
+
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        String[] fields = {":status", "200", "content-type", "text/html", "content-length", "1234", "x-custom", "é~\u0001"};
+        byte[] first = encode(encoder, fields);
+        byte[] second = encode(encoder, fields);
+        List<String> expected = List.of(":status: 200", "content-type: text/html", "content-length: 1234", "x-custom: é~\u0001");
+        assertEquals(expected, decode(decoder, first));
+        assertEquals(expected, decode(decoder, second));
+        assertTrue(second.length < 10, "Repeated fields should be indexed: " + second.length + " bytes");
+
+        encoder.maxTableSize(0);
+        byte[] third = encode(encoder, fields);
+        assertEquals(0x20, third[0], "A table size update should start the next block");
+        assertEquals(expected, decode(decoder, third));
+    }
+
+    @Test
+    public void testRejectsMalformedBlocks() {
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        assertThrows(Hpack.CompressionException.class, () -> decode(decoder, "be"), "Empty dynamic table");
+        assertThrows(Hpack.CompressionException.class, () -> decode(decoder, "3fe21f"), "Table larger than allowed");
+        assertThrows(Hpack.CompressionException.class, () -> decode(decoder, "408125"), "Huffman padding of 7 zeros");
+        assertThrows(Hpack.CompressionException.class, () -> decode(decoder, "0085"), "Truncated string");
+        assertThrows(Hpack.CompressionException.class, () -> decode(decoder, "ffffffffff0f"), "Integer overflow");
+    }
+
+    private static byte[] encode(Hpack.Encoder encoder, String... fields) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.startBlock(out);
+        for (int i = 0; i < fields.length; i += 2) {
+            encoder.encode(out, fields[i], fields[i + 1]);
+        }
+        return out.toByteArray();
+    }
+
+    private static List<String> decode(Hpack.Decoder decoder, String hex) throws Exception {
+        return decode(decoder, HexFormat.of().parseHex(hex));
+    }
+
+    private static List<String> decode(Hpack.Decoder decoder, byte[] block) throws Exception {
+        List<String> fields = new ArrayList<>();
+        decoder.decode(ByteBuffer.wrap(block), (name, value) -> fields.add(name + ": " + value));
+        return fields;
+    }
+}
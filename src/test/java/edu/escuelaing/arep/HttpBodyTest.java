@@ -0,0 +1,107 @@
+package edu.escuelaing.arep;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class HttpBodyTest {
+
+    private static final String CHUNKED_HEAD = "POST /app/echo HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n";
+
+    /**
+     * Parses the head of a raw request and opens its body, leaving the rest of the
+     * bytes in the returned stream's source.
+     */
+    private static InputStream[] open(String raw) throws IOException {
+        byte[] bytes = raw.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        HttpRequest request = new HttpRequestParser().parse(buffer);
+        assertNotNull(request);
+        InputStream in = new ByteArrayInputStream(bytes, buffer.position(), buffer.remaining());
+        return new InputStream[] {HttpBody.open(request, in), in};
+    }
+
+    @Test
+    public void testFixedLengthBodyStopsAtItsEnd() throws IOException {
+        InputStream[] streams = open("POST /app/echo HTTP/1.1\r\nContent-Length: 5\r\n\r\nhelloGET / HTTP/1.1\r\n\r\n");
+        assertArrayEquals("hello".getBytes(StandardCharsets.US_ASCII), HttpBody.readAll(streams[0], 100));
+        assertEquals(-1, streams[0].read());
+        assertEquals('G', streams[1].read());
+    }
+
+    @Test
+    public void testChunkedBodyWithExtensionsAndTrailers() throws IOException {
+        InputStream[] streams = open(CHUNKED_HEAD
+                + "4;name=value\r\nWiki\r\n"
+                + "A\r\npedia in\r\n\r\n"
+                + "0\r\nExpires: never\r\n\r\n"
+                + "next");
+        assertEquals("Wikipedia in\r\n", new String(HttpBody.readAll(streams[0], 100), StandardCharsets.US_ASCII));
+        assertEquals(-1, streams[0].read());
+        assertEquals("next", new String(streams[1].readAllBytes(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testMalformedChunkedBodyIsRejected() throws IOException {
+        for (String body : new String[] {"x\r\nabc\r\n0\r\n\r\n", "3\r\nabcd\r\n0\r\n\r\n", "3;\r\nabc\r\n-1\r\n\r\n"}) {
+            InputStream[] streams = open(CHUNKED_HEAD + body);
+            HttpRequestParser.ParseException e = assertThrows(HttpRequestParser.ParseException.class,
+                    () -> HttpBody.readAll(streams[0], 100), body);
+            assertEquals("400 Bad Request", e.status());
+        }
+    }
+
+    @Test
+    public void testReadAllEnforcesTheLimit() throws IOException {
+        InputStream[] fixed = open("POST / HTTP/1.1\r\nContent-Length: 10\r\n\r\n0123456789");
+        assertEquals("413 Payload Too Large",
+                assertThrows(HttpRequestParser.ParseException.class, () -> HttpBody.readAll(fixed[0], 9)).status());
+
+        InputStream[] chunked = open(CHUNKED_HEAD + "5\r\n01234\r\n5\r\n56789\r\n0\r\n\r\n");
+        assertEquals("413 Payload Too Large",
+                assertThrows(HttpRequestParser.ParseException.class, () -> HttpBody.readAll(chunked[0], 9)).status());
+    }
+
+    @Test
+    public void testDrain() throws IOException {
+        InputStream[] streams = open(CHUNKED_HEAD + "3\r\nabc\r\n0\r\n\r\nrest");
+        assertEquals('a', streams[0].read());
+        assertTrue(HttpBody.drain(streams[0]));
+        assertEquals('r', streams[1].read());
+
+        assertFalse(HttpBody.drain(open("POST / HTTP/1.1\r\nContent-Length: 10\r\n\r\nshort")[0]));
+        assertFalse(HttpBody.drain(open("POST / HTTP/1.1\r\nContent-Length: 99999999\r\n\r\n")[0]));
+    }
+
+    @Test
+    public void testChunkedScannerFindsTheEndAtEverySplit() throws IOException {
+        String body = "4;ext\r\nWiki\r\n5\r\npedia\r\n0\r\nTrailer: yes\r\n\r\n";
+        byte[] bytes = (body + "GET / HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        for (int split = 0; split <= bytes.length; split++) {
+            HttpBody.ChunkedScanner scanner = new HttpBody.ChunkedScanner();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, Math.min(split, bytes.length));
+            int length = scanner.scan(buffer);
+            if (split < body.length()) {
+                assertEquals(-1, length, "split at " + split);
+                buffer.limit(bytes.length);
+                length = scanner.scan(buffer);
+            }
+            assertEquals(body.length(), length, "split at " + split);
+            assertEquals(0, buffer.position());
+        }
+
+        ByteBuffer malformed = ByteBuffer.wrap("3\r\nabcX\r\n".getBytes(StandardCharsets.US_ASCII));
+        assertThrows(HttpRequestParser.ParseException.class, () -> new HttpBody.ChunkedScanner().scan(malformed));
+    }
+}
@@ -0,0 +1,60 @@
+package edu.escuelaing.arep;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the head of an HTTP/1.1 message line by line, for the tests and benchmarks
+ * that talk to the server over a plain socket. The server itself parses requests with
+ * {@link HttpRequestParser}.
+ */
+final class HttpLines {
+
+    private HttpLines() {
+    }
+
+    /**
+     * Reads a single CRLF (or LF) terminated line from the input stream.
+     *
+     * @param in the stream to read from.
+     * @return the line without its terminator, or null if the stream ended before any byte was read.
+     * @throws IOException if an I/O error occurs while reading.
+     */
+    static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) b);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    /**
+     * Reads the headers up to the blank line that ends them. Header names
+     * are stored in lower case so they can be looked up case-insensitively.
+     *
+     * @param in the stream positioned right after the request or status line.
+     * @return a map from lower-case header names to their values.
+     * @throws IOException if an I/O error occurs while reading.
+     */
+    static Map<String, String> readHeaders(InputStream in) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,237 @@
+package edu.escuelaing.arep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class HttpRequestParserTest {
+
+    private static final String SIMPLE = "GET /app/hello?name=sebas HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "Accept-Encoding: gzip, br\r\n"
+            + "X-Custom:   padded value  \r\n"
+            + "\r\n";
+
+    @Test
+    public void testParsesRequestLineAndHeaders() throws Exception {
+        HttpRequest request = parse(SIMPLE);
+
+        assertSame("GET", request.method());
+        assertEquals("/app/hello?name=sebas", request.target());
+        assertEquals("/app/hello", request.path());
+        assertEquals("name=sebas", request.query());
+        assertSame("HTTP/1.1", request.version());
+        assertEquals("localhost", request.header("host"));
+        assertEquals("gzip, br", request.header("accept-encoding"));
+        assertEquals("padded value", request.header("x-custom"));
+        assertEquals("sebas", request.queryParams().get("name"));
+        assertEquals(-1, request.contentLength());
+        assertFalse(request.chunked());
+    }
+
+    @Test
+    public void testPercentDecoding() throws Exception {
+        HttpRequest request = parse("GET /docs/caf%C3%A9%20menu.html?q=a+b%26c&empty&x=1=2&n=%E2%82%AC HTTP/1.1\r\n\r\n");
+
+        assertEquals("/docs/café menu.html", request.path());
+        assertEquals("a b&c", request.queryParams().get("q"));
+        assertEquals("", request.queryParams().get("empty"));
+        assertEquals("1=2", request.queryParams().get("x"));
+        assertEquals("€", request.queryParams().get("n"));
+        assertEquals("100%", HttpRequestParser.decode("100%", 0, 4, true));
+        assertEquals("a+b", HttpRequestParser.decode("a+b", 0, 3, false));
+    }
+
+    @Test
+    public void testLenientLineEndingsAndTargets() throws Exception {
+        HttpRequest request = parse("\r\n\r\nOPTIONS * HTTP/1.0\nHost: x\n\n");
+        assertSame("OPTIONS", request.method());
+        assertEquals("*", request.path());
+        assertSame("HTTP/1.0", request.version());
+
+        request = parse("GET http://localhost:8080/index.html?v=2 HTTP/1.1\r\n\r\n");
+        assertEquals("/index.html", request.path());
+        assertEquals("v=2", request.query());
+
+        request = parse("GET http://localhost HTTP/1.1\r\n\r\n");
+        assertEquals("/", request.path());
+    }
+
+    @Test
+    public void testNonAsciiHeaderValuesAreKeptAsLatin1() throws Exception {
+        HttpRequest request = parse("GET / HTTP/1.1\r\nX-Name: café\r\n\r\n");
+        assertEquals(new String("café".getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1),
+                request.header("x-name"), "UTF-8 bytes are read one character per byte");
+
+        byte[] latin1 = "GET / HTTP/1.1\r\nX-Name: caf\u00e9\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        HttpRequest obsText = new HttpRequestParser().parse(ByteBuffer.wrap(latin1));
+        assertEquals("caf\u00e9", obsText.header("x-name"));
+        assertStatus("400", "GET / HTTP/1.1\r\nX-Name: caf\u0001\r\n\r\n");
+        assertStatus("400", "GET / HTTP/1.1\r\nX-Name: caf\u007f\r\n\r\n");
+    }
+
+    @Test
+    public void testRepeatedHeadersAndBodyFraming() throws Exception {
+        HttpRequest request = parse("POST /form HTTP/1.1\r\nAccept: a\r\nAccept: b\r\n"
+                + "Content-Length: 5\r\nContent-Length: 5\r\n\r\nhello");
+        assertEquals("a, b", request.header("accept"));
+        assertEquals(5, request.contentLength());
+
+        request = parse("POST /form HTTP/1.1\r\nTransfer-Encoding: gzip, chunked\r\n\r\n");
+        assertTrue(request.chunked());
+        assertEquals(-1, request.contentLength());
+    }
+
+    @Test
+    public void testRejectsMalformedRequests() {
+        assertStatus("400", "GET /\r\n\r\n");
+        assertStatus("400", "GET  / HTTP/1.1\r\n\r\n");
+        assertStatus("400", "G(T / HTTP/1.1\r\n\r\n");
+        assertStatus("400", "GET / HTTX/1.1\r\n\r\n");
+        assertStatus("400", "GET / HTTP/1.1\rHost: x\r\n\r\n");
+        assertStatus("400", "GET /a\u0001b HTTP/1.1\r\n\r\n");
+        assertStatus("400", "GET /%zz HTTP/1.1\r\n\r\n");
+        assertStatus("400", "GET /file%00.html HTTP/1.1\r\n\r\n");
+        assertStatus("400", "GET relative HTTP/1.1\r\n\r\n");
+        assertStatus("400", "GET / HTTP/1.1\r\nHost : x\r\n\r\n");
+        assertStatus("400", "GET / HTTP/1.1\r\nHost: x\r\n folded\r\n\r\n");
+        assertStatus("400", "GET / HTTP/1.1\r\nX: a\u0000b\r\n\r\n");
+        assertStatus("400", "POST / HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 6\r\n\r\n");
+        assertStatus("400", "POST / HTTP/1.1\r\nContent-Length: -1\r\n\r\n");
+        assertStatus("400", "POST / HTTP/1.1\r\nContent-Length: 99999999999999999999\r\n\r\n");
+        assertStatus("400", "POST / HTTP/1.1\r\nTransfer-Encoding: chunked, gzip\r\n\r\n");
+        assertStatus("400", "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\nContent-Length: 5\r\n\r\n");
+        assertStatus("505", "GET / HTTP/2.0\r\n\r\n");
+    }
+
+    @Test
+    public void testEnforcesLimits() {
+        HttpRequestParser parser = new HttpRequestParser(64, 128);
+        String longTarget = "GET /" + "a".repeat(64) + " HTTP/1.1\r\n\r\n";
+        assertEquals("414 URI Too Long", assertThrows(HttpRequestParser.ParseException.class,
+                () -> parser.parse(buffer(longTarget))).status());
+
+        String bigHeaders = "GET / HTTP/1.1\r\nX-Big: " + "b".repeat(200) + "\r\n\r\n";
+        assertEquals("431 Request Header Fields Too Large", assertThrows(HttpRequestParser.ParseException.class,
+                () -> new HttpRequestParser(64, 128).parse(buffer(bigHeaders))).status());
+
+        StringBuilder manyHeaders = new StringBuilder("GET / HTTP/1.1\r\n");
+        for (int i = 0; i <= HttpRequestParser.MAX_HEADER_COUNT; i++) {
+            manyHeaders.append("X-").append(i).append(": v\r\n");
+        }
+        assertStatus("431", manyHeaders.append("\r\n").toString());
+    }
+
+    @Test
+    public void testPipelinedRequestsLeaveBodyInBuffer() throws Exception {
+        HttpRequestParser parser = new HttpRequestParser();
+        ByteBuffer buffer = buffer("POST /a HTTP/1.1\r\nContent-Length: 3\r\n\r\nabcGET /b HTTP/1.1\r\n\r\nGET /c HT");
+
+        HttpRequest first = parser.parse(buffer);
+        assertEquals("/a", first.path());
+        assertEquals('a', buffer.get());
+        buffer.position(buffer.position() + 2);
+        assertEquals("/b", parser.parse(buffer).path());
+        assertNull(parser.parse(buffer));
+        assertFalse(buffer.hasRemaining());
+        assertEquals("/c", parser.parse(buffer("TP/1.1\r\n\r\n")).path());
+    }
+
+    @Test
+    public void testRequestInputServesBodyAfterHead() throws Exception {
+        byte[] bytes = "POST /a HTTP/1.1\r\nContent-Length: 4\r\n\r\nbodyGET /b HTTP/1.1\r\n\r\n"
+                .getBytes(StandardCharsets.US_ASCII);
+        RequestInput in = new RequestInput(new ByteArrayInputStream(bytes), 16);
+        HttpRequestParser parser = new HttpRequestParser();
+
+        assertEquals("/a", in.readRequest(parser).path());
+        assertEquals("body", new String(in.readNBytes(4), StandardCharsets.US_ASCII));
+        assertEquals("/b", in.readRequest(parser).path());
+        assertNull(in.readRequest(parser));
+    }
+
+    @Test
+    public void testSplitAtEveryByteGivesTheSameRequest() throws Exception {
+        byte[] bytes = SIMPLE.getBytes(StandardCharsets.US_ASCII);
+        for (int split = 1; split < bytes.length; split++) {
+            HttpRequestParser parser = new HttpRequestParser();
+            assertNull(parser.parse(ByteBuffer.wrap(bytes, 0, split)));
+            HttpRequest request = parser.parse(ByteBuffer.wrap(bytes, split, bytes.length - split));
+            assertNotNull(request, "split at " + split);
+            assertEquals("/app/hello", request.path());
+            assertEquals("padded value", request.header("x-custom"));
+        }
+    }
+
+    /**
+     * Mutates valid requests at random and feeds them in random pieces. The parser must
+     * either produce a request or reject it with a ParseException, and the result must
+     * not depend on how the bytes were split.
+     */
+    @Test
+    public void testFuzzedInputOnlyFailsWithParseException() {
+        List<byte[]> seeds = new ArrayList<>();
+        seeds.add(SIMPLE.getBytes(StandardCharsets.US_ASCII));
+        seeds.add("POST /app/x%20y?a=%E2%82%AC&b HTTP/1.0\nContent-Length: 2\n\nhi".getBytes(StandardCharsets.US_ASCII));
+        seeds.add("\r\nGET http://h:1/p?q HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        Random random = new Random(20240817L);
+
+        for (int iteration = 0; iteration < 20000; iteration++) {
+            byte[] input = seeds.get(random.nextInt(seeds.size())).clone();
+            int mutations = 1 + random.nextInt(4);
+            for (int m = 0; m < mutations; m++) {
+                input[random.nextInt(input.length)] = (byte) random.nextInt(256);
+            }
+            String whole = outcome(input, input.length);
+            String pieces = outcome(input, 1 + random.nextInt(8));
+            assertEquals(whole, pieces, "iteration " + iteration);
+        }
+    }
+
+    private static String outcome(byte[] input, int pieceSize) {
+        HttpRequestParser parser = new HttpRequestParser();
+        try {
+            for (int offset = 0; offset < input.length; offset += pieceSize) {
+                ByteBuffer piece = ByteBuffer.wrap(input, offset, Math.min(pieceSize, input.length - offset));
+                HttpRequest request = parser.parse(piece);
+                if (request != null) {
+                    request.queryParams();
+                    return request.method() + " " + request.path() + " " + request.headers()
+                            + " " + piece.position();
+                }
+            }
+            return "incomplete";
+        } catch (HttpRequestParser.ParseException e) {
+            return e.status();
+        }
+    }
+
+    private static HttpRequest parse(String request) throws Exception {
+        HttpRequest parsed = new HttpRequestParser().parse(buffer(request));
+        assertNotNull(parsed);
+        return parsed;
+    }
+
+    private static void assertStatus(String expected, String request) {
+        HttpRequestParser.ParseException e = assertThrows(HttpRequestParser.ParseException.class,
+                () -> new HttpRequestParser().parse(buffer(request)), request);
+        assertTrue(e.status().startsWith(expected), request + " -> " + e.status());
+    }
+
+    private static ByteBuffer buffer(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
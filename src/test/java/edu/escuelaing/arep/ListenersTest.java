@@ -0,0 +1,61 @@
+package edu.escuelaing.arep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ListenersTest {
+
+    @Test
+    public void testAcceptorsShareThePort() throws Exception {
+        ServerSocketChannel[] listeners = Listeners.open(0, 50, 2);
+        List<SocketChannel> clients = new ArrayList<>();
+        try {
+            int port = ((InetSocketAddress) listeners[0].getLocalAddress()).getPort();
+            assertEquals(port, ((InetSocketAddress) listeners[1].getLocalAddress()).getPort());
+            if (Listeners.reusePortSupported()) {
+                assertNotSame(listeners[0], listeners[1]);
+            } else {
+                assertSame(listeners[0], listeners[1]);
+            }
+
+            int connections = 64;
+            for (int i = 0; i < connections; i++) {
+                clients.add(SocketChannel.open(new InetSocketAddress("localhost", port)));
+            }
+            int[] accepted = new int[2];
+            for (int i = 0; i < 2; i++) {
+                listeners[i].configureBlocking(false);
+            }
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (accepted[0] + accepted[1] < connections && System.nanoTime() < deadline) {
+                for (int i = 0; i < 2; i++) {
+                    SocketChannel channel = listeners[i].accept();
+                    if (channel != null) {
+                        accepted[i]++;
+                        channel.close();
+                    }
+                }
+            }
+            assertEquals(connections, accepted[0] + accepted[1]);
+            if (Listeners.reusePortSupported()) {
+                assertTrue(accepted[0] > 0 && accepted[1] > 0,
+                        "The kernel should spread connections across both sockets: " + accepted[0] + " and " + accepted[1]);
+            }
+        } finally {
+            for (SocketChannel client : clients) {
+                client.close();
+            }
+            Listeners.close(listeners);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package edu.escuelaing.arep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class MetricsTest {
+
+    @Test
+    public void testHistogramBucketsStayWithinTheirPrecision() {
+        assertEquals(0, Metrics.LatencyHistogram.index(0));
+        assertEquals(3, Metrics.LatencyHistogram.index(3));
+        long previousUpper = 0;
+        for (long micros = 0; micros < (1L << 27); micros = micros < 64 ? micros + 1 : micros * 5 / 4) {
+            int index = Metrics.LatencyHistogram.index(micros);
+            long upper = Metrics.LatencyHistogram.upperBound(index);
+            assertTrue(micros < upper, micros + " should be below " + upper);
+            assertTrue(upper <= Math.max(micros + 1, micros * 5 / 4 + 1), micros + " has bucket bound " + upper);
+            assertTrue(upper >= previousUpper);
+            previousUpper = upper;
+        }
+        assertEquals(Long.MAX_VALUE,
+                Metrics.LatencyHistogram.upperBound(Metrics.LatencyHistogram.index(TimeUnit.MINUTES.toMicros(5))));
+    }
+
+    @Test
+    public void testQuantilesAndCounts() {
+        Metrics metrics = new Metrics();
+        Metrics.Route route = metrics.route("GET", "/app/hello");
+        assertSame(route, metrics.route("GET", "/app/hello"));
+        for (int i = 1; i <= 1000; i++) {
+            route.record(i == 1000 ? 500 : 200, TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        assertEquals(1000, route.count());
+        long p50 = route.quantileMicros(0.5);
+        long p99 = route.quantileMicros(0.99);
+        assertTrue(p50 >= 500 && p50 <= 640, "p50 = " + p50);
+        assertTrue(p99 >= 990 && p99 <= 1280, "p99 = " + p99);
+        assertEquals(0, metrics.route("POST", "/app/echo").quantileMicros(0.99));
+    }
+
+    @Test
+    public void testRendersPrometheusText() {
+        Metrics metrics = new Metrics();
+        Metrics.Route route = metrics.route("GET", "/app/\"quoted\"/{name}");
+        route.record(200, TimeUnit.MILLISECONDS.toNanos(3));
+        route.record(503, TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.connectionOpened();
+        metrics.gauge("arep_test_queue", "A test gauge.", () -> 7);
+
+        String text = metrics.render();
+        String labels = "method=\"GET\",route=\"/app/\\\"quoted\\\"/{name}\"";
+        assertTrue(text.contains("# TYPE arep_requests_total counter\n"), text);
+        assertTrue(text.contains("arep_requests_total{" + labels + ",status=\"2xx\"} 1\n"), text);
+        assertTrue(text.contains("arep_request_errors_total{" + labels + "} 1\n"), text);
+        assertTrue(text.contains("arep_request_duration_seconds_bucket{" + labels + ",le=\"0.002048\"} 0\n"), text);
+        assertTrue(text.contains("arep_request_duration_seconds_bucket{" + labels + ",le=\"0.004096\"} 2\n"), text);
+        assertTrue(text.contains("arep_request_duration_seconds_bucket{" + labels + ",le=\"+Inf\"} 2\n"), text);
+        assertTrue(text.contains("arep_request_duration_seconds_count{" + labels + "} 2\n"), text);
+        assertTrue(text.contains("arep_request_duration_seconds_sum{" + labels + "} 0.006\n"), text);
+        assertTrue(text.contains("arep_open_connections 1\n"), text);
+        assertTrue(text.contains("# TYPE arep_test_queue gauge\narep_test_queue 7\n"), text);
+    }
+}
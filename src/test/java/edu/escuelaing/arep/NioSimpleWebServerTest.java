@@ -0,0 +1,68 @@
+package edu.escuelaing.arep;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the whole SimpleWebServerTest suite against the NIO selector engine, with two
+ * acceptors and worker groups.
+ */
+public class NioSimpleWebServerTest extends SimpleWebServerTest {
+
+    @BeforeAll
+    public static void setUp() throws IOException {
+        startServer(8081, "nio", "--acceptors=2");
+    }
+
+    @Test
+    public void testAsyncControllersDoNotHoldWorkers() {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(serverUrl + "/app/hello-async?delay=500"))
+                .GET()
+                .build();
+        long start = System.nanoTime();
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            assertEquals(200, response.join().statusCode());
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // Holding one of the 10 workers per request would take at least 2 seconds.
+        assertTrue(elapsedMillis < 1800, "40 delayed requests took " + elapsedMillis + " ms");
+    }
+
+    @Test
+    public void testSlowReaderOfAStreamedResponse() throws Exception {
+        String expected = "Pi con 200000 decimales: " + new PiEngine().pi(200_000);
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new InetSocketAddress("localhost", port));
+            socket.getOutputStream().write("GET /app/pi/stream?decimals=200000 HTTP/1.0\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            // The worker has to wait for the client, far more than MAX_STREAM_BUFFER bytes behind.
+            Thread.sleep(500);
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+            assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+            assertEquals(expected, response.substring(response.indexOf("\r\n\r\n") + 4));
+        }
+    }
+}
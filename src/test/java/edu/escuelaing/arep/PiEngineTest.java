@@ -0,0 +1,72 @@
+package edu.escuelaing.arep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+public class PiEngineTest {
+
+    private static final String PI_200 = "3."
+            + "1415926535897932384626433832795028841971693993751058209749445923078164062862089986280348253421170679"
+            + "8214808651328230664709384460955058223172535940812848111745028410270193852110555964462294895493038196";
+
+    @Test
+    public void testKnownDigits() {
+        PiEngine engine = new PiEngine();
+        assertEquals(PI_200, engine.pi(200));
+        assertEquals("3", engine.pi(0));
+        assertEquals("3.14", engine.pi(2));
+        assertEquals("3.1416", engine.pi(4));
+        // The 100th decimal is a 9, so the 99th rounds up from 7 to 8.
+        assertEquals(PI_200.substring(0, 2 + 98) + "8", engine.pi(99));
+        assertThrows(IllegalArgumentException.class, () -> engine.pi(-1));
+        assertThrows(IllegalArgumentException.class, () -> engine.pi(PiEngine.MAX_DECIMALS + 1));
+    }
+
+    @Test
+    public void testRoundingCarriesThroughNines() {
+        // Decimals 762 to 767 of Pi are the "Feynman point" 999999.
+        String fraction = PiEngine.compute(770);
+        assertEquals("999999", fraction.substring(761, 767));
+        assertEquals('4', fraction.charAt(760));
+        assertEquals("3." + fraction.substring(0, 760) + "500000", PiEngine.round(fraction, 766));
+    }
+
+    @Test
+    public void testParallelSplittingMatchesSequential() {
+        String large = PiEngine.compute(20_000);
+        String small = PiEngine.compute(5_000);
+        assertEquals(small, large.substring(0, 5_000));
+        assertEquals(PI_200.substring(2), large.substring(0, 200));
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneComputation() throws Exception {
+        PiEngine engine = new PiEngine();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                int decimals = 3_000 + i;
+                results.add(executor.submit((Callable<String>) () -> engine.pi(decimals)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                String pi = results.get(i).get();
+                assertEquals(3_000 + i + 2, pi.length());
+                assertTrue(pi.startsWith(PI_200));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(PI_200, engine.pi(200));
+    }
+}
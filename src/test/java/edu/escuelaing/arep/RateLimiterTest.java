@@ -0,0 +1,104 @@
+package edu.escuelaing.arep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import edu.escuelaing.arep.annotations.RateLimit;
+
+public class RateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static InetAddress address(int last) throws Exception {
+        return InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) last});
+    }
+
+    @Test
+    public void testBurstThenSustainedRate() throws Exception {
+        RateLimiter limiter = new RateLimiter(2, 3);
+        InetAddress client = address(1);
+        long now = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.acquire(client, now), "Request " + i + " of the burst");
+        }
+        long wait = limiter.acquire(client, now);
+        assertEquals(SECOND / 2, wait, "The next token arrives after one interval");
+        assertEquals(1, RateLimiter.retryAfterSeconds(wait));
+
+        assertTrue(limiter.acquire(client, now + SECOND / 4) > 0, "Half a token is not enough");
+        assertEquals(0, limiter.acquire(client, now + SECOND / 2));
+        assertTrue(limiter.acquire(client, now + SECOND / 2) > 0);
+        assertEquals(0, limiter.acquire(client, now + 10 * SECOND), "An idle client gets its burst back");
+        assertEquals(0, limiter.acquire(client, now + 10 * SECOND));
+        assertEquals(0, limiter.acquire(client, now + 10 * SECOND));
+        assertTrue(limiter.acquire(client, now + 10 * SECOND) > 0, "The burst is not exceeded however long the client waited");
+    }
+
+    @Test
+    public void testClientsHaveSeparateBucketsThatExpire() throws Exception {
+        RateLimiter limiter = new RateLimiter(1, 1);
+        long now = System.nanoTime();
+        assertEquals(0, limiter.acquire(address(1), now));
+        assertTrue(limiter.acquire(address(1), now) > 0);
+        assertEquals(0, limiter.acquire(address(2), now), "Another client is not affected");
+        assertEquals(2, limiter.clients());
+
+        long later = now + RateLimiter.SWEEP_INTERVAL_NANOS + SECOND;
+        assertEquals(0, limiter.acquire(address(3), later));
+        assertEquals(1, limiter.clients(), "Idle clients are dropped once their bucket is full again");
+    }
+
+    @Test
+    public void testConfiguration() throws Exception {
+        assertNull(RateLimiter.create(new String[0], "rate-limit"));
+        RateLimiter limiter = RateLimiter.create(new String[] {"--rate-limit=2.5"}, "rate-limit");
+        assertNotNull(limiter);
+        assertEquals(3, limiter.burst, "The burst defaults to the rate rounded up");
+        assertEquals(7, RateLimiter.create(new String[] {"--rate-limit=1", "--rate-limit-burst=7"}, "rate-limit").burst);
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(-1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(1, -1));
+        assertEquals(3, RateLimiter.retryAfterSeconds(2 * SECOND + 1));
+    }
+
+    static class Controller {
+        @RateLimit(value = 5, burst = 10)
+        public String limited() {
+            return "";
+        }
+
+        @RateLimit(0)
+        public String invalid() {
+            return "";
+        }
+
+        public String unlimited() {
+            return "";
+        }
+    }
+
+    @Test
+    public void testRouteLimits() throws Exception {
+        RateLimiter defaults = new RateLimiter(1, 2);
+        RateLimiter annotated = RateLimiter.forRoute(Controller.class.getMethod("limited"), defaults);
+        assertEquals(5, annotated.permitsPerSecond);
+        assertEquals(10, annotated.burst);
+
+        RateLimiter copy = RateLimiter.forRoute(Controller.class.getMethod("unlimited"), defaults);
+        assertTrue(copy != defaults, "Each route counts its own requests");
+        assertEquals(2, copy.burst);
+        assertNull(RateLimiter.forRoute(Controller.class.getMethod("unlimited"), null));
+        assertThrows(IllegalArgumentException.class,
+                () -> RateLimiter.forRoute(Controller.class.getMethod("invalid"), null));
+
+        ControllerInvoker invoker = ControllerInvoker.create(new Controller(), Controller.class.getMethod("limited"),
+                new Metrics().route("GET", "/limited"), null);
+        assertEquals(10, invoker.rateLimiter().burst);
+    }
+}
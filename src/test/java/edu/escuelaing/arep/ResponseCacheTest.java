@@ -0,0 +1,121 @@
+package edu.escuelaing.arep;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import edu.escuelaing.arep.annotations.Cacheable;
+import edu.escuelaing.arep.annotations.GetMapping;
+import edu.escuelaing.arep.annotations.RequestBody;
+import edu.escuelaing.arep.annotations.RequestParam;
+
+public class ResponseCacheTest {
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testHitsAndEvictionInInsertionOrder() throws Exception {
+        ResponseCache cache = new ResponseCache(60, 2);
+        assertArrayEquals(bytes("a"), cache.get("a", () -> bytes("a")));
+        assertArrayEquals(bytes("a"), cache.get("a", () -> bytes("reloaded")));
+        cache.get("b", () -> bytes("b"));
+        cache.get("c", () -> bytes("c"));
+        assertEquals(2, cache.size());
+        assertArrayEquals(bytes("a2"), cache.get("a", () -> bytes("a2")));
+        assertArrayEquals(bytes("c"), cache.get("c", () -> bytes("reloaded")));
+        assertEquals(4, cache.misses());
+        assertEquals(2, cache.hits());
+    }
+
+    @Test
+    public void testFailedLoadsAndLargeResponsesAreNotKept() throws Exception {
+        ResponseCache cache = new ResponseCache(60, 10);
+        assertThrows(IOException.class, () -> cache.get("k", () -> {
+            throw new IOException("boom");
+        }));
+        assertArrayEquals(bytes("ok"), cache.get("k", () -> bytes("ok")));
+
+        byte[] large = new byte[ResponseCache.MAX_ENTRY_BYTES + 1];
+        assertSame(large, cache.get("large", () -> large));
+        assertNotEquals(large.length, cache.get("large", () -> bytes("small")).length);
+    }
+
+    @Test
+    public void testConcurrentMissesLoadOnce() throws Exception {
+        ResponseCache cache = new ResponseCache(60, 10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> cache.get("slow", () -> {
+                    loads.incrementAndGet();
+                    release.await();
+                    return bytes("value");
+                })));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<byte[]> result : results) {
+                assertArrayEquals(bytes("value"), result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(7, cache.hits());
+    }
+
+    public static class Controller {
+        @Cacheable(ttlSeconds = 10, maxEntries = 4)
+        @GetMapping("/app/square")
+        public int square(@RequestParam(value = "n", defaultValue = "3") int n) {
+            return n * n;
+        }
+
+        @Cacheable
+        @GetMapping("/app/body")
+        public String body(@RequestBody String body) {
+            return body;
+        }
+    }
+
+    @Test
+    public void testInvokerBuildsKeysFromBoundParameters() throws Exception {
+        Metrics metrics = new Metrics();
+        ControllerInvoker invoker = ControllerInvoker.create(new Controller(),
+                Controller.class.getMethod("square", int.class), metrics.route("GET", "/app/square"));
+        assertTrue(invoker.cache() != null);
+        Map<String, String> none = Collections.emptyMap();
+        assertEquals(invoker.cacheKey(Map.of("n", "3", "unused", "x"), none), invoker.cacheKey(none, none));
+        assertNotEquals(invoker.cacheKey(Map.of("n", "4"), none), invoker.cacheKey(none, none));
+
+        assertThrows(IllegalArgumentException.class, () -> ControllerInvoker.create(new Controller(),
+                Controller.class.getMethod("body", String.class), metrics.route("GET", "/app/body")));
+        assertNull(ControllerInvoker.create(new HelloService(), HelloService.class.getMethod("hello", String.class),
+                metrics.route("GET", "/app/hello")).cache());
+        assertEquals(9, invoker.invoke(none, none, InputStream.nullInputStream()));
+    }
+}
@@ -0,0 +1,116 @@
+package edu.escuelaing.arep;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+public class ResponseOutputTest {
+
+    private final ClientHandler handler = new ClientHandler(null);
+
+    @Test
+    public void testBlockingSendsHeadersAndBodyInOneWrite() throws IOException {
+        RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE);
+        ResponseOutput out = new ResponseOutput.Blocking(channel);
+        byte[] body = new byte[32 * 1024];
+        Arrays.fill(body, (byte) 'x');
+        handler.sendResponse(out, "200 OK", "text/plain", body, false);
+        out.flush();
+        assertEquals(1, channel.writes);
+        assertResponse(channel.bytes(), "200 OK", body);
+        assertEquals(channel.bytes().length, out.bytesWritten());
+
+        handler.sendResponse(out, "404 Not Found", "text/html", new byte[0], true);
+        handler.sendResponse(out, "200 OK", "text/plain", "Hola".getBytes(StandardCharsets.UTF_8), true);
+        out.flush();
+        assertEquals(2, channel.writes, "Small responses should be buffered together");
+        String text = new String(channel.bytes(), StandardCharsets.US_ASCII);
+        assertTrue(text.contains("HTTP/1.1 404 Not Found\r\nContent-Type: text/html\r\nContent-Length: 0\r\n"), text);
+        assertTrue(text.endsWith("Content-Length: 4\r\nConnection: keep-alive\r\nKeep-Alive: timeout=5, max=100\r\n\r\nHola"), text);
+    }
+
+    @Test
+    public void testQueuedGathersSegmentsAndResumesPartialWrites() throws IOException {
+        byte[] body = new byte[20_000];
+        Arrays.fill(body, (byte) 'y');
+        ResponseOutput.Queued out = new ResponseOutput.Queued();
+        handler.sendResponse(out, "200 OK", "text/plain", body, false);
+
+        RecordingChannel channel = new RecordingChannel(8192);
+        int calls = 0;
+        while (!out.writeTo(channel)) {
+            calls++;
+        }
+        assertEquals(2, calls, "About 20 KB, headers included, should take two partial writes of 8 KB and a last one");
+        assertEquals(channel.writes, calls + 1);
+        assertResponse(channel.bytes(), "200 OK", body);
+    }
+
+    private static void assertResponse(byte[] response, String status, byte[] body) {
+        String text = new String(response, StandardCharsets.US_ASCII);
+        String head = "HTTP/1.1 " + status + "\r\nContent-Type: text/plain\r\nContent-Length: " + body.length
+                + "\r\nConnection: close\r\n\r\n";
+        assertTrue(text.startsWith(head), text.substring(0, Math.min(text.length(), 200)));
+        assertArrayEquals(body, Arrays.copyOfRange(response, head.length(), response.length));
+    }
+
+    /**
+     * A gathering channel that counts its write calls and accepts at most a number of
+     * bytes per call, like a socket whose send buffer is nearly full.
+     */
+    private static final class RecordingChannel implements GatheringByteChannel {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private final int maxPerWrite;
+        int writes;
+
+        RecordingChannel(int maxPerWrite) {
+            this.maxPerWrite = maxPerWrite;
+        }
+
+        byte[] bytes() {
+            return written.toByteArray();
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[] {src}, 0, 1);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            writes++;
+            long total = 0;
+            for (int i = offset; i < offset + length && total < maxPerWrite; i++) {
+                int n = (int) Math.min(srcs[i].remaining(), maxPerWrite - total);
+                byte[] chunk = new byte[n];
+                srcs[i].get(chunk);
+                written.write(chunk, 0, n);
+                total += n;
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
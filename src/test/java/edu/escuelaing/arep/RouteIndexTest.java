@@ -0,0 +1,159 @@
+package edu.escuelaing.arep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.escuelaing.arep.annotations.RestController;
+import edu.escuelaing.arep.processor.RouteIndexProcessor;
+
+public class RouteIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testGeneratedIndexListsTheControllers() throws Exception {
+        List<RouteIndex.Route> routes = RouteIndex.load(getClass().getClassLoader());
+        assertNotNull(routes, "The build should generate " + RouteIndex.LOCATION);
+        RouteIndex.Route pi = routes.stream().filter(route -> route.pattern.equals("/app/pi")).findFirst().orElseThrow();
+        assertEquals("GET", pi.httpMethod);
+        assertEquals(PiService.class.getName(), pi.className);
+        assertEquals(PiService.class.getMethod("pi", int.class), pi.resolve(PiService.class));
+        assertTrue(routes.stream().anyMatch(route -> route.httpMethod.equals("POST") && route.pattern.equals("/app/echo")));
+    }
+
+    @Test
+    public void testMissingIndexAndMalformedLines() throws IOException {
+        try (URLClassLoader empty = new URLClassLoader(new URL[] {tempDir.toUri().toURL()}, null)) {
+            assertNull(RouteIndex.load(empty));
+        }
+        Path index = tempDir.resolve(RouteIndex.LOCATION);
+        Files.createDirectories(index.getParent());
+        Files.writeString(index, "# comment\nDELETE\t/x\tdemo.Demo\tx\t\n");
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {tempDir.toUri().toURL()}, null)) {
+            assertThrows(IOException.class, () -> RouteIndex.load(loader));
+        }
+    }
+
+    @Test
+    public void testScanListsTheClassesOfAPackageInAJar() throws Exception {
+        Path jar = tempDir.resolve("controllers.jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            addEntry(out, "edu/escuelaing/arep/", new byte[0]);
+            addEntry(out, "edu/escuelaing/arep/HelloService.class", classBytes(HelloService.class));
+            addEntry(out, "edu/escuelaing/arep/sub/Other.class", classBytes(HelloService.class));
+            addEntry(out, "edu/escuelaing/arep/resources/index.html", new byte[0]);
+        }
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {jar.toUri().toURL()}, null)) {
+            assertEquals(List.of(HelloService.class.getName()), RouteIndex.scan("edu.escuelaing.arep", loader));
+        }
+
+        List<Class<?>> controllers = SimpleWebServer.findClassesWithAnnotation("edu.escuelaing.arep", RestController.class,
+                getClass().getClassLoader());
+        assertTrue(controllers.containsAll(Arrays.asList(HelloService.class, PiService.class, EchoService.class)));
+        assertFalse(controllers.contains(Router.class));
+    }
+
+    @Test
+    public void testProcessorWritesTheIndexAndReportsInvalidControllers() throws Exception {
+        Path sources = Files.createDirectories(tempDir.resolve("src/demo"));
+        Path classes = Files.createDirectories(tempDir.resolve("classes"));
+        Files.writeString(sources.resolve("Demo.java"), String.join("\n",
+                "package demo;",
+                "import edu.escuelaing.arep.annotations.*;",
+                "@RestController",
+                "public class Demo {",
+                "    @GetMapping(\"/app/demo/{id}\")",
+                "    public String get(@PathVariable(\"id\") long id, @RequestParam(value = \"q\") String q) { return q; }",
+                "    @PostMapping(\"/app/demo\")",
+                "    public int post(@RequestBody byte[] body) { return body.length; }",
+                "}"));
+        assertEquals(0, compile(classes, sources.resolve("Demo.java")).length());
+
+        List<String> lines = Files.readAllLines(classes.resolve(RouteIndex.LOCATION));
+        assertTrue(lines.contains("GET\t/app/demo/{id}\tdemo.Demo\tget\tlong,java.lang.String"), lines.toString());
+        assertTrue(lines.contains("POST\t/app/demo\tdemo.Demo\tpost\tbyte[]"), lines.toString());
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {classes.toUri().toURL()}, getClass().getClassLoader())) {
+            for (RouteIndex.Route route : RouteIndex.load(loader)) {
+                if (route.className.equals("demo.Demo")) {
+                    assertNotNull(route.resolve(loader.loadClass(route.className)));
+                }
+            }
+        }
+
+        Files.writeString(sources.resolve("Bad.java"), String.join("\n",
+                "package demo;",
+                "import edu.escuelaing.arep.annotations.*;",
+                "@RestController",
+                "public class Bad {",
+                "    @Cacheable @PostMapping(\"/app/bad\")",
+                "    public String bad(int n) { return \"\"; }",
+                "    @ResponseTimeout(100) @GetMapping(\"/app/sync\")",
+                "    public String sync() { return \"\"; }",
+                "    @Cacheable @GetMapping(\"/app/lines\")",
+                "    public Iterable<String> lines() { return java.util.List.of(); }",
+                "}"));
+        String errors = compile(tempDir.resolve("bad-classes"), sources.resolve("Bad.java"));
+        assertTrue(errors.contains("Parameter must be annotated"), errors);
+        assertTrue(errors.contains("@Cacheable is only supported"), errors);
+        assertTrue(errors.contains("@ResponseTimeout must be positive"), errors);
+        assertEquals(2, errors.split("@Cacheable is only supported", -1).length - 1, errors);
+        assertFalse(Files.exists(tempDir.resolve("bad-classes").resolve(RouteIndex.LOCATION)));
+    }
+
+    /**
+     * Compiles sources with the route index processor against the annotations under test.
+     *
+     * @return the compiler's diagnostics, empty when it succeeded without warnings.
+     */
+    private static String compile(Path output, Path... sources) throws Exception {
+        Files.createDirectories(output);
+        String annotations = Paths.get(RestController.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        String processor = Paths.get(RouteIndexProcessor.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StringWriter diagnostics = new StringWriter();
+        List<String> options = Arrays.asList("-classpath", annotations, "-processorpath", processor,
+                "-processor", RouteIndexProcessor.class.getName(), "-d", output.toString(), "-encoding", "UTF-8");
+        try (var fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            compiler.getTask(diagnostics, fileManager, null, options, null,
+                    fileManager.getJavaFileObjects(sources)).call();
+        }
+        return diagnostics.toString();
+    }
+
+    private static void addEntry(JarOutputStream out, String name, byte[] content) throws IOException {
+        out.putNextEntry(new JarEntry(name));
+        out.write(content);
+        out.closeEntry();
+    }
+
+    private static byte[] classBytes(Class<?> type) throws IOException {
+        try (InputStream in = type.getResourceAsStream(type.getSimpleName() + ".class")) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package edu.escuelaing.arep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class RouterTest {
+
+    @Test
+    public void testLiteralRoutesSharingPrefixes() {
+        Router<String> router = new Router<>();
+        router.add("/app/hello", "hello");
+        router.add("/app/help", "help");
+        router.add("/app/pi", "pi");
+        router.add("/app", "app");
+
+        Map<String, String> variables = new HashMap<>();
+        assertEquals("hello", router.find("/app/hello", variables));
+        assertEquals("help", router.find("/app/help", variables));
+        assertEquals("pi", router.find("/app/pi", variables));
+        assertEquals("app", router.find("/app", variables));
+        assertNull(router.find("/app/hel", variables));
+        assertNull(router.find("/app/hello/", variables));
+        assertTrue(variables.isEmpty());
+        assertEquals(4, router.size());
+    }
+
+    @Test
+    public void testPathVariablesAndQueryEnd() {
+        Router<String> router = new Router<>();
+        router.add("/app/users/{id}", "user");
+        router.add("/app/users/{id}/posts/{post}", "post");
+
+        Map<String, String> variables = new HashMap<>();
+        String path = "/app/users/42/posts/7?full=true";
+        assertEquals("post", router.find(path, path.indexOf('?'), variables));
+        assertEquals("42", variables.get("id"));
+        assertEquals("7", variables.get("post"));
+
+        variables.clear();
+        assertEquals("user", router.find("/app/users/abc", variables));
+        assertEquals("abc", variables.get("id"));
+        assertNull(router.find("/app/users/", new HashMap<>()));
+        assertEquals("post", router.find("/app/users/42/posts/7", null));
+    }
+
+    @Test
+    public void testPrecedence() {
+        Router<String> router = new Router<>();
+        router.add("/app/files/**", "catch-all");
+        router.add("/app/files/*", "wildcard");
+        router.add("/app/files/{name}", "variable");
+        router.add("/app/files/index", "literal");
+
+        Map<String, String> variables = new HashMap<>();
+        assertEquals("literal", router.find("/app/files/index", variables));
+        assertEquals("variable", router.find("/app/files/readme", variables));
+        assertEquals("readme", variables.get("name"));
+        assertEquals("catch-all", router.find("/app/files/a/b/c", variables));
+        assertEquals("catch-all", router.find("/app/files/", variables));
+        assertEquals("variable", router.find("/app/files/indexes", variables));
+    }
+
+    @Test
+    public void testBacktracksFromLiteralToVariable() {
+        Router<String> router = new Router<>();
+        router.add("/app/users/me/settings", "settings");
+        router.add("/app/users/{id}/profile", "profile");
+
+        Map<String, String> variables = new HashMap<>();
+        assertEquals("profile", router.find("/app/users/me/profile", variables));
+        assertEquals("me", variables.get("id"));
+    }
+
+    @Test
+    public void testInvalidAndDuplicateRoutes() {
+        Router<String> router = new Router<>();
+        router.add("/app/users/{id}", "user");
+
+        assertThrows(IllegalArgumentException.class, () -> router.add("/app/users/{id}", "again"));
+        assertThrows(IllegalArgumentException.class, () -> router.add("/app/users/{name}/x", "conflict"));
+        assertThrows(IllegalArgumentException.class, () -> router.add("/app/**/x", "middle"));
+        assertThrows(IllegalArgumentException.class, () -> router.add("app/users", "relative"));
+    }
+
+    @Test
+    public void testThousandsOfRoutes() {
+        Router<Integer> router = new Router<>();
+        for (int i = 0; i < 5000; i++) {
+            router.add("/app/service" + i + "/{id}", i);
+        }
+
+        Map<String, String> variables = new HashMap<>();
+        for (int i = 0; i < 5000; i += 97) {
+            assertEquals(i, router.find("/app/service" + i + "/x" + i, variables));
+            assertEquals("x" + i, variables.get("id"));
+        }
+        assertNull(router.find("/app/service5000/x", variables));
+        assertEquals(5000, router.size());
+    }
+}
@@ -0,0 +1,61 @@
+package edu.escuelaing.arep;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ServerExecutorsTest {
+
+    @Test
+    public void testLimitedExecutorRejectsBeyondLimit() throws InterruptedException {
+        ExecutorService executor = ServerExecutors.limited(Executors.newCachedThreadPool(), 2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(2);
+        Runnable blocking = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished.countDown();
+        };
+
+        executor.execute(blocking);
+        executor.execute(blocking);
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(blocking));
+
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        CountDownLatch afterRelease = new CountDownLatch(1);
+        executor.execute(afterRelease::countDown);
+        assertTrue(afterRelease.await(5, TimeUnit.SECONDS), "Permits should be returned when tasks finish");
+        executor.shutdown();
+    }
+
+    @Test
+    public void testBoundedExecutorRejectsWhenQueueIsFull() {
+        ExecutorService executor = ServerExecutors.bounded(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        executor.execute(blocking);
+        executor.execute(blocking);
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(blocking));
+
+        release.countDown();
+        executor.shutdown();
+    }
+}
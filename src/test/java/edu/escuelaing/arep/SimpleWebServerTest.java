@@ -4,16 +4,35 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -21,14 +40,25 @@ public class SimpleWebServerTest {
 
     private static ExecutorService executorService;
     private static final int NUM_REQUESTS = 10;
-    private static final String SERVER_URL = "http://localhost:8080";
+    protected static int port;
+    protected static String serverUrl;
 
     @BeforeAll
     public static void setUp() throws IOException {
+        startServer(8080, "blocking");
+    }
+
+    protected static void startServer(int serverPort, String mode, String... options) {
+        port = serverPort;
+        serverUrl = "http://localhost:" + serverPort;
+        String[] args = new String[options.length + 2];
+        args[0] = "--port=" + serverPort;
+        args[1] = "--mode=" + mode;
+        System.arraycopy(options, 0, args, 2, options.length);
         executorService = Executors.newSingleThreadExecutor();
         executorService.submit(() -> {
             try {
-                SimpleWebServer.main(new String[]{});
+                SimpleWebServer.main(args);
             } catch (IOException | ReflectiveOperationException e) {
                 e.printStackTrace();
             }
@@ -53,7 +83,7 @@ public class SimpleWebServerTest {
         Callable<Boolean> requestTask = () -> {
             try {
                 HttpRequest request = HttpRequest.newBuilder()
-                        .uri(new URI(SERVER_URL + "/index.html"))
+                        .uri(new URI(serverUrl + "/index.html"))
                         .GET()
                         .build();
                 HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
@@ -81,7 +111,7 @@ public class SimpleWebServerTest {
     public void testHelloServiceGET() throws IOException, InterruptedException, URISyntaxException {
         HttpClient client = HttpClient.newHttpClient();
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(new URI(SERVER_URL + "/app/hello?name=sebas"))
+                .uri(new URI(serverUrl + "/app/hello?name=sebas"))
                 .GET()
                 .build();
 
@@ -91,11 +121,45 @@ public class SimpleWebServerTest {
         assertTrue(response.body().contains("Hola, sebas"));
     }
     
+    @Test
+    public void testPathVariableGET() throws IOException, InterruptedException, URISyntaxException {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(new URI(serverUrl + "/app/hello/sebas?ignored=1"))
+                .GET()
+                .build();
+
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        assertEquals("Hola, sebas", response.body());
+    }
+
+    @Test
+    public void testAsyncControllerAndTimeout() throws IOException, InterruptedException, URISyntaxException {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder()
+                .uri(new URI(serverUrl + "/app/hello-async?name=sebas&delay=50"))
+                .GET()
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertEquals("Hola, sebas", response.body());
+
+        long start = System.nanoTime();
+        response = client.send(HttpRequest.newBuilder()
+                .uri(new URI(serverUrl + "/app/hello-async?delay=5000"))
+                .GET()
+                .build(), HttpResponse.BodyHandlers.ofString());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(504, response.statusCode());
+        assertTrue(elapsedMillis >= 900 && elapsedMillis < 4000, "Timed out after " + elapsedMillis + " ms");
+    }
+
     @Test
     public void testPiServiceGET() throws IOException, InterruptedException, URISyntaxException {
         HttpClient client = HttpClient.newHttpClient();
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(new URI(SERVER_URL + "/app/pi?decimals=2"))
+                .uri(new URI(serverUrl + "/app/pi?decimals=2"))
                 .GET()
                 .build();
 
@@ -120,7 +184,7 @@ public class SimpleWebServerTest {
     public void testHandleFileNotFound() throws IOException, InterruptedException, URISyntaxException {
         HttpClient client = HttpClient.newHttpClient();
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(new URI(SERVER_URL + "/nonexistentfile.html"))
+                .uri(new URI(serverUrl + "/nonexistentfile.html"))
                 .GET()
                 .build();
 
@@ -129,4 +193,468 @@ public class SimpleWebServerTest {
         assertEquals(404, response.statusCode());
         assertTrue(response.body().contains("File Not Found"));
     }
+
+    @Test
+    public void testStaticBinaryFileIsServedIntact() throws IOException, InterruptedException, URISyntaxException {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(new URI(serverUrl + "/spiderman.jpg"))
+                .GET()
+                .build();
+
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, response.statusCode());
+        assertEquals("image/jpeg", response.headers().firstValue("Content-Type").orElse(null));
+        assertArrayEquals(Files.readAllBytes(Paths.get(SimpleWebServer.WEB_ROOT, "spiderman.jpg")), response.body());
+    }
+
+    @Test
+    public void testConditionalAndCompressedStaticResponses() throws IOException, InterruptedException, URISyntaxException {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(new URI(serverUrl + "/index.html"))
+                .header("Accept-Encoding", "gzip")
+                .GET()
+                .build();
+
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, response.statusCode());
+        assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(response.body()))) {
+            assertTrue(new String(in.readAllBytes(), StandardCharsets.UTF_8).contains("<title>Aplicaciones Distribuidas</title>"));
+        }
+
+        String etag = response.headers().firstValue("ETag").orElseThrow();
+        HttpRequest conditional = HttpRequest.newBuilder()
+                .uri(new URI(serverUrl + "/index.html"))
+                .header("Accept-Encoding", "gzip")
+                .header("If-None-Match", etag)
+                .GET()
+                .build();
+        HttpResponse<byte[]> notModified = client.send(conditional, HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(304, notModified.statusCode());
+        assertEquals(0, notModified.body().length);
+
+        String lastModified = response.headers().firstValue("Last-Modified").orElseThrow();
+        HttpRequest sinceRequest = HttpRequest.newBuilder()
+                .uri(new URI(serverUrl + "/spiderman.jpg"))
+                .header("If-Modified-Since", lastModified)
+                .GET()
+                .build();
+        assertEquals(304, client.send(sinceRequest, HttpResponse.BodyHandlers.discarding()).statusCode());
+    }
+
+    @Test
+    public void testByteRangeRequests() throws IOException, InterruptedException, URISyntaxException {
+        byte[] image = Files.readAllBytes(Paths.get(SimpleWebServer.WEB_ROOT, "spiderman.jpg"));
+        HttpClient client = HttpClient.newHttpClient();
+        URI uri = new URI(serverUrl + "/spiderman.jpg");
+
+        HttpResponse<byte[]> whole = client.send(HttpRequest.newBuilder(uri).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals("bytes", whole.headers().firstValue("Accept-Ranges").orElse(null));
+        String etag = whole.headers().firstValue("ETag").orElseThrow();
+
+        HttpResponse<byte[]> single = client.send(HttpRequest.newBuilder(uri).header("Range", "bytes=100-199")
+                .header("If-Range", etag).GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(206, single.statusCode());
+        assertEquals("bytes 100-199/" + image.length, single.headers().firstValue("Content-Range").orElse(null));
+        assertArrayEquals(Arrays.copyOfRange(image, 100, 200), single.body());
+
+        HttpResponse<String> multiple = client.send(HttpRequest.newBuilder(uri).header("Range", "bytes=0-9,-10")
+                .GET().build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.ISO_8859_1));
+        assertEquals(206, multiple.statusCode());
+        String contentType = multiple.headers().firstValue("Content-Type").orElseThrow();
+        assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+        String boundary = contentType.substring(contentType.indexOf('=') + 1);
+        String tail = new String(image, image.length - 10, 10, StandardCharsets.ISO_8859_1);
+        assertEquals("\r\n--" + boundary + "\r\nContent-Type: image/jpeg\r\nContent-Range: bytes 0-9/" + image.length
+                + "\r\n\r\n" + new String(image, 0, 10, StandardCharsets.ISO_8859_1)
+                + "\r\n--" + boundary + "\r\nContent-Type: image/jpeg\r\nContent-Range: bytes " + (image.length - 10)
+                + "-" + (image.length - 1) + "/" + image.length + "\r\n\r\n" + tail
+                + "\r\n--" + boundary + "--\r\n", multiple.body());
+
+        HttpResponse<byte[]> unsatisfiable = client.send(HttpRequest.newBuilder(uri)
+                .header("Range", "bytes=" + image.length + "-").GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(416, unsatisfiable.statusCode());
+        assertEquals("bytes */" + image.length, unsatisfiable.headers().firstValue("Content-Range").orElse(null));
+
+        HttpResponse<byte[]> changed = client.send(HttpRequest.newBuilder(uri).header("Range", "bytes=0-9")
+                .header("If-Range", "\"stale\"").GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, changed.statusCode());
+        assertArrayEquals(image, changed.body());
+    }
+
+    @Test
+    public void testKeepAlivePipelinedRequests() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /app/hello?name=uno HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /app/hello?name=dos HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            assertEquals("Hola, uno", readResponseBody(in, "keep-alive"));
+            assertEquals("Hola, dos", readResponseBody(in, "keep-alive"));
+
+            out.write("GET /app/hello?name=tres HTTP/1.1\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            assertEquals("Hola, tres", readResponseBody(in, "close"));
+            assertEquals(-1, in.read(), "The server should close the connection after Connection: close");
+        }
+    }
+
+    @Test
+    public void testStreamedResponseIsChunked() throws IOException {
+        String expected = "Pi con 100000 decimales: " + new PiEngine().pi(100_000);
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /app/pi/stream?decimals=100000 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /app/hello?name=fin HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            assertEquals("HTTP/1.1 200 OK", HttpLines.readLine(in));
+            Map<String, String> headers = HttpLines.readHeaders(in);
+            assertEquals("chunked", headers.get("transfer-encoding"));
+            assertEquals(null, headers.get("content-length"));
+            StringBuilder body = new StringBuilder();
+            int chunks = 0;
+            int size;
+            while ((size = Integer.parseInt(HttpLines.readLine(in), 16)) > 0) {
+                assertTrue(size <= ChunkedOutputStream.CHUNK_SIZE, "Chunk of " + size + " bytes");
+                body.append(new String(in.readNBytes(size), StandardCharsets.US_ASCII));
+                assertEquals("", HttpLines.readLine(in));
+                chunks++;
+            }
+            assertEquals("", HttpLines.readLine(in));
+            assertTrue(chunks > 1);
+            assertEquals(expected, body.toString());
+            assertEquals("Hola, fin", readResponseBody(in, "keep-alive"));
+        }
+
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write("GET /app/pi/stream?decimals=20 HTTP/1.0\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            assertEquals("HTTP/1.1 200 OK", HttpLines.readLine(in));
+            Map<String, String> headers = HttpLines.readHeaders(in);
+            assertEquals(null, headers.get("transfer-encoding"));
+            assertEquals("close", headers.get("connection"));
+            assertEquals("Pi con 20 decimales: " + new PiEngine().pi(20),
+                    new String(in.readAllBytes(), StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void testDecodedQueryAndMalformedRequest() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /app/hello?name=Jos%C3%A9+Luis HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /app/hello?name=x HTTP/1.1\r\nHost : localhost\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            assertEquals("Hola, José Luis", readResponseBody(in, "keep-alive"));
+            assertEquals("HTTP/1.1 400 Bad Request", HttpLines.readLine(in));
+            assertEquals("close", HttpLines.readHeaders(in).get("connection"));
+        }
+    }
+
+    @Test
+    public void testPostMappingBodies() throws IOException, InterruptedException, URISyntaxException {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest post = HttpRequest.newBuilder()
+                .uri(new URI(serverUrl + "/app/echo"))
+                .POST(HttpRequest.BodyPublishers.ofString("¡hola!"))
+                .build();
+        HttpResponse<String> response = client.send(post, HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertEquals("¡hola!", response.body());
+
+        HttpRequest get = HttpRequest.newBuilder()
+                .uri(new URI(serverUrl + "/app/echo"))
+                .GET()
+                .build();
+        assertEquals(405, client.send(get, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    @Test
+    public void testChunkedPostThenPipelinedRequest() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /app/echo/length HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n"
+                    + "5;note=x\r\nhello\r\n"
+                    + "6\r\n world\r\n"
+                    + "0\r\nX-Checksum: 1\r\n\r\n"
+                    + "POST /app/echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 4\r\n\r\nbody"
+                    + "GET /app/hello?name=fin HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            assertEquals("11", readResponseBody(in, "keep-alive"));
+            assertEquals("body", readResponseBody(in, "keep-alive"));
+            assertEquals("Hola, fin", readResponseBody(in, "keep-alive"));
+        }
+    }
+
+    @Test
+    public void testOversizedBodyIsRejected() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write("POST /app/echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 2000000\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            assertEquals("HTTP/1.1 413 Payload Too Large", HttpLines.readLine(in));
+            assertEquals("close", HttpLines.readHeaders(in).get("connection"));
+        }
+    }
+
+    @Test
+    public void testMetricsEndpoint() throws IOException, InterruptedException, URISyntaxException {
+        HttpClient client = HttpClient.newHttpClient();
+        client.send(HttpRequest.newBuilder().uri(new URI(serverUrl + "/app/hello/metrics")).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        HttpResponse<String> response = client.send(
+                HttpRequest.newBuilder().uri(new URI(serverUrl + "/app/_metrics")).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertEquals(Metrics.CONTENT_TYPE, response.headers().firstValue("Content-Type").orElse(""));
+        String text = response.body();
+        assertTrue(text.contains("arep_requests_total{method=\"GET\",route=\"/app/hello/{name}\",status=\"2xx\"}"), text);
+        assertTrue(text.contains("arep_request_duration_seconds_count{method=\"GET\",route=\"/app/hello/{name}\"}"), text);
+        assertTrue(text.contains("\narep_open_connections "), text);
+        assertTrue(text.contains("\narep_static_cache_hits_total "), text);
+        assertTrue(text.contains("\narep_executor_queued_tasks "), text);
+        assertTrue(text.contains("\narep_buffer_pool_direct_acquired_total "), text);
+    }
+
+    @Test
+    public void testConnectionBuffersAreReused() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            requestOnNewConnection();
+        }
+        long acquired = BufferPool.DIRECT.acquired() + BufferPool.HEAP.acquired();
+        long allocated = BufferPool.DIRECT.allocated() + BufferPool.HEAP.allocated();
+        int connections = 50;
+        for (int i = 0; i < connections; i++) {
+            requestOnNewConnection();
+        }
+        assertTrue(BufferPool.DIRECT.acquired() + BufferPool.HEAP.acquired() - acquired >= connections);
+        long newBuffers = BufferPool.DIRECT.allocated() + BufferPool.HEAP.allocated() - allocated;
+        assertTrue(newBuffers < connections / 2, newBuffers + " buffers allocated for " + connections + " connections");
+    }
+
+    @Test
+    public void testClientsOverTheRateLimitAreToldToRetry() throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest hello = HttpRequest.newBuilder().uri(new URI(serverUrl + "/app/hello?name=limited")).GET().build();
+        SimpleWebServer.clientRateLimit = new RateLimiter(0.5, 2);
+        try {
+            for (int i = 0; i < 2; i++) {
+                assertEquals(200, client.send(hello, HttpResponse.BodyHandlers.ofString()).statusCode());
+            }
+            HttpResponse<String> limited = client.send(hello, HttpResponse.BodyHandlers.ofString());
+            assertEquals(429, limited.statusCode());
+            long retryAfter = Long.parseLong(limited.headers().firstValue("Retry-After").orElseThrow());
+            assertTrue(retryAfter >= 1 && retryAfter <= 2, "Retry-After: " + retryAfter);
+
+            HttpResponse<String> page = client.send(HttpRequest.newBuilder().uri(new URI(serverUrl + "/index.html")).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, page.statusCode(), "Static files are not rate limited");
+        } finally {
+            SimpleWebServer.clientRateLimit = null;
+        }
+        HttpResponse<String> metrics = client.send(HttpRequest.newBuilder().uri(new URI(serverUrl + Metrics.PATH)).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertTrue(metrics.body().contains("\narep_rate_limited_total "), metrics.body());
+    }
+
+    private static void requestOnNewConnection() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write("GET /app/hello?name=pool HTTP/1.1\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+            assertTrue(response.endsWith("Hola, pool"), response);
+        }
+    }
+
+    @Test
+    public void testHttp2UpgradeMultiplexesAPageLoad() throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        HttpResponse<byte[]> page = client.send(HttpRequest.newBuilder().uri(new URI(serverUrl + "/index.html")).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(HttpClient.Version.HTTP_2, page.version());
+        assertEquals(200, page.statusCode());
+        assertArrayEquals(Files.readAllBytes(Paths.get(SimpleWebServer.WEB_ROOT, "index.html")), page.body());
+
+        // The rest of the page load is multiplexed over the upgraded connection.
+        List<CompletableFuture<HttpResponse<byte[]>>> resources = new ArrayList<>();
+        for (String resource : new String[] {"/style.css", "/spiderman.jpg"}) {
+            resources.add(client.sendAsync(HttpRequest.newBuilder().uri(new URI(serverUrl + resource)).GET().build(),
+                    HttpResponse.BodyHandlers.ofByteArray()));
+        }
+        CompletableFuture<HttpResponse<String>> hello = client.sendAsync(HttpRequest.newBuilder()
+                .uri(new URI(serverUrl + "/app/hello/h2")).GET().build(), HttpResponse.BodyHandlers.ofString());
+        CompletableFuture<HttpResponse<String>> stream = client.sendAsync(HttpRequest.newBuilder()
+                .uri(new URI(serverUrl + "/app/pi/stream?decimals=100000")).GET().build(), HttpResponse.BodyHandlers.ofString());
+        CompletableFuture<HttpResponse<String>> echo = client.sendAsync(HttpRequest.newBuilder()
+                .uri(new URI(serverUrl + "/app/echo")).POST(HttpRequest.BodyPublishers.ofString("¡hola h2!")).build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertArrayEquals(Files.readAllBytes(Paths.get(SimpleWebServer.WEB_ROOT, "style.css")), resources.get(0).get().body());
+        HttpResponse<byte[]> image = resources.get(1).get();
+        assertEquals(HttpClient.Version.HTTP_2, image.version());
+        assertEquals("image/jpeg", image.headers().firstValue("content-type").orElse(null));
+        assertArrayEquals(Files.readAllBytes(Paths.get(SimpleWebServer.WEB_ROOT, "spiderman.jpg")), image.body());
+        assertEquals("Hola, h2", hello.get().body());
+        assertEquals("Pi con 100000 decimales: " + new PiEngine().pi(100_000), stream.get().body());
+        assertEquals(HttpClient.Version.HTTP_2, echo.get().version());
+        assertEquals("¡hola h2!", echo.get().body());
+    }
+
+    @Test
+    public void testHttp2WithPriorKnowledge() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            Hpack.Encoder encoder = new Hpack.Encoder();
+            out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            writeFrame(out, Http2Connection.SETTINGS, 0, 0, new byte[0]);
+            writeFrame(out, Http2Connection.HEADERS, Http2Connection.FLAG_END_HEADERS | Http2Connection.FLAG_END_STREAM, 1,
+                    requestBlock(encoder, "/app/hello?name=uno"));
+            writeFrame(out, Http2Connection.HEADERS, Http2Connection.FLAG_END_HEADERS | Http2Connection.FLAG_END_STREAM, 3,
+                    requestBlock(encoder, "/style.css"));
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+            Map<Integer, List<String>> heads = new HashMap<>();
+            Map<Integer, ByteArrayOutputStream> bodies = new HashMap<>();
+            Set<Integer> ended = new HashSet<>();
+            boolean settingsAcked = false;
+            while (ended.size() < 2) {
+                int length = in.readUnsignedShort() << 8 | in.readUnsignedByte();
+                int type = in.readUnsignedByte();
+                int flags = in.readUnsignedByte();
+                int streamId = in.readInt() & 0x7fffffff;
+                byte[] payload = in.readNBytes(length);
+                if (type == Http2Connection.SETTINGS) {
+                    settingsAcked |= (flags & Http2Connection.FLAG_ACK) != 0;
+                } else if (type == Http2Connection.HEADERS) {
+                    List<String> fields = new ArrayList<>();
+                    decoder.decode(ByteBuffer.wrap(payload), (name, value) -> fields.add(name + ": " + value));
+                    heads.put(streamId, fields);
+                } else if (type == Http2Connection.DATA) {
+                    bodies.computeIfAbsent(streamId, id -> new ByteArrayOutputStream()).write(payload);
+                }
+                if ((type == Http2Connection.HEADERS || type == Http2Connection.DATA)
+                        && (flags & Http2Connection.FLAG_END_STREAM) != 0) {
+                    ended.add(streamId);
+                }
+            }
+            assertTrue(settingsAcked);
+            assertEquals(":status: 200", heads.get(1).get(0));
+            assertTrue(heads.get(3).contains("content-type: text/css"), heads.get(3).toString());
+            assertTrue(heads.get(3).stream().noneMatch(field -> field.startsWith("connection")), heads.get(3).toString());
+            assertEquals("Hola, uno", bodies.get(1).toString(StandardCharsets.UTF_8));
+            assertArrayEquals(Files.readAllBytes(Paths.get(SimpleWebServer.WEB_ROOT, "style.css")), bodies.get(3).toByteArray());
+        }
+    }
+
+    @Test
+    public void testHttp2HeaderBlockRepeatingATableEntryIsRefusedQuickly() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            writeFrame(out, Http2Connection.SETTINGS, 0, 0, new byte[0]);
+            // One 4000-byte field added to the dynamic table, then referenced 4000 times by index 62.
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            block.write(requestBlock(new Hpack.Encoder(), "/app/hello"));
+            block.write(0x40);
+            Hpack.writeString(block, "x-filler");
+            Hpack.writeString(block, "a".repeat(4000));
+            for (int i = 0; i < 4000; i++) {
+                block.write(0x80 | 62);
+            }
+            long start = System.nanoTime();
+            writeFrame(out, Http2Connection.HEADERS, Http2Connection.FLAG_END_HEADERS | Http2Connection.FLAG_END_STREAM, 1,
+                    block.toByteArray());
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+            List<String> head = null;
+            while (head == null) {
+                int length = in.readUnsignedShort() << 8 | in.readUnsignedByte();
+                int type = in.readUnsignedByte();
+                in.readUnsignedByte();
+                int streamId = in.readInt() & 0x7fffffff;
+                byte[] payload = in.readNBytes(length);
+                if (type == Http2Connection.HEADERS && streamId == 1) {
+                    List<String> fields = new ArrayList<>();
+                    decoder.decode(ByteBuffer.wrap(payload), (name, value) -> fields.add(name + ": " + value));
+                    head = fields;
+                }
+            }
+            assertEquals(":status: 431", head.get(0));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), "The block should be refused at once");
+        }
+    }
+
+    private static byte[] requestBlock(Hpack.Encoder encoder, String path) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        encoder.startBlock(block);
+        encoder.encode(block, ":method", "GET");
+        encoder.encode(block, ":scheme", "http");
+        encoder.encode(block, ":authority", "localhost");
+        encoder.encode(block, ":path", path);
+        return block.toByteArray();
+    }
+
+    private static void writeFrame(OutputStream out, int type, int flags, int streamId, byte[] payload) throws IOException {
+        DataOutputStream frame = new DataOutputStream(out);
+        frame.writeShort(payload.length >>> 8);
+        frame.writeByte(payload.length);
+        frame.writeByte(type);
+        frame.writeByte(flags);
+        frame.writeInt(streamId);
+        frame.write(payload);
+    }
+
+    private static String readResponseBody(InputStream in, String expectedConnection) throws IOException {
+        assertEquals("HTTP/1.1 200 OK", HttpLines.readLine(in));
+        Map<String, String> headers = HttpLines.readHeaders(in);
+        assertEquals(expectedConnection, headers.get("connection"));
+        byte[] body = in.readNBytes(Integer.parseInt(headers.get("content-length")));
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testFailingHandlerStillAnswersAndCloses() throws Exception {
+        StaticResourceCache resources = SimpleWebServer.staticResources;
+        SimpleWebServer.staticResources = null;
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            // readAllBytes only returns once the server has closed the connection.
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+            assertTrue(response.startsWith("HTTP/1.1 500 Internal Server Error\r\n"), response);
+            assertTrue(response.contains("Connection: close\r\n"), response);
+        } finally {
+            SimpleWebServer.staticResources = resources;
+        }
+    }
 }
@@ -0,0 +1,166 @@
+package edu.escuelaing.arep;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StaticResourceCacheTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    public void testHitsAndMisses() throws IOException {
+        Files.write(root.resolve("index.html"), "<html></html>".getBytes(StandardCharsets.UTF_8));
+        StaticResourceCache cache = new StaticResourceCache(root, 1024);
+
+        StaticResourceCache.Resource first = cache.get("/index.html");
+        StaticResourceCache.Resource second = cache.get("/index.html");
+
+        assertNotNull(first);
+        assertSame(first, second);
+        assertEquals("text/html", first.contentType);
+        assertEquals("<html></html>", contents(first));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertNull(cache.get("/missing.html"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedWhenFull() throws IOException {
+        for (String name : new String[]{"a.png", "b.png", "c.png"}) {
+            Files.write(root.resolve(name), new byte[400]);
+        }
+        StaticResourceCache cache = new StaticResourceCache(root, 1000);
+
+        cache.get("/a.png");
+        cache.get("/b.png");
+        cache.get("/a.png");
+        cache.get("/c.png");
+
+        assertEquals(1, cache.evictions());
+        assertEquals(2, cache.size());
+        assertEquals(800, cache.totalBytes());
+        long misses = cache.misses();
+        cache.get("/a.png");
+        assertEquals(misses, cache.misses(), "The recently used entry should have been kept");
+    }
+
+    @Test
+    public void testRejectsPathsOutsideRoot() throws IOException {
+        StaticResourceCache cache = new StaticResourceCache(root.resolve("www"), 1024);
+
+        assertNull(cache.resolve("/../secret.txt"));
+        assertNull(cache.get("/../secret.txt"));
+    }
+
+    @Test
+    public void testLastModifiedIsAnImfFixdate() throws IOException {
+        Path file = root.resolve("index.html");
+        Files.write(file, "<html></html>".getBytes(StandardCharsets.UTF_8));
+        Instant modified = Instant.parse("2024-09-03T02:58:15Z");
+        Files.setLastModifiedTime(file, FileTime.from(modified));
+        StaticResourceCache cache = new StaticResourceCache(root, 1024);
+
+        String headers = new String(cache.get("/index.html").identity.headers, StandardCharsets.US_ASCII);
+        assertTrue(headers.contains("Last-Modified: Tue, 03 Sep 2024 02:58:15 GMT\r\n"), headers);
+        assertEquals(modified, Instant.from(StaticResourceCache.HTTP_DATE_PARSER.parse("Tue, 3 Sep 2024 02:58:15 GMT")),
+                "Clients may still send a one-digit day");
+    }
+
+    @Test
+    public void testFileChangedDuringALoadIsNotKept() throws IOException {
+        Path file = root.resolve("page.html");
+        Files.write(file, "old".getBytes(StandardCharsets.UTF_8));
+        StaticResourceCache cache = new StaticResourceCache(root, 1024);
+
+        // A request reads the generation and loads the file; the file is saved and invalidated before it is cached.
+        long generation = cache.generation();
+        StaticResourceCache.Resource loaded = new StaticResourceCache(root, 1024).get("/page.html");
+        Files.write(file, "new".getBytes(StandardCharsets.UTF_8));
+        cache.invalidate(file);
+        assertSame(loaded, cache.cache("/page.html", loaded, generation), "The request is still answered");
+        assertEquals(0, cache.size(), "The stale content should not be cached");
+        assertEquals(0, cache.totalBytes());
+
+        assertEquals("new", contents(cache.get("/page.html")));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testInvalidFileNamesAreNotFound() throws IOException {
+        StaticResourceCache cache = new StaticResourceCache(root, 1024);
+
+        assertNull(cache.resolve("/index\u0000.html"));
+        assertNull(cache.get("/index\u0000.html"));
+    }
+
+    @Test
+    public void testWatcherInvalidatesModifiedFiles() throws IOException, InterruptedException {
+        Path file = root.resolve("style.css");
+        Files.write(file, "body {}".getBytes(StandardCharsets.UTF_8));
+        StaticResourceCache cache = new StaticResourceCache(root, 1024);
+        cache.watch();
+        StaticResourceCache.Resource original = cache.get("/style.css");
+
+        Files.write(file, "body { color: red; }".getBytes(StandardCharsets.UTF_8));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (cache.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        StaticResourceCache.Resource updated = cache.get("/style.css");
+        assertNotSame(original, updated);
+        assertEquals("body { color: red; }", contents(updated));
+        assertTrue(cache.misses() >= 2);
+    }
+
+    @Test
+    public void testSelectsCompressedVariants() throws IOException {
+        String css = "body { margin: 0; padding: 0; }\n".repeat(40);
+        Files.write(root.resolve("style.css"), css.getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("style.css.br"), new byte[]{1, 2, 3});
+        StaticResourceCache cache = new StaticResourceCache(root, 1 << 20);
+
+        StaticResourceCache.Resource resource = cache.get("/style.css");
+
+        assertSame(resource.identity, resource.select(null));
+        assertSame(resource.gzip, resource.select("gzip, deflate"));
+        assertSame(resource.brotli, resource.select("gzip, deflate, br"));
+        assertSame(resource.gzip, resource.select("br;q=0, *"));
+        assertSame(resource.identity, resource.select("gzip;q=0"));
+        assertNotEquals(resource.identity.etag, resource.gzip.etag);
+
+        ByteBuffer compressed = resource.gzip.data();
+        byte[] bytes = new byte[compressed.remaining()];
+        compressed.get(bytes);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            assertEquals(css, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String contents(StaticResourceCache.Resource resource) {
+        ByteBuffer data = resource.identity.data();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}